@@ -0,0 +1,152 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching hosts against an ad-block like rule list, done once for each new connection. The
+ * rules are 70% domains, 10% wildcard domains, 15% IPv4 addresses and CIDRs and 5% IPv6 CIDRs.
+ * Half of the queried hosts match a rule. The baseline is the linear scan with equals which the
+ * compiled matcher replaced.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 17:55
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class HostMatcherBenchmark {
+
+    private static final int QUERY_COUNT = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int ruleCount;
+
+    private List<String> mRules;
+    private HostMatcher mMatcher;
+
+    private String[] mDomains;
+    private int[] mIpv4Addresses;
+    private InetAddress[] mIpv6Addresses;
+    private int mIndex;
+
+    @Setup
+    public void setup() throws UnknownHostException {
+        Random random = new Random(7);
+        mRules = new ArrayList<>(ruleCount);
+        List<String> domainHits = new ArrayList<>();
+        List<Integer> ipv4Hits = new ArrayList<>();
+        List<String> ipv6Hits = new ArrayList<>();
+        for (int i = 0; i < ruleCount; i++) {
+            int kind = i % 20;
+            if (kind < 14) {
+                String domain = "ads" + i + ".tracker" + (i % 5000) + ".com";
+                mRules.add(domain);
+                domainHits.add(domain);
+            } else if (kind < 16) {
+                mRules.add("*.cdn" + i + ".net");
+                domainHits.add("img" + (i % 10) + ".cdn" + i + ".net");
+            } else if (kind < 19) {
+                int ip = random.nextInt();
+                if (kind == 18) {
+                    mRules.add(ip(ip & 0xFFFFFF00) + "/24");
+                } else {
+                    mRules.add(ip(ip));
+                }
+                ipv4Hits.add(ip);
+            } else {
+                String prefix = "2001:db8:" + Integer.toHexString(i & 0xFFFF) + ":"
+                        + Integer.toHexString(i >>> 16);
+                mRules.add(prefix + "::/64");
+                ipv6Hits.add(prefix + "::1");
+            }
+        }
+        mMatcher = HostMatcher.compile(mRules);
+
+        mDomains = new String[QUERY_COUNT];
+        mIpv4Addresses = new int[QUERY_COUNT];
+        mIpv6Addresses = new InetAddress[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            boolean hit = (i & 1) == 0;
+            mDomains[i] = hit ? domainHits.get(random.nextInt(domainHits.size()))
+                    : "www.site" + random.nextInt(1000000) + ".com";
+            mIpv4Addresses[i] = hit ? ipv4Hits.get(random.nextInt(ipv4Hits.size()))
+                    : random.nextInt();
+            mIpv6Addresses[i] = InetAddress.getByName(hit
+                    ? ipv6Hits.get(random.nextInt(ipv6Hits.size()))
+                    : "2001:db9::" + Integer.toHexString(random.nextInt(0xFFFF)));
+        }
+    }
+
+    @Benchmark
+    public boolean matchesDomain() {
+        return mMatcher.matchesDomain(mDomains[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean matchesIpv4() {
+        return mMatcher.matchesIp(mIpv4Addresses[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean matchesIpv6() {
+        return mMatcher.matchesIp(mIpv6Addresses[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean linearScanDomain() {
+        String domain = mDomains[nextIndex()];
+        for (String rule : mRules) {
+            if (rule.equals(domain)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int nextIndex() {
+        int index = mIndex;
+        mIndex = (index + 1) & (QUERY_COUNT - 1);
+        return index;
+    }
+
+    private static String ip(int ip) {
+        return (ip >>> 24) + "." + (ip >>> 16 & 0xFF) + "." + (ip >>> 8 & 0xFF) + "."
+                + (ip & 0xFF);
+    }
+
+}
@@ -0,0 +1,76 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare;
+
+import android.support.annotation.NonNull;
+
+import com.github.megatronking.netbare.loopback.LoopbackVpn;
+
+/**
+ * Runs the NetBare thread with a {@link LoopbackVpn} instead of the Android VPN service, the whole
+ * data path from the packets transfer to the remote servers runs on a plain JVM.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 14:20
+ */
+public final class LoopbackNetBare {
+
+    private final LoopbackVpn mVpn;
+    private final NetBareThread mThread;
+
+    /**
+     * Start NetBare with a configuration, the mtu and addresses are used by the loopback
+     * VPN.
+     *
+     * @param config The configuration for NetBare.
+     * @return The running loopback NetBare.
+     */
+    @NonNull
+    public static LoopbackNetBare start(@NonNull NetBareConfig config) {
+        NetBare.get().applyConfig(config);
+        LoopbackNetBare netBare = new LoopbackNetBare(config);
+        netBare.mThread.start();
+        return netBare;
+    }
+
+    private LoopbackNetBare(NetBareConfig config) {
+        this.mVpn = new LoopbackVpn(config.address.address,
+                config.address6 != null ? config.address6.address : null, config.mtu);
+        this.mThread = new NetBareThread(mVpn, config);
+    }
+
+    /**
+     * The loopback VPN to open virtual sockets.
+     *
+     * @return The loopback VPN.
+     */
+    @NonNull
+    public LoopbackVpn vpn() {
+        return mVpn;
+    }
+
+    /**
+     * Stop NetBare and wait until the thread is terminated.
+     *
+     * @throws InterruptedException If the current thread is interrupted while waiting.
+     */
+    public void stop() throws InterruptedException {
+        mThread.interrupt();
+        mThread.join();
+        mVpn.close();
+    }
+
+}
@@ -0,0 +1,101 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.gateway;
+
+import android.support.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatching a packet through a chain of pass-through interceptors, it measures the chain's own
+ * cost: a new chain is created for every interceptor. The request has no tunnel, the final
+ * process is a no-op.
+ *
+ * @author Megatron King
+ * @since 2019-04-18 10:27
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorChainBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int interceptorCount;
+
+    private Request mRequest;
+    private List<Interceptor<Request, RequestChain, Response, ResponseChain>> mInterceptors;
+    private ByteBuffer mBuffer;
+
+    @Setup
+    public void setup() {
+        mRequest = new Request();
+        mInterceptors = new ArrayList<>(interceptorCount);
+        for (int i = 0; i < interceptorCount; i++) {
+            mInterceptors.add(new PassThroughInterceptor());
+        }
+        mBuffer = ByteBuffer.allocate(1400);
+    }
+
+    @Benchmark
+    public void dispatch() throws IOException {
+        new RequestChain(mRequest, mInterceptors).process(mBuffer.duplicate());
+    }
+
+    private static final class PassThroughInterceptor implements Interceptor<Request,
+            RequestChain, Response, ResponseChain> {
+
+        @Override
+        public void intercept(@NonNull RequestChain chain, @NonNull ByteBuffer buffer)
+                throws IOException {
+            chain.process(buffer);
+        }
+
+        @Override
+        public void intercept(@NonNull ResponseChain chain, @NonNull ByteBuffer buffer)
+                throws IOException {
+            chain.process(buffer);
+        }
+
+        @Override
+        public void onRequestFinished(@NonNull Request request) {
+        }
+
+        @Override
+        public void onResponseFinished(@NonNull Response response) {
+        }
+
+    }
+
+}
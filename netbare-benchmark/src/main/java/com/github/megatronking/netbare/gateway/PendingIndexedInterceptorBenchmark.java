@@ -0,0 +1,88 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.gateway;
+
+import android.support.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pending packets until a header is complete and merging them with the last packet, as the HTTP
+ * header interceptors do for headers split into several packets.
+ *
+ * @author Megatron King
+ * @since 2019-04-18 10:29
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PendingIndexedInterceptorBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int pendingCount;
+
+    @Param({"64", "1400"})
+    public int packetSize;
+
+    private MergeInterceptor mInterceptor;
+    private ByteBuffer mPacket;
+
+    @Setup
+    public void setup() {
+        mInterceptor = new MergeInterceptor();
+        mPacket = ByteBuffer.allocate(packetSize);
+    }
+
+    @Benchmark
+    public ByteBuffer pendAndMerge() {
+        for (int i = 0; i < pendingCount; i++) {
+            mInterceptor.pendRequestBuffer(mPacket.duplicate());
+        }
+        return mInterceptor.mergeRequestBuffer(mPacket.duplicate());
+    }
+
+    private static final class MergeInterceptor extends PendingIndexedInterceptor<Request,
+            RequestChain, Response, ResponseChain> {
+
+        @Override
+        protected void intercept(@NonNull RequestChain chain, @NonNull ByteBuffer buffer,
+                                 int index) {
+        }
+
+        @Override
+        protected void intercept(@NonNull ResponseChain chain, @NonNull ByteBuffer buffer,
+                                 int index) {
+        }
+
+    }
+
+}
@@ -0,0 +1,125 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http;
+
+import com.github.megatronking.netbare.gateway.Request;
+import com.github.megatronking.netbare.gateway.Response;
+import com.github.megatronking.netbare.gateway.VirtualGateway;
+import com.github.megatronking.netbare.ip.Protocol;
+import com.github.megatronking.netbare.net.Session;
+import com.github.megatronking.netbare.net.SessionProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing HTTP/1.1 request and response headers by {@link HttpHeaderParseInterceptor}. The
+ * interceptor is reset after each invocation so every packet is parsed as a new header.
+ *
+ * @author Megatron King
+ * @since 2019-04-18 10:32
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpHeaderParseBenchmark {
+
+    private static final String REQUEST_HEADER = "GET /api/v1/users?page=2&size=20 HTTP/1.1\r\n"
+            + "Host: www.example.com\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Accept: application/json, text/plain, */*\r\n"
+            + "User-Agent: Mozilla/5.0 (Linux; Android 9; Pixel 2) AppleWebKit/537.36 "
+            + "(KHTML, like Gecko) Chrome/73.0.3683.90 Mobile Safari/537.36\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Accept-Language: zh-CN,zh;q=0.9,en;q=0.8\r\n"
+            + "Cookie: sid=8f14e45fceea167a5a36dedd4bea2543; theme=dark\r\n"
+            + "\r\n";
+
+    private static final String RESPONSE_HEADER = "HTTP/1.1 200 OK\r\n"
+            + "Server: nginx\r\n"
+            + "Date: Thu, 18 Apr 2019 02:32:00 GMT\r\n"
+            + "Content-Type: application/json; charset=utf-8\r\n"
+            + "Content-Length: 1024\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Set-Cookie: sid=8f14e45fceea167a5a36dedd4bea2543; Path=/; HttpOnly\r\n"
+            + "\r\n";
+
+    private HttpHeaderParseInterceptor mInterceptor;
+    private List<HttpInterceptor> mInterceptors;
+
+    private HttpZygoteRequest mZygoteRequest;
+    private HttpZygoteResponse mZygoteResponse;
+
+    private ByteBuffer mRequestBuffer;
+    private ByteBuffer mResponseBuffer;
+
+    @Setup
+    public void setup() {
+        Session session = new SessionProvider(null).ensureQuery(Protocol.TCP, (short) 30000,
+                (short) 80, 0x5DB8D822);
+        Request request = new Request();
+        Response response = new Response();
+        // Binds the session to both sides.
+        new VirtualGateway(session, request, response);
+
+        HttpSessionFactory sessionFactory = new HttpSessionFactory();
+        mZygoteRequest = new HttpZygoteRequest(request, sessionFactory);
+        mZygoteResponse = new HttpZygoteResponse(response, sessionFactory);
+
+        mInterceptor = new HttpHeaderParseInterceptor();
+        mInterceptors = Collections.<HttpInterceptor>singletonList(mInterceptor);
+
+        mRequestBuffer = ByteBuffer.wrap(REQUEST_HEADER.getBytes());
+        mResponseBuffer = ByteBuffer.wrap(RESPONSE_HEADER.getBytes());
+    }
+
+    @Benchmark
+    public HttpSession parseRequestHeader() throws IOException {
+        HttpSession session = mZygoteRequest.session();
+        session.requestHeaders.clear();
+        new HttpRequestChain(mZygoteRequest, mInterceptors).process(mRequestBuffer.duplicate());
+        mInterceptor.onRequestFinished(mZygoteRequest);
+        return session;
+    }
+
+    @Benchmark
+    public HttpSession parseResponseHeader() throws IOException {
+        HttpSession session = mZygoteResponse.session();
+        session.responseHeaders.clear();
+        new HttpResponseChain(mZygoteResponse, mInterceptors).process(mResponseBuffer.duplicate());
+        mInterceptor.onResponseFinished(mZygoteResponse);
+        return session;
+    }
+
+}
@@ -0,0 +1,181 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import com.github.megatronking.netbare.http.HttpMethod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding request headers to a HPACK block and decoding a block to HTTP/1.1 style headers.
+ *
+ * The writer is reused, repeated header fields are encoded by the dynamic table like a long
+ * lived connection does. The decoded block is the first block of a connection, it doesn't
+ * reference nor change the reader's dynamic table so it can be decoded repeatedly.
+ *
+ * The corpus is the header block sequences of RFC 7541 Appendix C.3 to C.6, requests and
+ * responses with and without Huffman coding. Each sequence is decoded by a new reader since the
+ * blocks index the dynamic table built by the previous ones.
+ *
+ * @author Megatron King
+ * @since 2019-04-18 10:35
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HpackBenchmark {
+
+    private static final String[][] CORPUS = {
+            // C.3 Request Examples without Huffman Coding
+            {
+                    "828684410f7777772e6578616d706c652e636f6d",
+                    "828684be58086e6f2d6361636865",
+                    "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565",
+            },
+            // C.4 Request Examples with Huffman Coding
+            {
+                    "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+                    "828684be5886a8eb10649cbf",
+                    "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+            },
+            // C.5 Response Examples without Huffman Coding
+            {
+                    "4803333032580770726976617465611d4d6f6e2c203231204f637420323031332032303a3133"
+                            + "3a323120474d546e1768747470733a2f2f7777772e6578616d706c652e636f6d",
+                    "4803333037c1c0bf",
+                    "88c1611d4d6f6e2c203231204f637420323031332032303a31333a323220474d54c05a04677a"
+                            + "69707738666f6f3d4153444a4b48514b425a584f5157454f5049554158515745"
+                            + "4f49553b206d61782d6167653d333630303b2076657273696f6e3d31",
+            },
+            // C.6 Response Examples with Huffman Coding
+            {
+                    "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d"
+                            + "29ad171863c78f0b97c8e9ae82ae43d3",
+                    "4883640effc1c0bf",
+                    "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821d"
+                            + "d7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c0"
+                            + "03ed4ee5b1063d5007",
+            },
+    };
+
+    // The response examples use a 256 bytes dynamic table.
+    private static final int[] CORPUS_TABLE_SIZES = {4096, 4096, 256, 256};
+
+    private static final String PATH = "/api/v1/users?page=2&size=20";
+    private static final String HOST = "www.example.com";
+    private static final String SCHEME = "https";
+
+    private Map<String, List<String>> mHeaders;
+
+    private Hpack.Writer mWriter;
+    private Hpack.Reader mReader;
+    private ByteBuffer mBlock;
+    private DecodeCallback mCallback;
+
+    private ByteBuffer[][] mCorpus;
+
+    private ByteBuffer mResult;
+
+    @Setup
+    public void setup() throws IOException {
+        mHeaders = new LinkedHashMap<>();
+        mHeaders.put("accept", Collections.singletonList("application/json, text/plain, */*"));
+        mHeaders.put("user-agent", Collections.singletonList("Mozilla/5.0 (Linux; Android 9; "
+                + "Pixel 2) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/73.0.3683.90 Mobile "
+                + "Safari/537.36"));
+        mHeaders.put("accept-encoding", Collections.singletonList("gzip, deflate, br"));
+        mHeaders.put("accept-language", Collections.singletonList("zh-CN,zh;q=0.9,en;q=0.8"));
+        mHeaders.put("cookie", Collections.singletonList("sid=8f14e45fceea167a5a36dedd4bea2543"));
+
+        mWriter = new Hpack.Writer();
+        mReader = new Hpack.Reader();
+        mBlock = ByteBuffer.wrap(new Hpack.Writer().writeRequestHeaders(HttpMethod.GET, PATH,
+                HOST, SCHEME, mHeaders));
+        mCorpus = new ByteBuffer[CORPUS.length][];
+        for (int i = 0; i < CORPUS.length; i++) {
+            mCorpus[i] = new ByteBuffer[CORPUS[i].length];
+            for (int j = 0; j < CORPUS[i].length; j++) {
+                mCorpus[i][j] = ByteBuffer.wrap(hex(CORPUS[i][j]));
+            }
+        }
+        mCallback = new DecodeCallback() {
+
+            @Override
+            public void onResult(ByteBuffer buffer, boolean isFinished) {
+                mResult = buffer;
+            }
+
+            @Override
+            public void onSkip(ByteBuffer buffer) {
+            }
+
+        };
+    }
+
+    @Benchmark
+    public byte[] writeRequestHeaders() throws IOException {
+        return mWriter.writeRequestHeaders(HttpMethod.GET, PATH, HOST, SCHEME, mHeaders);
+    }
+
+    @Benchmark
+    public ByteBuffer readHeaders() throws IOException {
+        mReader.readHeaders(mBlock.duplicate(), Http2.FLAG_END_HEADERS, mCallback);
+        return mResult;
+    }
+
+    @Benchmark
+    public int readCorpus() throws IOException {
+        int length = 0;
+        for (int i = 0; i < mCorpus.length; i++) {
+            Hpack.Reader reader = new Hpack.Reader();
+            reader.setHeaderTableSizeSetting(CORPUS_TABLE_SIZES[i]);
+            for (ByteBuffer block : mCorpus[i]) {
+                reader.readHeaders(block.duplicate(), Http2.FLAG_END_HEADERS, mCallback);
+                length += mResult.remaining();
+            }
+        }
+        return length;
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-encoding a decoded body into HTTP2 DATA frames. The batched encoder writes all frames into
+ * one buffer for one chain call, the per-frame encoder is the former way: the body is copied out
+ * and every frame is built by a stream with a new header array and sent by its own chain call.
+ * The chain call is a black hole here. Multiply the operations per second by the body size to
+ * get the MB/s.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 16:05
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Http2DataFrameBenchmark {
+
+    private static final int STREAM_ID = 1;
+
+    @Param({"1400", "16384", "262144"})
+    public int bodySize;
+
+    private ByteBuffer mBody;
+
+    @Setup
+    public void setup() {
+        byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'a');
+        mBody = ByteBuffer.wrap(body);
+    }
+
+    @Benchmark
+    public void batched(Blackhole blackhole) {
+        ByteBuffer body = mBody.duplicate();
+        blackhole.consume(Http2.dataFrames(body, body.remaining(), STREAM_ID, false,
+                Http2.INITIAL_MAX_FRAME_SIZE));
+    }
+
+    @Benchmark
+    public void perFrame(Blackhole blackhole) throws IOException {
+        ByteBuffer body = mBody.duplicate();
+        byte[] data = Arrays.copyOfRange(body.array(), body.position(), body.limit());
+        int byteCount = data.length;
+        int offset = 0;
+        while (byteCount > 0) {
+            int length = Math.min(Http2.INITIAL_MAX_FRAME_SIZE, byteCount);
+            byteCount -= length;
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            os.write(frameHeader(length));
+            os.write(data, offset, length);
+            offset += length;
+            blackhole.consume(ByteBuffer.wrap(os.toByteArray()));
+        }
+    }
+
+    private static byte[] frameHeader(int length) {
+        ByteBuffer header = ByteBuffer.allocate(Http2.FRAME_HEADER_LENGTH);
+        Http2.writeFrameHeader(header, STREAM_ID, length, FrameType.DATA.get(), Http2.FLAG_NONE);
+        return header.array();
+    }
+
+}
@@ -0,0 +1,144 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the frames of a HTTP2 connection which arrive in fragments. The frames are 64 streams
+ * of a HEADERS frame, a HEADERS frame followed by a CONTINUATION frame every 4 streams, DATA
+ * frames of different sizes and a WINDOW_UPDATE frame, about 1.1 MB in total. The fragment
+ * boundaries are random but seeded: "whole" is one buffer, "mss" is 1 to 2800 bytes like TCP
+ * segments and TLS records, "tiny" is 1 to 32 bytes which splits most frame headers. Multiply
+ * the operations per second by {@link #sTotalSize} to get the MB/s.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 17:45
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Http2FrameParserBenchmark {
+
+    private static final int STREAM_COUNT = 64;
+    private static final int HEADER_BLOCK_SIZE = 120;
+    private static final int[] DATA_SIZES = {16384, 1, 1000, 100};
+
+    @Param({"whole", "mss", "tiny"})
+    public String fragment;
+
+    private static int sTotalSize;
+
+    private ByteBuffer[] mFragments;
+    private Http2FrameParser mParser;
+    private Http2FrameParser.Callback mCallback;
+
+    private int mFrameLength;
+
+    @Setup
+    public void setup() {
+        byte[] frames = frames();
+        sTotalSize = frames.length;
+        Random random = new Random(7);
+        List<ByteBuffer> fragments = new ArrayList<>();
+        int offset = 0;
+        while (offset < frames.length) {
+            int length;
+            if ("mss".equals(fragment)) {
+                length = 1 + random.nextInt(2800);
+            } else if ("tiny".equals(fragment)) {
+                length = 1 + random.nextInt(32);
+            } else {
+                length = frames.length;
+            }
+            length = Math.min(length, frames.length - offset);
+            fragments.add(ByteBuffer.wrap(frames, offset, length));
+            offset += length;
+        }
+        mFragments = fragments.toArray(new ByteBuffer[0]);
+        mParser = new Http2FrameParser();
+        mCallback = new Http2FrameParser.Callback() {
+            @Override
+            public void onFrame(Http2FrameParser.Frame frame) {
+                mFrameLength += frame.length;
+            }
+        };
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        mFrameLength = 0;
+        for (ByteBuffer fragment : mFragments) {
+            mParser.parse(fragment.duplicate(), mCallback);
+        }
+        return mFrameLength;
+    }
+
+    private static byte[] frames() {
+        int size = 0;
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            size += Http2.FRAME_HEADER_LENGTH + HEADER_BLOCK_SIZE;
+            if (i % 4 == 0) {
+                size += Http2.FRAME_HEADER_LENGTH + HEADER_BLOCK_SIZE;
+            }
+            for (int dataSize : DATA_SIZES) {
+                size += Http2.FRAME_HEADER_LENGTH + dataSize;
+            }
+            size += Http2.FRAME_HEADER_LENGTH + 4;
+        }
+        ByteBuffer output = ByteBuffer.allocate(size);
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            int streamId = i * 2 + 1;
+            boolean continued = i % 4 == 0;
+            Http2.writeFrameHeader(output, streamId, HEADER_BLOCK_SIZE, FrameType.HEADERS.get(),
+                    continued ? Http2.FLAG_NONE : Http2.FLAG_END_HEADERS);
+            output.position(output.position() + HEADER_BLOCK_SIZE);
+            if (continued) {
+                Http2.writeFrameHeader(output, streamId, HEADER_BLOCK_SIZE,
+                        FrameType.CONTINUATION.get(), Http2.FLAG_END_HEADERS);
+                output.position(output.position() + HEADER_BLOCK_SIZE);
+            }
+            for (int j = 0; j < DATA_SIZES.length; j++) {
+                Http2.writeFrameHeader(output, streamId, DATA_SIZES[j], FrameType.DATA.get(),
+                        j == DATA_SIZES.length - 1 ? Http2.FLAG_END_STREAM : Http2.FLAG_NONE);
+                output.position(output.position() + DATA_SIZES[j]);
+            }
+            output.put(Http2.windowUpdateFrame(0, 65535));
+        }
+        return output.array();
+    }
+
+}
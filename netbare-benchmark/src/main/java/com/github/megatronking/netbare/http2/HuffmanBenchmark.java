@@ -0,0 +1,108 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Huffman coding of HPACK string literals, compared with the tree walking decoder and the
+ * string encoder of {@link TreeHuffman}.
+ *
+ * @author Megatron King
+ * @since 2019-04-18 10:37
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HuffmanBenchmark {
+
+    private static final String HOST = "www.example.com";
+    private static final String USER_AGENT = "Mozilla/5.0 (Linux; Android 9; Pixel 2) "
+            + "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/73.0.3683.90 Mobile Safari/537.36";
+
+    @Param({"host", "userAgent"})
+    public String value;
+
+    private Huffman mHuffman;
+    private TreeHuffman mTreeHuffman;
+    private String mString;
+    private byte[] mData;
+    private byte[] mEncoded;
+    private int mEncodedLength;
+    private byte[] mOut;
+
+    @Setup
+    public void setup() {
+        mHuffman = Huffman.get();
+        mTreeHuffman = new TreeHuffman();
+        mString = "host".equals(value) ? HOST : USER_AGENT;
+        mData = mString.getBytes();
+        mEncodedLength = mHuffman.encodedLength(mData);
+        mEncoded = new byte[mEncodedLength];
+        mHuffman.encode(mData, mEncoded, 0);
+        mOut = new byte[Math.max(mData.length, mEncodedLength * 8 / 5)];
+    }
+
+    @Benchmark
+    public int encodedLength() {
+        return mHuffman.encodedLength(mData);
+    }
+
+    @Benchmark
+    public int encode() {
+        return mHuffman.encode(mData, mOut, 0);
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        return mHuffman.decode(ByteBuffer.wrap(mEncoded), mEncodedLength, mOut);
+    }
+
+    @Benchmark
+    public int treeEncodedLength() {
+        return mTreeHuffman.encodedLength(mString);
+    }
+
+    @Benchmark
+    public ByteBuffer treeEncode() {
+        ByteBuffer out = ByteBuffer.wrap(mOut);
+        mTreeHuffman.encode(mString, out);
+        return out;
+    }
+
+    @Benchmark
+    public int treeDecode() {
+        return mTreeHuffman.decode(ByteBuffer.wrap(mEncoded), mEncodedLength, mOut);
+    }
+
+}
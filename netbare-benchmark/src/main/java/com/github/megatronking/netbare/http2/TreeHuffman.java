@@ -0,0 +1,149 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The Huffman coding before the lookup table, the decoder walks the code tree node by node and
+ * the encoder works on strings. It is the baseline of {@link HuffmanBenchmark}.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 17:30
+ */
+/* package */ final class TreeHuffman {
+
+    private final Node mRoot = new Node();
+
+    /* package */ TreeHuffman() {
+        for (int i = 0; i < Huffman.CODE_LENGTHS.length; i++) {
+            addCode(i, Huffman.CODES[i], Huffman.CODE_LENGTHS[i]);
+        }
+    }
+
+    /* package */ int decode(ByteBuffer buffer, int length, byte[] out) {
+        int size = 0;
+        Node node = mRoot;
+        int current = 0;
+        int nbits = 0;
+        for (int i = 0; i < length; i++) {
+            int b = buffer.get() & 0xFF;
+            current = (current << 8) | b;
+            nbits += 8;
+            while (nbits >= 8) {
+                int c = (current >>> (nbits - 8)) & 0xFF;
+                node = node.children[c];
+                if (node.children == null) {
+                    // terminal node
+                    out[size++] = (byte) node.symbol;
+                    nbits -= node.terminalBits;
+                    node = mRoot;
+                } else {
+                    // non-terminal node
+                    nbits -= 8;
+                }
+            }
+        }
+
+        while (nbits > 0) {
+            int c = (current << (8 - nbits)) & 0xFF;
+            node = node.children[c];
+            if (node.children != null || node.terminalBits > nbits) {
+                break;
+            }
+            out[size++] = (byte) node.symbol;
+            nbits -= node.terminalBits;
+            node = mRoot;
+        }
+        return size;
+    }
+
+    /* package */ void encode(String data, ByteBuffer out) {
+        long current = 0;
+        int n = 0;
+        for (byte bb : data.getBytes()) {
+            int b = bb & 0xFF;
+            int code = Huffman.CODES[b];
+            int nbits = Huffman.CODE_LENGTHS[b];
+
+            current <<= nbits;
+            current |= code;
+            n += nbits;
+
+            while (n >= 8) {
+                n -= 8;
+                out.put((byte) (current >> n));
+            }
+        }
+
+        if (n > 0) {
+            current <<= (8 - n);
+            current |= (0xFF >>> n);
+            out.put((byte) current);
+        }
+    }
+
+    /* package */ int encodedLength(String data) {
+        long len = 0;
+        for (byte bb : data.getBytes()) {
+            len += Huffman.CODE_LENGTHS[bb & 0xFF];
+        }
+        return (int) ((len + 7) >> 3);
+    }
+
+    private void addCode(int sym, int code, byte len) {
+        Node terminal = new Node(sym, len);
+
+        Node current = mRoot;
+        while (len > 8) {
+            len -= 8;
+            int i = ((code >>> len) & 0xFF);
+            if (current.children[i] == null) {
+                current.children[i] = new Node();
+            }
+            current = current.children[i];
+        }
+
+        int shift = 8 - len;
+        int start = (code << shift) & 0xFF;
+        int end = 1 << shift;
+        for (int i = start; i < start + end; i++) {
+            current.children[i] = terminal;
+        }
+    }
+
+    private static final class Node {
+
+        private final Node[] children;
+        private final int symbol;
+        private final int terminalBits;
+
+        private Node() {
+            this.children = new Node[256];
+            this.symbol = 0;
+            this.terminalBits = 0;
+        }
+
+        private Node(int symbol, int bits) {
+            this.children = null;
+            this.symbol = symbol;
+            int b = bits & 0x07;
+            this.terminalBits = b == 0 ? 8 : b;
+        }
+
+    }
+
+}
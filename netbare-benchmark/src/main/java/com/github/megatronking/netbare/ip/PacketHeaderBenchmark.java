@@ -0,0 +1,115 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the IPv4 and TCP headers of a packet read from the VPN, and recomputing the checksums
+ * before the packet is written back.
+ *
+ * @author Megatron King
+ * @since 2019-04-18 10:21
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketHeaderBenchmark {
+
+    private static final int IP_HEADER_LENGTH = 20;
+    private static final int TCP_HEADER_LENGTH = 20;
+
+    @Param({"0", "512", "1460"})
+    public int payloadSize;
+
+    private byte[] mPacket;
+    private IpHeader mIpHeader;
+    private TcpHeader mTcpHeader;
+
+    @Setup
+    public void setup() {
+        int totalLength = IP_HEADER_LENGTH + TCP_HEADER_LENGTH + payloadSize;
+        mPacket = new byte[totalLength];
+        // IPv4, IHL 5, total length, TTL 64, TCP, 10.1.10.1 -> 182.254.116.117
+        mPacket[0] = 0x45;
+        mPacket[2] = (byte) (totalLength >> 8);
+        mPacket[3] = (byte) totalLength;
+        mPacket[8] = 64;
+        mPacket[9] = Protocol.TCP.number;
+        putInt(mPacket, 12, 0x0A010A01);
+        putInt(mPacket, 16, 0xB6FE7475);
+        // Ports 40000 -> 443, seq, ack, data offset 5, ACK|PSH, window 65535
+        int tcp = IP_HEADER_LENGTH;
+        putInt(mPacket, tcp, (40000 << 16) | 443);
+        putInt(mPacket, tcp + 4, 0x12345678);
+        putInt(mPacket, tcp + 8, 0x9ABCDEF0);
+        mPacket[tcp + 12] = 0x50;
+        mPacket[tcp + 13] = 0x18;
+        mPacket[tcp + 14] = (byte) 0xFF;
+        mPacket[tcp + 15] = (byte) 0xFF;
+        byte[] payload = new byte[payloadSize];
+        new Random(0).nextBytes(payload);
+        System.arraycopy(payload, 0, mPacket, IP_HEADER_LENGTH + TCP_HEADER_LENGTH, payloadSize);
+
+        mIpHeader = new IpHeader(mPacket, 0);
+        mTcpHeader = new TcpHeader(mIpHeader, mPacket, mIpHeader.getHeaderLength());
+    }
+
+    @Benchmark
+    public int parse() {
+        IpHeader ipHeader = new IpHeader(mPacket, 0);
+        TcpHeader tcpHeader = new TcpHeader(ipHeader, mPacket, ipHeader.getHeaderLength());
+        return ipHeader.getSourceIp() ^ ipHeader.getDestinationIp() ^ tcpHeader.getSourcePort()
+                ^ tcpHeader.getDestinationPort() ^ tcpHeader.getFlag()
+                ^ (ipHeader.getDataLength() - tcpHeader.getHeaderLength());
+    }
+
+    @Benchmark
+    public short ipChecksum() {
+        mIpHeader.updateChecksum();
+        return mIpHeader.getCrc();
+    }
+
+    @Benchmark
+    public short tcpChecksum() {
+        mTcpHeader.updateChecksum();
+        return mTcpHeader.getCrc();
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+}
@@ -0,0 +1,183 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.loopback;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A stand-in DNS resolver for the loopback apps. Names like host7.loopback.test are resolved to
+ * 198.18.0.7, the other names get NXDOMAIN with a SOA record, so both positive and
+ * negative responses are cacheable. It binds 127.0.0.2 if possible, so its address is not shared
+ * with the echo servers.
+ *
+ * @author Megatron King
+ * @since 2019-04-20 16:02
+ */
+public final class LoopbackDnsServer implements Closeable {
+
+    private static final int FLAGS_ANSWER = 0x8180;
+    private static final int FLAGS_NXDOMAIN = 0x8183;
+    private static final int NEGATIVE_TTL = 60;
+
+    private static final Pattern HOST = Pattern.compile("host(\\d{1,5})\\..*");
+
+    private final DatagramSocket mSocket;
+    private final int mTtl;
+    private final AtomicLong mQueries;
+
+    private volatile boolean mClosed;
+
+    public LoopbackDnsServer(int ttl) throws IOException {
+        DatagramSocket socket;
+        try {
+            socket = new DatagramSocket(new InetSocketAddress(
+                    InetAddress.getByName("127.0.0.2"), 0));
+        } catch (SocketException e) {
+            socket = new DatagramSocket(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), 0));
+        }
+        this.mSocket = socket;
+        this.mTtl = ttl;
+        this.mQueries = new AtomicLong();
+    }
+
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "Loopback-DNS");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public InetSocketAddress address() {
+        return (InetSocketAddress) mSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * Returns the queries received so far.
+     *
+     * @return The query count.
+     */
+    public long queries() {
+        return mQueries.get();
+    }
+
+    /**
+     * Returns the address that a host name is resolved to.
+     *
+     * @param index The index in the host name.
+     * @return The IPv4 address.
+     */
+    public static int address(int index) {
+        return (198 << 24) | (18 << 16) | (index & 0xFFFF);
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        mSocket.close();
+    }
+
+    private void loop() {
+        byte[] buffer = new byte[1500];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!mClosed) {
+            try {
+                packet.setLength(buffer.length);
+                mSocket.receive(packet);
+                mQueries.incrementAndGet();
+                byte[] response = respond(buffer, packet.getLength());
+                if (response != null) {
+                    mSocket.send(new DatagramPacket(response, response.length,
+                            packet.getSocketAddress()));
+                }
+            } catch (IOException ignored) {
+                // Closed or the client is gone.
+            }
+        }
+    }
+
+    private byte[] respond(byte[] query, int length) {
+        // Header, then the name labels, type and class of the question.
+        int position = 12;
+        StringBuilder name = new StringBuilder();
+        while (position < length && query[position] != 0) {
+            int label = query[position] & 0xFF;
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            name.append(new String(query, position + 1, label, StandardCharsets.US_ASCII));
+            position += label + 1;
+        }
+        int questionEnd = position + 5;
+        if (questionEnd > length) {
+            return null;
+        }
+        Matcher matcher = HOST.matcher(name);
+        boolean nx = !matcher.matches();
+        byte[] response = new byte[questionEnd + (nx ? 34 : 16)];
+        System.arraycopy(query, 0, response, 0, questionEnd);
+        putShort(response, 2, nx ? FLAGS_NXDOMAIN : FLAGS_ANSWER);
+        putShort(response, 6, nx ? 0 : 1);
+        putShort(response, 8, nx ? 1 : 0);
+        putShort(response, 10, 0);
+        int offset = questionEnd;
+        // The record name is a pointer to the question name.
+        putShort(response, offset, 0xC00C);
+        if (nx) {
+            putShort(response, offset + 2, 6);
+            putShort(response, offset + 4, 1);
+            putInt(response, offset + 6, NEGATIVE_TTL);
+            putShort(response, offset + 10, 22);
+            // Root mname and rname, then serial, refresh, retry, expire and minimum.
+            putInt(response, offset + 30, NEGATIVE_TTL);
+        } else {
+            int index = Integer.parseInt(matcher.group(1));
+            putShort(response, offset + 2, 1);
+            putShort(response, offset + 4, 1);
+            putInt(response, offset + 6, mTtl);
+            putShort(response, offset + 10, 4);
+            putInt(response, offset + 12, address(index));
+        }
+        return response;
+    }
+
+    private static void putShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+}
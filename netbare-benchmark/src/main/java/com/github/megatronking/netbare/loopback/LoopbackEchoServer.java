@@ -0,0 +1,139 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.loopback;
+
+import com.github.megatronking.netbare.NetBareUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * TCP and UDP echo servers on a loopback address, 127.0.0.1 by default, they play the internet
+ * for the loopback apps.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 14:36
+ */
+public final class LoopbackEchoServer implements Closeable {
+
+    private final ServerSocket mTcpServer;
+    private final DatagramSocket mUdpServer;
+
+    private volatile boolean mClosed;
+
+    public LoopbackEchoServer() throws IOException {
+        this(InetAddress.getLoopbackAddress());
+    }
+
+    public LoopbackEchoServer(InetAddress loopback) throws IOException {
+        this.mTcpServer = new ServerSocket(0, 1024, loopback);
+        this.mUdpServer = new DatagramSocket(new InetSocketAddress(loopback, 0));
+    }
+
+    public void start() {
+        startThread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "Echo-TCP-Acceptor");
+        startThread(new Runnable() {
+            @Override
+            public void run() {
+                udpLoop();
+            }
+        }, "Echo-UDP");
+    }
+
+    public InetSocketAddress tcpAddress() {
+        return (InetSocketAddress) mTcpServer.getLocalSocketAddress();
+    }
+
+    public InetSocketAddress udpAddress() {
+        return (InetSocketAddress) mUdpServer.getLocalSocketAddress();
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        NetBareUtils.closeQuietly(mTcpServer);
+        mUdpServer.close();
+    }
+
+    private void acceptLoop() {
+        while (!mClosed) {
+            final Socket socket;
+            try {
+                socket = mTcpServer.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                continue;
+            }
+            startThread(new Runnable() {
+                @Override
+                public void run() {
+                    echo(socket);
+                }
+            }, "Echo-TCP-" + socket.getPort());
+        }
+    }
+
+    private void echo(Socket socket) {
+        byte[] buffer = new byte[16 * 1024];
+        try {
+            InputStream input = socket.getInputStream();
+            OutputStream output = socket.getOutputStream();
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+            socket.shutdownOutput();
+        } catch (IOException ignored) {
+            // The client is gone.
+        } finally {
+            NetBareUtils.closeQuietly(socket);
+        }
+    }
+
+    private void udpLoop() {
+        byte[] buffer = new byte[64 * 1024];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!mClosed) {
+            try {
+                packet.setLength(buffer.length);
+                mUdpServer.receive(packet);
+                mUdpServer.send(packet);
+            } catch (IOException ignored) {
+                // Closed or the client is gone.
+            }
+        }
+    }
+
+    private static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+}
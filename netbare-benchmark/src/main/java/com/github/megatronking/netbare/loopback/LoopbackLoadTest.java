@@ -0,0 +1,489 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.loopback;
+
+import android.support.annotation.NonNull;
+
+import com.github.megatronking.netbare.LoopbackNetBare;
+import com.github.megatronking.netbare.NetBare;
+import com.github.megatronking.netbare.NetBareConfig;
+import com.github.megatronking.netbare.gateway.DefaultVirtualGatewayFactory;
+import com.github.megatronking.netbare.gateway.Interceptor;
+import com.github.megatronking.netbare.gateway.InterceptorFactory;
+import com.github.megatronking.netbare.gateway.Request;
+import com.github.megatronking.netbare.gateway.RequestChain;
+import com.github.megatronking.netbare.gateway.Response;
+import com.github.megatronking.netbare.gateway.ResponseChain;
+import com.github.megatronking.netbare.ip.IpAddress;
+import com.github.megatronking.netbare.metrics.Histogram;
+import com.github.megatronking.netbare.metrics.MetricsSnapshot;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load tests of the whole data path on a plain JVM: the loopback apps send packets to the
+ * packets transfer, NetBare proxies them through the interceptors to the loopback echo servers and
+ * back. Options are passed as --key=value:
+ *
+ *  --scenario     throughput, latency, churn, udp, dns or all. Default is all.
+ *  --connections  Concurrent connections. Default is 8.
+ *  --duration     Seconds of each scenario. Default is 10.
+ *  --size         Bytes of each message, default is 16384 for throughput and 64 for the others.
+ *  --interceptors Pass-through interceptors in the virtual gateway. Default is 0.
+ *  --mtu          The VPN mtu. Default is 1500.
+ *  --names        Distinct host names looked up by the dns scenario. Default is 256.
+ *  --dns-cache    Whether NetBare handles and caches the DNS queries. Default is true.
+ *  --family       4, 6 or dual, the IP family of the tcp and udp scenarios, the dual stack
+ *                 connections alternate between IPv4 and IPv6. Default is 4.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 15:02
+ */
+public final class LoopbackLoadTest {
+
+    private static final String ADDRESS = "10.1.10.1";
+    private static final String ADDRESS6 = "fd00:1:fd00:1:fd00:1:fd00:1";
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final int DNS_TTL = 300;
+
+    private final int mConnections;
+    private final long mDurationMillis;
+    private final int mSize;
+    private final int mNames;
+    private final String mFamily;
+
+    private final LoopbackVpn mVpn;
+    private final LoopbackEchoServer mEchoServer;
+    private final LoopbackEchoServer mEchoServer6;
+    private final LoopbackDnsServer mDnsServer;
+
+    private final AtomicInteger mNextConnection;
+
+    private LoopbackLoadTest(LoopbackVpn vpn, LoopbackEchoServer echoServer,
+                             LoopbackEchoServer echoServer6, LoopbackDnsServer dnsServer,
+                             String family, int connections, long durationMillis, int size,
+                             int names) {
+        this.mVpn = vpn;
+        this.mEchoServer = echoServer;
+        this.mEchoServer6 = echoServer6;
+        this.mDnsServer = dnsServer;
+        this.mFamily = family;
+        this.mNextConnection = new AtomicInteger();
+        this.mConnections = connections;
+        this.mDurationMillis = durationMillis;
+        this.mSize = size;
+        this.mNames = names;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String scenario = option(options, "scenario", "all");
+        int connections = Integer.parseInt(option(options, "connections", "8"));
+        long durationMillis = Long.parseLong(option(options, "duration", "10")) * 1000;
+        int interceptors = Integer.parseInt(option(options, "interceptors", "0"));
+        int mtu = Integer.parseInt(option(options, "mtu", "1500"));
+        int names = Integer.parseInt(option(options, "names", "256"));
+        boolean dnsCache = Boolean.parseBoolean(option(options, "dns-cache", "true"));
+        String family = option(options, "family", "4");
+        if (!"4".equals(family) && !"6".equals(family) && !"dual".equals(family)) {
+            throw new IllegalArgumentException("Unknown family: " + family);
+        }
+
+        LoopbackDnsServer dnsServer = new LoopbackDnsServer(DNS_TTL);
+        NetBareConfig config = new NetBareConfig.Builder()
+                .setMtu(mtu)
+                .setAddress(new IpAddress(ADDRESS, 32))
+                .setIpv6Address(new IpAddress(ADDRESS6, 128))
+                .addDnsServer(dnsServer.address().getAddress().getHostAddress())
+                .cacheDns(dnsCache)
+                .setVirtualGatewayFactory(DefaultVirtualGatewayFactory.create(
+                        passThroughFactories(interceptors)))
+                .build();
+
+        LoopbackEchoServer echoServer = new LoopbackEchoServer();
+        echoServer.start();
+        LoopbackEchoServer echoServer6 = null;
+        if (!"4".equals(family)) {
+            echoServer6 = new LoopbackEchoServer(InetAddress.getByName("::1"));
+            echoServer6.start();
+        }
+        dnsServer.start();
+        LoopbackNetBare netBare = LoopbackNetBare.start(config);
+        try {
+            List<String> scenarios = "all".equals(scenario) ?
+                    Arrays.asList("throughput", "latency", "churn", "udp", "dns") :
+                    Arrays.asList(scenario.split(","));
+            for (String name : scenarios) {
+                int size = Integer.parseInt(option(options, "size",
+                        "throughput".equals(name) ? "16384" : "64"));
+                LoopbackLoadTest test = new LoopbackLoadTest(netBare.vpn(), echoServer,
+                        echoServer6, dnsServer, family, connections, durationMillis, size, names);
+                test.run(name);
+            }
+            printMetrics(NetBare.get().getMetrics());
+        } finally {
+            netBare.stop();
+            echoServer.close();
+            if (echoServer6 != null) {
+                echoServer6.close();
+            }
+            dnsServer.close();
+        }
+    }
+
+    private void run(String scenario) throws InterruptedException {
+        Worker worker;
+        switch (scenario) {
+            case "throughput":
+            case "latency":
+                worker = new RoundTripWorker();
+                break;
+            case "churn":
+                worker = new ChurnWorker();
+                break;
+            case "udp":
+                worker = new UdpWorker();
+                break;
+            case "dns":
+                worker = new DnsWorker();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+        System.out.printf(Locale.US, "%s: %d connections, %d bytes, %d s, family %s%n",
+                scenario, mConnections, mSize, mDurationMillis / 1000,
+                "dns".equals(scenario) ? "4" : mFamily);
+        final long deadline = System.currentTimeMillis() + mDurationMillis;
+        final Histogram histogram = new Histogram();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong operations = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        long dnsQueries = mDnsServer.queries();
+        final Worker target = worker;
+        List<Thread> threads = new ArrayList<>(mConnections);
+        long start = System.nanoTime();
+        for (int i = 0; i < mConnections; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        target.run(deadline, histogram, bytes, operations);
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                        System.err.println(Thread.currentThread().getName() + ": " + e);
+                    }
+                }
+            }, scenario + "-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        System.out.printf(Locale.US, "  operations: %d (%.1f/s), errors: %d%n", operations.get(),
+                operations.get() / seconds, errors.get());
+        System.out.printf(Locale.US, "  throughput: %.2f MB/s%n",
+                bytes.get() / seconds / 1024 / 1024);
+        printHistogram("latency", snapshot);
+        if ("dns".equals(scenario)) {
+            System.out.printf(Locale.US, "  upstream queries: %d%n",
+                    mDnsServer.queries() - dnsQueries);
+        }
+    }
+
+    private interface Worker {
+
+        void run(long deadline, Histogram histogram, AtomicLong bytes, AtomicLong operations)
+                throws IOException;
+
+    }
+
+    /**
+     * Request and response round trips over one long connection, large messages stream the data
+     * and small ones measure the latency.
+     */
+    private final class RoundTripWorker implements Worker {
+
+        @Override
+        public void run(long deadline, Histogram histogram, AtomicLong bytes,
+                        AtomicLong operations) throws IOException {
+            byte[] data = randomBytes(mSize);
+            byte[] echo = new byte[mSize];
+            VirtualTcpSocket socket = mVpn.connectTcp(echoServer().tcpAddress(), TIMEOUT_MILLIS);
+            try {
+                while (System.currentTimeMillis() < deadline) {
+                    long start = System.nanoTime();
+                    socket.write(data, 0, data.length);
+                    socket.readFully(echo, 0, echo.length);
+                    histogram.record((System.nanoTime() - start) / 1000);
+                    verify(data, echo);
+                    bytes.addAndGet(data.length * 2);
+                    operations.incrementAndGet();
+                }
+            } finally {
+                socket.close();
+            }
+        }
+
+    }
+
+    /**
+     * A new connection for every round trip, it measures the connect and teardown cost.
+     */
+    private final class ChurnWorker implements Worker {
+
+        @Override
+        public void run(long deadline, Histogram histogram, AtomicLong bytes,
+                        AtomicLong operations) throws IOException {
+            byte[] data = randomBytes(mSize);
+            byte[] echo = new byte[mSize];
+            while (System.currentTimeMillis() < deadline) {
+                long start = System.nanoTime();
+                VirtualTcpSocket socket = mVpn.connectTcp(echoServer().tcpAddress(),
+                        TIMEOUT_MILLIS);
+                try {
+                    socket.write(data, 0, data.length);
+                    socket.readFully(echo, 0, echo.length);
+                } finally {
+                    socket.close();
+                }
+                // Wait for the server's FIN.
+                if (socket.read(echo, 0, echo.length) >= 0) {
+                    throw new IOException("Unexpected data after the echo: " + socket);
+                }
+                histogram.record((System.nanoTime() - start) / 1000);
+                bytes.addAndGet(data.length * 2);
+                operations.incrementAndGet();
+            }
+        }
+
+    }
+
+    /**
+     * Datagram round trips, a datagram not echoed in time is counted as lost.
+     */
+    private final class UdpWorker implements Worker {
+
+        @Override
+        public void run(long deadline, Histogram histogram, AtomicLong bytes,
+                        AtomicLong operations) throws IOException {
+            byte[] data = randomBytes(mSize);
+            InetSocketAddress server = echoServer().udpAddress();
+            VirtualUdpSocket socket = mVpn.openUdp(server);
+            int lost = 0;
+            try {
+                while (System.currentTimeMillis() < deadline) {
+                    long start = System.nanoTime();
+                    socket.send(data, 0, data.length);
+                    byte[] echo = socket.receive(TIMEOUT_MILLIS);
+                    if (echo == null) {
+                        lost++;
+                        continue;
+                    }
+                    histogram.record((System.nanoTime() - start) / 1000);
+                    verify(data, echo);
+                    bytes.addAndGet(data.length * 2);
+                    operations.incrementAndGet();
+                }
+            } finally {
+                socket.close();
+            }
+            if (lost > 0) {
+                throw new IOException(lost + " datagrams are lost: " + socket);
+            }
+        }
+
+    }
+
+    /**
+     * A records lookups of random names from the stand-in resolver, the distinct names decide the
+     * cache hit ratio.
+     */
+    private final class DnsWorker implements Worker {
+
+        @Override
+        public void run(long deadline, Histogram histogram, AtomicLong bytes,
+                        AtomicLong operations) throws IOException {
+            VirtualUdpSocket socket = mVpn.openUdp(mDnsServer.address());
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int lost = 0;
+            try {
+                while (System.currentTimeMillis() < deadline) {
+                    int index = random.nextInt(mNames);
+                    int id = random.nextInt(0x10000);
+                    byte[] query = dnsQuery(id, "host" + index + ".loopback.test");
+                    long start = System.nanoTime();
+                    socket.send(query, 0, query.length);
+                    byte[] response = socket.receive(TIMEOUT_MILLIS);
+                    if (response == null) {
+                        lost++;
+                        continue;
+                    }
+                    histogram.record((System.nanoTime() - start) / 1000);
+                    verifyDnsResponse(id, LoopbackDnsServer.address(index), response);
+                    bytes.addAndGet(query.length + response.length);
+                    operations.incrementAndGet();
+                }
+            } finally {
+                socket.close();
+            }
+            if (lost > 0) {
+                throw new IOException(lost + " lookups are lost: " + socket);
+            }
+        }
+
+    }
+
+    /**
+     * Returns the echo server of the next connection by the family option.
+     */
+    private LoopbackEchoServer echoServer() {
+        switch (mFamily) {
+            case "6":
+                return mEchoServer6;
+            case "dual":
+                return (mNextConnection.getAndIncrement() & 1) == 0 ? mEchoServer : mEchoServer6;
+            default:
+                return mEchoServer;
+        }
+    }
+
+    private static byte[] dnsQuery(int id, String name) {
+        byte[] labels = name.getBytes(StandardCharsets.US_ASCII);
+        // Header, the labels with a length byte each and the root, then type A and class IN.
+        byte[] query = new byte[12 + labels.length + 2 + 4];
+        ByteBuffer buffer = ByteBuffer.wrap(query);
+        buffer.putShort((short) id).putShort((short) 0x0100).putShort((short) 1);
+        buffer.position(12);
+        for (String label : name.split("\\.")) {
+            buffer.put((byte) label.length()).put(label.getBytes(StandardCharsets.US_ASCII));
+        }
+        buffer.put((byte) 0).putShort((short) 1).putShort((short) 1);
+        return query;
+    }
+
+    private static void verifyDnsResponse(int id, int address, byte[] response)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(response);
+        if ((buffer.getShort(0) & 0xFFFF) != id || (buffer.getShort(2) & 0x000F) != 0
+                || buffer.getShort(6) != 1 || buffer.getInt(response.length - 4) != address) {
+            throw new IOException("The DNS response is corrupted.");
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        ThreadLocalRandom.current().nextBytes(data);
+        return data;
+    }
+
+    private static void verify(byte[] data, byte[] echo) throws IOException {
+        if (!Arrays.equals(data, echo)) {
+            throw new IOException("The echo is corrupted.");
+        }
+    }
+
+    private static void printHistogram(String name, Histogram.Snapshot snapshot) {
+        if (snapshot.count() == 0) {
+            return;
+        }
+        System.out.printf(Locale.US, "  %s(us): mean %.1f, p50 %d, p90 %d, p99 %d, max %d%n",
+                name, snapshot.mean(), snapshot.valueAtPercentile(50),
+                snapshot.valueAtPercentile(90), snapshot.valueAtPercentile(99), snapshot.max());
+    }
+
+    private static void printMetrics(MetricsSnapshot metrics) {
+        System.out.printf(Locale.US, "netbare: %d sessions, %d packets, %d bytes sent, "
+                        + "%d bytes received%n", metrics.sessionCount(), metrics.packetCount(),
+                metrics.sendBytes(), metrics.receiveBytes());
+        printHistogram("tcp connect", metrics.tcpConnect());
+        printHistogram("first byte", metrics.firstByte());
+    }
+
+    private static List<InterceptorFactory<Request, RequestChain, Response, ResponseChain>>
+            passThroughFactories(int count) {
+        List<InterceptorFactory<Request, RequestChain, Response, ResponseChain>> factories =
+                new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            factories.add(new InterceptorFactory<Request, RequestChain, Response, ResponseChain>() {
+                @NonNull
+                @Override
+                public Interceptor<Request, RequestChain, Response, ResponseChain> create() {
+                    return new PassThroughInterceptor();
+                }
+            });
+        }
+        return factories;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options must be --key=value: " + arg);
+            }
+            int index = arg.indexOf('=');
+            options.put(arg.substring(2, index), arg.substring(index + 1));
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static final class PassThroughInterceptor implements Interceptor<Request,
+            RequestChain, Response, ResponseChain> {
+
+        @Override
+        public void intercept(@NonNull RequestChain chain, @NonNull ByteBuffer buffer)
+                throws IOException {
+            chain.process(buffer);
+        }
+
+        @Override
+        public void intercept(@NonNull ResponseChain chain, @NonNull ByteBuffer buffer)
+                throws IOException {
+            chain.process(buffer);
+        }
+
+        @Override
+        public void onRequestFinished(@NonNull Request request) {
+        }
+
+        @Override
+        public void onResponseFinished(@NonNull Response response) {
+        }
+
+    }
+
+}
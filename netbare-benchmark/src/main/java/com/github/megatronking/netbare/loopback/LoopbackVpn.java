@@ -0,0 +1,312 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.loopback;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.megatronking.netbare.NetBareConfig;
+import com.github.megatronking.netbare.NetBareLog;
+import com.github.megatronking.netbare.NetBareUtils;
+import com.github.megatronking.netbare.VpnBackend;
+import com.github.megatronking.netbare.VpnDescriptor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link VpnBackend} running on a plain JVM. The VPN interface is a pair of in-memory packet
+ * pipes: the loopback apps write packets to NetBare by {@link VirtualTcpSocket} and
+ * {@link VirtualUdpSocket}, and a dispatcher thread delivers the packets written by NetBare back to
+ * them. Remote sockets need no protection, the remote servers should listen on 127.0.0.1, or ::1
+ * if the VPN has an IPv6 address.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 11:02
+ */
+public final class LoopbackVpn implements VpnBackend {
+
+    private static final int PROTOCOL_TCP = 6;
+    private static final int PROTOCOL_UDP = 17;
+
+    // Apps ports are bound on the host by the bridges, keep them off the ephemeral range.
+    private static final int MIN_PORT = 10000;
+    private static final int MAX_PORT = 30000;
+
+    private final byte[] mLocalIp;
+    private final byte[] mLocalIp6;
+    private final int mMtu;
+
+    private final PacketPipe mOutgoing;
+    private final PacketPipe mIncoming;
+
+    private final Map<Short, VirtualTcpSocket> mTcpSockets;
+    private final Map<Short, VirtualUdpSocket> mUdpSockets;
+    private final AtomicInteger mNextPort;
+
+    private Thread mDispatcher;
+
+    /**
+     * Constructs a loopback VPN.
+     *
+     * @param address The VPN address, same as the address of the NetBare configuration.
+     * @param mtu The VPN mtu, same as the mtu of the NetBare configuration.
+     */
+    public LoopbackVpn(@NonNull String address, int mtu) {
+        this(address, null, mtu);
+    }
+
+    /**
+     * Constructs a dual stack loopback VPN.
+     *
+     * @param address The VPN address, same as the address of the NetBare configuration.
+     * @param address6 The VPN IPv6 address, same as the IPv6 address of the NetBare
+     *                 configuration, null if the VPN has no IPv6 address.
+     * @param mtu The VPN mtu, same as the mtu of the NetBare configuration.
+     */
+    public LoopbackVpn(@NonNull String address, @Nullable String address6, int mtu) {
+        this.mLocalIp = toBytes(address);
+        this.mLocalIp6 = address6 != null ? toBytes(address6) : null;
+        this.mMtu = mtu;
+        this.mOutgoing = new PacketPipe();
+        this.mIncoming = new PacketPipe();
+        this.mTcpSockets = new ConcurrentHashMap<>();
+        this.mUdpSockets = new ConcurrentHashMap<>();
+        this.mNextPort = new AtomicInteger();
+    }
+
+    @Override
+    public VpnDescriptor establish(@NonNull NetBareConfig config) {
+        synchronized (this) {
+            if (mDispatcher == null) {
+                mDispatcher = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch();
+                    }
+                }, "Loopback-Dispatcher");
+                mDispatcher.setDaemon(true);
+                mDispatcher.start();
+            }
+        }
+        return new VpnDescriptor() {
+
+            @Override
+            public InputStream getInputStream() {
+                return mOutgoing.input();
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return mIncoming.output();
+            }
+
+            @Override
+            public void close() {
+                LoopbackVpn.this.close();
+            }
+
+        };
+    }
+
+    @Override
+    public boolean protect(Socket socket) {
+        return true;
+    }
+
+    @Override
+    public boolean protect(DatagramSocket socket) {
+        return true;
+    }
+
+    /**
+     * Open a TCP connection through NetBare.
+     *
+     * @param server The server address, the ip should be 127.0.0.1 or ::1.
+     * @param timeoutMillis The connect timeout in milliseconds.
+     * @return A connected socket.
+     * @throws IOException If the connection is refused or timed out.
+     */
+    public VirtualTcpSocket connectTcp(@NonNull InetSocketAddress server, long timeoutMillis)
+            throws IOException {
+        byte[] serverIp = server.getAddress().getAddress();
+        byte[] localIp = localIp(serverIp);
+        VirtualTcpSocket socket;
+        short port;
+        do {
+            port = nextPort();
+            socket = new VirtualTcpSocket(this, localIp, port, serverIp,
+                    (short) server.getPort(), mMtu);
+        } while (mTcpSockets.putIfAbsent(port, socket) != null);
+        socket.connect(timeoutMillis);
+        return socket;
+    }
+
+    /**
+     * Open a UDP socket sending datagrams through NetBare.
+     *
+     * @param server The server address, the ip should be 127.0.0.1 or ::1.
+     * @return A UDP socket.
+     */
+    public VirtualUdpSocket openUdp(@NonNull InetSocketAddress server) {
+        byte[] serverIp = server.getAddress().getAddress();
+        byte[] localIp = localIp(serverIp);
+        VirtualUdpSocket socket;
+        short port;
+        do {
+            port = nextPort();
+            socket = new VirtualUdpSocket(this, localIp, port, serverIp,
+                    (short) server.getPort(), mMtu);
+        } while (mUdpSockets.putIfAbsent(port, socket) != null);
+        return socket;
+    }
+
+    /**
+     * Close the VPN, all the open sockets are reset.
+     */
+    public void close() {
+        mOutgoing.close();
+        mIncoming.close();
+        List<VirtualTcpSocket> sockets = new ArrayList<>(mTcpSockets.values());
+        for (VirtualTcpSocket socket : sockets) {
+            socket.abort();
+        }
+        for (VirtualUdpSocket socket : mUdpSockets.values()) {
+            socket.close();
+        }
+        mTcpSockets.clear();
+        mUdpSockets.clear();
+    }
+
+    /* package */ void send(byte[] packet) throws IOException {
+        mOutgoing.write(packet);
+    }
+
+    /* package */ void release(VirtualTcpSocket socket) {
+        mTcpSockets.remove(socket.getLocalPort(), socket);
+    }
+
+    /* package */ void release(VirtualUdpSocket socket) {
+        mUdpSockets.remove(socket.getLocalPort(), socket);
+    }
+
+    private byte[] localIp(byte[] serverIp) {
+        if (serverIp.length == 4) {
+            return mLocalIp;
+        }
+        if (mLocalIp6 == null) {
+            throw new IllegalStateException("The loopback VPN has no IPv6 address.");
+        }
+        return mLocalIp6;
+    }
+
+    private short nextPort() {
+        int index = (mNextPort.getAndIncrement() & Integer.MAX_VALUE) % (MAX_PORT - MIN_PORT);
+        return (short) (MIN_PORT + index);
+    }
+
+    private void dispatch() {
+        try {
+            byte[] packet;
+            while ((packet = mIncoming.read()) != null) {
+                dispatch(packet);
+            }
+        } catch (IOException e) {
+            // The VPN is closed.
+        }
+    }
+
+    private void dispatch(byte[] packet) {
+        int protocol;
+        int ipHeaderLength;
+        int totalLength;
+        if ((packet[0] & 0xF0) == 0x60) {
+            // NetBare writes no extension headers.
+            protocol = packet[6] & 0xFF;
+            ipHeaderLength = Packets.IPV6_HEADER_LENGTH;
+            totalLength = ipHeaderLength + getShort(packet, 4);
+        } else {
+            protocol = packet[9] & 0xFF;
+            ipHeaderLength = (packet[0] & 0x0F) * 4;
+            totalLength = getShort(packet, 2);
+        }
+        short srcPort = (short) getShort(packet, ipHeaderLength);
+        short dstPort = (short) getShort(packet, ipHeaderLength + 2);
+        try {
+            if (protocol == PROTOCOL_TCP) {
+                int seq = getInt(packet, ipHeaderLength + 4);
+                int ack = getInt(packet, ipHeaderLength + 8);
+                int tcpHeaderLength = ((packet[ipHeaderLength + 12] & 0xFF) >> 4) * 4;
+                int flags = packet[ipHeaderLength + 13] & 0x3F;
+                int offset = ipHeaderLength + tcpHeaderLength;
+                int length = totalLength - offset;
+                // NetBare sends to the app: server_ip:server_port -> 10.1.10.1:app_port.
+                VirtualTcpSocket socket = mTcpSockets.get(dstPort);
+                if (socket != null && socket.getRemotePort() == srcPort) {
+                    socket.onAppPacket(flags, seq, ack, packet, offset, length);
+                    return;
+                }
+                // NetBare sends to the proxy: server_ip:app_port -> 10.1.10.1:proxy_port.
+                socket = mTcpSockets.get(srcPort);
+                if (socket != null) {
+                    socket.onKernelPacket(flags, seq, ack, dstPort, packet, offset, length);
+                    return;
+                }
+                NetBareLog.w("Loopback drops a TCP packet to port "
+                        + NetBareUtils.convertPort(dstPort));
+            } else if (protocol == PROTOCOL_UDP) {
+                VirtualUdpSocket socket = mUdpSockets.get(dstPort);
+                if (socket != null) {
+                    int offset = ipHeaderLength + Packets.UDP_HEADER_LENGTH;
+                    socket.onPacket(packet, offset, totalLength - offset);
+                    return;
+                }
+                NetBareLog.w("Loopback drops a UDP packet to port "
+                        + NetBareUtils.convertPort(dstPort));
+            }
+        } catch (IOException e) {
+            // The VPN is closed.
+        }
+    }
+
+    private static byte[] toBytes(String address) {
+        try {
+            return InetAddress.getByName(address).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static int getShort(byte[] packet, int offset) {
+        return ((packet[offset] & 0xFF) << 8) | (packet[offset + 1] & 0xFF);
+    }
+
+    private static int getInt(byte[] packet, int offset) {
+        return (getShort(packet, offset) << 16) | getShort(packet, offset + 2);
+    }
+
+}
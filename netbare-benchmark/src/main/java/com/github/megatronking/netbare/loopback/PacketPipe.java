@@ -0,0 +1,142 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.loopback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An in-memory packet pipe with TUN semantics: each write sends exactly one packet and each read
+ * returns exactly one packet. Writes never block, the senders are throttled by their TCP windows.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 10:02
+ */
+/* package */ final class PacketPipe {
+
+    private static final byte[] EOF = new byte[0];
+
+    private final BlockingQueue<byte[]> mPackets;
+    private final InputStream mInput;
+    private final OutputStream mOutput;
+
+    private volatile boolean mClosed;
+
+    /* package */ PacketPipe() {
+        this.mPackets = new LinkedBlockingQueue<>();
+        this.mInput = new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Packets must be read at once.");
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                byte[] packet = PacketPipe.this.read();
+                if (packet == null) {
+                    return -1;
+                }
+                // Like a TUN device, the exceeded part of a packet is dropped.
+                int size = Math.min(length, packet.length);
+                System.arraycopy(packet, 0, buffer, offset, size);
+                return size;
+            }
+
+            @Override
+            public void close() {
+                PacketPipe.this.close();
+            }
+
+        };
+        this.mOutput = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Packets must be written at once.");
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                byte[] packet = new byte[length];
+                System.arraycopy(buffer, offset, packet, 0, length);
+                PacketPipe.this.write(packet);
+            }
+
+            @Override
+            public void close() {
+                PacketPipe.this.close();
+            }
+
+        };
+    }
+
+    /* package */ InputStream input() {
+        return mInput;
+    }
+
+    /* package */ OutputStream output() {
+        return mOutput;
+    }
+
+    /**
+     * Send a packet, the pipe takes the ownership of the array.
+     *
+     * @param packet A whole IP packet.
+     * @throws IOException If the pipe is closed.
+     */
+    /* package */ void write(byte[] packet) throws IOException {
+        if (mClosed) {
+            throw new IOException("Packet pipe is closed.");
+        }
+        mPackets.offer(packet);
+    }
+
+    /**
+     * Receive a packet, blocks until a packet is available.
+     *
+     * @return A whole IP packet, or null if the pipe is closed.
+     * @throws IOException If the thread is interrupted.
+     */
+    /* package */ byte[] read() throws IOException {
+        byte[] packet;
+        try {
+            packet = mPackets.take();
+        } catch (InterruptedException e) {
+            // Keep the flag, the reader checks it to tell a stop from a failure.
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Packet pipe is interrupted.");
+        }
+        if (packet == EOF) {
+            // Wake up other readers.
+            mPackets.offer(EOF);
+            return null;
+        }
+        return packet;
+    }
+
+    /* package */ void close() {
+        if (!mClosed) {
+            mClosed = true;
+            mPackets.offer(EOF);
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.loopback;
+
+import com.github.megatronking.netbare.ip.IpHeader;
+import com.github.megatronking.netbare.ip.Ipv6Header;
+import com.github.megatronking.netbare.ip.TcpHeader;
+import com.github.megatronking.netbare.ip.UdpHeader;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Builds the IPv4 and IPv6 packets sent by the loopback apps and the loopback kernel. The
+ * addresses are 4 or 16 bytes arrays, the packets of an IPv6 address have no extension headers.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 10:08
+ */
+/* package */ final class Packets {
+
+    /* package */ static final int FIN = 0x01;
+    /* package */ static final int SYN = 0x02;
+    /* package */ static final int RST = 0x04;
+    /* package */ static final int PSH = 0x08;
+    /* package */ static final int ACK = 0x10;
+
+    /* package */ static final int IP_HEADER_LENGTH = 20;
+    /* package */ static final int IPV6_HEADER_LENGTH = 40;
+    /* package */ static final int TCP_HEADER_LENGTH = 20;
+    /* package */ static final int UDP_HEADER_LENGTH = 8;
+
+    private static final int PROTOCOL_TCP = 6;
+    private static final int PROTOCOL_UDP = 17;
+
+    private static final int TTL = 64;
+    private static final int TCP_WINDOW = 0xFFFF;
+
+    private Packets() {
+    }
+
+    /* package */ static byte[] tcp(byte[] srcIp, short srcPort, byte[] dstIp, short dstPort,
+                                    int seq, int ack, int flags, byte[] data, int offset,
+                                    int length) {
+        byte[] packet = ip(srcIp, dstIp, PROTOCOL_TCP, TCP_HEADER_LENGTH + length);
+        int tcp = ipHeaderLength(srcIp);
+        putShort(packet, tcp, srcPort);
+        putShort(packet, tcp + 2, dstPort);
+        putInt(packet, tcp + 4, seq);
+        putInt(packet, tcp + 8, ack);
+        packet[tcp + 12] = (byte) ((TCP_HEADER_LENGTH / 4) << 4);
+        packet[tcp + 13] = (byte) flags;
+        putShort(packet, tcp + 14, TCP_WINDOW);
+        if (length > 0) {
+            System.arraycopy(data, offset, packet, tcp + TCP_HEADER_LENGTH, length);
+        }
+        if (srcIp.length == 16) {
+            new TcpHeader(new Ipv6Header(packet, 0), packet, tcp).updateChecksum();
+        } else {
+            IpHeader ipHeader = new IpHeader(packet, 0);
+            ipHeader.updateChecksum();
+            new TcpHeader(ipHeader, packet, tcp).updateChecksum();
+        }
+        return packet;
+    }
+
+    /* package */ static byte[] udp(byte[] srcIp, short srcPort, byte[] dstIp, short dstPort,
+                                    byte[] data, int offset, int length) {
+        byte[] packet = ip(srcIp, dstIp, PROTOCOL_UDP, UDP_HEADER_LENGTH + length);
+        int udp = ipHeaderLength(srcIp);
+        putShort(packet, udp, srcPort);
+        putShort(packet, udp + 2, dstPort);
+        putShort(packet, udp + 4, UDP_HEADER_LENGTH + length);
+        System.arraycopy(data, offset, packet, udp + UDP_HEADER_LENGTH, length);
+        if (srcIp.length == 16) {
+            new UdpHeader(new Ipv6Header(packet, 0), packet, udp).updateChecksum();
+        } else {
+            IpHeader ipHeader = new IpHeader(packet, 0);
+            ipHeader.updateChecksum();
+            new UdpHeader(ipHeader, packet, udp).updateChecksum();
+        }
+        return packet;
+    }
+
+    /* package */ static int ipHeaderLength(byte[] ip) {
+        return ip.length == 16 ? IPV6_HEADER_LENGTH : IP_HEADER_LENGTH;
+    }
+
+    /* package */ static String toString(byte[] ip) {
+        try {
+            return InetAddress.getByAddress(ip).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static byte[] ip(byte[] srcIp, byte[] dstIp, int protocol, int dataLength) {
+        if (srcIp.length == 16) {
+            byte[] packet = new byte[IPV6_HEADER_LENGTH + dataLength];
+            packet[0] = 0x60;
+            putShort(packet, 4, dataLength);
+            packet[6] = (byte) protocol;
+            packet[7] = TTL;
+            System.arraycopy(srcIp, 0, packet, 8, 16);
+            System.arraycopy(dstIp, 0, packet, 24, 16);
+            return packet;
+        }
+        int totalLength = IP_HEADER_LENGTH + dataLength;
+        byte[] packet = new byte[totalLength];
+        packet[0] = (byte) (0x40 | (IP_HEADER_LENGTH / 4));
+        putShort(packet, 2, totalLength);
+        packet[8] = TTL;
+        packet[9] = (byte) protocol;
+        System.arraycopy(srcIp, 0, packet, 12, 4);
+        System.arraycopy(dstIp, 0, packet, 16, 4);
+        return packet;
+    }
+
+    private static void putShort(byte[] packet, int offset, int value) {
+        packet[offset] = (byte) (value >> 8);
+        packet[offset + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] packet, int offset, int value) {
+        packet[offset] = (byte) (value >> 24);
+        packet[offset + 1] = (byte) (value >> 16);
+        packet[offset + 2] = (byte) (value >> 8);
+        packet[offset + 3] = (byte) value;
+    }
+
+}
@@ -0,0 +1,550 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.loopback;
+
+import com.github.megatronking.netbare.NetBareUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TCP connection made by a loopback app through NetBare. Both ends of the connection are
+ * simulated here:
+ *
+ *  app side    : 10.1.10.1:app_port -> server_ip:server_port, the blocking socket API.
+ *  kernel side : 10.1.10.1:proxy_port -> server_ip:app_port, the proxy server's accepted socket.
+ *
+ * NetBare forwards the packets between the two sides as it does with a TUN device. The kernel side
+ * is bridged to the proxy server by a real loopback socket bound to server_ip:app_port, so the
+ * proxy server finds the session by the port and connects the server by the ip. The packet pipe
+ * is lossless and ordered, there is no retransmission, and each side keeps at most
+ * {@link #WINDOW} bytes unacknowledged. An IPv6 connection is bridged by an IPv6 loopback socket,
+ * the server should listen on ::1.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 10:15
+ */
+public final class VirtualTcpSocket implements Closeable {
+
+    private static final int WINDOW = 64 * 1024;
+
+    private static final byte[] EOF = new byte[0];
+
+    private final LoopbackVpn mVpn;
+    private final int mMss;
+
+    private final Endpoint mApp;
+    private final Endpoint mKernel;
+
+    private final CountDownLatch mConnectLatch;
+    private final BlockingQueue<byte[]> mReceived;
+    private final BlockingQueue<byte[]> mBridgeWrites;
+
+    private final InputStream mInput;
+    private final OutputStream mOutput;
+
+    private byte[] mReading;
+    private int mReadingOffset;
+
+    private volatile boolean mReset;
+    private volatile boolean mAborted;
+
+    private boolean mAppFinSent;
+    private boolean mAppFinReceived;
+    private boolean mKernelFinSent;
+    private boolean mKernelFinReceived;
+
+    private Socket mBridge;
+
+    /* package */ VirtualTcpSocket(LoopbackVpn vpn, byte[] localIp, short localPort,
+                                   byte[] remoteIp, short remotePort, int mtu) {
+        this.mVpn = vpn;
+        this.mMss = mtu - Packets.ipHeaderLength(localIp) - Packets.TCP_HEADER_LENGTH;
+        this.mApp = new Endpoint(localIp, localPort, remoteIp, remotePort);
+        // The source port is the proxy server port, it is known by the first SYN.
+        this.mKernel = new Endpoint(localIp, (short) 0, remoteIp, localPort);
+        this.mConnectLatch = new CountDownLatch(1);
+        this.mReceived = new LinkedBlockingQueue<>();
+        this.mBridgeWrites = new LinkedBlockingQueue<>();
+        this.mInput = new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return VirtualTcpSocket.this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return VirtualTcpSocket.this.read(b, off, len);
+            }
+
+        };
+        this.mOutput = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                VirtualTcpSocket.this.write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                VirtualTcpSocket.this.write(b, off, len);
+            }
+
+        };
+    }
+
+    public short getLocalPort() {
+        return mApp.srcPort;
+    }
+
+    public short getRemotePort() {
+        return mApp.dstPort;
+    }
+
+    public InputStream getInputStream() {
+        return mInput;
+    }
+
+    public OutputStream getOutputStream() {
+        return mOutput;
+    }
+
+    /* package */ void connect(long timeoutMillis) throws IOException {
+        mApp.send(Packets.SYN, null, 0, 0);
+        boolean connected;
+        try {
+            connected = mConnectLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            abort();
+            throw new InterruptedIOException("Connect is interrupted.");
+        }
+        if (!connected) {
+            abort();
+            throw new SocketTimeoutException("Connect timed out: " + this);
+        }
+        if (mReset) {
+            abort();
+            throw new ConnectException("Connection refused: " + this);
+        }
+    }
+
+    /**
+     * Send data to the server, blocks while the window is full.
+     *
+     * @param data The data array.
+     * @param offset The start offset in the array.
+     * @param length The data length.
+     * @throws IOException If the connection is reset or the output is shutdown.
+     */
+    public void write(byte[] data, int offset, int length) throws IOException {
+        synchronized (this) {
+            if (mAppFinSent) {
+                throw new SocketException("Socket output is shutdown.");
+            }
+        }
+        while (length > 0) {
+            int size = Math.min(mMss, length);
+            mApp.awaitWindow(size);
+            mApp.send(Packets.ACK | Packets.PSH, data, offset, size);
+            offset += size;
+            length -= size;
+        }
+    }
+
+    /**
+     * Receive data from the server, blocks until some data is available.
+     *
+     * @param buffer The buffer into which the data is read.
+     * @param offset The start offset in the buffer.
+     * @param length The max number of bytes to read.
+     * @return The number of bytes read, or -1 if the server closed the connection.
+     * @throws IOException If the connection is reset or the thread is interrupted.
+     */
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (mReading == null || mReadingOffset == mReading.length) {
+            try {
+                mReading = mReceived.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Read is interrupted.");
+            }
+            mReadingOffset = 0;
+        }
+        if (mReading == EOF) {
+            // Keep the end for the next read.
+            mReceived.offer(EOF);
+            mReading = null;
+            if (mReset) {
+                throw new SocketException("Connection reset: " + this);
+            }
+            return -1;
+        }
+        int size = Math.min(length, mReading.length - mReadingOffset);
+        System.arraycopy(mReading, mReadingOffset, buffer, offset, size);
+        mReadingOffset += size;
+        return size;
+    }
+
+    /**
+     * Read exactly the length of data.
+     *
+     * @param buffer The buffer into which the data is read.
+     * @param offset The start offset in the buffer.
+     * @param length The number of bytes to read.
+     * @throws IOException If the connection ends before all the data is read.
+     */
+    public void readFully(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = read(buffer, offset, length);
+            if (read < 0) {
+                throw new SocketException("Connection closed before " + length
+                        + " bytes are read: " + this);
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    /**
+     * Send a FIN to the server, the connection is released after the server closes as well.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (mAppFinSent || mReset) {
+                return;
+            }
+            mAppFinSent = true;
+        }
+        try {
+            mApp.send(Packets.FIN | Packets.ACK, null, 0, 0);
+        } catch (IOException e) {
+            abort();
+            return;
+        }
+        releaseIfFinished();
+    }
+
+    /**
+     * Handle a packet forwarded by NetBare to the app.
+     */
+    /* package */ void onAppPacket(int flags, int seq, int ack, byte[] packet, int offset,
+                                   int length) throws IOException {
+        if ((flags & Packets.RST) != 0) {
+            reset();
+            return;
+        }
+        if ((flags & Packets.ACK) != 0) {
+            mApp.onAck(ack);
+        }
+        if ((flags & Packets.SYN) != 0) {
+            mApp.onReceived(seq, 1);
+            mApp.send(Packets.ACK, null, 0, 0);
+            mConnectLatch.countDown();
+            return;
+        }
+        if (length > 0) {
+            byte[] data = new byte[length];
+            System.arraycopy(packet, offset, data, 0, length);
+            mReceived.offer(data);
+            mApp.onReceived(seq, length);
+        }
+        if ((flags & Packets.FIN) != 0) {
+            mApp.onReceived(seq + length, 1);
+            mReceived.offer(EOF);
+            synchronized (this) {
+                mAppFinReceived = true;
+            }
+        }
+        if (length > 0 || (flags & Packets.FIN) != 0) {
+            mApp.send(Packets.ACK, null, 0, 0);
+        }
+        releaseIfFinished();
+    }
+
+    /**
+     * Handle a packet forwarded by NetBare to the proxy server.
+     */
+    /* package */ void onKernelPacket(int flags, int seq, int ack, short proxyPort, byte[] packet,
+                                      int offset, int length) throws IOException {
+        if ((flags & Packets.RST) != 0) {
+            closeBridge();
+            return;
+        }
+        if ((flags & Packets.ACK) != 0) {
+            mKernel.onAck(ack);
+        }
+        if ((flags & Packets.SYN) != 0) {
+            mKernel.srcPort = proxyPort;
+            mKernel.onReceived(seq, 1);
+            try {
+                openBridge(proxyPort);
+            } catch (IOException e) {
+                mKernel.send(Packets.RST | Packets.ACK, null, 0, 0);
+                return;
+            }
+            mKernel.send(Packets.SYN | Packets.ACK, null, 0, 0);
+            return;
+        }
+        // The data and FIN are acknowledged after they are written to the proxy server.
+        if (length > 0) {
+            byte[] data = new byte[length];
+            System.arraycopy(packet, offset, data, 0, length);
+            mBridgeWrites.offer(data);
+        }
+        if ((flags & Packets.FIN) != 0) {
+            mBridgeWrites.offer(EOF);
+        }
+    }
+
+    /**
+     * Reset the connection immediately, used when the loopback VPN is closed.
+     */
+    /* package */ void abort() {
+        mAborted = true;
+        reset();
+    }
+
+    private void openBridge(short proxyPort) throws IOException {
+        final Socket bridge = new Socket();
+        try {
+            bridge.setReuseAddress(true);
+            bridge.setTcpNoDelay(true);
+            // The proxy server takes the peer address as the server address and the peer port
+            // as the app port.
+            bridge.bind(new InetSocketAddress(InetAddress.getByAddress(mApp.dstIp),
+                    NetBareUtils.convertPort(mApp.srcPort)));
+            // The proxy server listens on the wildcard address of both families.
+            InetAddress loopback = mApp.dstIp.length == 16 ? InetAddress.getByName("::1")
+                    : InetAddress.getLoopbackAddress();
+            bridge.connect(new InetSocketAddress(loopback, NetBareUtils.convertPort(proxyPort)));
+        } catch (IOException e) {
+            NetBareUtils.closeQuietly(bridge);
+            throw e;
+        }
+        synchronized (this) {
+            mBridge = bridge;
+        }
+        String name = "Loopback-" + NetBareUtils.convertPort(mApp.srcPort);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readBridge(bridge);
+            }
+        }, name + "-Reader");
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBridge(bridge);
+            }
+        }, name + "-Writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    private void readBridge(Socket bridge) {
+        byte[] buffer = new byte[mMss];
+        try {
+            InputStream input = bridge.getInputStream();
+            while (true) {
+                int read = input.read(buffer);
+                if (read < 0) {
+                    synchronized (this) {
+                        mKernelFinSent = true;
+                    }
+                    mKernel.send(Packets.FIN | Packets.ACK, null, 0, 0);
+                    break;
+                }
+                mKernel.awaitWindow(read);
+                mKernel.send(Packets.ACK | Packets.PSH, buffer, 0, read);
+            }
+        } catch (IOException e) {
+            onBridgeFailed();
+            return;
+        }
+        closeBridgeIfFinished();
+    }
+
+    private void writeBridge(Socket bridge) {
+        try {
+            OutputStream output = bridge.getOutputStream();
+            while (true) {
+                byte[] data = mBridgeWrites.take();
+                if (data == EOF) {
+                    bridge.shutdownOutput();
+                    mKernel.onReceived(mKernel.ack, 1);
+                    mKernel.send(Packets.ACK, null, 0, 0);
+                    synchronized (this) {
+                        mKernelFinReceived = true;
+                    }
+                    break;
+                }
+                output.write(data);
+                mKernel.onReceived(mKernel.ack, data.length);
+                mKernel.send(Packets.ACK, null, 0, 0);
+            }
+        } catch (IOException e) {
+            onBridgeFailed();
+            return;
+        } catch (InterruptedException e) {
+            return;
+        }
+        closeBridgeIfFinished();
+    }
+
+    private void onBridgeFailed() {
+        if (!mAborted && !mBridge.isClosed()) {
+            try {
+                mKernel.send(Packets.RST | Packets.ACK, null, 0, 0);
+            } catch (IOException ignored) {
+                // The loopback VPN is closed.
+            }
+        }
+        closeBridge();
+    }
+
+    private void closeBridgeIfFinished() {
+        boolean finished;
+        synchronized (this) {
+            finished = mKernelFinSent && mKernelFinReceived;
+        }
+        if (finished) {
+            closeBridge();
+        }
+    }
+
+    private void closeBridge() {
+        Socket bridge;
+        synchronized (this) {
+            bridge = mBridge;
+        }
+        NetBareUtils.closeQuietly(bridge);
+        mKernel.close();
+        // Wake up the writer.
+        mBridgeWrites.offer(EOF);
+    }
+
+    private void reset() {
+        mReset = true;
+        mApp.close();
+        mReceived.offer(EOF);
+        mConnectLatch.countDown();
+        closeBridge();
+        mVpn.release(this);
+    }
+
+    private void releaseIfFinished() {
+        boolean finished;
+        synchronized (this) {
+            finished = mAppFinSent && mAppFinReceived;
+        }
+        if (finished) {
+            mVpn.release(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Packets.toString(mApp.srcIp) + ":" + NetBareUtils.convertPort(mApp.srcPort)
+                + " -> " + Packets.toString(mApp.dstIp) + ":"
+                + NetBareUtils.convertPort(mApp.dstPort);
+    }
+
+    /**
+     * One side of the connection: the addresses, sequence numbers and the send window.
+     */
+    private final class Endpoint {
+
+        private final byte[] srcIp;
+        private volatile short srcPort;
+        private final byte[] dstIp;
+        private final short dstPort;
+
+        private int seq;
+        private int una;
+        private int ack;
+        private boolean closed;
+
+        private Endpoint(byte[] srcIp, short srcPort, byte[] dstIp, short dstPort) {
+            this.srcIp = srcIp;
+            this.srcPort = srcPort;
+            this.dstIp = dstIp;
+            this.dstPort = dstPort;
+            this.seq = ThreadLocalRandom.current().nextInt();
+            this.una = seq;
+        }
+
+        private synchronized void send(int flags, byte[] data, int offset, int length)
+                throws IOException {
+            mVpn.send(Packets.tcp(srcIp, srcPort, dstIp, dstPort, seq, ack, flags, data, offset,
+                    length));
+            seq += length;
+            if ((flags & (Packets.SYN | Packets.FIN)) != 0) {
+                seq++;
+            }
+        }
+
+        private synchronized void onReceived(int seq, int length) {
+            ack = seq + length;
+        }
+
+        private synchronized void onAck(int ack) {
+            if (ack - una > 0) {
+                una = ack;
+                notifyAll();
+            }
+        }
+
+        private synchronized void awaitWindow(int length) throws IOException {
+            while (!closed && seq - una + length > WINDOW) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Wait window is interrupted.");
+                }
+            }
+            if (closed) {
+                throw new SocketException("Connection reset: " + VirtualTcpSocket.this);
+            }
+        }
+
+        private synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+    }
+
+}
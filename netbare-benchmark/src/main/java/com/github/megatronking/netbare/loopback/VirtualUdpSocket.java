@@ -0,0 +1,127 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.loopback;
+
+import com.github.megatronking.netbare.NetBareUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A UDP socket of a loopback app, it sends datagrams to one server through NetBare.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 11:40
+ */
+public final class VirtualUdpSocket implements Closeable {
+
+    private static final byte[] CLOSED = new byte[0];
+
+    private final LoopbackVpn mVpn;
+    private final byte[] mLocalIp;
+    private final short mLocalPort;
+    private final byte[] mRemoteIp;
+    private final short mRemotePort;
+    private final int mMaxDatagramSize;
+
+    private final BlockingQueue<byte[]> mReceived;
+
+    private volatile boolean mClosed;
+
+    /* package */ VirtualUdpSocket(LoopbackVpn vpn, byte[] localIp, short localPort,
+                                   byte[] remoteIp, short remotePort, int mtu) {
+        this.mVpn = vpn;
+        this.mLocalIp = localIp;
+        this.mLocalPort = localPort;
+        this.mRemoteIp = remoteIp;
+        this.mRemotePort = remotePort;
+        this.mMaxDatagramSize = mtu - Packets.ipHeaderLength(localIp) - Packets.UDP_HEADER_LENGTH;
+        this.mReceived = new LinkedBlockingQueue<>();
+    }
+
+    public short getLocalPort() {
+        return mLocalPort;
+    }
+
+    /**
+     * Send a datagram to the server.
+     *
+     * @param data The data array.
+     * @param offset The start offset in the array.
+     * @param length The datagram length, no larger than the mtu allows.
+     * @throws IOException If the socket is closed.
+     */
+    public void send(byte[] data, int offset, int length) throws IOException {
+        if (mClosed) {
+            throw new SocketException("Socket is closed.");
+        }
+        if (length > mMaxDatagramSize) {
+            throw new IOException("Datagram is too large: " + length);
+        }
+        mVpn.send(Packets.udp(mLocalIp, mLocalPort, mRemoteIp, mRemotePort, data, offset,
+                length));
+    }
+
+    /**
+     * Receive a datagram from the server.
+     *
+     * @param timeoutMillis The max time to wait in milliseconds.
+     * @return The datagram, or null if the time is out.
+     * @throws IOException If the socket is closed or the thread is interrupted.
+     */
+    public byte[] receive(long timeoutMillis) throws IOException {
+        byte[] datagram;
+        try {
+            datagram = mReceived.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Receive is interrupted.");
+        }
+        if (datagram == CLOSED) {
+            mReceived.offer(CLOSED);
+            throw new SocketException("Socket is closed.");
+        }
+        return datagram;
+    }
+
+    @Override
+    public void close() {
+        if (!mClosed) {
+            mClosed = true;
+            mReceived.offer(CLOSED);
+            mVpn.release(this);
+        }
+    }
+
+    /* package */ void onPacket(byte[] packet, int offset, int length) {
+        byte[] datagram = new byte[length];
+        System.arraycopy(packet, offset, datagram, 0, length);
+        mReceived.offer(datagram);
+    }
+
+    @Override
+    public String toString() {
+        return Packets.toString(mLocalIp) + ":" + NetBareUtils.convertPort(mLocalPort)
+                + " -> " + Packets.toString(mRemoteIp) + ":"
+                + NetBareUtils.convertPort(mRemotePort);
+    }
+
+}
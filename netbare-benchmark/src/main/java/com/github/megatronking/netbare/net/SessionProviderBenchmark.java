@@ -0,0 +1,101 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.net;
+
+import com.github.megatronking.netbare.ip.Protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session lookups by the local VPN port, done for every packet read from the VPN. The uid dumper
+ * is not set, lookups never touch /proc/net.
+ *
+ * @author Megatron King
+ * @since 2019-04-18 10:24
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionProviderBenchmark {
+
+    private static final int FIRST_LOCAL_PORT = 30000;
+    private static final short REMOTE_PORT = 443;
+    private static final int REMOTE_IP = 0xB6FE7475;
+
+    @Param({"16", "256", "4096"})
+    public int sessionCount;
+
+    private SessionProvider mSessionProvider;
+    private int mIndex;
+    private int mRound;
+
+    @Setup
+    public void setup() {
+        mSessionProvider = new SessionProvider(null);
+        for (int i = 0; i < sessionCount; i++) {
+            mSessionProvider.ensureQuery(Protocol.TCP, localPort(i), REMOTE_PORT, REMOTE_IP);
+        }
+    }
+
+    @Benchmark
+    public Session query() {
+        return mSessionProvider.query(localPort(nextIndex()));
+    }
+
+    @Benchmark
+    public Session ensureQueryExisting() {
+        return mSessionProvider.ensureQuery(Protocol.TCP, localPort(nextIndex()), REMOTE_PORT,
+                REMOTE_IP);
+    }
+
+    @Benchmark
+    public Session ensureQueryReplaced() {
+        // The local port is reused by another connection each round, a new session replaces the
+        // old one.
+        int index = nextIndex();
+        if (index == 0) {
+            mRound++;
+        }
+        return mSessionProvider.ensureQuery(Protocol.TCP, localPort(index), REMOTE_PORT,
+                REMOTE_IP + (mRound & 1));
+    }
+
+    private int nextIndex() {
+        int index = mIndex;
+        mIndex = index + 1 == sessionCount ? 0 : index + 1;
+        return index;
+    }
+
+    private static short localPort(int index) {
+        return (short) (FIRST_LOCAL_PORT + index);
+    }
+
+}
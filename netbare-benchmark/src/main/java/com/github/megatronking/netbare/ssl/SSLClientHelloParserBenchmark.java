@@ -0,0 +1,188 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ssl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the ClientHello of a HTTPS connection, done once for each connection. The ClientHello
+ * is laid out like a browser's one: GREASE values, 16 cipher suites, 17 extensions and padded to
+ * 512 bytes. It arrives in one record and one segment ("whole"), in one record split into TCP
+ * segments of 100 bytes ("segments"), or in 3 records of 200 bytes ("records").
+ *
+ * @author Megatron King
+ * @since 2019-04-22 18:05
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SSLClientHelloParserBenchmark {
+
+    private static final String HOST = "www.example.com";
+
+    private static final int GREASE = 0x0a0a;
+
+    private static final int[] CIPHER_SUITES = {GREASE, 0x1301, 0x1302, 0x1303, 0xc02b, 0xc02f,
+            0xc02c, 0xc030, 0xcca9, 0xcca8, 0xc013, 0xc014, 0x009c, 0x009d, 0x002f, 0x0035};
+
+    private static final int PADDED_LENGTH = 512;
+
+    @Param({"whole", "segments", "records"})
+    public String fragment;
+
+    private ByteBuffer[] mSegments;
+
+    @Setup
+    public void setup() {
+        byte[] message = clientHello();
+        List<ByteBuffer> segments = new ArrayList<>();
+        if ("records".equals(fragment)) {
+            ByteBuffer output = ByteBuffer.allocate(message.length + 5 * 3);
+            for (int offset = 0; offset < message.length; offset += 200) {
+                writeRecord(output, message, offset, Math.min(200, message.length - offset));
+            }
+            output.flip();
+            segments.add(output);
+        } else {
+            ByteBuffer output = ByteBuffer.allocate(message.length + 5);
+            writeRecord(output, message, 0, message.length);
+            output.flip();
+            if ("segments".equals(fragment)) {
+                byte[] data = output.array();
+                for (int offset = 0; offset < data.length; offset += 100) {
+                    segments.add(ByteBuffer.wrap(data, offset,
+                            Math.min(100, data.length - offset)));
+                }
+            } else {
+                segments.add(output);
+            }
+        }
+        mSegments = segments.toArray(new ByteBuffer[0]);
+    }
+
+    @Benchmark
+    public SSLClientHello parse() {
+        SSLClientHelloParser parser = new SSLClientHelloParser();
+        for (ByteBuffer segment : mSegments) {
+            if (parser.feed(segment) != SSLClientHelloParser.RESULT_NEED_MORE) {
+                break;
+            }
+        }
+        return parser.clientHello();
+    }
+
+    @Benchmark
+    public String parseJa3Hash() {
+        return parse().ja3Hash();
+    }
+
+    private static byte[] clientHello() {
+        ByteBuffer extensions = ByteBuffer.allocate(PADDED_LENGTH);
+        writeExtension(extensions, GREASE, new byte[0]);
+        byte[] host = HOST.getBytes();
+        ByteBuffer serverName = ByteBuffer.allocate(host.length + 5);
+        serverName.putShort((short) (host.length + 3)).put((byte) 0)
+                .putShort((short) host.length).put(host);
+        writeExtension(extensions, 0, serverName.array());
+        // extended_master_secret, renegotiation_info, session_ticket
+        writeExtension(extensions, 23, new byte[0]);
+        writeExtension(extensions, 65281, new byte[] {0});
+        writeExtension(extensions, 35, new byte[0]);
+        // supported_groups: GREASE, x25519, secp256r1, secp384r1
+        writeExtension(extensions, 10, shorts(8, GREASE, 29, 23, 24));
+        writeExtension(extensions, 11, new byte[] {1, 0});
+        ByteBuffer alpn = ByteBuffer.allocate(14);
+        alpn.putShort((short) 12).put((byte) 2).put("h2".getBytes()).put((byte) 8)
+                .put("http/1.1".getBytes());
+        writeExtension(extensions, 16, alpn.array());
+        // status_request
+        writeExtension(extensions, 5, new byte[] {1, 0, 0, 0, 0});
+        // signature_algorithms
+        writeExtension(extensions, 13, shorts(16, 0x0403, 0x0804, 0x0401, 0x0503, 0x0805,
+                0x0501, 0x0806, 0x0601));
+        // signed_certificate_timestamp
+        writeExtension(extensions, 18, new byte[0]);
+        // key_share: a GREASE entry and a x25519 key
+        ByteBuffer keyShare = ByteBuffer.allocate(2 + 5 + 36);
+        keyShare.putShort((short) (5 + 36)).putShort((short) GREASE).putShort((short) 1)
+                .put((byte) 0).putShort((short) 29).putShort((short) 32).put(new byte[32]);
+        writeExtension(extensions, 51, keyShare.array());
+        // psk_key_exchange_modes
+        writeExtension(extensions, 45, new byte[] {1, 1});
+        ByteBuffer versions = ByteBuffer.allocate(7);
+        versions.put((byte) 6).putShort((short) GREASE).putShort((short) 0x0304)
+                .putShort((short) 0x0303);
+        writeExtension(extensions, 43, versions.array());
+        // compress_certificate
+        writeExtension(extensions, 27, new byte[] {2, 0, 2});
+        writeExtension(extensions, GREASE, new byte[] {0});
+
+        int headerLength = 4 + 2 + 32 + 1 + 32 + 2 + CIPHER_SUITES.length * 2 + 2 + 2;
+        // padding, the extension header takes 4 bytes.
+        int padding = Math.max(0, PADDED_LENGTH - headerLength - extensions.position() - 4);
+        writeExtension(extensions, 21, new byte[padding]);
+        extensions.flip();
+
+        ByteBuffer message = ByteBuffer.allocate(headerLength + extensions.remaining());
+        message.putInt(0x01000000 | (message.capacity() - 4));
+        message.putShort((short) 0x0303);
+        message.put(new byte[32]);
+        message.put((byte) 32).put(new byte[32]);
+        message.putShort((short) (CIPHER_SUITES.length * 2));
+        for (int cipherSuite : CIPHER_SUITES) {
+            message.putShort((short) cipherSuite);
+        }
+        message.put((byte) 1).put((byte) 0);
+        message.putShort((short) extensions.remaining()).put(extensions);
+        return message.array();
+    }
+
+    private static void writeRecord(ByteBuffer output, byte[] message, int offset, int length) {
+        output.put((byte) SSLUtils.SSL_CONTENT_TYPE_HANDSHAKE).putShort((short) 0x0301)
+                .putShort((short) length).put(message, offset, length);
+    }
+
+    private static void writeExtension(ByteBuffer output, int type, byte[] data) {
+        output.putShort((short) type).putShort((short) data.length).put(data);
+    }
+
+    private static byte[] shorts(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 2);
+        for (int value : values) {
+            buffer.putShort((short) value);
+        }
+        return buffer.array();
+    }
+
+}
@@ -0,0 +1,220 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ssl;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Encrypting and decrypting application data by a pair of {@link SSLCodec} connected in memory,
+ * the engines are the JVM's default engines instead of the Android ones. The certificate is a
+ * self-signed one generated in the setup.
+ *
+ * @author Megatron King
+ * @since 2019-04-18 10:44
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SSLCodecBenchmark {
+
+    private static final String HOST = "www.example.com";
+    private static final char[] PASSWORD = "netbare".toCharArray();
+
+    private static final int MAX_FLIGHTS = 32;
+
+    @Param({"1400", "16384"})
+    public int payloadSize;
+
+    private SSLContext mServerContext;
+    private SSLContext mClientContext;
+
+    private Peer mClient;
+    private Peer mServer;
+    private ByteBuffer mPayload;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        X500Name name = new X500Name("CN=" + HOST);
+        long now = System.currentTimeMillis();
+        X509Certificate cert = new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now),
+                        new Date(now - TimeUnit.DAYS.toMillis(1)),
+                        new Date(now + TimeUnit.DAYS.toMillis(1)), name, keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256WithRSAEncryption")
+                                .build(keyPair.getPrivate())));
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(HOST, keyPair.getPrivate(), PASSWORD, new Certificate[] { cert });
+        KeyManagerFactory keyManagerFactory =
+                KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD);
+        mServerContext = SSLContext.getInstance("TLS");
+        mServerContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry(HOST, cert);
+        TrustManagerFactory trustManagerFactory =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+        mClientContext = SSLContext.getInstance("TLS");
+        mClientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+
+        connect();
+        mPayload = ByteBuffer.allocate(payloadSize);
+    }
+
+    @Benchmark
+    public long encodeDecode() throws IOException {
+        mClient.codec.encode(mPayload.duplicate(), mClient);
+        mClient.flushTo(mServer);
+        return mServer.decrypted;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long handshake() throws IOException {
+        return connect();
+    }
+
+    private long connect() throws IOException {
+        SSLEngine clientEngine = mClientContext.createSSLEngine(HOST, 443);
+        clientEngine.setUseClientMode(true);
+        SSLEngine serverEngine = mServerContext.createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        mClient = new Peer(clientEngine);
+        mServer = new Peer(serverEngine);
+
+        mClient.codec.handshake(clientEngine, ByteBuffer.allocate(0), mClient);
+        int flights = 0;
+        while (mClient.flushTo(mServer) | mServer.flushTo(mClient)) {
+            if (++flights > MAX_FLIGHTS) {
+                throw new IOException("Handshake is not finished in " + MAX_FLIGHTS
+                        + " flights.");
+            }
+        }
+        return flights;
+    }
+
+    /**
+     * One side of the connection, the encrypted packets are collected and flushed to the other
+     * side together.
+     */
+    private static final class Peer implements SSLCodec.CodecCallback {
+
+        private final SSLCodec codec;
+        private final List<ByteBuffer> encrypted;
+
+        private ByteBuffer pending;
+        private long decrypted;
+
+        private Peer(final SSLEngine engine) {
+            this.codec = new SSLCodec(null) {
+                @Override
+                protected SSLEngine createEngine(SSLEngineFactory factory) {
+                    return engine;
+                }
+            };
+            this.encrypted = new ArrayList<>();
+        }
+
+        private boolean flushTo(Peer peer) throws IOException {
+            if (encrypted.isEmpty()) {
+                return false;
+            }
+            int length = peer.pending != null ? peer.pending.remaining() : 0;
+            for (ByteBuffer buffer : encrypted) {
+                length += buffer.remaining();
+            }
+            ByteBuffer merged = ByteBuffer.allocate(length);
+            if (peer.pending != null) {
+                merged.put(peer.pending);
+                peer.pending = null;
+            }
+            for (ByteBuffer buffer : encrypted) {
+                merged.put(buffer);
+            }
+            encrypted.clear();
+            merged.flip();
+            peer.codec.decode(merged, peer);
+            return true;
+        }
+
+        @Override
+        public void onPending(ByteBuffer buffer) {
+            // The buffer shares the input array, copy it before the input is reused.
+            pending = ByteBuffer.allocate(buffer.remaining());
+            pending.put(buffer);
+            pending.flip();
+        }
+
+        @Override
+        public void onProcess(ByteBuffer buffer) throws IOException {
+            throw new IOException("Unexpected packet is not decoded.");
+        }
+
+        @Override
+        public void onEncrypt(ByteBuffer buffer) {
+            encrypted.add(buffer);
+        }
+
+        @Override
+        public void onDecrypt(ByteBuffer buffer) {
+            decrypted += buffer.remaining();
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ws;
+
+import android.support.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding masked client frames, about 1 MB of binary messages per operation. The frames are
+ * forwarded in fragments of {@link #fragmentSize} bytes like TCP segments, so frame headers and
+ * payloads are split at any offset, and each payload is unmasked and masked back in place.
+ * Multiply the operations per second by 1 MB to get the MB/s.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 17:50
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketDecoderBenchmark {
+
+    private static final int TOTAL_PAYLOAD_SIZE = 1024 * 1024;
+
+    @Param({"125", "4096", "65536"})
+    public int payloadSize;
+
+    @Param({"1400", "16384"})
+    public int fragmentSize;
+
+    private ByteBuffer[] mFragments;
+    private WebSocketDecoder mDecoder;
+
+    private long mDataLength;
+
+    @Setup
+    public void setup() {
+        byte[] frames = frames(payloadSize);
+        int count = (frames.length + fragmentSize - 1) / fragmentSize;
+        mFragments = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            int offset = i * fragmentSize;
+            mFragments[i] = ByteBuffer.wrap(frames, offset,
+                    Math.min(fragmentSize, frames.length - offset));
+        }
+        mDecoder = new WebSocketDecoder(new WebSocketMessageCallback() {
+
+            @Override
+            public void onMessageStart(boolean text) {
+            }
+
+            @Override
+            public void onMessageData(@NonNull ByteBuffer data) {
+                mDataLength += data.remaining();
+            }
+
+            @Override
+            public void onMessageEnd() {
+            }
+
+            @Override
+            public void onPing(@NonNull byte[] ping) {
+            }
+
+            @Override
+            public void onPong(@NonNull byte[] pong) {
+            }
+
+            @Override
+            public void onClose(int code, @NonNull String reason) {
+            }
+
+        });
+    }
+
+    @Benchmark
+    public long decode() throws IOException {
+        mDataLength = 0;
+        for (ByteBuffer fragment : mFragments) {
+            mDecoder.decode(fragment);
+        }
+        return mDataLength;
+    }
+
+    private static byte[] frames(int payloadSize) {
+        int frameCount = TOTAL_PAYLOAD_SIZE / payloadSize;
+        int headerSize = 2 + 4;
+        if (payloadSize > WebSocketProtocol.PAYLOAD_SHORT_MAX) {
+            headerSize += 8;
+        } else if (payloadSize > WebSocketProtocol.PAYLOAD_BYTE_MAX) {
+            headerSize += 2;
+        }
+        ByteBuffer output = ByteBuffer.allocate(frameCount * (headerSize + payloadSize));
+        Random random = new Random(7);
+        byte[] key = new byte[4];
+        byte[] payload = new byte[payloadSize];
+        for (int i = 0; i < frameCount; i++) {
+            output.put((byte) (WebSocketProtocol.B0_FLAG_FIN | WebSocketProtocol.OPCODE_BINARY));
+            if (payloadSize > WebSocketProtocol.PAYLOAD_SHORT_MAX) {
+                output.put((byte) (WebSocketProtocol.B1_FLAG_MASK
+                        | WebSocketProtocol.PAYLOAD_LONG));
+                output.putLong(payloadSize);
+            } else if (payloadSize > WebSocketProtocol.PAYLOAD_BYTE_MAX) {
+                output.put((byte) (WebSocketProtocol.B1_FLAG_MASK
+                        | WebSocketProtocol.PAYLOAD_SHORT));
+                output.putShort((short) payloadSize);
+            } else {
+                output.put((byte) (WebSocketProtocol.B1_FLAG_MASK | payloadSize));
+            }
+            random.nextBytes(key);
+            random.nextBytes(payload);
+            output.put(key);
+            WebSocketProtocol.toggleMask(payload, key);
+            output.put(payload);
+        }
+        return output.array();
+    }
+
+}
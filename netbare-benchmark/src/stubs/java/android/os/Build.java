@@ -0,0 +1,44 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package android.os;
+
+/**
+ * A JVM replacement of the Android build information, it pretends to be Android 9.
+ *
+ * @author Megatron King
+ * @since 2019-04-18 10:05
+ */
+public final class Build {
+
+    private Build() {
+    }
+
+    public static class VERSION {
+
+        public static final int SDK_INT = VERSION_CODES.P;
+        public static final String RELEASE = "9";
+
+    }
+
+    public static class VERSION_CODES {
+
+        public static final int LOLLIPOP = 21;
+        public static final int O_MR1 = 27;
+        public static final int P = 28;
+
+    }
+
+}
@@ -0,0 +1,37 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package android.support.v4.content;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * The support library is an AAR which a JVM module can't depend on, this stub only makes the core
+ * sources compile and is never called by the benchmarks.
+ *
+ * @author Megatron King
+ * @since 2019-04-18 10:07
+ */
+public final class ContextCompat {
+
+    private ContextCompat() {
+    }
+
+    public static void startForegroundService(Context context, Intent intent) {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -0,0 +1,450 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare;
+
+import android.support.annotation.Nullable;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A host matcher compiled from a collection of host rules, the matching cost doesn't grow with the
+ * count of rules. The supported rules:
+ *
+ * <ul>
+ *     <li>A domain, like example.com, matches the domain only.</li>
+ *     <li>A domain with a leading wildcard label, like *.example.com, matches all subdomains.</li>
+ *     <li>A domain with wildcard labels in the middle, like cdn.*.example.com, a wildcard label
+ *     matches exactly one label.</li>
+ *     <li>An IPv4 or IPv6 address, like 10.0.0.1 or 2001:db8::1.</li>
+ *     <li>An IPv4 or IPv6 CIDR range, like 10.0.0.0/8 or 2001:db8::/32.</li>
+ * </ul>
+ *
+ * Domains are kept in a trie of the reversed labels, so a lookup walks the labels of the domain
+ * once. Addresses are kept in one sorted table per prefix length, a lookup does a binary search
+ * for each prefix length in use.
+ *
+ * @author Megatron King
+ * @since 2019-04-14 09:42
+ */
+/* package */ final class HostMatcher {
+
+    private static final String WILDCARD = "*";
+
+    private final DomainNode mDomains;
+
+    private final int[] mIpv4PrefixLengths;
+    private final long[][] mIpv4Networks;
+
+    private final int[] mIpv6PrefixLengths;
+    private final long[][][] mIpv6Networks;
+
+    private final boolean mEmpty;
+
+    private HostMatcher(DomainNode domains, List<List<long[]>> ipv4Networks,
+                        List<List<long[]>> ipv6Networks, boolean empty) {
+        this.mDomains = domains;
+        this.mEmpty = empty;
+
+        int ipv4Count = countNonEmpty(ipv4Networks);
+        mIpv4PrefixLengths = new int[ipv4Count];
+        mIpv4Networks = new long[ipv4Count][];
+        int index = 0;
+        for (int length = ipv4Networks.size() - 1; length >= 0; length--) {
+            List<long[]> networks = ipv4Networks.get(length);
+            if (networks == null) {
+                continue;
+            }
+            long[] table = new long[networks.size()];
+            for (int i = 0; i < table.length; i++) {
+                table[i] = networks.get(i)[0];
+            }
+            Arrays.sort(table);
+            mIpv4PrefixLengths[index] = length;
+            mIpv4Networks[index++] = table;
+        }
+
+        int ipv6Count = countNonEmpty(ipv6Networks);
+        mIpv6PrefixLengths = new int[ipv6Count];
+        mIpv6Networks = new long[ipv6Count][][];
+        index = 0;
+        for (int length = ipv6Networks.size() - 1; length >= 0; length--) {
+            List<long[]> networks = ipv6Networks.get(length);
+            if (networks == null) {
+                continue;
+            }
+            long[][] table = networks.toArray(new long[networks.size()][]);
+            Arrays.sort(table, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] o1, long[] o2) {
+                    return compareIpv6(o1[0], o1[1], o2[0], o2[1]);
+                }
+            });
+            mIpv6PrefixLengths[index] = length;
+            mIpv6Networks[index++] = table;
+        }
+    }
+
+    /**
+     * Compile the host rules, invalid rules are ignored.
+     *
+     * @param rules A collection of domain, ip or CIDR rules.
+     * @return A compiled host matcher.
+     */
+    /* package */ static HostMatcher compile(@Nullable Collection<String> rules) {
+        DomainNode domains = new DomainNode();
+        List<List<long[]>> ipv4Networks = newNetworks(33);
+        List<List<long[]>> ipv6Networks = newNetworks(129);
+        boolean empty = true;
+        if (rules != null) {
+            for (String rule : rules) {
+                if (rule == null) {
+                    continue;
+                }
+                rule = rule.trim().toLowerCase();
+                if (rule.isEmpty()) {
+                    continue;
+                }
+                boolean added;
+                if (rule.indexOf('/') >= 0 || isIpv4(rule) || rule.indexOf(':') >= 0) {
+                    added = addNetwork(rule, ipv4Networks, ipv6Networks);
+                } else {
+                    added = addDomain(rule, domains);
+                }
+                if (added) {
+                    empty = false;
+                } else {
+                    NetBareLog.w("Ignore an invalid host rule: " + rule);
+                }
+            }
+        }
+        return new HostMatcher(domains, ipv4Networks, ipv6Networks, empty);
+    }
+
+    /**
+     * Whether there is no valid rule.
+     *
+     * @return True if nothing can be matched.
+     */
+    /* package */ boolean isEmpty() {
+        return mEmpty;
+    }
+
+    /**
+     * Whether the domain matches any domain rule.
+     *
+     * @param domain A domain, the port suffix is ignored.
+     * @return True if matched.
+     */
+    /* package */ boolean matchesDomain(@Nullable String domain) {
+        if (domain == null || domain.isEmpty()) {
+            return false;
+        }
+        domain = domain.toLowerCase();
+        int end = domain.length();
+        int colon = domain.indexOf(':');
+        if (colon >= 0 && colon == domain.lastIndexOf(':')) {
+            // Strip the port of a host header.
+            end = colon;
+        }
+        if (end > 0 && domain.charAt(end - 1) == '.') {
+            // The fully qualified form.
+            end--;
+        }
+        return end > 0 && matchDomain(mDomains, domain, end);
+    }
+
+    /**
+     * Whether the IPv4 address matches any ip or CIDR rule.
+     *
+     * @param ip An IPv4 address.
+     * @return True if matched.
+     */
+    /* package */ boolean matchesIp(int ip) {
+        long address = ip & 0xFFFFFFFFL;
+        for (int i = 0; i < mIpv4PrefixLengths.length; i++) {
+            if (Arrays.binarySearch(mIpv4Networks[i],
+                    address & ipv4Mask(mIpv4PrefixLengths[i])) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the address matches any ip or CIDR rule.
+     *
+     * @param address An IPv4 or IPv6 address.
+     * @return True if matched.
+     */
+    /* package */ boolean matchesIp(@Nullable InetAddress address) {
+        if (address == null) {
+            return false;
+        }
+        byte[] bytes = address.getAddress();
+        if (bytes.length == 4) {
+            return matchesIp(readInt(bytes, 0));
+        }
+        return matchesIp(readLong(bytes, 0), readLong(bytes, 8));
+    }
+
+    /**
+     * Whether the IPv6 address matches any ip or CIDR rule.
+     *
+     * @param high The high 64 bits of the IPv6 address.
+     * @param low The low 64 bits of the IPv6 address.
+     * @return True if matched.
+     */
+    /* package */ boolean matchesIp(long high, long low) {
+        for (int i = 0; i < mIpv6PrefixLengths.length; i++) {
+            int length = mIpv6PrefixLengths[i];
+            if (searchIpv6(mIpv6Networks[i], high & ipv6HighMask(length),
+                    low & ipv6LowMask(length))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean addDomain(String rule, DomainNode root) {
+        // The trailing empty label of the fully qualified form is dropped by split.
+        String[] labels = rule.split("\\.");
+        DomainNode node = root;
+        for (int i = labels.length - 1; i >= 0; i--) {
+            String label = labels[i];
+            if (label.isEmpty()) {
+                return false;
+            }
+            if (WILDCARD.equals(label)) {
+                if (i == 0) {
+                    node.subdomains = true;
+                    return true;
+                }
+                if (node.wildcard == null) {
+                    node.wildcard = new DomainNode();
+                }
+                node = node.wildcard;
+            } else {
+                if (node.children == null) {
+                    node.children = new HashMap<>(4);
+                }
+                DomainNode child = node.children.get(label);
+                if (child == null) {
+                    child = new DomainNode();
+                    node.children.put(label, child);
+                }
+                node = child;
+            }
+        }
+        node.terminal = true;
+        return true;
+    }
+
+    private static boolean matchDomain(DomainNode node, String domain, int end) {
+        if (end < 0) {
+            // All labels are consumed.
+            return node.terminal;
+        }
+        if (node.subdomains) {
+            return true;
+        }
+        int dot = domain.lastIndexOf('.', end - 1);
+        if (node.children != null) {
+            DomainNode child = node.children.get(domain.substring(dot + 1, end));
+            if (child != null && matchDomain(child, domain, dot)) {
+                return true;
+            }
+        }
+        return node.wildcard != null && matchDomain(node.wildcard, domain, dot);
+    }
+
+    private static boolean addNetwork(String rule, List<List<long[]>> ipv4Networks,
+                                      List<List<long[]>> ipv6Networks) {
+        String host = rule;
+        int prefixLength = -1;
+        int slash = rule.indexOf('/');
+        if (slash >= 0) {
+            host = rule.substring(0, slash);
+            prefixLength = NetBareUtils.parseInt(rule.substring(slash + 1), -1);
+            if (prefixLength < 0) {
+                return false;
+            }
+        }
+        if (isIpv4(host)) {
+            if (prefixLength > 32) {
+                return false;
+            }
+            int length = prefixLength < 0 ? 32 : prefixLength;
+            long network = (NetBareUtils.convertIp(host) & 0xFFFFFFFFL) & ipv4Mask(length);
+            add(ipv4Networks, length, new long[] {network});
+            return true;
+        }
+        if (host.indexOf(':') < 0) {
+            return false;
+        }
+        byte[] bytes;
+        try {
+            // A literal with ':' is never resolved by DNS.
+            InetAddress address = InetAddress.getByName(host);
+            if (!(address instanceof Inet6Address)) {
+                return false;
+            }
+            bytes = address.getAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+        if (prefixLength > 128) {
+            return false;
+        }
+        int length = prefixLength < 0 ? 128 : prefixLength;
+        add(ipv6Networks, length, new long[] {readLong(bytes, 0) & ipv6HighMask(length),
+                readLong(bytes, 8) & ipv6LowMask(length)});
+        return true;
+    }
+
+    /**
+     * One list per prefix length, the lists are created on demand.
+     */
+    private static List<List<long[]>> newNetworks(int count) {
+        List<List<long[]>> networks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            networks.add(null);
+        }
+        return networks;
+    }
+
+    private static void add(List<List<long[]>> networks, int length, long[] network) {
+        List<long[]> list = networks.get(length);
+        if (list == null) {
+            list = new ArrayList<>();
+            networks.set(length, list);
+        }
+        list.add(network);
+    }
+
+    private static boolean isIpv4(String host) {
+        int parts = 0;
+        int value = -1;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c == '.') {
+                if (value < 0) {
+                    return false;
+                }
+                parts++;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return parts == 3 && value >= 0;
+    }
+
+    private static boolean searchIpv6(long[][] table, long high, long low) {
+        int from = 0;
+        int to = table.length - 1;
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            int result = compareIpv6(table[mid][0], table[mid][1], high, low);
+            if (result < 0) {
+                from = mid + 1;
+            } else if (result > 0) {
+                to = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int compareIpv6(long high1, long low1, long high2, long low2) {
+        // Unsigned comparing, flip the sign bits.
+        if (high1 != high2) {
+            return (high1 ^ Long.MIN_VALUE) < (high2 ^ Long.MIN_VALUE) ? -1 : 1;
+        }
+        if (low1 != low2) {
+            return (low1 ^ Long.MIN_VALUE) < (low2 ^ Long.MIN_VALUE) ? -1 : 1;
+        }
+        return 0;
+    }
+
+    private static long ipv4Mask(int length) {
+        return length == 0 ? 0 : (0xFFFFFFFFL << (32 - length)) & 0xFFFFFFFFL;
+    }
+
+    private static long ipv6HighMask(int length) {
+        return length == 0 ? 0 : length >= 64 ? -1L : -1L << (64 - length);
+    }
+
+    private static long ipv6LowMask(int length) {
+        return length <= 64 ? 0 : -1L << (128 - length);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return (readInt(bytes, offset) & 0xFFFFFFFFL) << 32
+                | (readInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static int countNonEmpty(List<List<long[]>> networks) {
+        int count = 0;
+        for (List<long[]> list : networks) {
+            if (list != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static final class DomainNode {
+
+        private Map<String, DomainNode> children;
+
+        /**
+         * The child of a wildcard label in the middle.
+         */
+        private DomainNode wildcard;
+
+        /**
+         * A rule ends at this node.
+         */
+        private boolean terminal;
+
+        /**
+         * A rule with a leading wildcard label ends at this node.
+         */
+        private boolean subdomains;
+
+    }
+
+}
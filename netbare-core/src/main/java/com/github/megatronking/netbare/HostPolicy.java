@@ -0,0 +1,73 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+
+/**
+ * The compiled allowed and disallowed hosts, it decides whether a connection should be captured.
+ * The policy is immutable, swap the whole instance to update the hosts.
+ *
+ * @author Megatron King
+ * @since 2019-04-14 11:05
+ */
+/* package */ final class HostPolicy {
+
+    private final HostMatcher mAllowedHosts;
+    private final HostMatcher mDisallowedHosts;
+
+    /* package */ HostPolicy(@Nullable Collection<String> allowedHosts,
+                             @Nullable Collection<String> disallowedHosts) {
+        this.mAllowedHosts = HostMatcher.compile(allowedHosts);
+        this.mDisallowedHosts = HostMatcher.compile(disallowedHosts);
+    }
+
+    /**
+     * Whether the connection is allowed to be captured. Disallowed hosts have a higher priority,
+     * if there are allowed hosts, only the matched connections are allowed.
+     *
+     * @param domain The domain of the connection, may be null.
+     * @param ip The remote IPv4 address.
+     * @return True if allowed.
+     */
+    /* package */ boolean isAllowed(@Nullable String domain, int ip) {
+        if (mDisallowedHosts.matchesDomain(domain) || mDisallowedHosts.matchesIp(ip)) {
+            return false;
+        }
+        return mAllowedHosts.isEmpty() || mAllowedHosts.matchesDomain(domain)
+                || mAllowedHosts.matchesIp(ip);
+    }
+
+    /**
+     * Whether the IPv6 connection is allowed to be captured, see
+     * {@link #isAllowed(String, int)}.
+     *
+     * @param domain The domain of the connection, may be null.
+     * @param high The high 64 bits of the remote IPv6 address.
+     * @param low The low 64 bits of the remote IPv6 address.
+     * @return True if allowed.
+     */
+    /* package */ boolean isAllowed(@Nullable String domain, long high, long low) {
+        if (mDisallowedHosts.matchesDomain(domain) || mDisallowedHosts.matchesIp(high, low)) {
+            return false;
+        }
+        return mAllowedHosts.isEmpty() || mAllowedHosts.matchesDomain(domain)
+                || mAllowedHosts.matchesIp(high, low);
+    }
+
+}
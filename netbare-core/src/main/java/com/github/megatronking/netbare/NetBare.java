@@ -24,7 +24,11 @@ import android.support.v4.content.ContextCompat;
 
 import com.github.megatronking.netbare.gateway.DefaultVirtualGatewayFactory;
 import com.github.megatronking.netbare.gateway.VirtualGatewayFactory;
+import com.github.megatronking.netbare.metrics.Metrics;
+import com.github.megatronking.netbare.metrics.MetricsListener;
+import com.github.megatronking.netbare.metrics.MetricsSnapshot;
 
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -56,6 +60,7 @@ public final class NetBare {
 
     private Application mApp;
     private NetBareConfig mNetBareConfig;
+    private volatile HostPolicy mHostPolicy;
 
     private boolean mAlive;
 
@@ -101,13 +106,7 @@ public final class NetBare {
      * @param config The configuration for NetBare service.
      */
     public void start(@NonNull NetBareConfig config) {
-        if (config.mtu <= 0) {
-            throw new RuntimeException("Must set mtu in NetBareConfig");
-        }
-        if (config.address == null) {
-            throw new RuntimeException("Must set address in NetBareConfig");
-        }
-        mNetBareConfig = config;
+        applyConfig(config);
         Intent intent = new Intent(NetBareService.ACTION_START);
         intent.setPackage(mApp.getPackageName());
         ContextCompat.startForegroundService(mApp, intent);
@@ -132,6 +131,19 @@ public final class NetBare {
         return mAlive;
     }
 
+    /**
+     * Replace the allowed and disallowed hosts of the current configuration at runtime, the new
+     * hosts are compiled before replacing and take effect on the new connections. See
+     * {@link NetBareConfig.Builder#addAllowedHost(String)} for the supported host rules.
+     *
+     * @param allowedHosts Hosts allowed to capture, empty means all.
+     * @param disallowedHosts Hosts denied access to capture.
+     */
+    public void setHosts(@NonNull Collection<String> allowedHosts,
+                         @NonNull Collection<String> disallowedHosts) {
+        mHostPolicy = new HostPolicy(allowedHosts, disallowedHosts);
+    }
+
     /**
      * Register a callback to be invoked when the service state changes.
      *
@@ -150,10 +162,59 @@ public final class NetBare {
         mListeners.remove(listener);
     }
 
+    /**
+     * Take a snapshot of the traffic and latency metrics, it never blocks the data path. The
+     * metrics of a single session are kept in {@link com.github.megatronking.netbare.net.Session}.
+     *
+     * @return A snapshot of the process wide metrics.
+     */
+    @NonNull
+    public MetricsSnapshot getMetrics() {
+        return Metrics.get().snapshot();
+    }
+
+    /**
+     * Register a callback to receive metrics snapshots every second on a background thread.
+     *
+     * @param listener The callback to register.
+     */
+    public void registerMetricsListener(@NonNull MetricsListener listener) {
+        Metrics.get().registerListener(listener);
+    }
+
+    /**
+     * Remove a previously registered metrics callback.
+     *
+     * @param listener The callback to remove.
+     */
+    public void unregisterMetricsListener(@NonNull MetricsListener listener) {
+        Metrics.get().unregisterListener(listener);
+    }
+
+    /**
+     * Validate and apply the configuration, the NetBare thread reads it when the service starts.
+     *
+     * @param config The configuration for NetBare service.
+     */
+    /* package */ void applyConfig(@NonNull NetBareConfig config) {
+        if (config.mtu <= 0) {
+            throw new RuntimeException("Must set mtu in NetBareConfig");
+        }
+        if (config.address == null) {
+            throw new RuntimeException("Must set address in NetBareConfig");
+        }
+        mNetBareConfig = config;
+        mHostPolicy = new HostPolicy(config.allowedHosts, config.disallowedHosts);
+    }
+
     /* package */ NetBareConfig getConfig() {
         return mNetBareConfig;
     }
 
+    /* package */ HostPolicy getHostPolicy() {
+        return mHostPolicy;
+    }
+
     /* package */ VirtualGatewayFactory getGatewayFactory() {
         // Make sure the virtual gateway not be null.
         return mNetBareConfig.gatewayFactory == null ? DefaultVirtualGatewayFactory.create() :
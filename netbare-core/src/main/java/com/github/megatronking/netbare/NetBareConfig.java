@@ -45,8 +45,10 @@ public final class NetBareConfig {
     PendingIntent configureIntent;
     int mtu;
     IpAddress address;
+    IpAddress address6;
     Set<IpAddress> routes;
     Set<String> dnsServers;
+    boolean dnsCache;
     Set<String> allowedApplications;
     Set<String> disallowedApplications;
     Set<String> allowedHosts;
@@ -161,7 +163,7 @@ public final class NetBareConfig {
          * Adding an address implicitly allows traffic from that address family (i.e., IPv4 or IPv6)
          * to be routed over the VPN.
          *
-         * @param address IPv4 or IPv6 address.
+         * @param address IPv4 address.
          * @return this {@link Builder} object to facilitate chaining method calls.
          */
         public Builder setAddress(@NonNull IpAddress address) {
@@ -169,6 +171,19 @@ public final class NetBareConfig {
             return this;
         }
 
+        /**
+         * Add an IPv6 network address to the VPN interface, IPv6 packets are proxied only if the
+         * interface has an IPv6 address. Add an IPv6 route like ::/0 to route the IPv6 traffic
+         * over the VPN, otherwise the apps use the IPv6 networks directly.
+         *
+         * @param address IPv6 address, like fd00:1:fd00:1:fd00:1:fd00:1/128.
+         * @return this {@link Builder} object to facilitate chaining method calls.
+         */
+        public Builder setIpv6Address(@NonNull IpAddress address) {
+            mConfig.address6 = address;
+            return this;
+        }
+
         /**
          * Add a network route to the VPN interface. Both IPv4 and IPv6 routes are supported.
          *
@@ -198,6 +213,21 @@ public final class NetBareConfig {
             return this;
         }
 
+        /**
+         * Handle the DNS queries to port 53 or to the DNS servers added by
+         * {@link #addDnsServer(String)} inside NetBare: the responses are cached by their TTLs,
+         * identical queries share one lookup, and the resolved host names are set to
+         * {@link Session#host} of the later sessions. The DNS packets no longer go through the
+         * virtual gateway if it is enabled. It is disabled by default.
+         *
+         * @param dnsCache Should handle and cache the DNS queries.
+         * @return this {@link Builder} object to facilitate chaining method calls.
+         */
+        public Builder cacheDns(boolean dnsCache) {
+            mConfig.dnsCache = dnsCache;
+            return this;
+        }
+
         /**
          * Adds an application that's allowed to access the VPN connection.
          *
@@ -229,9 +259,13 @@ public final class NetBareConfig {
         }
 
         /**
-         * Adds an ip host or a domain host that's allowed to capture.
+         * Adds an ip host or a domain host that's allowed to capture. Supported rules: a domain
+         * like example.com, a wildcard domain like *.example.com (all subdomains) or
+         * cdn.*.example.com (one label), an IPv4 or IPv6 address, and a CIDR range like
+         * 10.0.0.0/8 or 2001:db8::/32. The hosts are compiled once when NetBare starts, use
+         * {@link NetBare#setHosts} to replace them at runtime.
          *
-         * @param host An ip host or a domain host, not support the domain host.
+         * @param host An ip host, a CIDR range or a domain host.
          * @return this {@link Builder} object to facilitate chaining method calls.
          */
         public Builder addAllowedHost(@NonNull String host) {
@@ -240,9 +274,10 @@ public final class NetBareConfig {
         }
 
         /**
-         * Adds an ip host or a domain host that's denied access to capture.
+         * Adds an ip host or a domain host that's denied access to capture, the rules are the
+         * same as {@link #addAllowedHost(String)}.
          *
-         * @param host An ip host or a domain host, not support the domain host.
+         * @param host An ip host, a CIDR range or a domain host.
          * @return this {@link Builder} object to facilitate chaining method calls.
          */
         public Builder addDisallowedHost(@NonNull String host) {
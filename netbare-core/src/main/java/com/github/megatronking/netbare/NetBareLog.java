@@ -27,7 +27,8 @@ public final class NetBareLog {
 
     private static final String TAG = "NetBare";
 
-    private static boolean sDebug;
+    private static volatile boolean sDebug;
+    private static volatile int sLevel = Log.VERBOSE;
 
     private NetBareLog() {
     }
@@ -36,13 +37,43 @@ public final class NetBareLog {
         sDebug = debug;
     }
 
+    /**
+     * Set the lowest priority of the logs to print, the default is {@link Log#VERBOSE}. Logs are
+     * only printed in debug mode.
+     *
+     * @param level A priority constant of {@link Log}, such as {@link Log#INFO}.
+     */
+    public static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    /**
+     * Whether the logs will be printed, use it to avoid building log messages in hot paths.
+     *
+     * @return True if debug logs are enabled.
+     */
+    public static boolean isDebug() {
+        return sDebug;
+    }
+
+    /**
+     * Whether the logs of the priority will be printed. Check it before building the log
+     * arguments in hot paths, so nothing is formatted or boxed when the logs are disabled.
+     *
+     * @param priority A priority constant of {@link Log}, such as {@link Log#VERBOSE}.
+     * @return True if the logs of the priority are enabled.
+     */
+    public static boolean isLoggable(int priority) {
+        return sDebug && priority >= sLevel;
+    }
+
     /**
      * Print a verbose level log in console.
      *
      * @param msg The message you would like logged.
      */
     public static void v(String msg) {
-        if (!sDebug || msg == null) {
+        if (msg == null || !isLoggable(Log.VERBOSE)) {
             return;
         }
         Log.v(TAG, msg);
@@ -55,7 +86,10 @@ public final class NetBareLog {
      * @param args Arguments referenced by the format specifiers in the format string.
      */
     public static void v(String msg, Object... args) {
-        v(format(msg, args));
+        if (msg == null || !isLoggable(Log.VERBOSE)) {
+            return;
+        }
+        Log.v(TAG, format(msg, args));
     }
 
     /**
@@ -64,7 +98,7 @@ public final class NetBareLog {
      * @param msg The message you would like logged.
      */
     public static void d(String msg) {
-        if (!sDebug || msg == null) {
+        if (msg == null || !isLoggable(Log.DEBUG)) {
             return;
         }
         Log.d(TAG, msg);
@@ -77,7 +111,10 @@ public final class NetBareLog {
      * @param args Arguments referenced by the format specifiers in the format string.
      */
     public static void d(String msg, Object... args) {
-        d(format(msg, args));
+        if (msg == null || !isLoggable(Log.DEBUG)) {
+            return;
+        }
+        Log.d(TAG, format(msg, args));
     }
 
     /**
@@ -86,7 +123,7 @@ public final class NetBareLog {
      * @param msg The message you would like logged.
      */
     public static void i(String msg) {
-        if (!sDebug || msg == null) {
+        if (msg == null || !isLoggable(Log.INFO)) {
             return;
         }
         Log.i(TAG, msg);
@@ -99,7 +136,10 @@ public final class NetBareLog {
      * @param args Arguments referenced by the format specifiers in the format string.
      */
     public static void i(String msg, Object... args) {
-        i(format(msg, args));
+        if (msg == null || !isLoggable(Log.INFO)) {
+            return;
+        }
+        Log.i(TAG, format(msg, args));
     }
 
     /**
@@ -108,7 +148,7 @@ public final class NetBareLog {
      * @param msg The message you would like logged.
      */
     public static void e(String msg) {
-        if (!sDebug || msg == null) {
+        if (msg == null || !isLoggable(Log.ERROR)) {
             return;
         }
         Log.e(TAG, msg);
@@ -121,7 +161,10 @@ public final class NetBareLog {
      * @param args Arguments referenced by the format specifiers in the format string.
      */
     public static void e(String msg, Object... args) {
-        e(format(msg, args));
+        if (msg == null || !isLoggable(Log.ERROR)) {
+            return;
+        }
+        Log.e(TAG, format(msg, args));
     }
 
     /**
@@ -130,7 +173,7 @@ public final class NetBareLog {
      * @param msg The message you would like logged.
      */
     public static void w(String msg) {
-        if (!sDebug || msg == null) {
+        if (msg == null || !isLoggable(Log.WARN)) {
             return;
         }
         Log.w(TAG, msg);
@@ -143,7 +186,10 @@ public final class NetBareLog {
      * @param args Arguments referenced by the format specifiers in the format string.
      */
     public static void w(String msg, Object... args) {
-        w(format(msg, args));
+        if (msg == null || !isLoggable(Log.WARN)) {
+            return;
+        }
+        Log.w(TAG, format(msg, args));
     }
 
     /**
@@ -152,7 +198,7 @@ public final class NetBareLog {
      * @param throwable The error you would like logged.
      */
     public static void wtf(Throwable throwable) {
-        if (!sDebug || throwable == null) {
+        if (throwable == null || !isLoggable(Log.ASSERT)) {
             return;
         }
         Log.wtf(TAG, throwable);
@@ -108,7 +108,7 @@ public abstract class NetBareService extends VpnService {
 
         NetBareLog.i("Start NetBare service!");
         SSLEngineFactory.updateProviders(config.keyManagerProvider, config.trustManagerProvider);
-        mNetBareThread = new NetBareThread(this, config);
+        mNetBareThread = new NetBareThread(new ServiceVpnBackend(this), config);
         mNetBareThread.start();
     }
 
@@ -15,13 +15,8 @@
  */
 package com.github.megatronking.netbare;
 
-import android.content.pm.PackageManager;
-import android.net.VpnService;
-import android.os.ParcelFileDescriptor;
-import android.os.SystemClock;
-
-import com.github.megatronking.netbare.ip.IpAddress;
 import com.github.megatronking.netbare.ip.IpHeader;
+import com.github.megatronking.netbare.ip.Ipv6Header;
 import com.github.megatronking.netbare.ip.Protocol;
 import com.github.megatronking.netbare.net.UidDumper;
 import com.github.megatronking.netbare.proxy.IcmpProxyServerForwarder;
@@ -29,9 +24,7 @@ import com.github.megatronking.netbare.proxy.ProxyServerForwarder;
 import com.github.megatronking.netbare.proxy.TcpProxyServerForwarder;
 import com.github.megatronking.netbare.proxy.UdpProxyServerForwarder;
 
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -40,8 +33,9 @@ import java.util.Map;
 
 /**
  * A work thread running NetBare core logic. NetBase established the VPN connection is this thread
- * and read packets from the VPN file descriptor and transfer them to local proxy servers. Every
- * IP protocol runs an independent local proxy server to receive the packets.
+ * and read packets from the VPN descriptor and transfer them to local proxy servers. Every
+ * IP protocol runs an independent local proxy server to receive the packets. The VPN is provided
+ * by a {@link VpnBackend}, so the thread runs the same on a device and on a plain JVM.
  *
  * @author Megatron King
  * @since 2018-10-08 19:38
@@ -49,24 +43,30 @@ import java.util.Map;
 /* package */ final class NetBareThread extends Thread {
 
 	private final NetBareConfig mConfig;
-	private final VpnService mVpnService;
+	private final VpnBackend mBackend;
 
-	private ParcelFileDescriptor vpnDescriptor;
-	private FileInputStream input;
-	private FileOutputStream output;
+	private VpnDescriptor vpnDescriptor;
+	private InputStream input;
+	private OutputStream output;
 
 	private PacketsTransfer packetsTransfer;
 
-	/* package */ NetBareThread(VpnService vpnService, NetBareConfig config) {
+	/* package */ NetBareThread(VpnBackend backend, NetBareConfig config) {
 		super("NetBare");
-		this.mVpnService = vpnService;
+		this.mBackend = backend;
 		this.mConfig = config;
 	}
 
 	@Override
 	public void interrupt() {
 		super.interrupt();
-		packetsTransfer.stop();
+		if (Thread.currentThread() == this) {
+			// A blocking read restores the interrupt status, the stopping thread releases all.
+			return;
+		}
+		if (packetsTransfer != null) {
+			packetsTransfer.stop();
+		}
 		NetBareUtils.closeQuietly(vpnDescriptor);
 		NetBareUtils.closeQuietly(input);
 		NetBareUtils.closeQuietly(output);
@@ -80,7 +80,7 @@ import java.util.Map;
 		NetBare.get().notifyServiceStarted();
 
 		try {
-			packetsTransfer = new PacketsTransfer(mVpnService, mConfig);
+			packetsTransfer = new PacketsTransfer(mBackend, mConfig);
 		} catch (IOException e) {
 			NetBareLog.wtf(e);
 		}
@@ -95,48 +95,19 @@ import java.util.Map;
 	}
 
 	private void establishVpn(PacketsTransfer packetsTransfer) {
-		VpnService.Builder builder = mVpnService.new Builder();
-		builder.setBlocking(true);
-		builder.setMtu(mConfig.mtu);
-		builder.addAddress(mConfig.address.address, mConfig.address.prefixLength);
-		if (mConfig.session != null) {
-			builder.setSession(mConfig.session);
-		}
-		if (mConfig.configureIntent != null) {
-			builder.setConfigureIntent(mConfig.configureIntent);
-		}
-		for (IpAddress ip : mConfig.routes) {
-			builder.addRoute(ip.address, ip.prefixLength);
-		}
-		for (String address : mConfig.dnsServers) {
-			builder.addDnsServer(address);
-		}
 		try {
-			for (String packageName : mConfig.allowedApplications) {
-				builder.addAllowedApplication(packageName);
-			}
-			for (String packageName : mConfig.disallowedApplications) {
-				builder.addDisallowedApplication(packageName);
-			}
-			// Add self to allowed list.
-			if (!mConfig.allowedApplications.isEmpty()) {
-				builder.addAllowedApplication(mVpnService.getPackageName());
+			vpnDescriptor = mBackend.establish(mConfig);
+			if (vpnDescriptor == null) {
+				return;
 			}
-		} catch (PackageManager.NameNotFoundException e) {
+			// Open io with the VPN descriptor.
+			input = vpnDescriptor.getInputStream();
+			// All the proxy threads write packets through one serialized writer.
+			output = new PacketWriter(vpnDescriptor.getOutputStream(), mConfig.mtu);
+		} catch (IOException e) {
 			NetBareLog.wtf(e);
-		}
-		vpnDescriptor = builder.establish();
-		if (vpnDescriptor == null) {
-			return;
-		}
-
-		// Open io with the VPN descriptor.
-		FileDescriptor descriptor = vpnDescriptor.getFileDescriptor();
-		if (descriptor == null) {
 			return;
 		}
-		input = new FileInputStream(descriptor);
-		output = new FileOutputStream(descriptor);
 
 		packetsTransfer.start();
 
@@ -149,27 +120,34 @@ import java.util.Map;
 			if (!isInterrupted()) {
 				NetBareLog.wtf(e);
 			}
+		} finally {
+			// The read loop may end without an interrupt, release the writer thread anyway.
+			NetBareUtils.closeQuietly(output);
 		}
 	}
 
 	private static class PacketsTransfer {
 
 		private final Map<Protocol, ProxyServerForwarder> mForwarderRegistry;
+		private final UidDumper mUidDumper;
 
 		private byte[] buffer;
 
-		private PacketsTransfer(VpnService service, NetBareConfig config) throws IOException {
+		private PacketsTransfer(SocketProtector protector, NetBareConfig config) throws IOException {
 			int mtu = config.mtu;
 			String localIp = config.address.address;
-			UidDumper uidDumper = config.dumpUid ? new UidDumper(localIp, config.uidProvider) : null;
+			String localIp6 = config.address6 != null ? config.address6.address : null;
+			UidDumper uidDumper = config.dumpUid ? new UidDumper(localIp, localIp6,
+					config.uidProvider) : null;
+			this.mUidDumper = uidDumper;
 			// Register all supported protocols here.
 			this.mForwarderRegistry = new LinkedHashMap<>(3);
 			// TCP
-			this.mForwarderRegistry.put(Protocol.TCP, new TcpProxyServerForwarder(service, localIp, mtu,
+			this.mForwarderRegistry.put(Protocol.TCP, new TcpProxyServerForwarder(protector, localIp, mtu,
 					uidDumper));
 			// UDP
-			this.mForwarderRegistry.put(Protocol.UDP, new UdpProxyServerForwarder(service, mtu,
-					uidDumper));
+			this.mForwarderRegistry.put(Protocol.UDP, new UdpProxyServerForwarder(protector, mtu,
+					uidDumper, config.dnsCache, config.dnsServers));
 			// ICMP
 			this.mForwarderRegistry.put(Protocol.ICMP, new IcmpProxyServerForwarder());
 
@@ -187,11 +165,18 @@ import java.util.Map;
 				forwarder.release();
 			}
 			mForwarderRegistry.clear();
+			if (mUidDumper != null) {
+				mUidDumper.release();
+			}
 		}
 
 		private void transfer(InputStream input, OutputStream output) throws IOException {
 			// The thread would be blocked if there is no outgoing packets from input stream.
-			transfer(buffer, input.read(buffer), output);
+			int len = input.read(buffer);
+			if (len < 0) {
+				throw new EOFException("The VPN descriptor is closed.");
+			}
+			transfer(buffer, len, output);
 		}
 
 		private void transfer(byte[] packet, int len, OutputStream output) {
@@ -199,13 +184,33 @@ import java.util.Map;
 				NetBareLog.w("Ip header length < " + IpHeader.MIN_HEADER_LENGTH);
 				return;
 			}
-			IpHeader ipHeader = new IpHeader(packet, 0);
-			Protocol protocol = Protocol.parse(ipHeader.getProtocol());
+			byte protocolNumber;
+			if ((packet[0] >> 4 & 0x0F) == 6) {
+				if (len < Ipv6Header.MIN_HEADER_LENGTH) {
+					NetBareLog.w("Ipv6 header length < " + Ipv6Header.MIN_HEADER_LENGTH);
+					return;
+				}
+				Ipv6Header ipv6Header = new Ipv6Header(packet, 0);
+				if (!ipv6Header.isValid() || ipv6Header.getTotalLength() > len) {
+					NetBareLog.w("Drop a malformed ipv6 packet.");
+					return;
+				}
+				if (ipv6Header.isFragmented()) {
+					// Fragments are not reassembled.
+					NetBareLog.w("Drop a fragmented ipv6 packet.");
+					return;
+				}
+				protocolNumber = ipv6Header.getProtocol();
+			} else {
+				protocolNumber = new IpHeader(packet, 0).getProtocol();
+			}
+			// ICMPv6 is not a supported protocol.
+			Protocol protocol = Protocol.parse(protocolNumber);
 			ProxyServerForwarder forwarder = mForwarderRegistry.get(protocol);
 			if (forwarder != null) {
 				forwarder.forward(packet, len, output);
 			} else {
-				NetBareLog.w("Unknown ip protocol: " + ipHeader.getProtocol());
+				NetBareLog.w("Unknown ip protocol: " + protocolNumber);
 			}
 		}
 
@@ -0,0 +1,231 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.github.megatronking.netbare.net.Session;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A binary trace of hot path events, it is disabled by default. Once enabled, events are recorded
+ * into a fixed size ring without any lock or allocation, the oldest events are overwritten when
+ * the ring is full. Use {@link #dump(File)} to save the events for offline decoding.
+ *
+ * Each event has five longs: the elapsed realtime in nanoseconds, the session key, the event code
+ * and two event arguments. The dump file starts with the magic 'NBTR', the format version and the
+ * event count as ints, followed by the events in big endian longs, oldest first.
+ *
+ * @author Megatron King
+ * @since 2019-04-16 21:05
+ */
+public final class NetBareTrace {
+
+    /**
+     * A TCP packet is forwarded from the client, arguments are the TCP flags and the data size.
+     */
+    public static final int EVENT_TCP_SEND = 1;
+
+    /**
+     * A TCP packet is forwarded to the client, arguments are the TCP flags and the data size.
+     */
+    public static final int EVENT_TCP_RECEIVE = 2;
+
+    /**
+     * A UDP packet is forwarded from the client, arguments are 0 and the data size.
+     */
+    public static final int EVENT_UDP_SEND = 3;
+
+    /**
+     * An IPv6 session is created, arguments are the high and the low 64 bits of the remote
+     * address. It maps the session key to the full address.
+     */
+    public static final int EVENT_IPV6_SESSION = 4;
+
+    private static final int MAGIC = 0x4E425452;
+    private static final int VERSION = 1;
+
+    /**
+     * The sequence slot followed by the event fields.
+     */
+    private static final int SLOT_SIZE = 6;
+
+    private static volatile Ring sRing;
+
+    private NetBareTrace() {
+    }
+
+    /**
+     * Enable the trace, the recorded events are dropped.
+     *
+     * @param capacity The max event count to keep, rounded up to a power of two.
+     */
+    public static void enable(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        sRing = new Ring(Math.max(1, Integer.highestOneBit(capacity - 1) << 1));
+    }
+
+    /**
+     * Disable the trace and drop the recorded events.
+     */
+    public static void disable() {
+        sRing = null;
+    }
+
+    /**
+     * Whether the trace is enabled.
+     *
+     * @return True if events are recorded.
+     */
+    public static boolean isEnabled() {
+        return sRing != null;
+    }
+
+    /**
+     * Record an event, it does nothing if the trace is disabled.
+     *
+     * @param event The event code.
+     * @param session The session key, see {@link #session(Session)}.
+     * @param arg0 The first event argument.
+     * @param arg1 The second event argument.
+     */
+    public static void record(int event, long session, long arg0, long arg1) {
+        Ring ring = sRing;
+        if (ring != null) {
+            ring.record(event, session, arg0, arg1);
+        }
+    }
+
+    /**
+     * Returns a key of the session for recording: the local port, the remote port and the remote
+     * ip from the high bits to the low bits. The remote ip of an IPv6 session is the hash
+     * {@link Session#remoteIp}, see {@link #EVENT_IPV6_SESSION} for the full address.
+     *
+     * @param session The session.
+     * @return The session key.
+     */
+    public static long session(@NonNull Session session) {
+        return ((long) (session.localPort & 0xFFFF) << 48)
+                | ((long) (session.remotePort & 0xFFFF) << 32)
+                | (session.remoteIp & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Save the recorded events into a file. Events being recorded while dumping are skipped.
+     *
+     * @param file The file to save to, it is overwritten.
+     * @return The count of the saved events.
+     * @throws IOException If the trace is disabled or the file can not be written.
+     */
+    public static int dump(@NonNull File file) throws IOException {
+        Ring ring = sRing;
+        if (ring == null) {
+            throw new IOException("NetBare trace is not enabled.");
+        }
+        long[] events = ring.snapshot();
+        int count = events.length / (SLOT_SIZE - 1);
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(count);
+            for (long value : events) {
+                output.writeLong(value);
+            }
+            output.flush();
+        } finally {
+            NetBareUtils.closeQuietly(output);
+        }
+        return count;
+    }
+
+    /**
+     * Slots are published like a seqlock: a writer marks the slot busy, writes the fields and
+     * then stores the sequence, a reader keeps the slot only if the sequence is unchanged after
+     * reading the fields.
+     */
+    private static final class Ring {
+
+        private static final long BUSY = -1;
+
+        private final AtomicLong mSequence;
+        private final AtomicLongArray mSlots;
+        private final int mMask;
+
+        private Ring(int capacity) {
+            this.mSequence = new AtomicLong();
+            this.mSlots = new AtomicLongArray(capacity * SLOT_SIZE);
+            this.mMask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                mSlots.set(i * SLOT_SIZE, BUSY);
+            }
+        }
+
+        private void record(int event, long session, long arg0, long arg1) {
+            long sequence = mSequence.getAndIncrement();
+            int base = (int) (sequence & mMask) * SLOT_SIZE;
+            mSlots.set(base, BUSY);
+            mSlots.lazySet(base + 1, SystemClock.elapsedRealtimeNanos());
+            mSlots.lazySet(base + 2, session);
+            mSlots.lazySet(base + 3, event);
+            mSlots.lazySet(base + 4, arg0);
+            mSlots.lazySet(base + 5, arg1);
+            mSlots.lazySet(base, sequence);
+        }
+
+        private long[] snapshot() {
+            long end = mSequence.get();
+            int capacity = mMask + 1;
+            long start = Math.max(0, end - capacity);
+            long[] events = new long[(int) (end - start) * (SLOT_SIZE - 1)];
+            int count = 0;
+            for (long sequence = start; sequence < end; sequence++) {
+                int base = (int) (sequence & mMask) * SLOT_SIZE;
+                if (mSlots.get(base) != sequence) {
+                    continue;
+                }
+                int offset = count * (SLOT_SIZE - 1);
+                for (int i = 1; i < SLOT_SIZE; i++) {
+                    events[offset + i - 1] = mSlots.get(base + i);
+                }
+                // Overwritten by a writer while copying.
+                if (mSlots.get(base) != sequence) {
+                    continue;
+                }
+                count++;
+            }
+            if (count * (SLOT_SIZE - 1) == events.length) {
+                return events;
+            }
+            long[] result = new long[count * (SLOT_SIZE - 1)];
+            System.arraycopy(events, 0, result, 0, result.length);
+            return result;
+        }
+
+    }
+
+}
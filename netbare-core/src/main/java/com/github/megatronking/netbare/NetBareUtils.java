@@ -20,6 +20,8 @@ import android.text.TextUtils;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 
 /**
  * A collection of assorted utility classes.
@@ -79,6 +81,86 @@ public final class NetBareUtils {
                 | (Integer.parseInt(arrayStrings[3]));
     }
 
+    /**
+     * Convert a 128 bits ip value to ipv6 string, the longest run of zero groups is compressed.
+     *
+     * @param high The high 64 bits of the ip address.
+     * @param low The low 64 bits of the ip address.
+     * @return A ipv6 string value, format is like 2001:db8::1
+     */
+    public static String convertIp6(long high, long low) {
+        int[] groups = new int[8];
+        for (int i = 0; i < 4; i++) {
+            groups[i] = (int) (high >>> (48 - i * 16)) & 0xFFFF;
+            groups[i + 4] = (int) (low >>> (48 - i * 16)) & 0xFFFF;
+        }
+        int zeroStart = -1;
+        int zeroLength = 1;
+        for (int i = 0; i < groups.length; i++) {
+            int j = i;
+            while (j < groups.length && groups[j] == 0) {
+                j++;
+            }
+            if (j - i > zeroLength) {
+                zeroStart = i;
+                zeroLength = j - i;
+            }
+            i = j;
+        }
+        StringBuilder builder = new StringBuilder(39);
+        for (int i = 0; i < groups.length; i++) {
+            if (i == zeroStart) {
+                builder.append("::");
+                i += zeroLength - 1;
+                continue;
+            }
+            if (builder.length() > 0 && builder.charAt(builder.length() - 1) != ':') {
+                builder.append(':');
+            }
+            builder.append(Integer.toHexString(groups[i]));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Convert a string ipv6 value to the high and low 64 bits.
+     *
+     * @param ip The ipv6 address literal.
+     * @return A long array, the high 64 bits and the low 64 bits.
+     * @throws IllegalArgumentException If it is not an ipv6 address literal.
+     */
+    public static long[] convertIp6(String ip) {
+        byte[] bytes = null;
+        // Only a literal is parsed, a host name is never resolved.
+        if (ip != null && ip.indexOf(':') >= 0) {
+            try {
+                bytes = InetAddress.getByName(ip).getAddress();
+            } catch (UnknownHostException e) {
+                // Fall through.
+            }
+        }
+        if (bytes == null || bytes.length != 16) {
+            throw new IllegalArgumentException("Illegal ipv6 address: " + ip);
+        }
+        return convertIp6(bytes);
+    }
+
+    /**
+     * Convert a 16 bytes ipv6 address to the high and low 64 bits.
+     *
+     * @param bytes The ipv6 address in network byte order.
+     * @return A long array, the high 64 bits and the low 64 bits.
+     */
+    public static long[] convertIp6(byte[] bytes) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (bytes[i] & 0xFF);
+            low = (low << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return new long[] {high, low};
+    }
+
     /**
      * Convert a short ip value to int.
      *
@@ -16,17 +16,23 @@
 package com.github.megatronking.netbare;
 
 import android.os.Process;
+import android.os.SystemClock;
 
 import com.github.megatronking.netbare.gateway.Request;
 import com.github.megatronking.netbare.gateway.Response;
 import com.github.megatronking.netbare.gateway.VirtualGateway;
 import com.github.megatronking.netbare.ip.Protocol;
+import com.github.megatronking.netbare.metrics.Metrics;
 import com.github.megatronking.netbare.net.Session;
+import com.github.megatronking.netbare.ssl.SSLClientHello;
+import com.github.megatronking.netbare.ssl.SSLClientHelloParser;
+import com.github.megatronking.netbare.ssl.SSLUtils;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The main virtual gateway used in proxy servers, it wraps the actual virtual gateway. We use this
@@ -58,9 +64,15 @@ public final class NetBareVirtualGateway extends VirtualGateway {
 
     private int mPolicy;
 
+    private SSLClientHelloParser mClientHelloParser;
+    private List<ByteBuffer> mPendingRequests;
+
     private boolean mRequestFinished;
     private boolean mResponseFinished;
 
+    private volatile long mFirstRequestTime;
+    private boolean mFirstResponse = true;
+
     public NetBareVirtualGateway(Session session, Request request, Response response) {
         super(session, request, response);
         mGateway = NetBare.get().getGatewayFactory().create(session, request, response);
@@ -83,7 +95,21 @@ public final class NetBareVirtualGateway extends VirtualGateway {
             mLog.w("Drop a buffer due to request has finished.");
             return;
         }
-        resolvePolicyIfNecessary(buffer);
+        if (mFirstRequestTime == 0) {
+            mFirstRequestTime = SystemClock.elapsedRealtimeNanos();
+        }
+        resolvePolicyIfNecessary(buffer, true);
+        if (mPolicy == POLICY_INDETERMINATE) {
+            if (mClientHelloParser != null) {
+                // Hold the buffer until the ClientHello is complete.
+                if (mPendingRequests == null) {
+                    mPendingRequests = new ArrayList<>(2);
+                }
+                mPendingRequests.add(buffer);
+            }
+            return;
+        }
+        flushPendingRequests();
         if (mPolicy == POLICY_ALLOWED) {
             mGateway.onRequest(buffer);
         } else if (mPolicy == POLICY_DISALLOWED) {
@@ -97,7 +123,16 @@ public final class NetBareVirtualGateway extends VirtualGateway {
             mLog.w("Drop a buffer due to response has finished.");
             return;
         }
-        resolvePolicyIfNecessary(buffer);
+        if (mFirstResponse) {
+            mFirstResponse = false;
+            // Only count the sessions that the client speaks first.
+            if (mFirstRequestTime != 0) {
+                long duration = SystemClock.elapsedRealtimeNanos() - mFirstRequestTime;
+                mSession.firstByteTime = TimeUnit.NANOSECONDS.toMicros(duration);
+                Metrics.get().recordFirstByte(duration);
+            }
+        }
+        resolvePolicyIfNecessary(buffer, false);
         if (mPolicy == POLICY_ALLOWED) {
             mGateway.onResponse(buffer);
         } else if (mPolicy == POLICY_DISALLOWED) {
@@ -112,6 +147,14 @@ public final class NetBareVirtualGateway extends VirtualGateway {
         }
         mLog.i("Gateway request finished!");
         mRequestFinished = true;
+        if (mClientHelloParser != null) {
+            giveUpClientHello();
+            try {
+                flushPendingRequests();
+            } catch (IOException e) {
+                mLog.w("Failed to flush the pending requests: " + e.getMessage());
+            }
+        }
         if (mPolicy == POLICY_ALLOWED) {
             mGateway.onRequestFinished();
         } else if (mPolicy == POLICY_DISALLOWED) {
@@ -133,11 +176,18 @@ public final class NetBareVirtualGateway extends VirtualGateway {
         }
     }
 
-    private void resolvePolicyIfNecessary(ByteBuffer buffer) {
+    private void resolvePolicyIfNecessary(ByteBuffer buffer, boolean request)
+            throws IOException {
         if (mPolicy != POLICY_INDETERMINATE) {
             // Resolved.
             return;
         }
+        if (!request && mClientHelloParser != null) {
+            // The server never speaks before the ClientHello is complete.
+            giveUpClientHello();
+            flushPendingRequests();
+            return;
+        }
         if (!buffer.hasRemaining()) {
             // Invalid buffer remaining, do nothing.
             return;
@@ -149,10 +199,31 @@ public final class NetBareVirtualGateway extends VirtualGateway {
 
         // Now we verify the TCP protocol host
         String domain;
-        if (isHttp(buffer)) {
+        if (request && (mClientHelloParser != null
+                || buffer.get(buffer.position()) == SSLUtils.SSL_CONTENT_TYPE_HANDSHAKE)) {
+            if (mClientHelloParser == null) {
+                mClientHelloParser = new SSLClientHelloParser();
+            }
+            int result = mClientHelloParser.feed(buffer);
+            if (result == SSLClientHelloParser.RESULT_NEED_MORE) {
+                return;
+            }
+            SSLClientHello clientHello = mClientHelloParser.clientHello();
+            mClientHelloParser = null;
+            if (clientHello == null) {
+                mLog.w("Failed to get host from SNI: Bad ssl packet.");
+                domain = null;
+            } else {
+                mSession.clientHello = clientHello;
+                domain = clientHello.serverName();
+                if (domain == null) {
+                    mLog.w("Failed to get host from SNI: no host.");
+                }
+            }
+        } else if (isHttp(buffer)) {
             domain = parseHttpHost(buffer.array(), buffer.position(), buffer.remaining());
         } else {
-            domain = parseHttpsHost(buffer.array(), buffer.position(), buffer.remaining());
+            domain = null;
         }
         if (domain == null) {
             // Maybe not http protocol.
@@ -161,54 +232,33 @@ public final class NetBareVirtualGateway extends VirtualGateway {
         } else {
             mSession.host = domain;
         }
-        NetBareConfig config = NetBare.get().getConfig();
-        Set<String> allowedHost = new HashSet<>(config.allowedHosts);
-        Set<String> disallowedHost = new HashSet<>(config.disallowedHosts);
-
-        boolean isAllowedHostEmpty = allowedHost.isEmpty();
-        boolean isDisallowedHostEmpty = disallowedHost.isEmpty();
-
-        if (isAllowedHostEmpty && isDisallowedHostEmpty) {
-            // No white and black list, it means allow everything.
+        HostPolicy policy = NetBare.get().getHostPolicy();
+        if (policy == null || (mSession.ipv6 ? policy.isAllowed(domain, mSession.remoteIp6High,
+                mSession.remoteIp6Low) : policy.isAllowed(domain, mSession.remoteIp))) {
             mPolicy = POLICY_ALLOWED;
-            return;
+        } else {
+            mPolicy = POLICY_DISALLOWED;
         }
+    }
 
-        if (!isDisallowedHostEmpty) {
-            // Check domain hosts.
-            for (String host : disallowedHost) {
-                if (host.equals(domain)) {
-                    // Denied host.
-                    mPolicy = POLICY_DISALLOWED;
-                    return;
-                }
-            }
-            // Check ip hosts.
-            for (String host : disallowedHost) {
-                if (host.equals(NetBareUtils.convertIp(mSession.remoteIp))) {
-                    // Denied host.
-                    mPolicy = POLICY_DISALLOWED;
-                    return;
-                }
-            }
-        }
+    private void giveUpClientHello() {
+        mLog.w("Failed to get host from SNI: Incomplete client hello.");
+        mClientHelloParser = null;
+        mPolicy = POLICY_ALLOWED;
+    }
 
-        if (!isAllowedHostEmpty) {
-            for (String host : allowedHost) {
-                if (host.equals(domain)) {
-                    mPolicy = POLICY_ALLOWED;
-                    return;
-                }
-            }
-            for (String host : allowedHost) {
-                if (host.equals(NetBareUtils.convertIp(mSession.remoteIp))) {
-                    mPolicy = POLICY_ALLOWED;
-                    return;
-                }
+    private void flushPendingRequests() throws IOException {
+        if (mPendingRequests == null) {
+            return;
+        }
+        List<ByteBuffer> pendingRequests = mPendingRequests;
+        mPendingRequests = null;
+        for (ByteBuffer pendingRequest : pendingRequests) {
+            if (mPolicy == POLICY_ALLOWED) {
+                mGateway.onRequest(pendingRequest);
+            } else {
+                super.onRequest(pendingRequest);
             }
-            mPolicy = POLICY_DISALLOWED;
-        } else {
-            mPolicy = POLICY_ALLOWED;
         }
     }
 
@@ -255,80 +305,4 @@ public final class NetBareVirtualGateway extends VirtualGateway {
         return null;
     }
 
-    private String parseHttpsHost(byte[] buffer, int offset, int size) {
-        int limit = offset + size;
-        // Client Hello
-        if (size <= 43 || buffer[offset] != 0x16) {
-            mLog.w("Failed to get host from SNI: Bad ssl packet.");
-            return null;
-        }
-        // Skip 43 byte header
-        offset += 43;
-
-        // Read sessionID
-        if (offset + 1 > limit) {
-            mLog.w("Failed to get host from SNI: No session id.");
-            return null;
-        }
-        int sessionIDLength = buffer[offset++] & 0xFF;
-        offset += sessionIDLength;
-
-        // Read cipher suites
-        if (offset + 2 > limit) {
-            mLog.w("Failed to get host from SNI: No cipher suites.");
-            return null;
-        }
-
-        int cipherSuitesLength = readShort(buffer, offset) & 0xFFFF;
-        offset += 2;
-        offset += cipherSuitesLength;
-
-        // Read Compression method.
-        if (offset + 1 > limit) {
-            mLog.w("Failed to get host from SNI: No compression method.");
-            return null;
-        }
-        int compressionMethodLength = buffer[offset++] & 0xFF;
-        offset += compressionMethodLength;
-
-        // Read Extensions
-        if (offset + 2 > limit) {
-            mLog.w("Failed to get host from SNI: no extensions.");
-            return null;
-        }
-        int extensionsLength = readShort(buffer, offset) & 0xFFFF;
-        offset += 2;
-
-        if (offset + extensionsLength > limit) {
-            mLog.w("Failed to get host from SNI: no sni.");
-            return null;
-        }
-
-        while (offset + 4 <= limit) {
-            int type0 = buffer[offset++] & 0xFF;
-            int type1 = buffer[offset++] & 0xFF;
-            int length = readShort(buffer, offset) & 0xFFFF;
-            offset += 2;
-            // Got the SNI info
-            if (type0 == 0x00 && type1 == 0x00 && length > 5) {
-                offset += 5;
-                length -= 5;
-                if (offset + length > limit) {
-                    return null;
-                }
-                return new String(buffer, offset, length);
-            } else {
-                offset += length;
-            }
-
-        }
-        mLog.w("Failed to get host from SNI: no host.");
-        return null;
-    }
-
-    private short readShort(byte[] data, int offset) {
-        int r = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
-        return (short) r;
-    }
-
 }
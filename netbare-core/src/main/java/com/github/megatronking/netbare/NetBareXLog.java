@@ -15,6 +15,8 @@
  */
 package com.github.megatronking.netbare;
 
+import android.util.Log;
+
 import com.github.megatronking.netbare.net.Session;
 import com.github.megatronking.netbare.ip.Protocol;
 
@@ -67,7 +69,9 @@ public final class NetBareXLog {
      * @param session The session contains net information.
      */
     public NetBareXLog(Session session) {
-        this(session.protocol, session.remoteIp, session.remotePort);
+        this(session.protocol, session.ipv6 ? NetBareUtils.convertIp6(session.remoteIp6High,
+                session.remoteIp6Low) : NetBareUtils.convertIp(session.remoteIp),
+                session.remotePort);
     }
 
     /**
@@ -87,12 +91,21 @@ public final class NetBareXLog {
      * @param msg The message you would like logged.
      */
     public void v(String msg) {
-        NetBareLog.v(mPrefix + msg);
+        if (NetBareLog.isLoggable(Log.VERBOSE)) {
+            NetBareLog.v(mPrefix + msg);
+        }
     }
 
-
+    /**
+     * Print a verbose level log in console, format is '[protocol][ip:port]message'.
+     *
+     * @param msg The message you would like logged.
+     * @param args Arguments referenced by the format specifiers in the format string.
+     */
     public void v(String msg, Object... args) {
-        NetBareLog.v(mPrefix + msg, args);
+        if (NetBareLog.isLoggable(Log.VERBOSE)) {
+            NetBareLog.v(mPrefix + msg, args);
+        }
     }
 
     /**
@@ -101,7 +114,9 @@ public final class NetBareXLog {
      * @param msg The message you would like logged.
      */
     public void d(String msg) {
-        NetBareLog.d(mPrefix + msg);
+        if (NetBareLog.isLoggable(Log.DEBUG)) {
+            NetBareLog.d(mPrefix + msg);
+        }
     }
 
     /**
@@ -111,7 +126,9 @@ public final class NetBareXLog {
      * @param args Arguments referenced by the format specifiers in the format string.
      */
     public void d(String msg, Object... args) {
-        NetBareLog.d(mPrefix + msg, args);
+        if (NetBareLog.isLoggable(Log.DEBUG)) {
+            NetBareLog.d(mPrefix + msg, args);
+        }
     }
 
     /**
@@ -120,7 +137,9 @@ public final class NetBareXLog {
      * @param msg The message you would like logged.
      */
     public void i(String msg) {
-        NetBareLog.i(mPrefix + msg);
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            NetBareLog.i(mPrefix + msg);
+        }
     }
 
     /**
@@ -130,7 +149,9 @@ public final class NetBareXLog {
      * @param args Arguments referenced by the format specifiers in the format string.
      */
     public void i(String msg, Object... args) {
-        NetBareLog.i(mPrefix + msg, args);
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            NetBareLog.i(mPrefix + msg, args);
+        }
     }
 
     /**
@@ -139,7 +160,9 @@ public final class NetBareXLog {
      * @param msg The message you would like logged.
      */
     public void e(String msg) {
-        NetBareLog.e(mPrefix + msg);
+        if (NetBareLog.isLoggable(Log.ERROR)) {
+            NetBareLog.e(mPrefix + msg);
+        }
     }
 
     /**
@@ -149,7 +172,9 @@ public final class NetBareXLog {
      * @param args Arguments referenced by the format specifiers in the format string.
      */
     public void e(String msg, Object... args) {
-        NetBareLog.e(mPrefix + msg, args);
+        if (NetBareLog.isLoggable(Log.ERROR)) {
+            NetBareLog.e(mPrefix + msg, args);
+        }
     }
 
     /**
@@ -158,7 +183,9 @@ public final class NetBareXLog {
      * @param msg The message you would like logged.
      */
     public void w(String msg) {
-        NetBareLog.w(mPrefix + msg);
+        if (NetBareLog.isLoggable(Log.WARN)) {
+            NetBareLog.w(mPrefix + msg);
+        }
     }
 
     /**
@@ -168,7 +195,9 @@ public final class NetBareXLog {
      * @param args Arguments referenced by the format specifiers in the format string.
      */
     public void w(String msg, Object... args) {
-        NetBareLog.w(mPrefix + msg, args);
+        if (NetBareLog.isLoggable(Log.WARN)) {
+            NetBareLog.w(mPrefix + msg, args);
+        }
     }
 
 }
@@ -0,0 +1,166 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The only writer of the VPN output, it is shared by the TCP and UDP paths. A write copies the
+ * packet into a preallocated slot and returns, the writer thread writes all the queued packets
+ * to the VPN in one wakeup. So the proxy threads never block on the VPN descriptor unless all
+ * the slots are in use, and the packets from different threads never interleave.
+ *
+ * Each write must be a whole packet.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 19:52
+ */
+/* package */ final class PacketWriter extends OutputStream implements Runnable {
+
+    private static final int SLOT_COUNT = 256;
+
+    private final OutputStream mOutput;
+
+    private final byte[][] mSlots;
+    private final int[] mLengths;
+
+    private final ReentrantLock mLock;
+    private final Condition mNotEmpty;
+    private final Condition mNotFull;
+
+    private final Thread mThread;
+
+    // Guarded by mLock.
+    private int mHead;
+    private int mCount;
+    private boolean mWriting;
+    private boolean mClosed;
+
+    /* package */ PacketWriter(OutputStream output, int mtu) {
+        this.mOutput = output;
+        this.mSlots = new byte[SLOT_COUNT][mtu];
+        this.mLengths = new int[SLOT_COUNT];
+        this.mLock = new ReentrantLock();
+        this.mNotEmpty = mLock.newCondition();
+        this.mNotFull = mLock.newCondition();
+        this.mThread = new Thread(this, "NetBarePacketWriter");
+        // Never keeps the process alive, it is closed with the VPN.
+        this.mThread.setDaemon(true);
+        this.mThread.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        mLock.lock();
+        try {
+            while (!mClosed && mCount == SLOT_COUNT) {
+                mNotFull.await();
+            }
+            if (mClosed) {
+                throw new IOException("The packet writer is closed.");
+            }
+            int tail = (mHead + mCount) % SLOT_COUNT;
+            if (mSlots[tail].length < len) {
+                mSlots[tail] = new byte[len];
+            }
+            System.arraycopy(b, off, mSlots[tail], 0, len);
+            mLengths[tail] = len;
+            mCount++;
+            if (!mWriting) {
+                mNotEmpty.signal();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Write packet is interrupted.");
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            int head;
+            int count;
+            mLock.lock();
+            try {
+                mWriting = false;
+                while (!mClosed && mCount == 0) {
+                    mNotEmpty.awaitUninterruptibly();
+                }
+                if (mClosed) {
+                    return;
+                }
+                mWriting = true;
+                head = mHead;
+                count = mCount;
+            } finally {
+                mLock.unlock();
+            }
+            // The taken slots are not reused until they are released below.
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) % SLOT_COUNT;
+                try {
+                    mOutput.write(mSlots[index], 0, mLengths[index]);
+                } catch (IOException e) {
+                    if (!isClosed()) {
+                        NetBareLog.e("Write packet failed: " + e.getMessage());
+                    }
+                }
+            }
+            mLock.lock();
+            try {
+                mHead = (head + count) % SLOT_COUNT;
+                mCount -= count;
+                mNotFull.signalAll();
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        mLock.lock();
+        try {
+            mClosed = true;
+            mNotEmpty.signal();
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+        NetBareUtils.closeQuietly(mOutput);
+    }
+
+    private boolean isClosed() {
+        mLock.lock();
+        try {
+            return mClosed;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+}
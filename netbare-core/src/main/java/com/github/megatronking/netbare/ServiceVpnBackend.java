@@ -0,0 +1,133 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare;
+
+import android.content.pm.PackageManager;
+import android.net.VpnService;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+
+import com.github.megatronking.netbare.ip.IpAddress;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramSocket;
+import java.net.Socket;
+
+/**
+ * A {@link VpnBackend} backed by the Android {@link VpnService}.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 09:20
+ */
+/* package */ final class ServiceVpnBackend implements VpnBackend {
+
+    private final VpnService mVpnService;
+
+    /* package */ ServiceVpnBackend(VpnService vpnService) {
+        this.mVpnService = vpnService;
+    }
+
+    @Override
+    public boolean protect(Socket socket) {
+        return mVpnService.protect(socket);
+    }
+
+    @Override
+    public boolean protect(DatagramSocket socket) {
+        return mVpnService.protect(socket);
+    }
+
+    @Override
+    public VpnDescriptor establish(@NonNull NetBareConfig config) {
+        VpnService.Builder builder = mVpnService.new Builder();
+        builder.setBlocking(true);
+        builder.setMtu(config.mtu);
+        builder.addAddress(config.address.address, config.address.prefixLength);
+        if (config.address6 != null) {
+            builder.addAddress(config.address6.address, config.address6.prefixLength);
+        }
+        if (config.session != null) {
+            builder.setSession(config.session);
+        }
+        if (config.configureIntent != null) {
+            builder.setConfigureIntent(config.configureIntent);
+        }
+        for (IpAddress ip : config.routes) {
+            builder.addRoute(ip.address, ip.prefixLength);
+        }
+        for (String address : config.dnsServers) {
+            builder.addDnsServer(address);
+        }
+        try {
+            for (String packageName : config.allowedApplications) {
+                builder.addAllowedApplication(packageName);
+            }
+            for (String packageName : config.disallowedApplications) {
+                builder.addDisallowedApplication(packageName);
+            }
+            // Add self to allowed list.
+            if (!config.allowedApplications.isEmpty()) {
+                builder.addAllowedApplication(mVpnService.getPackageName());
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            NetBareLog.wtf(e);
+        }
+        ParcelFileDescriptor descriptor = builder.establish();
+        if (descriptor == null || descriptor.getFileDescriptor() == null) {
+            NetBareUtils.closeQuietly(descriptor);
+            return null;
+        }
+        return new ParcelVpnDescriptor(descriptor);
+    }
+
+    private static final class ParcelVpnDescriptor implements VpnDescriptor {
+
+        private final ParcelFileDescriptor mDescriptor;
+        private final FileInputStream mInput;
+        private final FileOutputStream mOutput;
+
+        private ParcelVpnDescriptor(ParcelFileDescriptor descriptor) {
+            FileDescriptor fd = descriptor.getFileDescriptor();
+            this.mDescriptor = descriptor;
+            this.mInput = new FileInputStream(fd);
+            this.mOutput = new FileOutputStream(fd);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mInput;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mOutput;
+        }
+
+        @Override
+        public void close() {
+            NetBareUtils.closeQuietly(mDescriptor);
+            NetBareUtils.closeQuietly(mInput);
+            NetBareUtils.closeQuietly(mOutput);
+        }
+
+    }
+
+}
@@ -0,0 +1,46 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare;
+
+import java.net.DatagramSocket;
+import java.net.Socket;
+
+/**
+ * Protects the sockets communicating with remote servers, their data goes to the underlying
+ * network directly instead of being routed back to the VPN.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 09:12
+ */
+public interface SocketProtector {
+
+    /**
+     * Protect a TCP socket before it connects.
+     *
+     * @param socket A TCP socket.
+     * @return True on success.
+     */
+    boolean protect(Socket socket);
+
+    /**
+     * Protect a UDP socket before it connects.
+     *
+     * @param socket A UDP socket.
+     * @return True on success.
+     */
+    boolean protect(DatagramSocket socket);
+
+}
@@ -0,0 +1,43 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * The platform NetBare runs on: it establishes the VPN interface and protects the remote sockets.
+ * On Android it is backed by {@link NetBareService}, other implementations can run the whole
+ * data path without a device, for example over in-memory pipes and loopback servers.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 09:16
+ */
+public interface VpnBackend extends SocketProtector {
+
+    /**
+     * Establish the VPN interface by the configuration.
+     *
+     * @param config The NetBare configuration.
+     * @return The VPN descriptor, or null if the VPN is not prepared.
+     * @throws IOException If the VPN can not be established.
+     */
+    @Nullable
+    VpnDescriptor establish(@NonNull NetBareConfig config) throws IOException;
+
+}
@@ -0,0 +1,48 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An established VPN interface carrying raw IP packets. Like a TUN device, each read of the input
+ * stream returns exactly one packet and each write to the output stream sends exactly one packet.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 09:14
+ */
+public interface VpnDescriptor extends Closeable {
+
+    /**
+     * Returns the stream reading the outgoing packets, it blocks until a packet is available.
+     *
+     * @return The input stream of packets.
+     * @throws IOException If an I/O error has occurred.
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Returns the stream writing the incoming packets.
+     *
+     * @return The output stream of packets.
+     * @throws IOException If an I/O error has occurred.
+     */
+    OutputStream getOutputStream() throws IOException;
+
+}
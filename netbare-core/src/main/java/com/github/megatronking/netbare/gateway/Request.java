@@ -15,6 +15,8 @@
  */
 package com.github.megatronking.netbare.gateway;
 
+import com.github.megatronking.netbare.tunnel.DrainCallback;
+import com.github.megatronking.netbare.tunnel.NioTunnel;
 import com.github.megatronking.netbare.tunnel.Tunnel;
 
 import java.io.IOException;
@@ -45,4 +47,13 @@ public class Request extends SessionTunnelFlow {
         }
     }
 
+    @Override
+    public void awaitDrained(DrainCallback callback) throws IOException {
+        if (mTunnel instanceof NioTunnel) {
+            ((NioTunnel<?, ?>) mTunnel).awaitDrained(callback);
+        } else {
+            super.awaitDrained(callback);
+        }
+    }
+
 }
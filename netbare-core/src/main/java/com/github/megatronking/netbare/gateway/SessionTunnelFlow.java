@@ -19,6 +19,10 @@ import com.github.megatronking.netbare.NetBareConfig;
 import com.github.megatronking.netbare.NetBareUtils;
 import com.github.megatronking.netbare.ip.Protocol;
 import com.github.megatronking.netbare.net.Session;
+import com.github.megatronking.netbare.ssl.SSLClientHello;
+import com.github.megatronking.netbare.tunnel.DrainCallback;
+
+import java.io.IOException;
 
 /**
  * A tunnel flow contains the session information.
@@ -34,6 +38,18 @@ public abstract class SessionTunnelFlow implements TunnelFlow {
         mSession = session;
     }
 
+    /**
+     * Invokes the callback once the data processed so far has been sent to the terminal, use it
+     * to produce large data at the pace of the network. By default the data is handed over
+     * synchronously by {@link #process}, the callback is invoked immediately.
+     *
+     * @param callback A callback to be invoked when the flow is drained.
+     * @throws IOException If an I/O error has occurred.
+     */
+    public void awaitDrained(DrainCallback callback) throws IOException {
+        callback.onDrained();
+    }
+
     /**
      * Returns the session's unique id.
      *
@@ -63,11 +79,14 @@ public abstract class SessionTunnelFlow implements TunnelFlow {
     }
 
     /**
-     * Returns the remote server's IPV4 address.
+     * Returns the remote server's IPV4 or IPV6 address.
      *
-     * @return The remote server's IPV4 address.
+     * @return The remote server's IPV4 or IPV6 address.
      */
     public String ip() {
+        if (mSession.ipv6) {
+            return NetBareUtils.convertIp6(mSession.remoteIp6High, mSession.remoteIp6Low);
+        }
         return NetBareUtils.convertIp(mSession.remoteIp);
     }
 
@@ -80,6 +99,16 @@ public abstract class SessionTunnelFlow implements TunnelFlow {
         return mSession.host;
     }
 
+    /**
+     * Returns the TLS ClientHello sent by the client, it is parsed once and shared by all
+     * consumers.
+     *
+     * @return The ClientHello, or null if it is not a TLS session.
+     */
+    public SSLClientHello clientHello() {
+        return mSession.clientHello;
+    }
+
     /**
      * Returns the remote server's port.
      *
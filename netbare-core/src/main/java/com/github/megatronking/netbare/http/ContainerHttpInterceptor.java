@@ -15,23 +15,29 @@
  */
 package com.github.megatronking.netbare.http;
 
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
+import com.github.megatronking.netbare.http2.Http2StreamListener;
+import com.github.megatronking.netbare.metrics.Metrics;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * One http virtual gateway may have multi http sessions, but we don't want to share interceptors
  * between them. Use a container to manage different sessions, every session has independent
- * interceptor instances.
+ * interceptor instances. The request and response durations of each session are kept in its
+ * {@link HttpRequest} and {@link HttpResponse}, and aggregated in {@link Metrics}.
  *
  * @author Megatron King
  * @since 2019/1/6 16:13
  */
-/* package */ class ContainerHttpInterceptor implements HttpInterceptor {
+/* package */ class ContainerHttpInterceptor implements HttpInterceptor, Http2StreamListener {
 
     private final Map<String, Session> mSessions;
     private final HttpInterceptorsFactory mSubInterceptorsFactory;
@@ -47,6 +53,7 @@ import java.util.concurrent.ConcurrentHashMap;
         HttpRequest request = chain.request();
         Session session = findSessionById(request.id());
         session.request = request;
+        session.onRequestData();
         if (session.interceptors == null) {
             session.interceptors = mSubInterceptorsFactory.create();
         }
@@ -59,6 +66,7 @@ import java.util.concurrent.ConcurrentHashMap;
         HttpResponse response = chain.response();
         Session session = findSessionById(response.id());
         session.response = response;
+        session.onResponseData();
         if (session.interceptors == null) {
             session.interceptors = mSubInterceptorsFactory.create();
         }
@@ -70,6 +78,7 @@ import java.util.concurrent.ConcurrentHashMap;
         if (request instanceof HttpZygoteRequest) {
             // This means the connection is down, finish all.
             for (Session session : mSessions.values()) {
+                session.recordRequest();
                 if (session.request != null && session.interceptors != null) {
                     for (HttpInterceptor interceptor : session.interceptors) {
                         interceptor.onRequestFinished(session.request);
@@ -79,6 +88,9 @@ import java.util.concurrent.ConcurrentHashMap;
             mSessions.clear();
         } else {
             Session session = mSessions.remove(request.id());
+            if (session != null) {
+                session.recordRequest();
+            }
             if (session != null && session.interceptors != null) {
                 for (HttpInterceptor interceptor : session.interceptors) {
                     interceptor.onRequestFinished(session.request);
@@ -92,6 +104,7 @@ import java.util.concurrent.ConcurrentHashMap;
         if (response instanceof HttpZygoteResponse) {
             // This means the connection is down, finish all.
             for (Session session : mSessions.values()) {
+                session.recordResponse();
                 if (session != null && session.response != null && session.interceptors != null) {
                     for (HttpInterceptor interceptor : session.interceptors) {
                         interceptor.onResponseFinished(session.response);
@@ -100,6 +113,9 @@ import java.util.concurrent.ConcurrentHashMap;
             }
         } else {
             Session session = mSessions.remove(response.id());
+            if (session != null) {
+                session.recordResponse();
+            }
             if (session != null && session.interceptors != null) {
                 for (HttpInterceptor interceptor : session.interceptors) {
                     interceptor.onResponseFinished(session.response);
@@ -108,6 +124,28 @@ import java.util.concurrent.ConcurrentHashMap;
         }
     }
 
+    @Override
+    public void onStreamClosed(HttpId id) {
+        // The HTTP2 stream is closed, finish and release its session.
+        Session session = mSessions.remove(id.id);
+        if (session == null) {
+            return;
+        }
+        session.recordRequest();
+        session.recordResponse();
+        if (session.interceptors == null) {
+            return;
+        }
+        for (HttpInterceptor interceptor : session.interceptors) {
+            if (session.request != null) {
+                interceptor.onRequestFinished(session.request);
+            }
+            if (session.response != null) {
+                interceptor.onResponseFinished(session.response);
+            }
+        }
+    }
+
     private Session findSessionById(String id) {
         Session session;
         if (mSessions.containsKey(id)) {
@@ -125,6 +163,44 @@ import java.util.concurrent.ConcurrentHashMap;
         private HttpResponse response;
         private List<HttpInterceptor> interceptors;
 
+        // The elapsed realtime of the first and last data, in nanoseconds.
+        private long requestStartTime;
+        private long requestEndTime;
+        private long responseStartTime;
+        private long responseEndTime;
+
+        private void onRequestData() {
+            requestEndTime = SystemClock.elapsedRealtimeNanos();
+            if (requestStartTime == 0) {
+                requestStartTime = requestEndTime;
+            }
+        }
+
+        private void onResponseData() {
+            responseEndTime = SystemClock.elapsedRealtimeNanos();
+            if (responseStartTime == 0) {
+                responseStartTime = responseEndTime;
+            }
+        }
+
+        private void recordRequest() {
+            if (requestStartTime != 0) {
+                long duration = requestEndTime - requestStartTime;
+                request.session().requestDuration = TimeUnit.NANOSECONDS.toMicros(duration);
+                Metrics.get().recordHttpRequest(duration);
+                requestStartTime = 0;
+            }
+        }
+
+        private void recordResponse() {
+            if (responseStartTime != 0) {
+                long duration = responseEndTime - responseStartTime;
+                response.session().responseDuration = TimeUnit.NANOSECONDS.toMicros(duration);
+                Metrics.get().recordHttpResponse(duration);
+                responseStartTime = 0;
+            }
+        }
+
     }
 
     private static final class HttpContainerRequestChain extends HttpRequestChain {
@@ -16,9 +16,12 @@
 package com.github.megatronking.netbare.http;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import com.github.megatronking.netbare.NetBareUtils;
 import com.github.megatronking.netbare.NetBareXLog;
 import com.github.megatronking.netbare.http2.Http2;
+import com.github.megatronking.netbare.http2.Http2StreamListener;
 import com.github.megatronking.netbare.ssl.SSLRefluxCallback;
 import com.google.common.primitives.Bytes;
 
@@ -26,46 +29,63 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
- * Verifies the HTTP packet and determines whether it is a HTTP2 protocol packets.
+ * Verifies the HTTP packet and determines whether it is a HTTP2 protocol packets. HTTP2 over TLS
+ * is negotiated by ALPN or starts with the connection preface, cleartext HTTP2 (h2c) starts with
+ * the connection preface (prior knowledge) or an HTTP/1.1 "Upgrade: h2c" request.
  *
  * @author Megatron King
  * @since 2019/1/5 14:02
  */
 /* package */ class Http2SniffInterceptor extends HttpIndexedInterceptor {
 
+    private static final byte[] SWITCHING_PROTOCOLS_BYTES = "HTTP/1.1 101".getBytes();
+    private static final String UPGRADE_H2C = "\nupgrade: h2c";
+
     private SSLRefluxCallback<HttpRequest, HttpResponse> mCallback;
+    private Http2StreamListener mStreamListener;
     private NetBareXLog mLog;
 
+    // The server switched to h2c, the client's next packet starts with the connection preface.
+    private boolean mUpgraded;
+
     /* package */ Http2SniffInterceptor(SSLRefluxCallback<HttpRequest, HttpResponse> callback) {
         this.mCallback = callback;
     }
 
+    /**
+     * Set a listener to finish the HTTP/1.1 request upgraded to h2c, it is closed like a stream
+     * once its 101 response is done.
+     *
+     * @param listener A stream listener.
+     */
+    /* package */ void setStreamListener(@Nullable Http2StreamListener listener) {
+        this.mStreamListener = listener;
+    }
+
     @Override
     protected void intercept(@NonNull HttpRequestChain chain, @NonNull ByteBuffer buffer,
                              int index) throws IOException {
-        if (index == 0) {
+        if (index == 0 || mUpgraded) {
+            mUpgraded = false;
             HttpRequest request = chain.request();
             if (mLog == null) {
                 mLog = new NetBareXLog(request.protocol(), request.ip(), request.port());
             }
-            // HTTP2 is forces to use SSL connection.
-            if (request.isHttps()) {
-                if (buffer.hasRemaining() && Bytes.indexOf(buffer.array(),
-                        Http2.CONNECTION_PREFACE) == buffer.position()) {
-                    mLog.i("Send a connection preface to remote server.");
-                    request.session().protocol = HttpProtocol.HTTP_2;
-                    if (buffer.remaining() == Http2.CONNECTION_PREFACE.length) {
-                        // Skip preface frame data.
-                        mCallback.onRequest(request, buffer);
-                        return;
-                    } else {
-                        ByteBuffer prefaceBuffer = ByteBuffer.allocate(Http2.CONNECTION_PREFACE.length);
-                        prefaceBuffer.put(Http2.CONNECTION_PREFACE);
-                        prefaceBuffer.flip();
-                        mCallback.onRequest(request, prefaceBuffer);
-                        // The remaining data continues.
-                        buffer.position(buffer.position() + Http2.CONNECTION_PREFACE.length);
-                    }
+            if (buffer.hasRemaining() && Bytes.indexOf(buffer.array(),
+                    Http2.CONNECTION_PREFACE) == buffer.position()) {
+                mLog.i("Send a connection preface to remote server.");
+                request.session().protocol = HttpProtocol.HTTP_2;
+                if (buffer.remaining() == Http2.CONNECTION_PREFACE.length) {
+                    // Skip preface frame data.
+                    mCallback.onRequest(request, buffer);
+                    return;
+                } else {
+                    ByteBuffer prefaceBuffer = ByteBuffer.allocate(Http2.CONNECTION_PREFACE.length);
+                    prefaceBuffer.put(Http2.CONNECTION_PREFACE);
+                    prefaceBuffer.flip();
+                    mCallback.onRequest(request, prefaceBuffer);
+                    // The remaining data continues.
+                    buffer.position(buffer.position() + Http2.CONNECTION_PREFACE.length);
                 }
             }
         }
@@ -77,30 +97,47 @@ import java.nio.ByteBuffer;
     @Override
     protected void intercept(@NonNull HttpResponseChain chain, @NonNull ByteBuffer buffer,
                              int index) throws IOException {
+        HttpResponse response = chain.response();
         if (index == 0) {
-            HttpResponse response = chain.response();
             if (mLog == null) {
                 mLog = new NetBareXLog(response.protocol(), response.ip(), response.port());
             }
-            // HTTP2 is forces to use SSL connection.
-            if (response.isHttps()) {
-                if (buffer.hasRemaining() && Bytes.indexOf(buffer.array(),
-                        Http2.CONNECTION_PREFACE) == buffer.position()) {
-                    mLog.i("Receive a connection preface from remote server.");
-                    response.session().protocol = HttpProtocol.HTTP_2;
-                    if (buffer.remaining() == Http2.CONNECTION_PREFACE.length) {
-                        // Skip preface frame data.
-                        mCallback.onResponse(response, buffer);
-                        return;
-                    } else {
-                        ByteBuffer prefaceBuffer = ByteBuffer.allocate(Http2.CONNECTION_PREFACE.length);
-                        prefaceBuffer.put(Http2.CONNECTION_PREFACE);
-                        prefaceBuffer.flip();
-                        mCallback.onResponse(response, prefaceBuffer);
-                        // The remaining data continues.
-                        buffer.position(buffer.position() + Http2.CONNECTION_PREFACE.length);
-                    }
+            if (buffer.hasRemaining() && Bytes.indexOf(buffer.array(),
+                    Http2.CONNECTION_PREFACE) == buffer.position()) {
+                mLog.i("Receive a connection preface from remote server.");
+                response.session().protocol = HttpProtocol.HTTP_2;
+                if (buffer.remaining() == Http2.CONNECTION_PREFACE.length) {
+                    // Skip preface frame data.
+                    mCallback.onResponse(response, buffer);
+                    return;
+                } else {
+                    ByteBuffer prefaceBuffer = ByteBuffer.allocate(Http2.CONNECTION_PREFACE.length);
+                    prefaceBuffer.put(Http2.CONNECTION_PREFACE);
+                    prefaceBuffer.flip();
+                    mCallback.onResponse(response, prefaceBuffer);
+                    // The remaining data continues.
+                    buffer.position(buffer.position() + Http2.CONNECTION_PREFACE.length);
+                }
+            }
+        }
+        if (!response.isHttps() && response.httpProtocol() != HttpProtocol.HTTP_2) {
+            int offset = switchingToH2c(buffer);
+            if (offset > 0) {
+                mLog.i("Remote server switched to cleartext HTTP2.");
+                // The 101 response goes down the chain like other HTTP/1.1 responses, the frames
+                // follow it are decoded.
+                ByteBuffer headerBuffer = ByteBuffer.allocate(offset - buffer.position());
+                headerBuffer.put(buffer.array(), buffer.position(), headerBuffer.capacity());
+                headerBuffer.flip();
+                chain.process(headerBuffer);
+                buffer.position(offset);
+                if (mStreamListener != null) {
+                    // Nothing more is sent in HTTP/1.1, finish the upgrade request.
+                    mStreamListener.onStreamClosed(new HttpId(response.id(), response.time()));
                 }
+                // The request shares the same session.
+                response.session().protocol = HttpProtocol.HTTP_2;
+                mUpgraded = true;
             }
         }
         if (buffer.hasRemaining()) {
@@ -108,4 +145,33 @@ import java.nio.ByteBuffer;
         }
     }
 
+    /**
+     * Finds a "101 Switching Protocols" response upgraded to h2c.
+     *
+     * @param buffer The response packet.
+     * @return The end offset of the response header, or -1 if it is not.
+     */
+    private int switchingToH2c(ByteBuffer buffer) {
+        byte[] array = buffer.array();
+        int position = buffer.position();
+        int limit = buffer.limit();
+        if (limit - position < SWITCHING_PROTOCOLS_BYTES.length) {
+            return -1;
+        }
+        for (int i = 0; i < SWITCHING_PROTOCOLS_BYTES.length; i++) {
+            if (array[position + i] != SWITCHING_PROTOCOLS_BYTES[i]) {
+                return -1;
+            }
+        }
+        byte[] partEnd = NetBareUtils.PART_END_BYTES;
+        for (int i = position; i <= limit - partEnd.length; i++) {
+            if (array[i] == partEnd[0] && array[i + 1] == partEnd[1]
+                    && array[i + 2] == partEnd[2] && array[i + 3] == partEnd[3]) {
+                String header = new String(array, position, i - position).toLowerCase();
+                return header.contains(UPGRADE_H2C) ? i + partEnd.length : -1;
+            }
+        }
+        return -1;
+    }
+
 }
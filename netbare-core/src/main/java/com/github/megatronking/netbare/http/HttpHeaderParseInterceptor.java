@@ -24,7 +24,9 @@ import com.github.megatronking.netbare.ip.Protocol;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Parse HTTP request header part and response header part from HTTP packets. The parse result will
@@ -47,7 +49,14 @@ import java.util.List;
         if (mLog == null) {
             mLog = new NetBareXLog(Protocol.TCP, chain.request().ip(), chain.request().port());
         }
-        parseRequestHeader(chain.request().session(), buffer);
+        HttpSession session = chain.request().session();
+        parseRequestHeader(session, buffer);
+        if (session.protocol == HttpProtocol.HTTP_2) {
+            // Keep a snapshot to find out whether the headers are changed by interceptors.
+            session.originMethod = session.method;
+            session.originPath = session.path;
+            session.originRequestHeaders = copyHeaders(session.requestHeaders);
+        }
         chain.process(buffer);
     }
 
@@ -61,7 +70,14 @@ import java.util.List;
         if (mLog == null) {
             mLog = new NetBareXLog(Protocol.TCP, chain.response().ip(), chain.response().port());
         }
-        parseResponseHeader(chain.response().session(), buffer);
+        HttpSession session = chain.response().session();
+        parseResponseHeader(session, buffer);
+        if (session.protocol == HttpProtocol.HTTP_2) {
+            // Keep a snapshot to find out whether the headers are changed by interceptors.
+            session.originCode = session.code;
+            session.originMessage = session.message;
+            session.originResponseHeaders = copyHeaders(session.responseHeaders);
+        }
         chain.process(buffer);
     }
 
@@ -186,4 +202,12 @@ import java.util.List;
         }
     }
 
+    private Map<String, List<String>> copyHeaders(Map<String, List<String>> headers) {
+        Map<String, List<String>> copy = new LinkedHashMap<>(headers.size());
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return copy;
+    }
+
 }
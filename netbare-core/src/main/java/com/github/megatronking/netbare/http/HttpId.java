@@ -39,4 +39,13 @@ public class HttpId {
         this.streamId = streamId;
     }
 
+    /**
+     * The id of an existing HTTP/1.1 session.
+     */
+    /* package */ HttpId(String id, long time) {
+        this.id = id;
+        this.time = time;
+        this.streamId = -1;
+    }
+
 }
@@ -76,8 +76,16 @@ import java.nio.ByteBuffer;
     @Override
     protected void intercept(@NonNull HttpResponseChain chain, @NonNull ByteBuffer buffer,
                              int index) throws IOException {
+        if (mWebSocket) {
+            chain.process(buffer);
+            return;
+        }
         mResponseIndex++;
         chain.process(buffer);
+        // The response header has been parsed down the chain, web socket frames of both sides
+        // must stay in the upgraded session.
+        mWebSocket = chain.response().httpProtocol() == HttpProtocol.HTTP_1_1
+                && mZygoteResponse.isWebSocket();
     }
 
     @Override
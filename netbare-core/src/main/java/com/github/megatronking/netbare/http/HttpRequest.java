@@ -15,9 +15,12 @@
  */
 package com.github.megatronking.netbare.http;
 
+import android.text.TextUtils;
+
 import com.github.megatronking.netbare.gateway.Request;
 import com.github.megatronking.netbare.http2.Http2Settings;
 import com.github.megatronking.netbare.ip.Protocol;
+import com.github.megatronking.netbare.tunnel.DrainCallback;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -57,6 +60,11 @@ public class HttpRequest extends Request {
         mRequest.process(buffer);
     }
 
+    @Override
+    public void awaitDrained(DrainCallback callback) throws IOException {
+        mRequest.awaitDrained(callback);
+    }
+
     @Override
     public String id() {
         return mHttpId != null ? mHttpId.id : mRequest.id();
@@ -194,6 +202,16 @@ public class HttpRequest extends Request {
         return mSession.peerHttp2Settings;
     }
 
+    /**
+     * Returns the duration from the first to the last byte of this request in microseconds. It is
+     * available since {@link HttpInterceptor#onRequestFinished(HttpRequest)}.
+     *
+     * @return The request duration, 0 if the request is not finished.
+     */
+    public long requestDuration() {
+        return mSession.requestDuration;
+    }
+
     /**
      * Whether the current HTTP2 request stream is end.
      *
@@ -203,4 +221,17 @@ public class HttpRequest extends Request {
         return mSession.requestStreamEnd;
     }
 
+    /**
+     * Whether the HTTP2 request headers have been changed by interceptors since they were
+     * decoded. Unchanged headers can be sent with the origin header block.
+     *
+     * @return Changed or never decoded returns true.
+     */
+    public boolean requestHeadersModified() {
+        return mSession.originRequestHeaders == null
+                || mSession.method != mSession.originMethod
+                || !TextUtils.equals(mSession.path, mSession.originPath)
+                || !mSession.originRequestHeaders.equals(mSession.requestHeaders);
+    }
+
 }
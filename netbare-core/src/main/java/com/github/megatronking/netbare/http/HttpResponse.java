@@ -15,9 +15,12 @@
  */
 package com.github.megatronking.netbare.http;
 
+import android.text.TextUtils;
+
 import com.github.megatronking.netbare.gateway.Response;
 import com.github.megatronking.netbare.http2.Http2Settings;
 import com.github.megatronking.netbare.ip.Protocol;
+import com.github.megatronking.netbare.tunnel.DrainCallback;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -57,6 +60,11 @@ public class HttpResponse extends Response {
         mResponse.process(buffer);
     }
 
+    @Override
+    public void awaitDrained(DrainCallback callback) throws IOException {
+        mResponse.awaitDrained(callback);
+    }
+
     @Override
     public String id() {
         return mHttpId != null ? mHttpId.id : mResponse.id();
@@ -266,6 +274,16 @@ public class HttpResponse extends Response {
         return mSession.peerHttp2Settings;
     }
 
+    /**
+     * Returns the duration from the first to the last byte of this response in microseconds. It is
+     * available since {@link HttpInterceptor#onResponseFinished(HttpResponse)}.
+     *
+     * @return The response duration, 0 if the response is not finished.
+     */
+    public long responseDuration() {
+        return mSession.responseDuration;
+    }
+
     /**
      * Whether the current HTTP2 response stream is end.
      *
@@ -275,4 +293,17 @@ public class HttpResponse extends Response {
         return mSession.responseStreamEnd;
     }
 
+    /**
+     * Whether the HTTP2 response headers have been changed by interceptors since they were
+     * decoded. Unchanged headers can be sent with the origin header block.
+     *
+     * @return Changed or never decoded returns true.
+     */
+    public boolean responseHeadersModified() {
+        return mSession.originResponseHeaders == null
+                || mSession.code != mSession.originCode
+                || !TextUtils.equals(mSession.message, mSession.originMessage)
+                || !mSession.originResponseHeaders.equals(mSession.responseHeaders);
+    }
+
 }
@@ -21,6 +21,8 @@ import com.github.megatronking.netbare.NetBareXLog;
 import com.github.megatronking.netbare.gateway.Request;
 import com.github.megatronking.netbare.gateway.Response;
 import com.github.megatronking.netbare.ip.Protocol;
+import com.github.megatronking.netbare.ssl.SSLClientHello;
+import com.github.megatronking.netbare.ssl.SSLClientHelloParser;
 import com.github.megatronking.netbare.ssl.SSLCodec;
 import com.github.megatronking.netbare.ssl.SSLEngineFactory;
 import com.github.megatronking.netbare.ssl.SSLRefluxCallback;
@@ -84,8 +86,11 @@ import java.nio.ByteBuffer;
                 // Start handshake with remote server
                 mResponseCodec.setRequest(chain.request());
 
-                // Parse the ALPN protocol of client.
-                HttpProtocol[] protocols = SSLUtils.parseClientHelloAlpn(buffer);
+                // Parse the ALPN protocol of client, the ClientHello has been parsed by the
+                // gateway in most cases.
+                SSLClientHello clientHello = mRequest.clientHello();
+                HttpProtocol[] protocols = SSLUtils.parseClientHelloAlpn(clientHello != null ?
+                        clientHello : SSLClientHelloParser.parse(buffer));
                 mClientAlpnResolved = true;
 
                 if (protocols == null || protocols.length == 0) {
@@ -142,6 +147,11 @@ import java.nio.ByteBuffer;
 
     @Override
     public void onRequest(HttpRequest request, ByteBuffer buffer) throws IOException {
+        if (!request.isHttps()) {
+            // Cleartext packets are sent to remote server directly.
+            mRequest.process(buffer);
+            return;
+        }
         mResponseCodec.encode(buffer, new SSLCodec.CodecCallback() {
             @Override
             public void onPending(ByteBuffer buffer) {
@@ -165,6 +175,11 @@ import java.nio.ByteBuffer;
 
     @Override
     public void onResponse(HttpResponse response, ByteBuffer buffer) throws IOException {
+        if (!response.isHttps()) {
+            // Cleartext packets are sent to proxy server directly.
+            mResponse.process(buffer);
+            return;
+        }
         mRequestCodec.encode(buffer, new SSLCodec.CodecCallback() {
             @Override
             public void onPending(ByteBuffer buffer) {
@@ -39,10 +39,20 @@ import java.util.Map;
     String message;
     int reqBodyOffset;
     int resBodyOffset;
+    // The durations from the first to the last data in microseconds, 0 until finished.
+    long requestDuration;
+    long responseDuration;
     // Belows is for HTTP2
     Http2Settings clientHttp2Settings;
     Http2Settings peerHttp2Settings;
     boolean requestStreamEnd;
     boolean responseStreamEnd;
+    // The parsed HTTP2 headers before any interceptor changes them.
+    HttpMethod originMethod;
+    String originPath;
+    Map<String, List<String>> originRequestHeaders;
+    int originCode;
+    String originMessage;
+    Map<String, List<String>> originResponseHeaders;
 
 }
@@ -43,4 +43,8 @@ import java.util.Map;
         return httpSession;
     }
 
+    void remove(String id) {
+        mHttpSession.remove(id);
+    }
+
 }
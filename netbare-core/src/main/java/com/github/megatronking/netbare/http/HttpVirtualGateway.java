@@ -70,11 +70,14 @@ import java.util.List;
 
         mInterceptors.add(new HttpSniffInterceptor(sessionFactory.create(session.id)));
         mInterceptors.add(codecInterceptor);
-        mInterceptors.add(new Http2SniffInterceptor(codecInterceptor));
-        mInterceptors.add(new Http2DecodeInterceptor(codecInterceptor, mHttpZygoteRequest, mHttpZygoteResponse));
+        Http2SniffInterceptor http2SniffInterceptor = new Http2SniffInterceptor(codecInterceptor);
+        mInterceptors.add(http2SniffInterceptor);
+        Http2DecodeInterceptor http2DecodeInterceptor = new Http2DecodeInterceptor(codecInterceptor,
+                mHttpZygoteRequest, mHttpZygoteResponse);
+        mInterceptors.add(http2DecodeInterceptor);
         mInterceptors.add(new HttpMultiplexInterceptor(mHttpZygoteRequest, mHttpZygoteResponse));
         mInterceptors.add(new HttpHeaderSniffInterceptor(codecInterceptor));
-        mInterceptors.add(new ContainerHttpInterceptor(new HttpInterceptorsFactory() {
+        ContainerHttpInterceptor containerInterceptor = new ContainerHttpInterceptor(new HttpInterceptorsFactory() {
             @NonNull
             @Override
             public List<HttpInterceptor> create() {
@@ -87,9 +90,13 @@ import java.util.List;
                 }
                 return subs;
             }
-        }));
+        });
+        // Release the sessions of closed HTTP2 streams.
+        http2DecodeInterceptor.setStreamListener(containerInterceptor);
+        http2SniffInterceptor.setStreamListener(containerInterceptor);
+        mInterceptors.add(containerInterceptor);
         // Goalkeepers.
-        mInterceptors.add(mInterceptors.size(), new Http2EncodeInterceptor());
+        mInterceptors.add(mInterceptors.size(), new Http2EncodeInterceptor(http2DecodeInterceptor));
         mInterceptors.add(mInterceptors.size(), new HttpSSLRefluxInterceptor(codecInterceptor));
 
         //
@@ -59,6 +59,16 @@ public class HttpZygoteRequest extends HttpRequest implements Http2Updater {
         }
     }
 
+    /**
+     * Releases the cached request of the HTTP2 stream which has been closed.
+     *
+     * @param id The id of the HTTP session carried by the stream.
+     */
+    public void release(HttpId id) {
+        mCachedRequests.remove(id.id);
+        mSessionFactory.remove(id.id);
+    }
+
     @Override
     public void onSettingsUpdate(Http2Settings http2Settings) {
         session().clientHttp2Settings = http2Settings;
@@ -59,6 +59,16 @@ public class HttpZygoteResponse extends HttpResponse implements Http2Updater {
         }
     }
 
+    /**
+     * Releases the cached response of the HTTP2 stream which has been closed.
+     *
+     * @param id The id of the HTTP session carried by the stream.
+     */
+    public void release(HttpId id) {
+        mCachedResponses.remove(id.id);
+        mSessionFactory.remove(id.id);
+    }
+
     @Override
     public void onSettingsUpdate(Http2Settings http2Settings) {
         session().peerHttp2Settings = http2Settings;
@@ -26,8 +26,6 @@ import java.nio.ByteBuffer;
  */
 /* package */ interface DecodeCallback {
 
-    void onPending(ByteBuffer buffer);
-
     void onResult(ByteBuffer buffer, boolean isFinished) throws IOException;
 
     void onSkip(ByteBuffer buffer) throws IOException;
@@ -36,7 +36,6 @@ import com.github.megatronking.netbare.NetBareUtils;
 import com.github.megatronking.netbare.http.HttpMethod;
 import com.github.megatronking.netbare.http.HttpProtocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -154,8 +153,8 @@ import java.util.Map;
     private static Map<String, Integer> nameToFirstIndex() {
         Map<String, Integer> result = new LinkedHashMap<>(STATIC_HEADER_TABLE.length);
         for (int i = 0; i < STATIC_HEADER_TABLE.length; i++) {
-            if (!result.containsKey(STATIC_HEADER_TABLE[i].name)) {
-                result.put(STATIC_HEADER_TABLE[i].name, i);
+            if (!result.containsKey(STATIC_HEADER_TABLE[i].name())) {
+                result.put(STATIC_HEADER_TABLE[i].name(), i);
             }
         }
         return Collections.unmodifiableMap(result);
@@ -164,10 +163,22 @@ import java.util.Map;
     private static final int DEFAULT_HEADER_TABLE_SIZE_SETTING = 4096;
     private static final int SETTINGS_HEADER_TABLE_SIZE_LIMIT = 16384;
 
+    private static final int FIELD_FINGERPRINT_COUNT = 256;
+    private static final int INDEXABLE_COOKIE_LENGTH = 20;
+    private static final int HIGH_ENTROPY_DIGITS_LENGTH = 6;
+
     static final class Reader {
 
         private final List<Header> mHeaders;
 
+        // Reusable buffers for huffman decoding and the header part output.
+        private byte[] mScratch;
+        private byte[] mOutput;
+        private int mOutputSize;
+
+        // Whether the last read string literal is huffman encoded.
+        private boolean mHuffmanString;
+
         private int mHeaderTableSizeSetting;
 
         private Header[] mDynamicTable;
@@ -179,6 +190,8 @@ import java.util.Map;
 
         /* package */ Reader() {
             this.mHeaders = new ArrayList<>();
+            this.mScratch = new byte[256];
+            this.mOutput = new byte[1024];
             this.mDynamicTable = new Header[8];
             this.mNextHeaderIndex = mDynamicTable.length - 1;
             this.mMaxDynamicTableByteCount = DEFAULT_HEADER_TABLE_SIZE_SETTING;
@@ -230,56 +243,90 @@ import java.util.Map;
                     readLiteralHeaderWithoutIndexingIndexedName(buffer, index - 1);
                 }
             }
-            // Build normal http header part
-            String method = null;
-            String path = null;
-            String host = null;
-            String status = null;
-            List<Header> headers = new ArrayList<>();
-            for (Header header : mHeaders) {
-                if (header.name.equals(Header.TARGET_METHOD)) {
-                    method = header.value;
-                } else if (header.name.equals(Header.TARGET_PATH)) {
-                    path = header.value;
-                } else if (header.name.equals(Header.TARGET_AUTHORITY)) {
-                    host = header.value;
-                } else if (header.name.equalsIgnoreCase("host")) {
-                    host = header.value;
-                } else if (header.name.equalsIgnoreCase(Header.RESPONSE_STATUS)) {
-                    status = header.value;
-                } else {
-                    headers.add(header);
+            // Build normal http header part, pseudo headers are in front of regular headers.
+            Header method = null;
+            Header path = null;
+            Header host = null;
+            Header status = null;
+            for (int i = 0, size = mHeaders.size(); i < size; i++) {
+                Header header = mHeaders.get(i);
+                byte[] name = header.nameBytes();
+                if (Arrays.equals(name, Header.TARGET_METHOD_BYTES)) {
+                    method = header;
+                } else if (Arrays.equals(name, Header.TARGET_PATH_BYTES)) {
+                    path = header;
+                } else if (Arrays.equals(name, Header.TARGET_AUTHORITY_BYTES)
+                        || Arrays.equals(name, Header.HOST_BYTES)) {
+                    host = header;
+                } else if (Arrays.equals(name, Header.RESPONSE_STATUS_BYTES)) {
+                    status = header;
                 }
             }
-            StringBuilder sb = new StringBuilder();
+            mOutputSize = 0;
             if (method != null && path != null) {
-                sb.append(method).append(" ").append(path).append(" ").append(HttpProtocol.HTTP_2.toString());
-                sb.append(NetBareUtils.LINE_END);
+                write(method.valueBytes());
+                write(SPACE_BYTE);
+                write(path.valueBytes());
+                write(SPACE_BYTE);
+                write(HTTP_2_BYTES);
+                write(NetBareUtils.LINE_END_BYTES);
             }
             if (status != null) {
-                sb.append(HttpProtocol.HTTP_2.toString()).append(" ").append(status);
-                sb.append(NetBareUtils.LINE_END);
+                write(HTTP_2_BYTES);
+                write(SPACE_BYTE);
+                write(status.valueBytes());
+                write(NetBareUtils.LINE_END_BYTES);
             }
             if (host != null) {
-                headers.add(0, new Header("Host", host));
+                write(HOST_PREFIX_BYTES);
+                write(host.valueBytes());
+                write(NetBareUtils.LINE_END_BYTES);
             }
-            for (Header header : headers) {
-                if (header.name.equals(Header.TARGET_SCHEME)) {
+            for (int i = 0, size = mHeaders.size(); i < size; i++) {
+                Header header = mHeaders.get(i);
+                if (header == method || header == path || header == host || header == status) {
                     continue;
                 }
-                sb.append(header.name).append(": ");
-                if (header.value != null) {
-                    sb.append(header.value);
+                byte[] name = header.nameBytes();
+                if (Arrays.equals(name, Header.TARGET_SCHEME_BYTES)
+                        || Arrays.equals(name, Header.TARGET_METHOD_BYTES)
+                        || Arrays.equals(name, Header.TARGET_PATH_BYTES)
+                        || Arrays.equals(name, Header.TARGET_AUTHORITY_BYTES)
+                        || Arrays.equals(name, Header.HOST_BYTES)
+                        || Arrays.equals(name, Header.RESPONSE_STATUS_BYTES)) {
+                    continue;
                 }
-                sb.append(NetBareUtils.LINE_END);
+                write(name);
+                write(HEADER_SEPARATOR_BYTES);
+                write(header.valueBytes());
+                write(NetBareUtils.LINE_END_BYTES);
             }
             if ((flags & Http2.FLAG_END_HEADERS) != 0) {
-                sb.append(NetBareUtils.LINE_END);
+                write(NetBareUtils.LINE_END_BYTES);
             }
-            callback.onResult(ByteBuffer.wrap(sb.toString().getBytes()),
+            // The only copy, the header part is owned by the interceptors.
+            callback.onResult(ByteBuffer.wrap(Arrays.copyOf(mOutput, mOutputSize)),
                     (flags & Http2.FLAG_END_STREAM) != 0);
         }
 
+        private void write(byte b) {
+            ensureOutputCapacity(1);
+            mOutput[mOutputSize++] = b;
+        }
+
+        private void write(byte[] bytes) {
+            ensureOutputCapacity(bytes.length);
+            System.arraycopy(bytes, 0, mOutput, mOutputSize, bytes.length);
+            mOutputSize += bytes.length;
+        }
+
+        private void ensureOutputCapacity(int length) {
+            if (mOutputSize + length > mOutput.length) {
+                mOutput = Arrays.copyOf(mOutput, Math.max(mOutput.length * 2,
+                        mOutputSize + length));
+            }
+        }
+
         private int readInt(ByteBuffer buffer, int firstByte, int prefixMask) {
             int prefix = firstByte & prefixMask;
             if (prefix < prefixMask) {
@@ -334,58 +381,108 @@ import java.util.Map;
 
         private void readLiteralHeaderWithoutIndexingIndexedName(ByteBuffer buffer, int index)
                 throws IOException {
-            String name = getName(index);
-            String value = readString(buffer);
+            Header name = getName(index);
+            byte[] value = readBytes(buffer);
             mHeaders.add(new Header(name, value));
         }
 
-        private String getName(int index) throws IOException {
+        private Header getName(int index) throws IOException {
             if (isStaticHeader(index)) {
-                return STATIC_HEADER_TABLE[index].name;
+                return STATIC_HEADER_TABLE[index];
             } else {
                 int dynamicTableIndex = dynamicTableIndex(index - STATIC_HEADER_TABLE.length);
-                if (dynamicTableIndex < 0 || dynamicTableIndex >= mDynamicTable.length) {
+                if (dynamicTableIndex < 0 || dynamicTableIndex >= mDynamicTable.length
+                        || mDynamicTable[dynamicTableIndex] == null) {
                     throw new IOException("Hpack read headers failed: Header index too large " +
                             (index + 1));
                 }
-                return mDynamicTable[dynamicTableIndex].name;
+                return mDynamicTable[dynamicTableIndex];
+            }
+        }
+
+        private byte[] readBytes(ByteBuffer buffer) throws IOException {
+            int length = readStringLength(buffer);
+            if (mHuffmanString) {
+                int decoded = decodeHuffman(buffer, length);
+                return Arrays.copyOf(mScratch, decoded);
+            }
+            byte[] data = new byte[length];
+            buffer.get(data);
+            return data;
+        }
+
+        private Header readNewName(ByteBuffer buffer) throws IOException {
+            int length = readStringLength(buffer);
+            if (mHuffmanString) {
+                length = decodeHuffman(buffer, length);
+            } else {
+                ensureScratchCapacity(length);
+                buffer.get(mScratch, 0, length);
+            }
+            checkLowercase(mScratch, length);
+            // Intern the name with the static table, most names are well known.
+            for (Header header : STATIC_HEADER_TABLE) {
+                byte[] name = header.nameBytes();
+                if (name.length == length && equals(name, mScratch, length)) {
+                    return header;
+                }
             }
+            return new Header(Arrays.copyOf(mScratch, length), EMPTY_BYTES);
         }
 
-        private String readString(ByteBuffer buffer) throws IOException {
+        private int readStringLength(ByteBuffer buffer) throws IOException {
             if (!buffer.hasRemaining()) {
                 throw new IOException("Hpack read headers failed: data is exhaust");
             }
             int firstByte = readByte(buffer);
-            boolean huffmanDecode = (firstByte & 0x80) == 0x80; // 1NNNNNNN
+            mHuffmanString = (firstByte & 0x80) == 0x80; // 1NNNNNNN
             int length = readInt(buffer, firstByte, PREFIX_7_BITS);
-            if (buffer.remaining() < length) {
+            if (length < 0 || buffer.remaining() < length) {
                 throw new IOException("Hpack read headers failed: data not enough, expect: " +
                         length + " actual: " + buffer.remaining());
             }
-            byte[] data = new byte[length];
-            buffer.get(data);
-            return new String(huffmanDecode ? Huffman.get().decode(data) : data);
+            return length;
+        }
+
+        private int decodeHuffman(ByteBuffer buffer, int length) throws IOException {
+            // The shortest huffman code is 5 bits.
+            ensureScratchCapacity(length * 8 / 5 + 1);
+            return Huffman.get().decode(buffer, length, mScratch);
+        }
+
+        private void ensureScratchCapacity(int length) {
+            if (mScratch.length < length) {
+                mScratch = new byte[Math.max(mScratch.length * 2, length)];
+            }
+        }
+
+        private boolean equals(byte[] a, byte[] b, int length) {
+            for (int i = 0; i < length; i++) {
+                if (a[i] != b[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         private void readLiteralHeaderWithIncrementalIndexingNewName(ByteBuffer buffer)
                 throws IOException {
-            String name = checkLowercase(readString(buffer));
-            String value = readString(buffer);
+            Header name = readNewName(buffer);
+            byte[] value = readBytes(buffer);
             insertIntoDynamicTable(-1, new Header(name, value));
         }
 
         private void readLiteralHeaderWithIncrementalIndexingIndexedName(ByteBuffer buffer,
                                                                          int nameIndex)
                 throws IOException {
-            String name = getName(nameIndex);
-            String value = readString(buffer);
+            Header name = getName(nameIndex);
+            byte[] value = readBytes(buffer);
             insertIntoDynamicTable(-1, new Header(name, value));
         }
 
         private void readLiteralHeaderWithoutIndexingNewName(ByteBuffer buffer) throws IOException {
-            String name = checkLowercase(readString(buffer));
-            String value = readString(buffer);
+            Header name = readNewName(buffer);
+            byte[] value = readBytes(buffer);
             mHeaders.add(new Header(name, value));
         }
 
@@ -463,14 +560,14 @@ import java.util.Map;
             }
         }
 
-        private String checkLowercase(String name) throws IOException {
-            for (int i = 0; i < name.length(); i++) {
-                char c = name.charAt(i);
+        private void checkLowercase(byte[] name, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                byte c = name[i];
                 if (c >= 'A' && c <= 'Z') {
-                    throw new IOException("Hpack read headers failed: mixed case name: " + name);
+                    throw new IOException("Hpack read headers failed: mixed case name: " +
+                            new String(name, 0, length));
                 }
             }
-            return name;
         }
 
     }
@@ -490,9 +587,17 @@ import java.util.Map;
         private int mHeaderCount = 0;
         private int mDynamicTableByteCount = 0;
 
-        private ByteArrayOutputStream mOut;
+        // Reusable output buffer of the header block.
+        private byte[] mOut;
+        private int mOutSize;
+
+        // Fingerprints of the recently written header fields, direct-mapped by hash. A field is
+        // added to the dynamic table only when it repeats, one-off values don't evict others.
+        private final int[] mFieldFingerprints;
 
         Writer() {
+            this.mOut = new byte[1024];
+            this.mFieldFingerprints = new int[FIELD_FINGERPRINT_COUNT];
             this.mDynamicTable = new Header[8];
             this.mNextHeaderIndex = mDynamicTable.length - 1;
             this.mSmallestHeaderTableSizeSetting = Integer.MAX_VALUE;
@@ -500,40 +605,50 @@ import java.util.Map;
             this.mMaxDynamicTableByteCount = DEFAULT_HEADER_TABLE_SIZE_SETTING;
         }
 
-        byte[] writeRequestHeaders(HttpMethod method, String path, String host,
+        byte[] writeRequestHeaders(HttpMethod method, String path, String host, String scheme,
                                 Map<String, List<String>> headers) throws IOException {
-            mOut = new ByteArrayOutputStream();
-            List<Header> hpackHeaders = new ArrayList<>();
-            hpackHeaders.add(new Header(Header.TARGET_METHOD, method.name()));
-            hpackHeaders.add(new Header(Header.TARGET_PATH, path));
-            hpackHeaders.add(new Header(Header.TARGET_AUTHORITY, host));
-            hpackHeaders.add(new Header(Header.TARGET_SCHEME, "https"));
+            beginHeaders();
+            writeHeader(Header.TARGET_METHOD, method.name());
+            writeHeader(Header.TARGET_PATH, path);
+            writeHeader(Header.TARGET_AUTHORITY, host);
+            writeHeader(Header.TARGET_SCHEME, scheme);
             for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
-                if (HTTP_2_SKIPPED_REQUEST_HEADERS.contains(entry.getKey().toLowerCase())) {
+                String name = entry.getKey().toLowerCase();
+                if (HTTP_2_SKIPPED_REQUEST_HEADERS.contains(name)) {
                     continue;
                 }
                 for (String value : entry.getValue()) {
-                    hpackHeaders.add(new Header(entry.getKey(), value));
+                    writeHeader(name, value);
                 }
             }
-            return writeHeaders(hpackHeaders);
+            return endHeaders();
         }
 
         byte[] writeResponseHeaders(int code, String message, Map<String, List<String>> headers)
                 throws IOException {
-            mOut = new ByteArrayOutputStream();
-            List<Header> hpackHeaders = new ArrayList<>();
-            hpackHeaders.add(new Header(Header.RESPONSE_STATUS, TextUtils.isEmpty(message) ? String.valueOf(code) :
-                    code + " " + message));
+            beginHeaders();
+            writeHeader(Header.RESPONSE_STATUS, TextUtils.isEmpty(message) ? String.valueOf(code) :
+                    code + " " + message);
             for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
-                if (HTTP_2_SKIPPED_RESPONSE_HEADERS.contains(entry.getKey().toLowerCase())) {
+                String name = entry.getKey().toLowerCase();
+                if (HTTP_2_SKIPPED_RESPONSE_HEADERS.contains(name)) {
                     continue;
                 }
                 for (String value : entry.getValue()) {
-                    hpackHeaders.add(new Header(entry.getKey(), value));
+                    writeHeader(name, value);
                 }
             }
-            return writeHeaders(hpackHeaders);
+            return endHeaders();
+        }
+
+        /**
+         * Drops all dynamic table entries, the next header block starts with a dynamic table
+         * size update of 0 so the peer drops its entries as well.
+         */
+        void resetDynamicTable() {
+            clearDynamicTable();
+            mSmallestHeaderTableSizeSetting = 0;
+            mEmitDynamicTableSizeUpdate = true;
         }
 
         private void clearDynamicTable() {
@@ -586,7 +701,8 @@ import java.util.Map;
             mDynamicTableByteCount += delta;
         }
 
-        private byte[] writeHeaders(List<Header> headerBlock) throws IOException {
+        private void beginHeaders() {
+            mOutSize = 0;
             if (mEmitDynamicTableSizeUpdate) {
                 if (mSmallestHeaderTableSizeSetting < mMaxDynamicTableByteCount) {
                     // Multiple dynamic table size updates!
@@ -596,98 +712,201 @@ import java.util.Map;
                 mSmallestHeaderTableSizeSetting = Integer.MAX_VALUE;
                 writeInt(mMaxDynamicTableByteCount, PREFIX_5_BITS, 0x20);
             }
+        }
 
-            for (int i = 0, size = headerBlock.size(); i < size; i++) {
-                Header header = headerBlock.get(i);
-                String name = header.name.toLowerCase();
-                String value = header.value;
-                int headerIndex = -1;
-                int headerNameIndex = -1;
-
-                Integer staticIndex = NAME_TO_FIRST_INDEX.get(name);
-                if (staticIndex != null) {
-                    headerNameIndex = staticIndex + 1;
-                    if (headerNameIndex > 1 && headerNameIndex < 8) {
-                        // Only search a subset of the static header table. Most entries have an empty value, so
-                        // it's unnecessary to waste cycles looking at them. This check is built on the
-                        // observation that the header entries we care about are in adjacent pairs, and we
-                        // always know the first index of the pair.
-                        if (TextUtils.equals(STATIC_HEADER_TABLE[headerNameIndex - 1].value, value)) {
-                            headerIndex = headerNameIndex;
-                        } else if (TextUtils.equals(STATIC_HEADER_TABLE[headerNameIndex].value, value)) {
-                            headerIndex = headerNameIndex + 1;
-                        }
+        private byte[] endHeaders() {
+            return Arrays.copyOf(mOut, mOutSize);
+        }
+
+        /**
+         * Writes a header field, the name must be lowercase.
+         */
+        private void writeHeader(String name, String value) {
+            int headerIndex = -1;
+            int headerNameIndex = -1;
+
+            Integer staticIndex = NAME_TO_FIRST_INDEX.get(name);
+            if (staticIndex != null) {
+                headerNameIndex = staticIndex + 1;
+                if (headerNameIndex > 1 && headerNameIndex < 8) {
+                    // Only search a subset of the static header table. Most entries have an empty value, so
+                    // it's unnecessary to waste cycles looking at them. This check is built on the
+                    // observation that the header entries we care about are in adjacent pairs, and we
+                    // always know the first index of the pair.
+                    if (TextUtils.equals(STATIC_HEADER_TABLE[headerNameIndex - 1].value(), value)) {
+                        headerIndex = headerNameIndex;
+                    } else if (TextUtils.equals(STATIC_HEADER_TABLE[headerNameIndex].value(), value)) {
+                        headerIndex = headerNameIndex + 1;
                     }
                 }
+            }
 
-                if (headerIndex == -1) {
-                    for (int j = mNextHeaderIndex + 1, length = mDynamicTable.length; j < length; j++) {
-                        if (TextUtils.equals(mDynamicTable[j].name, name)) {
-                            if (TextUtils.equals(mDynamicTable[j].value, value)) {
-                                headerIndex = j - mNextHeaderIndex + STATIC_HEADER_TABLE.length;
-                                break;
-                            } else if (headerNameIndex == -1) {
-                                headerNameIndex = j - mNextHeaderIndex + STATIC_HEADER_TABLE.length;
-                            }
+            if (headerIndex == -1) {
+                for (int j = mNextHeaderIndex + 1, length = mDynamicTable.length; j < length; j++) {
+                    if (TextUtils.equals(mDynamicTable[j].name(), name)) {
+                        if (TextUtils.equals(mDynamicTable[j].value(), value)) {
+                            headerIndex = j - mNextHeaderIndex + STATIC_HEADER_TABLE.length;
+                            break;
+                        } else if (headerNameIndex == -1) {
+                            headerNameIndex = j - mNextHeaderIndex + STATIC_HEADER_TABLE.length;
                         }
                     }
                 }
+            }
 
-                if (headerIndex != -1) {
-                    // Indexed Header Field.
-                    writeInt(headerIndex, PREFIX_7_BITS, 0x80);
-                } else if (headerNameIndex == -1) {
-                    // Literal Header Field with Incremental Indexing - New Name.
-                    mOut.write(0x40);
-                    writeString(name);
-                    writeString(value);
-                    insertIntoDynamicTable(header);
-                } else if (name.startsWith(Header.PSEUDO_PREFIX) && !Header.TARGET_AUTHORITY.equals(name)) {
-                    // Follow Chromes lead - only include the :authority pseudo header, but exclude all other
-                    // pseudo headers. Literal Header Field without Indexing - Indexed Name.
-                    writeInt(headerNameIndex, PREFIX_4_BITS, 0);
-                    writeString(value);
+            if (headerIndex != -1) {
+                // Indexed Header Field.
+                writeInt(headerIndex, PREFIX_7_BITS, 0x80);
+            } else if (isSensitive(name, value)) {
+                // Literal Header Field Never Indexed, intermediaries must not index it either.
+                writeLiteral(headerNameIndex, name, value, 0x10);
+            } else if (name.startsWith(Header.PSEUDO_PREFIX) && !Header.TARGET_AUTHORITY.equals(name)) {
+                // Follow Chromes lead - only include the :authority pseudo header, but exclude all other
+                // pseudo headers. Literal Header Field without Indexing - Indexed Name.
+                writeLiteral(headerNameIndex, name, value, 0);
+            } else if (!isRepeated(name, value)) {
+                // Literal Header Field without Indexing, it is the first time we see this field.
+                writeLiteral(headerNameIndex, name, value, 0);
+            } else if (headerNameIndex == -1) {
+                // Literal Header Field with Incremental Indexing - New Name.
+                write(0x40);
+                writeString(name);
+                writeString(value);
+                insertIntoDynamicTable(new Header(name, value));
+            } else {
+                // Literal Header Field with Incremental Indexing - Indexed Name.
+                writeInt(headerNameIndex, PREFIX_6_BITS, 0x40);
+                writeString(value);
+                insertIntoDynamicTable(new Header(name, value));
+            }
+        }
+
+        /**
+         * Writes a literal header field without indexing (0x00) or never indexed (0x10).
+         */
+        private void writeLiteral(int headerNameIndex, String name, String value, int bits) {
+            if (headerNameIndex == -1) {
+                write(bits);
+                writeString(name);
+            } else {
+                writeInt(headerNameIndex, PREFIX_4_BITS, bits);
+            }
+            writeString(value);
+        }
+
+        /**
+         * Whether the field has been written recently, a fingerprint collision only costs an
+         * unnecessary dynamic table entry.
+         */
+        private boolean isRepeated(String name, String value) {
+            int fingerprint = 31 * name.hashCode() + value.hashCode();
+            if (fingerprint == 0) {
+                fingerprint = 1;
+            }
+            int slot = (fingerprint ^ (fingerprint >>> 16)) & (FIELD_FINGERPRINT_COUNT - 1);
+            if (mFieldFingerprints[slot] == fingerprint) {
+                return true;
+            }
+            mFieldFingerprints[slot] = fingerprint;
+            return false;
+        }
+
+        /**
+         * Credentials and cookies carrying secrets are exposed to compression oracles, they must
+         * not enter any dynamic table. See
+         * https://httpwg.org/specs/rfc7541.html#never.indexed.literals
+         */
+        private boolean isSensitive(String name, String value) {
+            switch (name) {
+                case "authorization":
+                case "proxy-authorization":
+                case "set-cookie":
+                    return true;
+                case "cookie":
+                    // Only short cookies without nonces or ids are worth indexing.
+                    return value.length() >= INDEXABLE_COOKIE_LENGTH || isHighEntropy(value);
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Whether a cookie looks like it carries a secret: a token mixes digits with other
+         * characters, or it is a long run of digits.
+         */
+        private boolean isHighEntropy(String value) {
+            boolean digit = false;
+            boolean other = false;
+            int length = 0;
+            for (int i = 0, n = value.length(); i <= n; i++) {
+                char c = i < n ? value.charAt(i) : ';';
+                if (c == '=' || c == ';' || c == ',' || c == ' ') {
+                    if (digit && (other || length >= HIGH_ENTROPY_DIGITS_LENGTH)) {
+                        return true;
+                    }
+                    digit = false;
+                    other = false;
+                    length = 0;
                 } else {
-                    // Literal Header Field with Incremental Indexing - Indexed Name.
-                    writeInt(headerNameIndex, PREFIX_6_BITS, 0x40);
-                    writeString(value);
-                    insertIntoDynamicTable(header);
+                    if (c >= '0' && c <= '9') {
+                        digit = true;
+                    } else {
+                        other = true;
+                    }
+                    length++;
                 }
             }
-            return mOut.toByteArray();
+            return false;
+        }
+
+        private void write(int b) {
+            ensureOutputCapacity(1);
+            mOut[mOutSize++] = (byte) b;
+        }
+
+        private void write(byte[] bytes) {
+            ensureOutputCapacity(bytes.length);
+            System.arraycopy(bytes, 0, mOut, mOutSize, bytes.length);
+            mOutSize += bytes.length;
+        }
+
+        private void ensureOutputCapacity(int length) {
+            if (mOutSize + length > mOut.length) {
+                mOut = Arrays.copyOf(mOut, Math.max(mOut.length * 2, mOutSize + length));
+            }
         }
 
         private void writeInt(int value, int prefixMask, int bits) {
             // Write the raw value for a single byte value.
             if (value < prefixMask) {
-                mOut.write(bits | value);
+                write(bits | value);
                 return;
             }
 
             // Write the mask to start a multibyte value.
-            mOut.write(bits | prefixMask);
+            write(bits | prefixMask);
             value -= prefixMask;
 
             // Write 7 bits at a time 'til we're done.
             while (value >= 0x80) {
                 int b = value & 0x7f;
-                mOut.write(b | 0x80);
+                write(b | 0x80);
                 value >>>= 7;
             }
-            mOut.write(value);
+            write(value);
         }
 
-        private void writeString(String data) throws IOException {
+        private void writeString(String data) {
             byte[] stringBytes = data.getBytes();
-            if (Huffman.get().encodedLength(data) < stringBytes.length) {
-                ByteBuffer buffer = ByteBuffer.allocate(stringBytes.length);
-                Huffman.get().encode(data, buffer);
-                buffer.flip();
-                writeInt(buffer.remaining(), PREFIX_7_BITS, 0x80);
-                mOut.write(buffer.array(), buffer.position(), buffer.remaining());
+            // Choose huffman or raw by the encoded length, only encodes once.
+            int huffmanLength = Huffman.get().encodedLength(stringBytes);
+            if (huffmanLength < stringBytes.length) {
+                writeInt(huffmanLength, PREFIX_7_BITS, 0x80);
+                ensureOutputCapacity(huffmanLength);
+                mOutSize = Huffman.get().encode(stringBytes, mOut, mOutSize);
             } else {
                 writeInt(stringBytes.length, PREFIX_7_BITS, 0);
-                mOut.write(data.getBytes());
+                write(stringBytes);
             }
         }
 
@@ -724,6 +943,16 @@ import java.util.Map;
 
     }
 
+    private static final byte SPACE_BYTE = ' ';
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    private static final byte[] HTTP_2_BYTES = HttpProtocol.HTTP_2.toString().getBytes();
+    private static final byte[] HEADER_SEPARATOR_BYTES = ": ".getBytes();
+    private static final byte[] HOST_PREFIX_BYTES = "Host: ".getBytes();
+
+    /**
+     * A header entry keeps both the bytes and the string form, the missing one is created on
+     * demand. The decoded headers only have bytes, most of them are never turned into strings.
+     */
     private static final class Header {
 
         // Special header names defined in HTTP/2 spec.
@@ -734,21 +963,78 @@ import java.util.Map;
         private static final String TARGET_SCHEME = ":scheme";
         private static final String TARGET_AUTHORITY = ":authority";
 
+        private static final byte[] RESPONSE_STATUS_BYTES = RESPONSE_STATUS.getBytes();
+        private static final byte[] TARGET_METHOD_BYTES = TARGET_METHOD.getBytes();
+        private static final byte[] TARGET_PATH_BYTES = TARGET_PATH.getBytes();
+        private static final byte[] TARGET_SCHEME_BYTES = TARGET_SCHEME.getBytes();
+        private static final byte[] TARGET_AUTHORITY_BYTES = TARGET_AUTHORITY.getBytes();
+        private static final byte[] HOST_BYTES = "host".getBytes();
+
         private String name;
         private String value;
 
+        private byte[] nameBytes;
+        private byte[] valueBytes;
+
+        private int hpackSize = -1;
+
         private Header(String name, String value) {
             this.name = name;
             this.value = value;
         }
 
+        private Header(byte[] nameBytes, byte[] valueBytes) {
+            this.nameBytes = nameBytes;
+            this.valueBytes = valueBytes;
+        }
+
+        /**
+         * Shares the name of another header, mostly a static or dynamic table entry.
+         */
+        private Header(Header name, byte[] valueBytes) {
+            this.name = name.name;
+            this.nameBytes = name.nameBytes();
+            this.valueBytes = valueBytes;
+        }
+
+        private String name() {
+            if (name == null) {
+                name = new String(nameBytes);
+            }
+            return name;
+        }
+
+        private String value() {
+            if (value == null && valueBytes != null) {
+                value = new String(valueBytes);
+            }
+            return value;
+        }
+
+        private byte[] nameBytes() {
+            if (nameBytes == null) {
+                nameBytes = name.getBytes();
+            }
+            return nameBytes;
+        }
+
+        private byte[] valueBytes() {
+            if (valueBytes == null) {
+                valueBytes = value.getBytes();
+            }
+            return valueBytes;
+        }
+
         private int hpackSize() {
-            return 32 + name.getBytes().length + value.getBytes().length;
+            if (hpackSize == -1) {
+                hpackSize = 32 + nameBytes().length + valueBytes().length;
+            }
+            return hpackSize;
         }
 
         @Override
         public String toString() {
-            return name + ": " + value;
+            return name() + ": " + value();
         }
 
     }
@@ -15,6 +15,8 @@
  */
 package com.github.megatronking.netbare.http2;
 
+import java.nio.ByteBuffer;
+
 /**
  * HTTP2 protocol constants and common methods.
  *
@@ -40,6 +42,15 @@ public final class Http2 {
      */
     static final int INITIAL_MAX_FRAME_SIZE = 0x4000;
 
+    /**
+     * The initial flow-control window size of both connection and streams.
+     */
+    static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+
+    /**
+     * The max flow-control window size, 2^31 - 1.
+     */
+    static final int MAX_WINDOW_SIZE = 0x7fffffff;
 
     static final byte FLAG_NONE = 0x0;
 
@@ -74,4 +85,72 @@ public final class Http2 {
      */
     static final byte FLAG_COMPRESSED = 0x20;
 
+    /**
+     * Writes a 9 bytes frame header to the buffer.
+     *
+     * @param output The buffer to write to.
+     * @param streamId The stream id.
+     * @param length The payload length.
+     * @param type The frame type.
+     * @param flags The frame flags.
+     */
+    static void writeFrameHeader(ByteBuffer output, int streamId, int length, byte type,
+                                 byte flags) {
+        output.put((byte) ((length >>> 16) & 0xff));
+        output.put((byte) ((length >>> 8) & 0xff));
+        output.put((byte) (length & 0xff));
+        output.put((byte) (type & 0xff));
+        output.put((byte) (flags & 0xff));
+        output.putInt(streamId & 0x7fffffff);
+    }
+
+    /**
+     * Splits the data into DATA frames and writes them into one buffer.
+     *
+     * @param data The data, its position will be moved forward by byteCount.
+     * @param byteCount The count of data bytes to write.
+     * @param streamId The stream id.
+     * @param endStream Whether the last frame ends the stream.
+     * @param maxFrameSize The max payload length of a frame.
+     * @return A buffer contains the frames, ready for read.
+     */
+    static ByteBuffer dataFrames(ByteBuffer data, int byteCount, int streamId, boolean endStream,
+                                 int maxFrameSize) {
+        // An empty DATA frame is still required to end the stream.
+        int frameCount = Math.max(1, (byteCount + maxFrameSize - 1) / maxFrameSize);
+        ByteBuffer output = ByteBuffer.allocate(byteCount + frameCount * FRAME_HEADER_LENGTH);
+        byte type = FrameType.DATA.get();
+        int limit = data.limit();
+        for (int i = 0; i < frameCount; i++) {
+            int length = Math.min(maxFrameSize, byteCount);
+            byteCount -= length;
+            byte flags = 0;
+            if (i == frameCount - 1 && endStream) {
+                flags |= FLAG_END_STREAM;
+            }
+            writeFrameHeader(output, streamId, length, type, flags);
+            // Copy the payload slice directly from the source buffer.
+            data.limit(data.position() + length);
+            output.put(data);
+            data.limit(limit);
+        }
+        output.flip();
+        return output;
+    }
+
+    /**
+     * Creates a WINDOW_UPDATE frame.
+     *
+     * @param streamId The stream id, 0 means the connection.
+     * @param increment The window size increment.
+     * @return A buffer contains the frame, ready for read.
+     */
+    static ByteBuffer windowUpdateFrame(int streamId, int increment) {
+        ByteBuffer output = ByteBuffer.allocate(FRAME_HEADER_LENGTH + 4);
+        writeFrameHeader(output, streamId, 4, FrameType.WINDOW_UPDATE.get(), FLAG_NONE);
+        output.putInt(increment & 0x7fffffff);
+        output.flip();
+        return output;
+    }
+
 }
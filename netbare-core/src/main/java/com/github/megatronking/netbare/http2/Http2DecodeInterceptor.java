@@ -16,10 +16,15 @@
 package com.github.megatronking.netbare.http2;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 
+import com.github.megatronking.netbare.NetBareLog;
 import com.github.megatronking.netbare.NetBareXLog;
 import com.github.megatronking.netbare.http.HttpId;
-import com.github.megatronking.netbare.http.HttpPendingIndexedInterceptor;
+import com.github.megatronking.netbare.http.HttpIndexedInterceptor;
 import com.github.megatronking.netbare.http.HttpProtocol;
 import com.github.megatronking.netbare.http.HttpRequest;
 import com.github.megatronking.netbare.http.HttpRequestChain;
@@ -31,9 +36,6 @@ import com.github.megatronking.netbare.ssl.SSLRefluxCallback;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Decodes HTTP2 request and response packets.
@@ -41,18 +43,33 @@ import java.util.concurrent.ConcurrentHashMap;
  * @author Megatron King
  * @since 2019/1/5 14:19
  */
-public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor {
+public final class Http2DecodeInterceptor extends HttpIndexedInterceptor {
 
     private final SSLRefluxCallback<HttpRequest, HttpResponse> mRefluxCallback;
 
     private final HttpZygoteRequest mZygoteRequest;
     private final HttpZygoteResponse mZygoteResponse;
 
-    private final Map<Integer, HttpId> mHttpIds;
+    private final SparseArray<HttpId> mHttpIds;
+
+    private final HeaderFrames mRequestHeaderFrames;
+    private final HeaderFrames mResponseHeaderFrames;
+
+    private boolean mRequestPassthrough;
+    private boolean mResponsePassthrough;
+
+    private final Http2FlowController mRequestFlow;
+    private final Http2FlowController mResponseFlow;
+
+    private final Http2FrameParser mRequestParser;
+    private final Http2FrameParser mResponseParser;
 
     private final Http2Stream mRequestStream;
     private final Http2Stream mResponseStream;
 
+    private final Http2StreamTracker mStreamTracker;
+    private Http2StreamListener mStreamListener;
+
     private Hpack.Reader mHpackRequestReader;
     private Hpack.Reader mHpackResponseReader;
 
@@ -66,10 +83,64 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
         this.mZygoteRequest = zygoteRequest;
         this.mZygoteResponse = zygoteResponse;
 
-        this.mHttpIds = new ConcurrentHashMap<>();
+        this.mHttpIds = new SparseArray<>();
+
+        this.mRequestHeaderFrames = new HeaderFrames();
+        this.mResponseHeaderFrames = new HeaderFrames();
+        this.mRequestPassthrough = true;
+        this.mResponsePassthrough = true;
+
+        Http2FlowController.Sink clientSink = new Http2FlowController.Sink() {
+            @Override
+            public void write(ByteBuffer buffer) throws IOException {
+                mRefluxCallback.onResponse(mZygoteResponse, buffer);
+            }
+        };
+        Http2FlowController.Sink serverSink = new Http2FlowController.Sink() {
+            @Override
+            public void write(ByteBuffer buffer) throws IOException {
+                mRefluxCallback.onRequest(mZygoteRequest, buffer);
+            }
+        };
+        this.mRequestFlow = new Http2FlowController(clientSink, serverSink);
+        this.mResponseFlow = new Http2FlowController(serverSink, clientSink);
+
+        this.mRequestParser = new Http2FrameParser();
+        this.mResponseParser = new Http2FrameParser();
 
         this.mRequestStream = new Http2Stream();
         this.mResponseStream = new Http2Stream();
+
+        this.mStreamTracker = new Http2StreamTracker();
+        mStreamTracker.addListener(new Http2StreamTracker.Listener() {
+            @Override
+            public void onStreamClosed(int streamId) {
+                mRequestHeaderFrames.remove(streamId);
+                mResponseHeaderFrames.remove(streamId);
+                mRequestFlow.remove(streamId);
+                mResponseFlow.remove(streamId);
+                HttpId id = mHttpIds.get(streamId);
+                if (id == null) {
+                    return;
+                }
+                mHttpIds.remove(streamId);
+                mZygoteRequest.release(id);
+                mZygoteResponse.release(id);
+                if (mStreamListener != null) {
+                    mStreamListener.onStreamClosed(id);
+                }
+            }
+        });
+    }
+
+    /**
+     * Set a listener to observe the closing of HTTP2 streams, the per-stream states should be
+     * released in the callback.
+     *
+     * @param listener A stream listener.
+     */
+    public void setStreamListener(@Nullable Http2StreamListener listener) {
+        this.mStreamListener = listener;
     }
 
     @Override
@@ -86,12 +157,7 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
             if (mHpackRequestReader == null) {
                 mHpackRequestReader = new Hpack.Reader();
             }
-            decode(mergeRequestBuffer(buffer), mHpackRequestReader, new DecodeCallback() {
-
-                @Override
-                public void onPending(ByteBuffer buffer) {
-                    pendRequestBuffer(buffer);
-                }
+            final DecodeCallback callback = new DecodeCallback() {
 
                 @Override
                 public void onResult(ByteBuffer buffer, boolean isFinished) throws IOException {
@@ -119,7 +185,8 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
                     mRefluxCallback.onRequest(chain.request(), buffer);
                 }
 
-            }, mRequestStream, new Http2Updater() {
+            };
+            final Http2Updater updater = new Http2Updater() {
                 @Override
                 public void onSettingsUpdate(Http2Settings http2Settings) {
                     mZygoteRequest.onSettingsUpdate(http2Settings);
@@ -135,6 +202,15 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
                 public void onStreamFinished() {
                     mZygoteRequest.onStreamFinished();
                 }
+            };
+            mRequestParser.parse(buffer, new Http2FrameParser.Callback() {
+                @Override
+                public void onFrame(Http2FrameParser.Frame frame) throws IOException {
+                    decode(frame, mHpackRequestReader,
+                            mRequestPassthrough ? mRequestHeaderFrames : null, mRequestFlow,
+                            mResponseFlow, mResponseParser, true, callback, mRequestStream,
+                            updater);
+                }
             });
         } else {
             chain.process(buffer);
@@ -156,12 +232,7 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
             if (mHpackResponseReader == null) {
                 mHpackResponseReader = new Hpack.Reader();
             }
-            decode(mergeResponseBuffer(buffer), mHpackResponseReader, new DecodeCallback() {
-
-                @Override
-                public void onPending(ByteBuffer buffer) {
-                    pendResponseBuffer(buffer);
-                }
+            final DecodeCallback callback = new DecodeCallback() {
 
                 @Override
                 public void onResult(ByteBuffer buffer, boolean isFinished) throws IOException {
@@ -189,7 +260,8 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
                     mRefluxCallback.onResponse(chain.response(), buffer);
                 }
 
-            }, mResponseStream, new Http2Updater() {
+            };
+            final Http2Updater updater = new Http2Updater() {
                 @Override
                 public void onSettingsUpdate(Http2Settings http2Settings) {
                     mZygoteResponse.onSettingsUpdate(http2Settings);
@@ -205,113 +277,161 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
                 public void onStreamFinished() {
                     mZygoteResponse.onStreamFinished();
                 }
+            };
+            mResponseParser.parse(buffer, new Http2FrameParser.Callback() {
+                @Override
+                public void onFrame(Http2FrameParser.Frame frame) throws IOException {
+                    decode(frame, mHpackResponseReader,
+                            mResponsePassthrough ? mResponseHeaderFrames : null, mResponseFlow,
+                            mRequestFlow, mRequestParser, false, callback, mResponseStream,
+                            updater);
+                }
             });
         } else {
             chain.process(buffer);
         }
     }
 
-    private void decode(ByteBuffer buffer, Hpack.Reader reader, DecodeCallback callback,
-                        Http2Stream stream, Http2Updater updater)
-            throws IOException {
-        // HTTP2 frame structure
-        //  0                   1                   2                   3
-        //  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
-        // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
-        // |                 Length (24)                   |
-        // +---------------+---------------+---------------+
-        // |   Type (8)    |   Flags (8)   |
-        // +-+-+-----------+---------------+-------------------------------+
-        // |R|                 Stream Identifier (31)                      |
-        // +=+=============================================================+
-        // |                   Frame Payload (0...)                      ...
-        // +---------------------------------------------------------------+
-        if (buffer.remaining() < Http2.FRAME_HEADER_LENGTH) {
-            callback.onPending(buffer);
-            return;
-        }
-        int length = readMedium(buffer);
-        if (length < 0 || length > Http2.INITIAL_MAX_FRAME_SIZE) {
-            // Values greater than 214 (16,384) MUST NOT be sent unless the receiver has set a
-            // larger value for SETTINGS_MAX_FRAME_SIZE.
-            throw new IOException("Http2 frame size error: " + length);
-        }
-        // Check payload length
-        if (length + 6 > buffer.remaining()) {
-            mLog.w("No enough http2 frame length, expect: %d actual: %d", length,
-                    buffer.remaining() - 6);
-            // Packet not enough for one frame, wait next packet.
-            // Revert position.
-            buffer.position(buffer.position() - 3);
-            callback.onPending(buffer);
-            return;
-        } else if (length + 6 < buffer.remaining()) {
-            mLog.w("Multi http2 frames in one buffer, first frame length : %d, buffer length: %d",
-                    length + 9, buffer.remaining() + 3);
-            // Separate multi-frames
-            ByteBuffer newBuffer = ByteBuffer.allocate(length + 9);
-            newBuffer.put(buffer.array(), buffer.position() - 3, newBuffer.capacity());
-            newBuffer.flip();
-            decode(newBuffer, reader, callback, stream, updater);
-            // Process the left data
-            buffer.position(buffer.position() + length + 6);
-            decode(buffer, reader, callback, stream, updater);
-            return;
-        }
+    /**
+     * Returns and removes the origin header frames of the request stream, the frames can be sent
+     * as they are if the request headers have not been changed. The header blocks must reach the
+     * peer in the order they are received, otherwise the peer's dynamic table is out of sync.
+     *
+     * @param streamId The stream id.
+     * @return The raw header frames, or null if there is no complete header block recorded or an
+     * earlier header block has been dropped, held or reordered by interceptors.
+     */
+    /* package */ ByteBuffer pollRequestHeaderFrames(int streamId) {
+        return mRequestHeaderFrames.poll(streamId);
+    }
+
+    /**
+     * Returns and removes the origin header frames of the response stream, the frames can be
+     * sent as they are if the response headers have not been changed. The header blocks must
+     * reach the peer in the order they are received, otherwise the peer's dynamic table is out of
+     * sync.
+     *
+     * @param streamId The stream id.
+     * @return The raw header frames, or null if there is no complete header block recorded or an
+     * earlier header block has been dropped, held or reordered by interceptors.
+     */
+    /* package */ ByteBuffer pollResponseHeaderFrames(int streamId) {
+        return mResponseHeaderFrames.poll(streamId);
+    }
+
+    /**
+     * Stop recording request header frames, once a request header block is re-encoded the
+     * origin header blocks are out of sync with the peer's dynamic table.
+     */
+    /* package */ void disableRequestPassthrough() {
+        mRequestPassthrough = false;
+        mRequestHeaderFrames.clear();
+    }
 
-        byte type = (byte) (buffer.get() & 0xff);
-        byte flags = (byte) (buffer.get() & 0xff);
-        int streamId = buffer.getInt() & 0x7fffffff;
-        FrameType frameType = FrameType.parse(type);
+    /**
+     * Stop recording response header frames, once a response header block is re-encoded the
+     * origin header blocks are out of sync with the peer's dynamic table.
+     */
+    /* package */ void disableResponsePassthrough() {
+        mResponsePassthrough = false;
+        mResponseHeaderFrames.clear();
+    }
+
+    /**
+     * Returns the flow controller of request DATA frames, from the client to the server.
+     *
+     * @return The request flow controller.
+     */
+    /* package */ Http2FlowController requestFlow() {
+        return mRequestFlow;
+    }
+
+    /**
+     * Returns the flow controller of response DATA frames, from the server to the client.
+     *
+     * @return The response flow controller.
+     */
+    /* package */ Http2FlowController responseFlow() {
+        return mResponseFlow;
+    }
+
+    /**
+     * Returns the tracker of the stream states, the per-stream states of encoders should be
+     * evicted when streams are closed.
+     *
+     * @return The stream tracker.
+     */
+    /* package */ Http2StreamTracker streamTracker() {
+        return mStreamTracker;
+    }
+
+    private void decode(Http2FrameParser.Frame frame, Hpack.Reader reader,
+                        HeaderFrames headerFrames, Http2FlowController dataFlow,
+                        Http2FlowController reverseFlow, Http2FrameParser reverseParser,
+                        boolean fromClient, DecodeCallback callback, Http2Stream stream,
+                        Http2Updater updater) throws IOException {
+        FrameType frameType = frame.frameType;
         if (frameType == null) {
-            mLog.e("Unexpected http2 frame type: " + type);
+            mLog.e("Unexpected http2 frame type: " + frame.type);
             // Discard frames that have unknown or unsupported types.
             return;
         }
-        if (stream.id != -1) {
-            if (streamId != stream.id && frameType == FrameType.CONTINUATION) {
-                throw new IOException("Http2 TYPE_CONTINUATION streamId changed!");
-            }
+        int streamId = frame.streamId;
+        byte flags = frame.flags;
+        ByteBuffer payload = frame.payload;
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            mLog.i("Decode a http2 frame: " + frameType + " stream(" + streamId +
+                    ") length(" + frame.length + ")");
         }
-        mLog.i("Decode a http2 frame: " + frameType + " stream(" + streamId +
-                ") length(" + length + ")");
         stream.id = streamId;
+        boolean skip = true;
         switch (frameType) {
             case DATA:
-                decodeData(buffer, length, flags, streamId, callback);
-                return;
+                dataFlow.onDataReceived(streamId, frame.length);
+                decodeData(payload, flags, streamId, callback, dataFlow);
+                // Credit the bytes which are not sent by interceptors.
+                dataFlow.settle(streamId);
+                skip = false;
+                break;
             case HEADERS:
-            case CONTINUATION:
-                decodeHeaders(buffer, reader, length, flags, streamId, callback);
-                return;
+                if (headerFrames != null) {
+                    headerFrames.record(streamId, frame.raw);
+                }
+                decodeHeaders(payload, reader, flags, streamId, callback);
+                skip = false;
+                break;
             case SETTINGS:
-                decodeSettings(buffer, length, flags, streamId, updater);
-                // No return
+                decodeSettings(payload, flags, streamId, updater, reverseFlow, reverseParser);
+                break;
+            case WINDOW_UPDATE:
+                // Drop the frame if all the increment is withheld.
+                skip = decodeWindowUpdate(payload, streamId, reverseFlow);
+                break;
+            case RST_STREAM:
+                mRequestFlow.reset(streamId);
+                mResponseFlow.reset(streamId);
                 break;
             case GOAWAY:
-                decodeGoAway(buffer, length, flags, streamId);
-                // No return
+                decodeGoAway(payload, streamId);
                 break;
             default:
                 break;
         }
-        // Encrypt and send it to remote server directly.
-        buffer.position(buffer.position() - Http2.FRAME_HEADER_LENGTH);
-        callback.onSkip(buffer);
-    }
-
-    private int readMedium(ByteBuffer buffer) {
-        return (buffer.get() & 0xff) << 16
-                | (buffer.get() & 0xff) << 8
-                | (buffer.get() & 0xff);
+        if (skip) {
+            // Encrypt and send it to remote server directly.
+            callback.onSkip(frame.raw);
+        }
+        // The frame has been handled, the stream states can be evicted now.
+        mStreamTracker.onFrame(streamId, frameType, flags, fromClient);
     }
 
-    private void decodeSettings(ByteBuffer buffer, int length, byte flags, int streamId,
-                                Http2Updater receiver)
-            throws IOException {
+    private void decodeSettings(ByteBuffer payload, byte flags, int streamId,
+                                Http2Updater receiver, Http2FlowController reverseFlow,
+                                Http2FrameParser reverseParser) throws IOException {
         if (streamId != 0) {
             throw new IOException("Http2 TYPE_SETTINGS streamId != 0");
         }
+        int length = payload.remaining();
         if ((flags & Http2.FLAG_ACK) != 0) {
             if (length != 0) {
                 throw new IOException("Http2 FRAME_SIZE_ERROR ack frame should be empty!");
@@ -322,11 +442,10 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
         if (length % 6 != 0) {
             throw new IOException("Http2 TYPE_SETTINGS length %% 6 != 0: " + length);
         }
-        int initPosition = buffer.position();
         Http2Settings settings = new Http2Settings();
         for (int i = 0; i < length; i += 6) {
-            int id = buffer.getShort() & 0xFFFF;
-            int value = buffer.getInt();
+            int id = payload.getShort() & 0xFFFF;
+            int value = payload.getInt();
             switch (id) {
                 case 1: // SETTINGS_HEADER_TABLE_SIZE
                     mLog.i("Http2 SETTINGS_HEADER_TABLE_SIZE: " + value);
@@ -360,36 +479,53 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
             }
             settings.set(id, value);
         }
-        // Reverse the position and sent to terminal.
-        buffer.position(initPosition);
         receiver.onSettingsUpdate(settings);
+        if (settings.isSet(5)) { // SETTINGS_MAX_FRAME_SIZE
+            // The settings sender receives the reverse frames.
+            reverseParser.setMaxFrameSize(settings.getMaxFrameSize(Http2.INITIAL_MAX_FRAME_SIZE));
+        }
+        if (settings.isSet(7)) { // SETTINGS_INITIAL_WINDOW_SIZE
+            // The settings sender receives the reverse DATA frames.
+            reverseFlow.onInitialWindowSizeChanged(settings.getInitialWindowSize());
+            reverseFlow.flush();
+        }
+    }
+
+    private boolean decodeWindowUpdate(ByteBuffer payload, int streamId,
+                                       Http2FlowController reverseFlow) throws IOException {
+        if (payload.remaining() != 4) {
+            throw new IOException("Http2 TYPE_WINDOW_UPDATE length != 4: " + payload.remaining());
+        }
+        int position = payload.position();
+        int increment = payload.getInt(position) & 0x7fffffff;
+        if (increment == 0) {
+            throw new IOException("Http2 TYPE_WINDOW_UPDATE windowSizeIncrement was 0");
+        }
+        if (streamId != 0 && !mStreamTracker.isOpen(streamId)) {
+            // Don't recreate the window of a closed stream.
+            return true;
+        }
+        // The window update sender receives the reverse DATA frames.
+        int forward = reverseFlow.onWindowUpdate(streamId, increment);
+        reverseFlow.flush();
+        if (forward == 0) {
+            return false;
+        }
+        // Rewrite the increment of the raw frame.
+        payload.putInt(position, forward);
+        return true;
     }
 
-    private void decodeHeaders(ByteBuffer buffer, Hpack.Reader reader, int length, byte flags,
+    private void decodeHeaders(ByteBuffer headerBlock, Hpack.Reader reader, byte flags,
                                int streamId, DecodeCallback callback) throws IOException {
-        // +---------------+
-        // |Pad Length? (8)|
-        // +-+-------------+-----------------------------------------------+
-        // |E|                 Stream Dependency? (31)                     |
-        // +-+-------------+-----------------------------------------------+
-        // |  Weight? (8)  |
-        // +-+-------------+-----------------------------------------------+
-        // |                   Header Block Fragment (*)                 ...
-        // +---------------------------------------------------------------+
-        // |                           Padding (*)                       ...
-        // +---------------------------------------------------------------+
+        // The padding and priority fields are stripped by the frame parser, and the header block
+        // fragments of CONTINUATION frames are assembled.
         if (streamId == 0) {
             throw new IOException("Http2 PROTOCOL_ERROR: TYPE_HEADERS streamId == 0");
         }
-        short padding = (flags & Http2.FLAG_PADDED) != 0 ? (short) (buffer.get() & 0xff) : 0;
-        if ((flags & Http2.FLAG_PRIORITY) != 0) {
-            // Skip priority.
-            buffer.position(buffer.position() + 5);
-        }
-        length = lengthWithoutPadding(length, flags, padding);
         boolean endStream = (flags & Http2.FLAG_END_STREAM) != 0;
-        if (length > 0) {
-            decodeHeaderBlock(buffer, reader, flags, callback);
+        if (headerBlock.hasRemaining()) {
+            decodeHeaderBlock(headerBlock, reader, flags, callback);
         } else {
             // Notify stream is end
             callback.onResult(ByteBuffer.allocate(0), endStream);
@@ -408,8 +544,8 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
         }
     }
 
-    private void decodeData(ByteBuffer buffer, int length, byte flags, int streamId,
-                            DecodeCallback callback) throws IOException {
+    private void decodeData(ByteBuffer data, byte flags, int streamId, DecodeCallback callback,
+                            Http2FlowController dataFlow) throws IOException {
         if (streamId == 0) {
             throw new IOException("Http2 PROTOCOL_ERROR: TYPE_DATA streamId == 0");
         }
@@ -417,32 +553,35 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
         if (gzipped) {
             throw new IOException("Http2 PROTOCOL_ERROR: FLAG_COMPRESSED without SETTINGS_COMPRESS_DATA");
         }
-        short padding = (flags & Http2.FLAG_PADDED) != 0 ? (short) (buffer.get() & 0xff) : 0;
-        length = lengthWithoutPadding(length, flags, padding);
         boolean endStream = (flags & Http2.FLAG_END_STREAM) != 0;
-        if (length > 0) {
-            callback.onResult(ByteBuffer.wrap(Arrays.copyOfRange(buffer.array(), buffer.position(),
-                    buffer.position() + length)), endStream);
+        if (data.hasRemaining()) {
+            // The data is a view of the frame, no copy.
+            callback.onResult(data, endStream);
         } else {
             // Notify stream is end
             callback.onResult(ByteBuffer.allocate(0), endStream);
             if (endStream) {
-                callback.onSkip(endStream(FrameType.DATA, streamId));
+                if (dataFlow.hasPending(streamId)) {
+                    // Keep the order, end the stream after the pending data is sent.
+                    dataFlow.pendEndStream(streamId);
+                } else {
+                    dataFlow.onDataSent(streamId, 0, true);
+                    callback.onSkip(endStream(FrameType.DATA, streamId));
+                }
             }
         }
     }
 
-    private void decodeGoAway(ByteBuffer buffer, int length, byte flags, int streamId)
-            throws IOException {
+    private void decodeGoAway(ByteBuffer payload, int streamId) throws IOException {
+        int length = payload.remaining();
         if (length < 8) {
             throw new IOException("Http2 TYPE_GOAWAY length < 8: " + length);
         }
         if (streamId != 0) {
             throw new IOException("Http2 TYPE_GOAWAY streamId != 0");
         }
-        int initPosition = buffer.position();
-        int lastStreamId = buffer.getInt();
-        int errorCodeInt = buffer.getInt();
+        int lastStreamId = payload.getInt();
+        int errorCodeInt = payload.getInt();
         int opaqueDataLength = length - 8;
         ErrorCode errorCode = ErrorCode.fromHttp2(errorCodeInt);
         if (errorCode == null) {
@@ -451,20 +590,9 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
         mLog.e("Http2 TYPE_GOAWAY error code: " + errorCode + " last stream: " + lastStreamId);
         if (opaqueDataLength > 0) { // Must read debug data in order to not corrupt the connection.
             byte[] debugData = new byte[opaqueDataLength];
-            buffer.get(debugData);
+            payload.get(debugData);
             mLog.e("Http2 TYPE_GOAWAY debug data: " + new String(debugData));
         }
-        buffer.position(initPosition);
-    }
-
-    private int lengthWithoutPadding(int length, byte flags, short padding) throws IOException {
-        if ((flags & Http2.FLAG_PADDED) != 0) {
-            length--; // Account for reading the padding length.
-        }
-        if (padding > length) {
-            throw new IOException("Http2 PROTOCOL_ERROR padding " + padding + " > remaining length " + length);
-        }
-        return (short) (length - padding);
     }
 
     private ByteBuffer endStream(FrameType frameType, int streamId) {
@@ -479,4 +607,55 @@ public final class Http2DecodeInterceptor extends HttpPendingIndexedInterceptor
         return endBuffer;
     }
 
+    /**
+     * The origin header frames of one direction. Each header block is numbered in the order it is
+     * received, a header block polled out of the order means an earlier one has not reached the
+     * peer, the following ones can't be sent as they are any more.
+     */
+    private static final class HeaderFrames {
+
+        private final SparseArray<ByteBuffer> mFrames = new SparseArray<>();
+        private final SparseIntArray mSequences = new SparseIntArray();
+
+        private int mRecordSequence;
+        private int mPollSequence;
+        private boolean mOutOfOrder;
+
+        private void record(int streamId, ByteBuffer raw) {
+            // The raw HEADERS and CONTINUATION frames can be sent as they are.
+            ByteBuffer frames = ByteBuffer.allocate(raw.remaining());
+            frames.put(raw.duplicate());
+            frames.flip();
+            mFrames.put(streamId, frames);
+            mSequences.put(streamId, mRecordSequence++);
+        }
+
+        private ByteBuffer poll(int streamId) {
+            ByteBuffer frames = mFrames.get(streamId);
+            if (frames == null) {
+                return null;
+            }
+            int sequence = mSequences.get(streamId);
+            mFrames.remove(streamId);
+            mSequences.delete(streamId);
+            if (sequence != mPollSequence) {
+                mOutOfOrder = true;
+            }
+            mPollSequence = sequence + 1;
+            return mOutOfOrder ? null : frames;
+        }
+
+        private void remove(int streamId) {
+            // The sequence of a header block never polled stays skipped.
+            mFrames.remove(streamId);
+            mSequences.delete(streamId);
+        }
+
+        private void clear() {
+            mFrames.clear();
+            mSequences.clear();
+        }
+
+    }
+
 }
@@ -16,7 +16,10 @@
 package com.github.megatronking.netbare.http2;
 
 import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.SparseIntArray;
 
+import com.github.megatronking.netbare.NetBareLog;
 import com.github.megatronking.netbare.NetBareXLog;
 import com.github.megatronking.netbare.gateway.InterceptorChain;
 import com.github.megatronking.netbare.http.HttpInterceptor;
@@ -26,12 +29,8 @@ import com.github.megatronking.netbare.http.HttpRequestChain;
 import com.github.megatronking.netbare.http.HttpResponse;
 import com.github.megatronking.netbare.http.HttpResponseChain;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Encodes HTTP2 request and response packets.
@@ -41,17 +40,49 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public final class Http2EncodeInterceptor implements HttpInterceptor {
 
-    private final Map<Integer, Integer> mStreamRequestIndexes;
-    private final Map<Integer, Integer> mStreamResponseIndexes;
+    private final SparseIntArray mStreamRequestIndexes;
+    private final SparseIntArray mStreamResponseIndexes;
+
+    private final Http2DecodeInterceptor mDecodeInterceptor;
 
     private NetBareXLog mLog;
 
     private Hpack.Writer mHpackRequestWriter;
     private Hpack.Writer mHpackResponseWriter;
 
+    // Whether the origin header blocks have been sent, the writers are out of sync with the peer.
+    private boolean mRequestPassedThrough;
+    private boolean mResponsePassedThrough;
+
+    // Whether the header blocks are re-encoded, the origin header blocks can't be sent any more.
+    private boolean mRequestReencoding;
+    private boolean mResponseReencoding;
+
     public Http2EncodeInterceptor() {
-        mStreamRequestIndexes = new ConcurrentHashMap<>();
-        mStreamResponseIndexes = new ConcurrentHashMap<>();
+        this(null);
+    }
+
+    /**
+     * Constructs an encoder which sends the origin header frames of the streams whose headers
+     * are not changed by interceptors, instead of re-encoding them.
+     *
+     * @param decodeInterceptor The decoder records the origin header frames.
+     */
+    public Http2EncodeInterceptor(Http2DecodeInterceptor decodeInterceptor) {
+        mStreamRequestIndexes = new SparseIntArray();
+        mStreamResponseIndexes = new SparseIntArray();
+        mDecodeInterceptor = decodeInterceptor;
+        mRequestReencoding = decodeInterceptor == null;
+        mResponseReencoding = decodeInterceptor == null;
+        if (decodeInterceptor != null) {
+            decodeInterceptor.streamTracker().addListener(new Http2StreamTracker.Listener() {
+                @Override
+                public void onStreamClosed(int streamId) {
+                    mStreamRequestIndexes.delete(streamId);
+                    mStreamResponseIndexes.delete(streamId);
+                }
+            });
+        }
     }
 
     @Override
@@ -65,14 +96,8 @@ public final class Http2EncodeInterceptor implements HttpInterceptor {
             if (mHpackRequestWriter == null) {
                 mHpackRequestWriter = new Hpack.Writer();
             }
-            int index;
             int streamId = chain.request().streamId();
-            Integer requestIndex = mStreamRequestIndexes.get(streamId);
-            if (requestIndex != null) {
-                index = requestIndex + 1;
-            } else {
-                index = 0;
-            }
+            int index = mStreamRequestIndexes.get(streamId, -1) + 1;
             mStreamRequestIndexes.put(streamId, index);
             if (index == 0) {
                 encodeRequestHeader(chain);
@@ -96,14 +121,8 @@ public final class Http2EncodeInterceptor implements HttpInterceptor {
             if (mHpackResponseWriter == null) {
                 mHpackResponseWriter = new Hpack.Writer();
             }
-            int index;
             int streamId = chain.response().streamId();
-            Integer responseIndex = mStreamResponseIndexes.get(streamId);
-            if (responseIndex != null) {
-                index = responseIndex + 1;
-            } else {
-                index = 0;
-            }
+            int index = mStreamResponseIndexes.get(streamId, -1) + 1;
             mStreamResponseIndexes.put(streamId, index);
             if (index == 0) {
                 encodeResponseHeader(chain);
@@ -132,8 +151,23 @@ public final class Http2EncodeInterceptor implements HttpInterceptor {
                 mHpackRequestWriter.setHeaderTableSizeSetting(headerTableSize);
             }
         }
+        if (!mRequestReencoding) {
+            ByteBuffer headerFrames = mDecodeInterceptor.pollRequestHeaderFrames(request.streamId());
+            if (headerFrames != null && !request.requestHeadersModified()) {
+                mRequestPassedThrough = true;
+                chain.process(headerFrames);
+                return;
+            }
+            // The peer's dynamic table follows the client's one, reset it before re-encoding.
+            mRequestReencoding = true;
+            mDecodeInterceptor.disableRequestPassthrough();
+            if (mRequestPassedThrough) {
+                mHpackRequestWriter.resetDynamicTable();
+            }
+        }
         byte[] headerBlock = mHpackRequestWriter.writeRequestHeaders(request.method(),
-                request.path(), request.host(), request.requestHeaders());
+                request.path(), request.host(), request.isHttps() ? "https" : "http",
+                request.requestHeaders());
         sendHeaderBlockFrame(chain, headerBlock, peerHttp2Settings, request.streamId(),
                 request.requestStreamEnd());
     }
@@ -147,6 +181,20 @@ public final class Http2EncodeInterceptor implements HttpInterceptor {
                 mHpackResponseWriter.setHeaderTableSizeSetting(headerTableSize);
             }
         }
+        if (!mResponseReencoding) {
+            ByteBuffer headerFrames = mDecodeInterceptor.pollResponseHeaderFrames(response.streamId());
+            if (headerFrames != null && !response.responseHeadersModified()) {
+                mResponsePassedThrough = true;
+                chain.process(headerFrames);
+                return;
+            }
+            // The client's dynamic table follows the server's one, reset it before re-encoding.
+            mResponseReencoding = true;
+            mDecodeInterceptor.disableResponsePassthrough();
+            if (mResponsePassedThrough) {
+                mHpackResponseWriter.resetDynamicTable();
+            }
+        }
         byte[] headerBlock = mHpackResponseWriter.writeResponseHeaders(response.code(),
                 response.message(), response.responseHeaders());
         sendHeaderBlockFrame(chain, headerBlock, clientHttp2Settings, response.streamId(),
@@ -154,100 +202,107 @@ public final class Http2EncodeInterceptor implements HttpInterceptor {
     }
 
     private void encodeRequestData(HttpRequestChain chain, ByteBuffer buffer) throws IOException {
-        byte[] data = Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit());
         HttpRequest request = chain.request();
-        sendDataFrame(chain, data, request.peerHttp2Settings(), request.streamId(),
-                request.requestStreamEnd());
+        sendDataFrame(chain, buffer, request.peerHttp2Settings(), request.streamId(),
+                request.requestStreamEnd(), mDecodeInterceptor == null ? null :
+                        mDecodeInterceptor.requestFlow());
     }
 
     private void encodeResponseData(HttpResponseChain chain, ByteBuffer buffer) throws IOException {
-        byte[] data = Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit());
         HttpResponse response = chain.response();
-        sendDataFrame(chain, data, response.clientHttp2Settings(), response.streamId(),
-                response.responseStreamEnd());
+        sendDataFrame(chain, buffer, response.clientHttp2Settings(), response.streamId(),
+                response.responseStreamEnd(), mDecodeInterceptor == null ? null :
+                        mDecodeInterceptor.responseFlow());
     }
 
     private void sendHeaderBlockFrame(InterceptorChain chain, byte[] headerBlock, Http2Settings http2Settings,
                                       int streamId, boolean endStream) throws IOException  {
-        int maxFrameSize = http2Settings == null ? Http2.INITIAL_MAX_FRAME_SIZE :
-                http2Settings.getMaxFrameSize(Http2.INITIAL_MAX_FRAME_SIZE);
+        int maxFrameSize = maxFrameSize(http2Settings);
         int byteCount = headerBlock.length;
-        int length = Math.min(maxFrameSize, byteCount);
-        byte type = FrameType.HEADERS.get();
-        byte flags = 0;
-        if (byteCount == length) {
-            flags |= Http2.FLAG_END_HEADERS;
-            if (endStream) {
-                flags |= Http2.FLAG_END_STREAM;
-            }
-        }
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        os.write(frameHeader(streamId, length, type, flags));
-        os.write(headerBlock, 0, length);
-        chain.process(ByteBuffer.wrap(os.toByteArray()));
-        if (byteCount > length) {
-            byte[] left = Arrays.copyOfRange(headerBlock, length, byteCount);
-            sendContinuationFrame(chain, left, streamId, maxFrameSize, byteCount - length,
-                    endStream);
-        }
-    }
-
-    private void sendContinuationFrame(InterceptorChain chain, byte[] headerBlock, int streamId,
-                                       int maxFrameSize, long byteCount, boolean endStream) throws IOException {
+        // A HEADERS frame followed by CONTINUATION frames, all of them are written into one
+        // buffer and sent by one chain call.
+        int frameCount = Math.max(1, (byteCount + maxFrameSize - 1) / maxFrameSize);
+        ByteBuffer output = ByteBuffer.allocate(byteCount + frameCount * Http2.FRAME_HEADER_LENGTH);
         int offset = 0;
-        while (byteCount > 0) {
-            int length = (int) Math.min(maxFrameSize, byteCount);
-            byteCount -= length;
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
+        for (int i = 0; i < frameCount; i++) {
+            int length = Math.min(maxFrameSize, byteCount - offset);
+            byte type;
             byte flags = 0;
-            if (byteCount == 0) {
-                flags |= Http2.FLAG_END_HEADERS;
+            if (i == 0) {
+                type = FrameType.HEADERS.get();
+                // END_STREAM is only defined on the HEADERS frame.
                 if (endStream) {
-                    mLog.i("Http2 stream end: " + streamId);
                     flags |= Http2.FLAG_END_STREAM;
                 }
+            } else {
+                type = FrameType.CONTINUATION.get();
+            }
+            if (i == frameCount - 1) {
+                flags |= Http2.FLAG_END_HEADERS;
             }
-            os.write(frameHeader(streamId, length, FrameType.CONTINUATION.get(), flags));
-            os.write(headerBlock, offset, length);
+            if (NetBareLog.isLoggable(Log.INFO)) {
+                mLog.i("Encode a http2 frame: " + FrameType.parse(type) + " stream(" + streamId +
+                        ") length(" + length + ")");
+            }
+            Http2.writeFrameHeader(output, streamId, length, type, flags);
+            output.put(headerBlock, offset, length);
             offset += length;
-            chain.process(ByteBuffer.wrap(os.toByteArray()));
         }
+        if (endStream) {
+            logStreamEnd(streamId);
+        }
+        output.flip();
+        chain.process(output);
     }
 
-    private void sendDataFrame(InterceptorChain chain, byte[] data, Http2Settings http2Settings,
-                               int streamId, boolean endStream) throws IOException {
-        int maxFrameSize = http2Settings == null ? Http2.INITIAL_MAX_FRAME_SIZE :
-                http2Settings.getMaxFrameSize(Http2.INITIAL_MAX_FRAME_SIZE);
-        int byteCount = data.length;
-        byte type = FrameType.DATA.get();
-        int offset = 0;
-        while (byteCount > 0) {
-            int length = Math.min(maxFrameSize, byteCount);
-            byteCount -= length;
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            byte flags = 0;
-            if (byteCount == 0 && endStream) {
-                mLog.i("Http2 stream end: " + streamId);
-                flags |= Http2.FLAG_END_STREAM;
+    private void sendDataFrame(InterceptorChain chain, ByteBuffer data, Http2Settings http2Settings,
+                               int streamId, boolean endStream, Http2FlowController flow)
+            throws IOException {
+        int maxFrameSize = maxFrameSize(http2Settings);
+        int byteCount = data.remaining();
+        if (byteCount == 0 && !endStream) {
+            return;
+        }
+        if (flow != null) {
+            if (flow.hasPending(streamId)) {
+                flow.pend(streamId, data, endStream, maxFrameSize);
+                return;
             }
-            os.write(frameHeader(streamId, length, type, flags));
-            os.write(data, offset, length);
-            offset += length;
-            chain.process(ByteBuffer.wrap(os.toByteArray()));
+            int writable = Math.min(byteCount, flow.writableBytes(streamId));
+            if (writable < byteCount) {
+                // Send what the peer's window allows, the left is sent after the peer updates
+                // the window.
+                ByteBuffer left = data.duplicate();
+                left.position(data.position() + writable);
+                flow.pend(streamId, left, endStream, maxFrameSize);
+                if (writable == 0) {
+                    return;
+                }
+                data.limit(data.position() + writable);
+                byteCount = writable;
+                endStream = false;
+            }
+            flow.onDataSent(streamId, byteCount, endStream);
+        }
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            mLog.i("Encode http2 data frames: stream(" + streamId + ") length(" + byteCount + ")");
         }
+        if (endStream) {
+            logStreamEnd(streamId);
+        }
+        // All frames are written into one buffer and sent by one chain call.
+        chain.process(Http2.dataFrames(data, byteCount, streamId, endStream, maxFrameSize));
     }
 
-    private byte[] frameHeader(int streamId, int length, byte type, byte flags) {
-        mLog.i("Encode a http2 frame: " + FrameType.parse(type) + " stream(" + streamId +
-                ") length(" + length + ")");
-        ByteBuffer header = ByteBuffer.allocate(Http2.FRAME_HEADER_LENGTH);
-        header.put((byte) ((length >>> 16) & 0xff));
-        header.put((byte) ((length >>> 8) & 0xff));
-        header.put((byte) (length & 0xff));
-        header.put((byte) (type & 0xff));
-        header.put((byte) (flags & 0xff));
-        header.putInt(streamId & 0x7fffffff);
-        return header.array();
+    private int maxFrameSize(Http2Settings http2Settings) {
+        return http2Settings == null ? Http2.INITIAL_MAX_FRAME_SIZE :
+                http2Settings.getMaxFrameSize(Http2.INITIAL_MAX_FRAME_SIZE);
+    }
+
+    private void logStreamEnd(int streamId) {
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            mLog.i("Http2 stream end: " + streamId);
+        }
     }
 
 }
@@ -0,0 +1,354 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Flow control of the DATA frames in one direction, from the sender through NetBare to the
+ * receiver. See https://httpwg.org/specs/rfc7540.html#FlowControl
+ *
+ * Interceptors may change the body size or hold the body, so the receiver's WINDOW_UPDATE frames
+ * can't be forwarded to the sender as they are. This controller keeps the receiver's windows to
+ * make sure NetBare never sends more than the receiver allows, the exceeded DATA frames are
+ * pended until the receiver updates the windows. It also keeps a balance of each window: the
+ * bytes received from the sender minus the bytes accepted for the receiver. A positive balance
+ * (shrunk, dropped or held by interceptors) is credited to the sender by WINDOW_UPDATE frames
+ * directly, a negative balance (grown by interceptors) is withheld from the receiver's
+ * WINDOW_UPDATE frames. The pended frames are not credited until they are sent, it is the
+ * backpressure to the sender.
+ *
+ * @author Megatron King
+ * @since 2019-04-06 15:12
+ */
+/* package */ final class Http2FlowController {
+
+    /**
+     * Writes frames to one side of the connection.
+     */
+    interface Sink {
+
+        void write(ByteBuffer buffer) throws IOException;
+
+    }
+
+    private final Sink mSender;
+    private final Sink mReceiver;
+
+    private final Window mConnection;
+    private final SparseArray<Window> mStreams;
+
+    private int mInitialWindowSize;
+
+    /* package */ Http2FlowController(Sink sender, Sink receiver) {
+        this.mSender = sender;
+        this.mReceiver = receiver;
+        this.mConnection = new Window(Http2.DEFAULT_INITIAL_WINDOW_SIZE);
+        this.mStreams = new SparseArray<>();
+        this.mInitialWindowSize = Http2.DEFAULT_INITIAL_WINDOW_SIZE;
+    }
+
+    /**
+     * A DATA frame is received from the sender.
+     *
+     * @param streamId The stream id.
+     * @param length The frame payload length, including the padding.
+     */
+    /* package */ void onDataReceived(int streamId, int length) {
+        mConnection.balance += length;
+        stream(streamId).balance += length;
+    }
+
+    /**
+     * Returns how many bytes can be sent to the receiver right now.
+     *
+     * @param streamId The stream id.
+     * @return The writable byte count, 0 if the stream has pending data.
+     */
+    /* package */ int writableBytes(int streamId) {
+        Window window = stream(streamId);
+        if (!window.pending.isEmpty()) {
+            return 0;
+        }
+        return (int) Math.max(0, Math.min(mConnection.size, window.size));
+    }
+
+    /**
+     * Whether the stream has data waiting for the receiver's window.
+     *
+     * @param streamId The stream id.
+     * @return True if there is pending data.
+     */
+    /* package */ boolean hasPending(int streamId) {
+        Window window = mStreams.get(streamId);
+        return window != null && !window.pending.isEmpty();
+    }
+
+    /**
+     * DATA frames are sent to the receiver.
+     *
+     * @param streamId The stream id.
+     * @param length The data length.
+     * @param endStream Whether the stream is ended.
+     */
+    /* package */ void onDataSent(int streamId, int length, boolean endStream) {
+        Window window = stream(streamId);
+        consume(window, length);
+        mConnection.balance -= length;
+        window.balance -= length;
+        if (endStream) {
+            mStreams.remove(streamId);
+        }
+    }
+
+    /**
+     * Pend the data until the receiver updates the windows.
+     *
+     * @param streamId The stream id.
+     * @param data The data to pend.
+     * @param endStream Whether the data ends the stream.
+     * @param maxFrameSize The max frame size of the receiver.
+     */
+    /* package */ void pend(int streamId, ByteBuffer data, boolean endStream, int maxFrameSize) {
+        Window window = stream(streamId);
+        int length = data.remaining();
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        copy.put(data);
+        copy.flip();
+        window.pending.offerLast(copy);
+        window.pendingEnd = endStream;
+        window.maxFrameSize = maxFrameSize;
+        mConnection.balance -= length;
+        window.balance -= length;
+    }
+
+    /**
+     * End the stream after all the pending data is sent.
+     *
+     * @param streamId The stream id.
+     */
+    /* package */ void pendEndStream(int streamId) {
+        Window window = stream(streamId);
+        window.pending.offerLast(ByteBuffer.allocate(0));
+        window.pendingEnd = true;
+    }
+
+    /**
+     * Credits the sender for the bytes it will never get from the receiver's WINDOW_UPDATE.
+     *
+     * @param streamId The stream id.
+     * @throws IOException If an I/O error has occurred.
+     */
+    /* package */ void settle(int streamId) throws IOException {
+        List<ByteBuffer> frames = null;
+        Window window = mStreams.get(streamId);
+        if (window != null && window.balance > 0) {
+            frames = new ArrayList<>(2);
+            frames.add(credit(streamId, window));
+        }
+        if (mConnection.balance > 0) {
+            if (frames == null) {
+                frames = new ArrayList<>(1);
+            }
+            frames.add(credit(0, mConnection));
+        }
+        if (frames != null) {
+            write(mSender, frames);
+        }
+    }
+
+    /**
+     * The receiver updates a window.
+     *
+     * @param streamId The stream id, 0 means the connection.
+     * @param increment The window size increment.
+     * @return The increment should be forwarded to the sender, 0 means the frame should be
+     * dropped.
+     */
+    /* package */ int onWindowUpdate(int streamId, int increment) {
+        // The receiver may enlarge a stream window before any DATA frame is sent on it.
+        Window window = streamId == 0 ? mConnection : stream(streamId);
+        window.size += increment;
+        if (window.balance < 0) {
+            int withheld = (int) Math.min(increment, -window.balance);
+            window.balance += withheld;
+            increment -= withheld;
+        }
+        return increment;
+    }
+
+    /**
+     * The receiver changes the SETTINGS_INITIAL_WINDOW_SIZE, all the stream windows are adjusted
+     * by the difference.
+     *
+     * @param initialWindowSize The new initial window size.
+     */
+    /* package */ void onInitialWindowSizeChanged(int initialWindowSize) {
+        int delta = initialWindowSize - mInitialWindowSize;
+        mInitialWindowSize = initialWindowSize;
+        for (int i = 0; i < mStreams.size(); i++) {
+            mStreams.valueAt(i).size += delta;
+        }
+    }
+
+    /**
+     * The stream is reset by either side, the pending data is dropped and credited to the sender.
+     *
+     * @param streamId The stream id.
+     * @throws IOException If an I/O error has occurred.
+     */
+    /* package */ void reset(int streamId) throws IOException {
+        if (remove(streamId)) {
+            settle(streamId);
+        }
+    }
+
+    /**
+     * The stream is closed, its window and pending data are evicted. The dropped data is credited
+     * to the sender's connection window with the next settlement.
+     *
+     * @param streamId The stream id.
+     * @return True if the stream has a window.
+     */
+    /* package */ boolean remove(int streamId) {
+        Window window = mStreams.get(streamId);
+        if (window == null) {
+            return false;
+        }
+        mStreams.remove(streamId);
+        for (ByteBuffer buffer : window.pending) {
+            mConnection.balance += buffer.remaining();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the count of the streams which have windows.
+     *
+     * @return The stream count.
+     */
+    /* package */ int streamCount() {
+        return mStreams.size();
+    }
+
+    /**
+     * Sends the pending data as much as the receiver's windows allow.
+     *
+     * @throws IOException If an I/O error has occurred.
+     */
+    /* package */ void flush() throws IOException {
+        List<ByteBuffer> frames = null;
+        // Iterate backwards, removing the current entry doesn't move the lower ones.
+        for (int i = mStreams.size() - 1; i >= 0 && mConnection.size > 0; i--) {
+            int streamId = mStreams.keyAt(i);
+            Window window = mStreams.valueAt(i);
+            while (!window.pending.isEmpty()) {
+                ByteBuffer data = window.pending.peekFirst();
+                int writable = (int) Math.min(data.remaining(),
+                        Math.min(mConnection.size, window.size));
+                boolean last = window.pending.size() == 1 && writable == data.remaining();
+                boolean endStream = last && window.pendingEnd;
+                if (writable <= 0 && !(endStream && data.remaining() == 0)) {
+                    break;
+                }
+                if (frames == null) {
+                    frames = new ArrayList<>();
+                }
+                frames.add(Http2.dataFrames(data, writable, streamId, endStream,
+                        window.maxFrameSize));
+                consume(window, writable);
+                if (!data.hasRemaining()) {
+                    window.pending.pollFirst();
+                }
+            }
+            if (window.pending.isEmpty() && window.pendingEnd) {
+                mStreams.removeAt(i);
+            }
+        }
+        if (frames != null) {
+            write(mReceiver, frames);
+        }
+    }
+
+    private Window stream(int streamId) {
+        Window window = mStreams.get(streamId);
+        if (window == null) {
+            window = new Window(mInitialWindowSize);
+            mStreams.put(streamId, window);
+        }
+        return window;
+    }
+
+    private void consume(Window window, int length) {
+        window.size -= length;
+        mConnection.size -= length;
+    }
+
+    private ByteBuffer credit(int streamId, Window window) {
+        int increment = (int) Math.min(window.balance, Http2.MAX_WINDOW_SIZE);
+        window.balance -= increment;
+        return Http2.windowUpdateFrame(streamId, increment);
+    }
+
+    private void write(Sink sink, List<ByteBuffer> frames) throws IOException {
+        if (frames.size() == 1) {
+            sink.write(frames.get(0));
+            return;
+        }
+        int length = 0;
+        for (ByteBuffer frame : frames) {
+            length += frame.remaining();
+        }
+        ByteBuffer output = ByteBuffer.allocate(length);
+        for (ByteBuffer frame : frames) {
+            output.put(frame);
+        }
+        output.flip();
+        sink.write(output);
+    }
+
+    private static final class Window {
+
+        /**
+         * The receiver's window size, it might be negative after a SETTINGS change.
+         */
+        private long size;
+
+        /**
+         * Bytes received from the sender minus bytes accepted for the receiver and credits.
+         */
+        private long balance;
+
+        private final Deque<ByteBuffer> pending;
+        private boolean pendingEnd;
+        private int maxFrameSize;
+
+        private Window(int size) {
+            this.size = size;
+            this.pending = new ArrayDeque<>();
+            this.maxFrameSize = Http2.INITIAL_MAX_FRAME_SIZE;
+        }
+
+    }
+
+}
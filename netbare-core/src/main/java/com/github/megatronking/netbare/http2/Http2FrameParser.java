@@ -0,0 +1,321 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An incremental HTTP2 frame parser, it consumes any number of bytes and emits whole frames.
+ *
+ * The frames are views of the input buffers, payloads are only copied when a frame spans reads.
+ * A header block split into HEADERS (or PUSH_PROMISE) and CONTINUATION frames is assembled and
+ * emitted as one frame. The padding and priority fields are stripped from the payloads, and
+ * frames larger than the SETTINGS_MAX_FRAME_SIZE are rejected.
+ *
+ * @author Megatron King
+ * @since 2019-04-12 22:17
+ */
+/* package */ final class Http2FrameParser {
+
+    /**
+     * Receives the parsed frames.
+     */
+    interface Callback {
+
+        /**
+         * A whole frame is parsed, the frame instance is reused after the call returns, but its
+         * buffers are not.
+         *
+         * @param frame The parsed frame.
+         * @throws IOException If an I/O error has occurred.
+         */
+        void onFrame(Frame frame) throws IOException;
+
+    }
+
+    private final Frame mFrame;
+    private final byte[] mPartialHeader;
+
+    private int mMaxFrameSize;
+
+    // The frame spans reads, the received bytes are copied here.
+    private int mPartialHeaderSize;
+    private ByteBuffer mPartialFrame;
+
+    // The header block continues in CONTINUATION frames, 0 means no header block.
+    private int mHeaderStreamId;
+    private byte mHeaderType;
+    private byte mHeaderFlags;
+    private int mHeaderLength;
+    private byte[] mHeaderRaw;
+    private int mHeaderRawSize;
+    private byte[] mHeaderBlock;
+    private int mHeaderBlockSize;
+
+    /* package */ Http2FrameParser() {
+        this.mFrame = new Frame();
+        this.mPartialHeader = new byte[Http2.FRAME_HEADER_LENGTH];
+        this.mMaxFrameSize = Http2.INITIAL_MAX_FRAME_SIZE;
+    }
+
+    /**
+     * The receiver of the frames changes the SETTINGS_MAX_FRAME_SIZE.
+     *
+     * @param maxFrameSize The max frame payload size.
+     */
+    /* package */ void setMaxFrameSize(int maxFrameSize) {
+        this.mMaxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Parses the input bytes, all of them are consumed.
+     *
+     * @param input The input buffer, it must not be reused by the caller.
+     * @param callback The callback receives whole frames.
+     * @throws IOException If the frames violate the protocol.
+     */
+    /* package */ void parse(ByteBuffer input, Callback callback) throws IOException {
+        if (mPartialHeaderSize > 0 || mPartialFrame != null) {
+            if (!completePartialFrame(input, callback)) {
+                return;
+            }
+        }
+        while (input.remaining() >= Http2.FRAME_HEADER_LENGTH) {
+            int position = input.position();
+            int length = checkLength(readMedium(input, position));
+            int end = position + Http2.FRAME_HEADER_LENGTH + length;
+            if (end > input.limit()) {
+                break;
+            }
+            ByteBuffer raw = input.duplicate();
+            raw.limit(end);
+            input.position(end);
+            onRawFrame(raw, length, callback);
+        }
+        if (input.hasRemaining()) {
+            // Keep the frame header only, the payload buffer is allocated once the length is known.
+            int remaining = input.remaining();
+            input.get(mPartialHeader, 0, remaining < Http2.FRAME_HEADER_LENGTH ? remaining :
+                    Http2.FRAME_HEADER_LENGTH);
+            mPartialHeaderSize = Math.min(remaining, Http2.FRAME_HEADER_LENGTH);
+            if (mPartialHeaderSize == Http2.FRAME_HEADER_LENGTH) {
+                startPartialFrame();
+                mPartialFrame.put(input);
+            }
+        }
+    }
+
+    private boolean completePartialFrame(ByteBuffer input, Callback callback) throws IOException {
+        if (mPartialFrame == null) {
+            int count = Math.min(Http2.FRAME_HEADER_LENGTH - mPartialHeaderSize, input.remaining());
+            input.get(mPartialHeader, mPartialHeaderSize, count);
+            mPartialHeaderSize += count;
+            if (mPartialHeaderSize < Http2.FRAME_HEADER_LENGTH) {
+                return false;
+            }
+            startPartialFrame();
+        }
+        ByteBuffer partialFrame = mPartialFrame;
+        int count = Math.min(partialFrame.remaining(), input.remaining());
+        if (count > 0) {
+            int limit = input.limit();
+            input.limit(input.position() + count);
+            partialFrame.put(input);
+            input.limit(limit);
+        }
+        if (partialFrame.hasRemaining()) {
+            return false;
+        }
+        partialFrame.flip();
+        mPartialFrame = null;
+        mPartialHeaderSize = 0;
+        onRawFrame(partialFrame, partialFrame.remaining() - Http2.FRAME_HEADER_LENGTH, callback);
+        return true;
+    }
+
+    private void startPartialFrame() throws IOException {
+        int length = checkLength(readMedium(ByteBuffer.wrap(mPartialHeader), 0));
+        // A fresh buffer, the emitted frame might be held by the callback.
+        mPartialFrame = ByteBuffer.allocate(Http2.FRAME_HEADER_LENGTH + length);
+        mPartialFrame.put(mPartialHeader);
+    }
+
+    private void onRawFrame(ByteBuffer raw, int length, Callback callback) throws IOException {
+        int start = raw.position();
+        byte type = raw.get(start + 3);
+        byte flags = raw.get(start + 4);
+        int streamId = raw.getInt(start + 5) & 0x7fffffff;
+        FrameType frameType = FrameType.parse(type);
+        if (mHeaderStreamId != 0) {
+            if (frameType != FrameType.CONTINUATION || streamId != mHeaderStreamId) {
+                throw new IOException("Http2 PROTOCOL_ERROR: expect CONTINUATION of stream " +
+                        mHeaderStreamId);
+            }
+            appendHeaderRaw(raw, start, start + Http2.FRAME_HEADER_LENGTH);
+            appendHeaderFragment(raw, start + Http2.FRAME_HEADER_LENGTH, raw.limit());
+            mHeaderLength += length;
+            if ((flags & Http2.FLAG_END_HEADERS) != 0) {
+                Frame frame = mFrame;
+                frame.set(mHeaderType, FrameType.parse(mHeaderType),
+                        (byte) (mHeaderFlags | Http2.FLAG_END_HEADERS), mHeaderStreamId,
+                        mHeaderLength, ByteBuffer.wrap(mHeaderBlock, 0, mHeaderBlockSize),
+                        ByteBuffer.wrap(mHeaderRaw, 0, mHeaderRawSize));
+                // The arrays are owned by the frame now.
+                mHeaderStreamId = 0;
+                mHeaderRaw = null;
+                mHeaderRawSize = 0;
+                mHeaderBlock = null;
+                mHeaderBlockSize = 0;
+                callback.onFrame(frame);
+            }
+            return;
+        }
+        int payloadStart = start + Http2.FRAME_HEADER_LENGTH;
+        int payloadEnd = raw.limit();
+        if (frameType == FrameType.DATA || frameType == FrameType.HEADERS
+                || frameType == FrameType.PUSH_PROMISE) {
+            if ((flags & Http2.FLAG_PADDED) != 0) {
+                if (length == 0) {
+                    throw new IOException("Http2 PROTOCOL_ERROR: padded frame without pad length");
+                }
+                payloadEnd -= raw.get(payloadStart++) & 0xff;
+            }
+            if (frameType == FrameType.HEADERS && (flags & Http2.FLAG_PRIORITY) != 0) {
+                // Skip the stream dependency and weight.
+                payloadStart += 5;
+            }
+            if (payloadStart > payloadEnd) {
+                throw new IOException("Http2 PROTOCOL_ERROR: padding " + (raw.limit() - payloadEnd)
+                        + " > remaining length " + length);
+            }
+            // The padding and priority are stripped.
+            flags &= frameType == FrameType.DATA ? ~Http2.FLAG_PADDED :
+                    ~(Http2.FLAG_PADDED | Http2.FLAG_PRIORITY);
+        } else if (frameType == FrameType.CONTINUATION) {
+            throw new IOException("Http2 PROTOCOL_ERROR: unexpected CONTINUATION of stream " +
+                    streamId);
+        }
+        if ((frameType == FrameType.HEADERS || frameType == FrameType.PUSH_PROMISE)
+                && (flags & Http2.FLAG_END_HEADERS) == 0) {
+            mHeaderStreamId = streamId;
+            mHeaderType = type;
+            mHeaderFlags = flags;
+            mHeaderLength = length;
+            // The raw frame header and the payload before the header block fragment.
+            appendHeaderRaw(raw, start, payloadStart);
+            appendHeaderFragment(raw, payloadStart, payloadEnd);
+            // The padding after the fragment.
+            appendHeaderRaw(raw, payloadEnd, raw.limit());
+            return;
+        }
+        ByteBuffer payload = raw.duplicate();
+        payload.limit(payloadEnd);
+        payload.position(payloadStart);
+        Frame frame = mFrame;
+        frame.set(type, frameType, flags, streamId, length, payload, raw);
+        callback.onFrame(frame);
+    }
+
+    private void appendHeaderFragment(ByteBuffer raw, int start, int end) {
+        int length = end - start;
+        if (mHeaderBlock == null || mHeaderBlockSize + length > mHeaderBlock.length) {
+            mHeaderBlock = grow(mHeaderBlock, mHeaderBlockSize + length);
+        }
+        System.arraycopy(raw.array(), raw.arrayOffset() + start, mHeaderBlock, mHeaderBlockSize,
+                length);
+        mHeaderBlockSize += length;
+        appendHeaderRaw(raw, start, end);
+    }
+
+    private void appendHeaderRaw(ByteBuffer raw, int start, int end) {
+        int length = end - start;
+        if (mHeaderRaw == null || mHeaderRawSize + length > mHeaderRaw.length) {
+            mHeaderRaw = grow(mHeaderRaw, mHeaderRawSize + length);
+        }
+        System.arraycopy(raw.array(), raw.arrayOffset() + start, mHeaderRaw, mHeaderRawSize,
+                length);
+        mHeaderRawSize += length;
+    }
+
+    private byte[] grow(byte[] array, int minCapacity) {
+        if (array == null) {
+            return new byte[Math.max(minCapacity, 1024)];
+        }
+        return Arrays.copyOf(array, Math.max(minCapacity, array.length * 2));
+    }
+
+    private int checkLength(int length) throws IOException {
+        if (length > mMaxFrameSize) {
+            throw new IOException("Http2 FRAME_SIZE_ERROR: " + length + " > " + mMaxFrameSize);
+        }
+        return length;
+    }
+
+    private static int readMedium(ByteBuffer buffer, int position) {
+        return (buffer.get(position) & 0xff) << 16
+                | (buffer.get(position + 1) & 0xff) << 8
+                | (buffer.get(position + 2) & 0xff);
+    }
+
+    /**
+     * A parsed frame, the payload excludes the padding and priority fields.
+     */
+    static final class Frame {
+
+        /**
+         * The raw frame type, the {@link #frameType} is null if it is unknown.
+         */
+        byte type;
+        FrameType frameType;
+
+        /**
+         * The flags without FLAG_PADDED and FLAG_PRIORITY.
+         */
+        byte flags;
+        int streamId;
+
+        /**
+         * The payload length on the wire, including the padding. It is the sum of the payload
+         * lengths of an assembled header block.
+         */
+        int length;
+
+        /**
+         * The payload, or the whole header block fragment.
+         */
+        ByteBuffer payload;
+
+        /**
+         * The frames on the wire, including the frame headers.
+         */
+        ByteBuffer raw;
+
+        private void set(byte type, FrameType frameType, byte flags, int streamId, int length,
+                         ByteBuffer payload, ByteBuffer raw) {
+            this.type = type;
+            this.frameType = frameType;
+            this.flags = flags;
+            this.streamId = streamId;
+            this.length = length;
+            this.payload = payload;
+            this.raw = raw;
+        }
+
+    }
+
+}
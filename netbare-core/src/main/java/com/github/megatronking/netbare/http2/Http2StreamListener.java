@@ -0,0 +1,37 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import com.github.megatronking.netbare.http.HttpId;
+
+/**
+ * A listener observes the lifecycle of HTTP2 streams.
+ *
+ * @author Megatron King
+ * @since 2019-04-10 21:32
+ */
+public interface Http2StreamListener {
+
+    /**
+     * The stream is closed by END_STREAM from both sides or RST_STREAM from either side, no more
+     * frames will be decoded for it. The HTTP/1.1 request upgraded to h2c is closed here too once
+     * its 101 response is done.
+     *
+     * @param id The id of the HTTP session carried by the stream.
+     */
+    void onStreamClosed(HttpId id);
+
+}
@@ -0,0 +1,135 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracks the stream states of one HTTP2 connection, see
+ * https://httpwg.org/specs/rfc7540.html#StreamStates
+ *
+ * A stream is open once its HEADERS frame is received, half-closed once either side sends
+ * END_STREAM, and closed once both sides have ended it or either side resets it. The frames
+ * are fed by {@link Http2FrameParser}, header blocks are always assembled. The listeners
+ * evict their per-stream states when the stream is closed, so a long-lived connection carrying
+ * lots of streams keeps a bounded memory.
+ *
+ * @author Megatron King
+ * @since 2019-04-10 21:06
+ */
+/* package */ final class Http2StreamTracker {
+
+    /**
+     * Observes the closing of streams.
+     */
+    interface Listener {
+
+        void onStreamClosed(int streamId);
+
+    }
+
+    private static final int STATE_OPEN = 1;
+    private static final int STATE_CLIENT_CLOSED = 1 << 1;
+    private static final int STATE_SERVER_CLOSED = 1 << 2;
+
+    private final SparseIntArray mStates;
+    private final List<Listener> mListeners;
+
+    /* package */ Http2StreamTracker() {
+        this.mStates = new SparseIntArray();
+        this.mListeners = new ArrayList<>(2);
+    }
+
+    /* package */ void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * A frame has been handled, updates the state of its stream.
+     *
+     * @param streamId The stream id, 0 means the connection.
+     * @param frameType The frame type.
+     * @param flags The frame flags.
+     * @param fromClient Whether the frame is sent by the client.
+     */
+    /* package */ void onFrame(int streamId, FrameType frameType, byte flags, boolean fromClient) {
+        if (streamId == 0) {
+            return;
+        }
+        boolean endStream = (flags & Http2.FLAG_END_STREAM) != 0;
+        switch (frameType) {
+            case HEADERS:
+                int state = mStates.get(streamId);
+                if (state == 0) {
+                    state = STATE_OPEN;
+                    if ((streamId & 1) == 0) {
+                        // Pushed streams are reserved by PUSH_PROMISE, the client never sends.
+                        state |= STATE_CLIENT_CLOSED;
+                    }
+                    mStates.put(streamId, state);
+                }
+                if (endStream) {
+                    end(streamId, fromClient);
+                }
+                break;
+            case DATA:
+                if (endStream) {
+                    end(streamId, fromClient);
+                }
+                break;
+            case RST_STREAM:
+                close(streamId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Whether the stream has been opened by a HEADERS frame and not closed yet.
+     *
+     * @param streamId The stream id.
+     * @return True if the stream is open or half-closed.
+     */
+    /* package */ boolean isOpen(int streamId) {
+        return mStates.get(streamId) != 0;
+    }
+
+    private void end(int streamId, boolean fromClient) {
+        int state = mStates.get(streamId);
+        if (state == 0) {
+            // Not open or already closed.
+            return;
+        }
+        state |= fromClient ? STATE_CLIENT_CLOSED : STATE_SERVER_CLOSED;
+        if ((state & STATE_CLIENT_CLOSED) != 0 && (state & STATE_SERVER_CLOSED) != 0) {
+            close(streamId);
+        } else {
+            mStates.put(streamId, state);
+        }
+    }
+
+    private void close(int streamId) {
+        mStates.delete(streamId);
+        for (Listener listener : mListeners) {
+            listener.onStreamClosed(streamId);
+        }
+    }
+
+}
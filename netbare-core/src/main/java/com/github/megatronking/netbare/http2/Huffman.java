@@ -30,7 +30,7 @@
  */
 package com.github.megatronking.netbare.http2;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
@@ -47,7 +47,7 @@ import java.nio.ByteBuffer;
 
     // Appendix C: Huffman Codes
     // http://tools.ietf.org/html/draft-ietf-httpbis-header-compression-12#appendix-B
-    private static final int[] CODES = {
+    static final int[] CODES = {
             0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7, 0xfffffe8,
             0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec, 0xfffffed,
             0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3, 0xffffff4,
@@ -75,7 +75,7 @@ import java.nio.ByteBuffer;
             0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee
     };
 
-    private static final byte[] CODE_LENGTHS = {
+    static final byte[] CODE_LENGTHS = {
             13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30,
             28, 28, 28, 28, 28, 28, 28, 28, 28, 6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, 5,
             5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10, 13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
@@ -89,148 +89,165 @@ import java.nio.ByteBuffer;
             27, 27, 27, 27, 26
     };
 
+    /**
+     * The code of the EOS symbol, it is not in {@link #CODES}.
+     */
+    private static final int EOS_CODE = 0x3fffffff;
+    private static final int EOS_LENGTH = 30;
+
+    /**
+     * Flags of a decoding table entry.
+     */
+    private static final int EMIT = 1 << 16;
+    private static final int ACCEPT = 1 << 17;
+    private static final int FAIL = 1 << 31;
+
     private static final Huffman INSTANCE = new Huffman();
 
     public static Huffman get() {
         return INSTANCE;
     }
 
-    private final Node root = new Node();
+    /**
+     * A finite state machine consumes 4 bits per step, a state is an internal node of the code
+     * tree, the root is state 0. The entry of a state and a 4 bits input is: the next state in
+     * the low 8 bits, the decoded symbol in the next 8 bits with {@link #EMIT}, {@link #ACCEPT}
+     * if the decoding can end in the next state, and {@link #FAIL} if the EOS symbol is decoded.
+     * No code is shorter than 5 bits, so one step decodes one symbol at most.
+     */
+    private final int[] mTable;
 
     private Huffman() {
-        buildTree();
-    }
-
-    byte[] decode(byte[] buf) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        Node node = root;
-        int current = 0;
-        int nbits = 0;
-        for (byte bb : buf) {
-            int b = bb & 0xFF;
-            current = (current << 8) | b;
-            nbits += 8;
-            while (nbits >= 8) {
-                int c = (current >>> (nbits - 8)) & 0xFF;
-                node = node.children[c];
-                if (node.children == null) {
-                    // terminal node
-                    baos.write(node.symbol);
-                    nbits -= node.terminalBits;
-                    node = root;
-                } else {
-                    // non-terminal node
-                    nbits -= 8;
+        // The binary code tree, a negative child is the complement of a symbol.
+        int[][] children = new int[256][2];
+        int[] depths = new int[256];
+        boolean[] allOnes = new boolean[256];
+        allOnes[0] = true;
+        int count = 1;
+        for (int symbol = 0; symbol <= CODES.length; symbol++) {
+            int code = symbol == CODES.length ? EOS_CODE : CODES[symbol];
+            int length = symbol == CODES.length ? EOS_LENGTH : CODE_LENGTHS[symbol];
+            int node = 0;
+            for (int i = length - 1; i > 0; i--) {
+                int bit = (code >>> i) & 1;
+                if (children[node][bit] == 0) {
+                    children[node][bit] = count;
+                    depths[count] = depths[node] + 1;
+                    allOnes[count] = allOnes[node] && bit == 1;
+                    count++;
                 }
+                node = children[node][bit];
             }
+            children[node][code & 1] = ~symbol;
         }
-
-        while (nbits > 0) {
-            int c = (current << (8 - nbits)) & 0xFF;
-            node = node.children[c];
-            if (node.children != null || node.terminalBits > nbits) {
-                break;
+        mTable = new int[count * 16];
+        for (int state = 0; state < count; state++) {
+            for (int input = 0; input < 16; input++) {
+                int node = state;
+                int entry = 0;
+                for (int i = 3; i >= 0; i--) {
+                    int child = children[node][(input >>> i) & 1];
+                    if (child >= 0) {
+                        node = child;
+                        continue;
+                    }
+                    int symbol = ~child;
+                    entry |= symbol == CODES.length ? FAIL : EMIT | (symbol << 8);
+                    node = 0;
+                }
+                // The padding is less than 8 bits of the EOS prefix (all ones).
+                if (node == 0 || (allOnes[node] && depths[node] < 8)) {
+                    entry |= ACCEPT;
+                }
+                mTable[state * 16 + input] = entry | node;
             }
-            baos.write(node.symbol);
-            nbits -= node.terminalBits;
-            node = root;
         }
+    }
 
-        return baos.toByteArray();
+    /**
+     * Decodes huffman encoded bytes into the output array.
+     *
+     * @param buffer The encoded data, its position will be moved forward by length.
+     * @param length The encoded length.
+     * @param out The output array, should be large enough to hold length * 8 / 5 bytes.
+     * @return The decoded length.
+     * @throws IOException If the data contains the EOS symbol or an illegal padding, it is a
+     * COMPRESSION_ERROR.
+     */
+    int decode(ByteBuffer buffer, int length, byte[] out) throws IOException {
+        final int[] table = mTable;
+        int size = 0;
+        int state = 0;
+        int entry = ACCEPT;
+        // The flags of all entries, checked once after the loop.
+        int flags = 0;
+        for (int i = 0; i < length; i++) {
+            int b = buffer.get() & 0xFF;
+            entry = table[(state << 4) | (b >>> 4)];
+            if ((entry & EMIT) != 0) {
+                out[size++] = (byte) (entry >>> 8);
+            }
+            flags |= entry;
+            state = entry & 0xFF;
+            entry = table[(state << 4) | (b & 0x0F)];
+            if ((entry & EMIT) != 0) {
+                out[size++] = (byte) (entry >>> 8);
+            }
+            flags |= entry;
+            state = entry & 0xFF;
+        }
+        if ((flags & FAIL) != 0) {
+            throw new IOException("Http2 COMPRESSION_ERROR: huffman code contains EOS");
+        }
+        if ((entry & ACCEPT) == 0) {
+            throw new IOException("Http2 COMPRESSION_ERROR: invalid huffman padding");
+        }
+        return size;
     }
 
-    void encode(String data, ByteBuffer out) {
+    /**
+     * Encodes the data into the output array.
+     *
+     * @param data The data to encode.
+     * @param out The output array, should be large enough to hold {@link #encodedLength(byte[])}
+     *            bytes from the offset.
+     * @param offset The start offset of the output array.
+     * @return The end offset of the encoded data.
+     */
+    int encode(byte[] data, byte[] out, int offset) {
         long current = 0;
         int n = 0;
-        for (byte bb : data.getBytes()) {
+        for (byte bb : data) {
             int b = bb & 0xFF;
-            int code = CODES[b];
-            int nbits = CODE_LENGTHS[b];
-
-            current <<= nbits;
-            current |= code;
-            n += nbits;
-
+            current = (current << CODE_LENGTHS[b]) | CODES[b];
+            n += CODE_LENGTHS[b];
             while (n >= 8) {
                 n -= 8;
-                out.put((byte) (current >> n));
+                out[offset++] = (byte) (current >> n);
             }
         }
 
         if (n > 0) {
+            // Pad with the most significant bits of EOS.
             current <<= (8 - n);
             current |= (0xFF >>> n);
-            out.put((byte) current);
+            out[offset++] = (byte) current;
         }
+        return offset;
     }
 
-    int encodedLength(String data) {
+    /**
+     * Computes the huffman encoded length in one pass without encoding.
+     *
+     * @param data The data to encode.
+     * @return The encoded length in bytes.
+     */
+    int encodedLength(byte[] data) {
         long len = 0;
-        for (byte bb : data.getBytes()) {
-            int b = bb & 0xFF;
-            len += CODE_LENGTHS[b];
+        for (byte bb : data) {
+            len += CODE_LENGTHS[bb & 0xFF];
         }
         return (int) ((len + 7) >> 3);
     }
 
-    private void buildTree() {
-        for (int i = 0; i < CODE_LENGTHS.length; i++) {
-            addCode(i, CODES[i], CODE_LENGTHS[i]);
-        }
-    }
-
-    private void addCode(int sym, int code, byte len) {
-        Node terminal = new Node(sym, len);
-
-        Node current = root;
-        while (len > 8) {
-            len -= 8;
-            int i = ((code >>> len) & 0xFF);
-            if (current.children == null) {
-                throw new IllegalStateException("invalid dictionary: prefix not unique");
-            }
-            if (current.children[i] == null) {
-                current.children[i] = new Node();
-            }
-            current = current.children[i];
-        }
-
-        int shift = 8 - len;
-        int start = (code << shift) & 0xFF;
-        int end = 1 << shift;
-        for (int i = start; i < start + end; i++) {
-            current.children[i] = terminal;
-        }
-    }
-
-    private static final class Node {
-
-        /**
-         * Null if terminal.
-         */
-        private final Node[] children;
-
-        /**
-         * Terminal nodes have a symbol.
-         */
-        private final int symbol;
-
-        /**
-         * Number of bits represented in the terminal node.
-         */
-        private final int terminalBits;
-
-        private Node() {
-            this.children = new Node[256];
-            this.symbol = 0; // Not read.
-            this.terminalBits = 0; // Not read.
-        }
-
-        private Node(int symbol, int bits) {
-            this.children = null;
-            this.symbol = symbol;
-            int b = bits & 0x07;
-            this.terminalBits = b == 0 ? 8 : b;
-        }
-    }
 }
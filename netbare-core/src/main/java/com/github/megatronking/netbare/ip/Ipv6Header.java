@@ -0,0 +1,207 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ip;
+
+/**
+ * The IPv6 header is a fixed 40 bytes header, the options are carried in extension headers
+ * chained by the next header field between the fixed header and the upper layer header:
+ *
+ * 0                   1                   2                   3
+ * 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |Version| Traffic Class |           Flow Label                  |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |         Payload Length        |  Next Header  |   Hop Limit   |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                                                               |
+ * +                                                               +
+ * |                         Source Address                        |
+ * +                                                               +
+ * |                                                               |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                                                               |
+ * +                                                               +
+ * |                      Destination Address                      |
+ * +                                                               +
+ * |                                                               |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *
+ * The extension headers are walked once when the header is constructed, so the protocol and the
+ * header length are the upper layer's. A packet whose extension headers run past its end is
+ * malformed, see {@link #isValid()}. The addresses are read and written as two longs, the high
+ * and low 64 bits, instead of byte arrays or InetAddress objects.
+ *
+ * See https://tools.ietf.org/html/rfc8200#section-3
+ *
+ * @author Megatron King
+ * @since 2019-04-21 10:12
+ */
+public final class Ipv6Header extends Header {
+
+    public static final int MIN_HEADER_LENGTH = 40;
+
+    private static final int OFFSET_PAYLOAD_LENGTH = 4;
+    private static final int OFFSET_NEXT_HEADER = 6;
+    private static final int OFFSET_SRC_IP = 8;
+    private static final int OFFSET_DEST_IP = 24;
+
+    private static final int HOP_BY_HOP = 0;
+    private static final int ROUTING = 43;
+    private static final int FRAGMENT = 44;
+    private static final int AUTHENTICATION = 51;
+    private static final int DESTINATION_OPTIONS = 60;
+
+    private final byte mProtocol;
+    private final int mHeaderLength;
+    private final boolean mFragmented;
+    private final boolean mValid;
+
+    public Ipv6Header(byte[] packet, int offset) {
+        super(packet, offset);
+        int end = Math.min(packet.length, offset + getTotalLength());
+        int next = packet[offset + OFFSET_NEXT_HEADER] & 0xFF;
+        int position = offset + MIN_HEADER_LENGTH;
+        boolean fragmented = false;
+        while (position + 8 <= end) {
+            int length;
+            if (next == HOP_BY_HOP || next == ROUTING || next == DESTINATION_OPTIONS) {
+                length = ((packet[position + 1] & 0xFF) + 1) * 8;
+            } else if (next == FRAGMENT) {
+                length = 8;
+                fragmented = true;
+            } else if (next == AUTHENTICATION) {
+                length = ((packet[position + 1] & 0xFF) + 2) * 4;
+            } else {
+                break;
+            }
+            next = packet[position] & 0xFF;
+            position += length;
+        }
+        this.mProtocol = (byte) next;
+        this.mHeaderLength = position - offset;
+        this.mFragmented = fragmented;
+        this.mValid = position <= end;
+    }
+
+    /**
+     * Returns the upper layer protocol, the next header of the last extension header.
+     *
+     * @return The upper layer protocol number.
+     */
+    public byte getProtocol() {
+        return mProtocol;
+    }
+
+    /**
+     * Returns the length of the fixed header and the extension headers.
+     *
+     * @return The offset of the upper layer header.
+     */
+    public int getHeaderLength() {
+        return mHeaderLength;
+    }
+
+    /**
+     * Whether the extension headers end within the packet, the header length and the data length
+     * are meaningless if not.
+     *
+     * @return True if the packet is well formed.
+     */
+    public boolean isValid() {
+        return mValid;
+    }
+
+    /**
+     * Whether the packet has a fragment header.
+     *
+     * @return True if it is a fragment.
+     */
+    public boolean isFragmented() {
+        return mFragmented;
+    }
+
+    public long getSourceIpHigh() {
+        return readLong(offset + OFFSET_SRC_IP);
+    }
+
+    public long getSourceIpLow() {
+        return readLong(offset + OFFSET_SRC_IP + 8);
+    }
+
+    public void setSourceIp(long high, long low) {
+        writeLong(high, offset + OFFSET_SRC_IP);
+        writeLong(low, offset + OFFSET_SRC_IP + 8);
+    }
+
+    public long getDestinationIpHigh() {
+        return readLong(offset + OFFSET_DEST_IP);
+    }
+
+    public long getDestinationIpLow() {
+        return readLong(offset + OFFSET_DEST_IP + 8);
+    }
+
+    public void setDestinationIp(long high, long low) {
+        writeLong(high, offset + OFFSET_DEST_IP);
+        writeLong(low, offset + OFFSET_DEST_IP + 8);
+    }
+
+    /**
+     * Swap the source and destination addresses in place.
+     */
+    public void swapIp() {
+        long sourceHigh = getSourceIpHigh();
+        long sourceLow = getSourceIpLow();
+        setSourceIp(getDestinationIpHigh(), getDestinationIpLow());
+        setDestinationIp(sourceHigh, sourceLow);
+    }
+
+    /**
+     * Returns the length of the upper layer header and data.
+     *
+     * @return The upper layer length.
+     */
+    public int getDataLength() {
+        return getTotalLength() - getHeaderLength();
+    }
+
+    public int getTotalLength() {
+        return MIN_HEADER_LENGTH + getPayloadLength();
+    }
+
+    public int getPayloadLength() {
+        return readShort(offset + OFFSET_PAYLOAD_LENGTH) & 0xFFFF;
+    }
+
+    public void setPayloadLength(short len) {
+        writeShort(len, offset + OFFSET_PAYLOAD_LENGTH);
+    }
+
+    public long getIpSum() {
+        // length 32 = src ip(16) + dest ip(16)
+        return getSum(offset + OFFSET_SRC_IP, 32);
+    }
+
+    private long readLong(int offset) {
+        return ((long) readInt(offset) << 32) | (readInt(offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private void writeLong(long value, int offset) {
+        writeInt((int) (value >> 32), offset);
+        writeInt((int) value, offset + 4);
+    }
+
+}
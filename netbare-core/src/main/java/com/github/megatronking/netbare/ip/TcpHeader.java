@@ -68,12 +68,18 @@ public class TcpHeader extends Header {
     private static final int URG = 32;
 
     private IpHeader mIpHeader;
+    private Ipv6Header mIpv6Header;
 
     public TcpHeader(IpHeader header, byte[] packet, int offset) {
         super(packet, offset);
         mIpHeader = header;
     }
 
+    public TcpHeader(Ipv6Header header, byte[] packet, int offset) {
+        super(packet, offset);
+        mIpv6Header = header;
+    }
+
     public void updateOffset(int offset) {
         this.offset = offset;
     }
@@ -128,9 +134,19 @@ public class TcpHeader extends Header {
         // Sum = Ip Sum(Source Address + Destination Address) + Protocol + TCP Length
         // The checksum field is the 16 bit one's complement of the one's complement sum of all 16
         // bit words in the header and text.
-        int dataLength = mIpHeader.getDataLength();
-        long sum = mIpHeader.getIpSum();
-        sum += mIpHeader.getProtocol() & 0xFF;
+        // The IPv6 pseudo header has the same fields with 128 bits addresses, see
+        // https://tools.ietf.org/html/rfc8200#section-8.1
+        int dataLength;
+        long sum;
+        if (mIpv6Header != null) {
+            dataLength = mIpv6Header.getDataLength();
+            sum = mIpv6Header.getIpSum();
+            sum += mIpv6Header.getProtocol() & 0xFF;
+        } else {
+            dataLength = mIpHeader.getDataLength();
+            sum = mIpHeader.getIpSum();
+            sum += mIpHeader.getProtocol() & 0xFF;
+        }
         sum += dataLength;
         sum += getSum(offset, dataLength);
         while ((sum >> 16) > 0) {
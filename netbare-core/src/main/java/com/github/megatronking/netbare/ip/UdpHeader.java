@@ -50,16 +50,45 @@ public class UdpHeader extends Header {
     private static final short OFFSET_CRC = 6;
 
     private IpHeader mIpHeader;
+    private Ipv6Header mIpv6Header;
 
     public UdpHeader(IpHeader header, byte[] packet, int offset) {
         super(packet, offset);
         mIpHeader = header;
     }
 
+    public UdpHeader(Ipv6Header header, byte[] packet, int offset) {
+        super(packet, offset);
+        mIpv6Header = header;
+    }
+
+    /**
+     * Returns the IPv4 header, null if it is an IPv6 packet.
+     *
+     * @return The IPv4 header or null.
+     */
     public IpHeader getIpHeader() {
         return mIpHeader;
     }
 
+    /**
+     * Returns the IPv6 header, null if it is an IPv4 packet.
+     *
+     * @return The IPv6 header or null.
+     */
+    public Ipv6Header getIpv6Header() {
+        return mIpv6Header;
+    }
+
+    /**
+     * Returns the UDP length with the data, from the IP header.
+     *
+     * @return The UDP header and data length.
+     */
+    public int getDataLength() {
+        return mIpv6Header != null ? mIpv6Header.getDataLength() : mIpHeader.getDataLength();
+    }
+
     public short getSourcePort() {
         return readShort(offset + OFFSET_SRC_PORT);
     }
@@ -107,15 +136,26 @@ public class UdpHeader extends Header {
         // pseudo header of information from the IP header, the UDP header, and the
         // data,  padded  with zero octets  at the end (if  necessary)  to  make  a
         // multiple of two octets.
-        int dataLength = mIpHeader.getDataLength();
-        long sum = mIpHeader.getIpSum();
-        sum += mIpHeader.getProtocol() & 0xFF;
+        // The IPv6 pseudo header has the same fields with 128 bits addresses, see
+        // https://tools.ietf.org/html/rfc8200#section-8.1
+        int dataLength = getDataLength();
+        long sum;
+        if (mIpv6Header != null) {
+            sum = mIpv6Header.getIpSum();
+            sum += mIpv6Header.getProtocol() & 0xFF;
+        } else {
+            sum = mIpHeader.getIpSum();
+            sum += mIpHeader.getProtocol() & 0xFF;
+        }
         sum += dataLength;
         sum += getSum(offset, dataLength);
         while ((sum >> 16) > 0) {
             sum = (sum & 0xFFFF) + (sum >> 16);
         }
-        return (short) ~sum;
+        // A zero checksum means no checksum, it is sent as all ones. IPv6 receivers drop UDP
+        // packets without checksum.
+        sum = ~sum & 0xFFFF;
+        return (short) (sum == 0 ? 0xFFFF : sum);
     }
 
     @Override
@@ -126,20 +166,25 @@ public class UdpHeader extends Header {
 
     public UdpHeader copy() {
         byte[] copyArray = Arrays.copyOf(packet, packet.length);
+        if (mIpv6Header != null) {
+            return new UdpHeader(new Ipv6Header(copyArray, 0), copyArray, offset);
+        }
         IpHeader ipHeader = new IpHeader(copyArray, 0);
         return new UdpHeader(ipHeader, copyArray, offset);
     }
 
     public ByteBuffer data() {
-        int size = mIpHeader.getDataLength() - getHeaderLength();
-        int dataOffset = mIpHeader.getHeaderLength() + getHeaderLength();
+        int size = getDataLength() - getHeaderLength();
+        int dataOffset = offset + getHeaderLength();
         byte[] data = new byte[size];
         System.arraycopy(packet, dataOffset, data, 0, size);
         return ByteBuffer.wrap(data);
     }
 
     public ByteBuffer buffer() {
-        return ByteBuffer.wrap(packet, 0, mIpHeader.getTotalLength());
+        int totalLength = mIpv6Header != null ? mIpv6Header.getTotalLength()
+                : mIpHeader.getTotalLength();
+        return ByteBuffer.wrap(packet, 0, totalLength);
     }
 
 }
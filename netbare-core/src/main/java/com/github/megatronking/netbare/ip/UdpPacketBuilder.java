@@ -0,0 +1,180 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ip;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds the response packets of a UDP flow into one reused array. The header is copied from a
+ * request packet with the addresses and ports swapped, only the lengths and checksums change
+ * between packets. So the sums of the constant header words are computed once, the IP checksum
+ * only adds the total length and the UDP checksum only adds the length and the payload. IPv6
+ * responses have no header checksum, only the payload length changes in the IP header.
+ *
+ * Not thread safe.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 19:24
+ */
+public final class UdpPacketBuilder {
+
+    private static final int OFFSET_IP_TLEN = 2;
+    private static final int OFFSET_IP_CRC = 10;
+    private static final int OFFSET_IP6_PAYLOAD_LENGTH = 4;
+    private static final int OFFSET_IP6_NEXT_HEADER = 6;
+    private static final int OFFSET_UDP_TLEN = 4;
+    private static final int OFFSET_UDP_CRC = 6;
+
+    private final boolean mIpv6;
+    private final int mIpHeaderLength;
+    private final int mHeaderLength;
+
+    private final long mIpSum;
+    private final long mUdpSum;
+
+    private byte[] mPacket;
+
+    /**
+     * Constructs a builder by a request packet of the flow.
+     *
+     * @param request The UDP header of a request packet.
+     * @param mtu The VPN mtu, the initial size of the packet array.
+     */
+    public UdpPacketBuilder(UdpHeader request, int mtu) {
+        Ipv6Header ipv6Header = request.getIpv6Header();
+        this.mIpv6 = ipv6Header != null;
+        // The IPv6 extension headers are not copied, responses have the fixed header only.
+        this.mIpHeaderLength = mIpv6 ? Ipv6Header.MIN_HEADER_LENGTH
+                : request.getIpHeader().getHeaderLength();
+        this.mHeaderLength = mIpHeaderLength + request.getHeaderLength();
+        this.mPacket = new byte[Math.max(mtu, mHeaderLength)];
+
+        long ipSum;
+        UdpHeader responseUdp;
+        if (mIpv6) {
+            System.arraycopy(request.packet, ipv6Header.offset, mPacket, 0, mIpHeaderLength);
+            System.arraycopy(request.packet, request.offset, mPacket, mIpHeaderLength,
+                    request.getHeaderLength());
+            mPacket[OFFSET_IP6_NEXT_HEADER] = Protocol.UDP.number;
+            Ipv6Header responseIp = new Ipv6Header(mPacket, 0);
+            responseUdp = new UdpHeader(responseIp, mPacket, mIpHeaderLength);
+            // Swap ip
+            responseIp.swapIp();
+            // IPv6 has no header checksum.
+            this.mIpSum = 0;
+            ipSum = responseIp.getIpSum();
+        } else {
+            IpHeader ipHeader = request.getIpHeader();
+            System.arraycopy(request.packet, ipHeader.offset, mPacket, 0, mHeaderLength);
+            IpHeader responseIp = new IpHeader(mPacket, 0);
+            responseUdp = new UdpHeader(responseIp, mPacket, mIpHeaderLength);
+            // Swap ip
+            int sourceIp = responseIp.getSourceIp();
+            responseIp.setSourceIp(responseIp.getDestinationIp());
+            responseIp.setDestinationIp(sourceIp);
+            // The variable fields are excluded from the sums.
+            responseIp.setTotalLength((short) 0);
+            responseIp.setCrc((short) 0);
+            this.mIpSum = responseIp.getSum(0, mIpHeaderLength);
+            ipSum = responseIp.getIpSum();
+        }
+
+        // Swap port
+        short sourcePort = responseUdp.getSourcePort();
+        responseUdp.setSourcePort(responseUdp.getDestinationPort());
+        responseUdp.setDestinationPort(sourcePort);
+        responseUdp.setTotalLength((short) 0);
+        responseUdp.setCrc((short) 0);
+        // Pseudo header (addresses and protocol) and the ports.
+        this.mUdpSum = ipSum + (Protocol.UDP.number & 0xFF)
+                + responseUdp.getSum(mIpHeaderLength, request.getHeaderLength());
+    }
+
+    /**
+     * Build a response packet, the payload buffer is consumed.
+     *
+     * @param payload The UDP payload.
+     * @return The packet length, the packet is the first bytes of {@link #packet()}.
+     */
+    public int build(ByteBuffer payload) {
+        int payloadLength = payload.remaining();
+        int length = mHeaderLength + payloadLength;
+        if (length > mPacket.length) {
+            // Interceptors may enlarge the payload.
+            byte[] packet = new byte[length];
+            System.arraycopy(mPacket, 0, packet, 0, mHeaderLength);
+            mPacket = packet;
+        }
+        payload.get(mPacket, mHeaderLength, payloadLength);
+
+        int udpLength = length - mIpHeaderLength;
+        if (mIpv6) {
+            writeShort(OFFSET_IP6_PAYLOAD_LENGTH, udpLength);
+        } else {
+            writeShort(OFFSET_IP_TLEN, length);
+            writeShort(OFFSET_IP_CRC, ~fold(mIpSum + length));
+        }
+        writeShort(mIpHeaderLength + OFFSET_UDP_TLEN, udpLength);
+        // The UDP length is counted twice: in the pseudo header and in the UDP header.
+        int udpCrc = ~fold(mUdpSum + (udpLength << 1) + sum(mHeaderLength, payloadLength))
+                & 0xFFFF;
+        // A zero checksum means no checksum, it is sent as all ones.
+        writeShort(mIpHeaderLength + OFFSET_UDP_CRC, udpCrc == 0 ? 0xFFFF : udpCrc);
+        return length;
+    }
+
+    /**
+     * Returns the packet array, it is replaced if a payload doesn't fit.
+     *
+     * @return The packet array of the last built packet.
+     */
+    public byte[] packet() {
+        return mPacket;
+    }
+
+    private long sum(int offset, int length) {
+        byte[] packet = mPacket;
+        long sum = 0;
+        int end = offset + (length & ~3);
+        // Four bytes a time, the sum of two 16 bit words.
+        for (; offset < end; offset += 4) {
+            sum += ((packet[offset] & 0xFF) << 8 | (packet[offset + 1] & 0xFF))
+                    + ((packet[offset + 2] & 0xFF) << 8 | (packet[offset + 3] & 0xFF));
+        }
+        int remaining = length & 3;
+        if (remaining >= 2) {
+            sum += (packet[offset] & 0xFF) << 8 | (packet[offset + 1] & 0xFF);
+            offset += 2;
+        }
+        if ((remaining & 1) != 0) {
+            sum += (packet[offset] & 0xFF) << 8;
+        }
+        return sum;
+    }
+
+    private void writeShort(int offset, int value) {
+        mPacket[offset] = (byte) (value >> 8);
+        mPacket[offset + 1] = (byte) value;
+    }
+
+    private static int fold(long sum) {
+        while ((sum >> 16) > 0) {
+            sum = (sum & 0xFFFF) + (sum >> 16);
+        }
+        return (int) sum;
+    }
+
+}
@@ -0,0 +1,191 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed memory histogram of non-negative values in the HdrHistogram style: values are counted
+ * in buckets of powers of two, and each bucket is split into linear sub-buckets, so the relative
+ * error of any recorded value is no more than 1 / {@link #SUB_BUCKET_HALF_COUNT}. Values larger
+ * than {@link #MAX_VALUE} are counted as the max value.
+ *
+ * Recording is lock free and safe from any thread, use {@link #snapshot()} to read.
+ *
+ * @author Megatron King
+ * @since 2019-04-17 10:36
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+    /**
+     * The max trackable value, more than 12 days in microseconds.
+     */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int BUCKET_COUNT = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mSum;
+
+    public Histogram() {
+        this.mCounts = new AtomicLongArray(BUCKET_COUNT);
+        this.mSum = new AtomicLong();
+    }
+
+    /**
+     * Record a value, negative values are ignored.
+     *
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        mCounts.incrementAndGet(index(value));
+        mSum.addAndGet(value);
+    }
+
+    /**
+     * Copy the recorded values, values being recorded while copying may be partially included.
+     *
+     * @return A snapshot of this histogram.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, mSum.get());
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int mantissa = (int) (value >>> shift);
+        return (shift + 1) * SUB_BUCKET_HALF_COUNT + mantissa - SUB_BUCKET_HALF_COUNT;
+    }
+
+    private static long lowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long mantissa = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return mantissa << shift;
+    }
+
+    private static long highestValue(int index) {
+        return lowestValue(index + 1) - 1;
+    }
+
+    /**
+     * An immutable copy of a {@link Histogram}.
+     */
+    public static final class Snapshot {
+
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+
+        private Snapshot(long[] counts, long count, long sum) {
+            this.mCounts = counts;
+            this.mCount = count;
+            this.mSum = sum;
+        }
+
+        /**
+         * Returns the count of recorded values.
+         *
+         * @return The value count.
+         */
+        public long count() {
+            return mCount;
+        }
+
+        /**
+         * Returns the mean of recorded values.
+         *
+         * @return The mean value, 0 if nothing is recorded.
+         */
+        public double mean() {
+            return mCount == 0 ? 0 : (double) mSum / mCount;
+        }
+
+        /**
+         * Returns the lowest recorded value, it is the lower bound of the value's bucket.
+         *
+         * @return The min value, 0 if nothing is recorded.
+         */
+        public long min() {
+            for (int i = 0; i < mCounts.length; i++) {
+                if (mCounts[i] != 0) {
+                    return lowestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the highest recorded value, it is the upper bound of the value's bucket.
+         *
+         * @return The max value, 0 if nothing is recorded.
+         */
+        public long max() {
+            for (int i = mCounts.length - 1; i >= 0; i--) {
+                if (mCounts[i] != 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the value that the given percentage of recorded values are no larger than.
+         *
+         * @param percentile The percentile in [0, 100], such as 99.9.
+         * @return The value at the percentile, it is the upper bound of the value's bucket.
+         */
+        public long valueAtPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            double ratio = Math.min(Math.max(percentile, 0), 100) / 100;
+            long target = Math.max(1, (long) Math.ceil(ratio * mCount));
+            long total = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                total += mCounts[i];
+                if (total >= target) {
+                    return highestValue(i);
+                }
+            }
+            return max();
+        }
+
+    }
+
+}
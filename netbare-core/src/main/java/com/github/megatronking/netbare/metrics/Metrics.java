@@ -0,0 +1,222 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.metrics;
+
+import android.support.annotation.NonNull;
+
+import com.github.megatronking.netbare.NetBareLog;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The process wide traffic and latency metrics. Counters are striped and histograms are lock
+ * free, so recording from the data path never blocks. Read them by {@link #snapshot()}, or
+ * register a {@link MetricsListener} to receive snapshots periodically on a background thread.
+ *
+ * @author Megatron King
+ * @since 2019-04-17 11:12
+ */
+public final class Metrics {
+
+    private static class Holder {
+
+        private static final Metrics INSTANCE = new Metrics();
+
+    }
+
+    /**
+     * The interval of pushing snapshots to listeners.
+     */
+    private static final long PUSH_INTERVAL = 1000;
+
+    /* package */ final StripedCounter mSessionCount;
+    /* package */ final StripedCounter mPacketCount;
+    /* package */ final StripedCounter mSendBytes;
+    /* package */ final StripedCounter mReceiveBytes;
+
+    /* package */ final Histogram mTcpConnect;
+    /* package */ final Histogram mTlsHandshake;
+    /* package */ final Histogram mFirstByte;
+    /* package */ final Histogram mHttpRequest;
+    /* package */ final Histogram mHttpResponse;
+
+    private final Set<MetricsListener> mListeners;
+
+    private Thread mPushThread;
+
+    public static Metrics get() {
+        return Holder.INSTANCE;
+    }
+
+    private Metrics() {
+        mSessionCount = new StripedCounter();
+        mPacketCount = new StripedCounter();
+        mSendBytes = new StripedCounter();
+        mReceiveBytes = new StripedCounter();
+        mTcpConnect = new Histogram();
+        mTlsHandshake = new Histogram();
+        mFirstByte = new Histogram();
+        mHttpRequest = new Histogram();
+        mHttpResponse = new Histogram();
+        mListeners = new CopyOnWriteArraySet<>();
+    }
+
+    /**
+     * A session is created.
+     */
+    public void onSessionCreated() {
+        mSessionCount.add(1);
+    }
+
+    /**
+     * A packet is forwarded from the VPN to a remote server.
+     *
+     * @param bytes The data size of the packet.
+     */
+    public void onPacketSent(int bytes) {
+        mPacketCount.add(1);
+        mSendBytes.add(bytes);
+    }
+
+    /**
+     * Data is received from a remote server.
+     *
+     * @param bytes The data size.
+     */
+    public void onDataReceived(int bytes) {
+        mReceiveBytes.add(bytes);
+    }
+
+    /**
+     * Record a TCP connect duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void recordTcpConnect(long nanos) {
+        mTcpConnect.record(toMicros(nanos));
+    }
+
+    /**
+     * Record a TLS handshake duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void recordTlsHandshake(long nanos) {
+        mTlsHandshake.record(toMicros(nanos));
+    }
+
+    /**
+     * Record a time to first byte duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void recordFirstByte(long nanos) {
+        mFirstByte.record(toMicros(nanos));
+    }
+
+    /**
+     * Record a HTTP request duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void recordHttpRequest(long nanos) {
+        mHttpRequest.record(toMicros(nanos));
+    }
+
+    /**
+     * Record a HTTP response duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void recordHttpResponse(long nanos) {
+        mHttpResponse.record(toMicros(nanos));
+    }
+
+    /**
+     * Take a snapshot of the current metrics.
+     *
+     * @return A snapshot of the metrics.
+     */
+    @NonNull
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(this);
+    }
+
+    /**
+     * Register a listener to receive snapshots every second.
+     *
+     * @param listener The listener to register.
+     */
+    public void registerListener(@NonNull MetricsListener listener) {
+        mListeners.add(listener);
+        synchronized (this) {
+            if (mPushThread == null) {
+                mPushThread = new Thread(new Pusher(), "NetBare-Metrics");
+                mPushThread.setDaemon(true);
+                mPushThread.start();
+            }
+        }
+    }
+
+    /**
+     * Remove a previously registered listener.
+     *
+     * @param listener The listener to remove.
+     */
+    public void unregisterListener(@NonNull MetricsListener listener) {
+        mListeners.remove(listener);
+        synchronized (this) {
+            if (mListeners.isEmpty() && mPushThread != null) {
+                mPushThread.interrupt();
+                mPushThread = null;
+            }
+        }
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private final class Pusher implements Runnable {
+
+        @Override
+        public void run() {
+            Thread thread = Thread.currentThread();
+            try {
+                while (!thread.isInterrupted()) {
+                    Thread.sleep(PUSH_INTERVAL);
+                    if (mListeners.isEmpty()) {
+                        continue;
+                    }
+                    MetricsSnapshot snapshot = snapshot();
+                    for (MetricsListener listener : mListeners) {
+                        try {
+                            listener.onMetrics(snapshot);
+                        } catch (RuntimeException e) {
+                            NetBareLog.wtf(e);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Stopped.
+            }
+        }
+
+    }
+
+}
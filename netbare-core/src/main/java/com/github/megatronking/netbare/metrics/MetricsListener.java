@@ -0,0 +1,36 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.metrics;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Interface definition for a callback to be invoked periodically with the latest metrics. It is
+ * called on the metrics thread, never on the data path.
+ *
+ * @author Megatron King
+ * @since 2019-04-17 11:02
+ */
+public interface MetricsListener {
+
+    /**
+     * Callback method to be invoked with the latest metrics.
+     *
+     * @param snapshot A snapshot of the process wide metrics.
+     */
+    void onMetrics(@NonNull MetricsSnapshot snapshot);
+
+}
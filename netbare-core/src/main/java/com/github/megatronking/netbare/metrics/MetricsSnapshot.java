@@ -0,0 +1,142 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.metrics;
+
+/**
+ * An immutable copy of the process wide metrics, all durations are in microseconds.
+ *
+ * @author Megatron King
+ * @since 2019-04-17 11:05
+ */
+public final class MetricsSnapshot {
+
+    private final long mTime;
+
+    private final long mSessionCount;
+    private final long mPacketCount;
+    private final long mSendBytes;
+    private final long mReceiveBytes;
+
+    private final Histogram.Snapshot mTcpConnect;
+    private final Histogram.Snapshot mTlsHandshake;
+    private final Histogram.Snapshot mFirstByte;
+    private final Histogram.Snapshot mHttpRequest;
+    private final Histogram.Snapshot mHttpResponse;
+
+    /* package */ MetricsSnapshot(Metrics metrics) {
+        this.mTime = System.currentTimeMillis();
+        this.mSessionCount = metrics.mSessionCount.sum();
+        this.mPacketCount = metrics.mPacketCount.sum();
+        this.mSendBytes = metrics.mSendBytes.sum();
+        this.mReceiveBytes = metrics.mReceiveBytes.sum();
+        this.mTcpConnect = metrics.mTcpConnect.snapshot();
+        this.mTlsHandshake = metrics.mTlsHandshake.snapshot();
+        this.mFirstByte = metrics.mFirstByte.snapshot();
+        this.mHttpRequest = metrics.mHttpRequest.snapshot();
+        this.mHttpResponse = metrics.mHttpResponse.snapshot();
+    }
+
+    /**
+     * Returns the time the snapshot is taken.
+     *
+     * @return The milliseconds since epoch.
+     */
+    public long time() {
+        return mTime;
+    }
+
+    /**
+     * Returns the count of created sessions.
+     *
+     * @return The session count.
+     */
+    public long sessionCount() {
+        return mSessionCount;
+    }
+
+    /**
+     * Returns the count of packets forwarded from the VPN.
+     *
+     * @return The packet count.
+     */
+    public long packetCount() {
+        return mPacketCount;
+    }
+
+    /**
+     * Returns the total size of the data sent to remote servers.
+     *
+     * @return The sent bytes.
+     */
+    public long sendBytes() {
+        return mSendBytes;
+    }
+
+    /**
+     * Returns the total size of the data received from remote servers.
+     *
+     * @return The received bytes.
+     */
+    public long receiveBytes() {
+        return mReceiveBytes;
+    }
+
+    /**
+     * Returns the durations of TCP connecting to remote servers.
+     *
+     * @return The TCP connect time histogram.
+     */
+    public Histogram.Snapshot tcpConnect() {
+        return mTcpConnect;
+    }
+
+    /**
+     * Returns the durations of TLS handshakes with remote servers.
+     *
+     * @return The TLS handshake time histogram.
+     */
+    public Histogram.Snapshot tlsHandshake() {
+        return mTlsHandshake;
+    }
+
+    /**
+     * Returns the durations from the first request byte to the first response byte of sessions.
+     *
+     * @return The time to first byte histogram.
+     */
+    public Histogram.Snapshot firstByte() {
+        return mFirstByte;
+    }
+
+    /**
+     * Returns the durations from the first to the last byte of HTTP requests.
+     *
+     * @return The HTTP request time histogram.
+     */
+    public Histogram.Snapshot httpRequest() {
+        return mHttpRequest;
+    }
+
+    /**
+     * Returns the durations from the first to the last byte of HTTP responses.
+     *
+     * @return The HTTP response time histogram.
+     */
+    public Histogram.Snapshot httpResponse() {
+        return mHttpResponse;
+    }
+
+}
@@ -0,0 +1,56 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A long counter striped by threads, each thread mostly adds to its own padded slot so the
+ * writers on different threads don't contend for one cache line. The sum is not an atomic
+ * snapshot while being updated.
+ *
+ * @author Megatron King
+ * @since 2019-04-17 10:21
+ */
+/* package */ final class StripedCounter {
+
+    private static final int STRIPES = 4;
+
+    /**
+     * Slots are spread by 8 longs, one cache line.
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray mSlots;
+
+    /* package */ StripedCounter() {
+        this.mSlots = new AtomicLongArray(STRIPES * PADDING);
+    }
+
+    /* package */ void add(long delta) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        mSlots.getAndAdd(stripe * PADDING, delta);
+    }
+
+    /* package */ long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += mSlots.get(i * PADDING);
+        }
+        return sum;
+    }
+
+}
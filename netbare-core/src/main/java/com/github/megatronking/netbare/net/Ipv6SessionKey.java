@@ -0,0 +1,59 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.net;
+
+/**
+ * A key of an IPv6 session in the indexes, it has the full 128-bit remote server address so
+ * different remote servers never collide.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 11:06
+ */
+/* package */ final class Ipv6SessionKey {
+
+    private final short localPort;
+    private final short remotePort;
+    private final long remoteIpHigh;
+    private final long remoteIpLow;
+
+    /* package */ Ipv6SessionKey(short localPort, short remotePort, long remoteIpHigh,
+                                 long remoteIpLow) {
+        this.localPort = localPort;
+        this.remotePort = remotePort;
+        this.remoteIpHigh = remoteIpHigh;
+        this.remoteIpLow = remoteIpLow;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Ipv6SessionKey)) {
+            return false;
+        }
+        Ipv6SessionKey key = (Ipv6SessionKey) o;
+        return localPort == key.localPort && remotePort == key.remotePort
+                && remoteIpHigh == key.remoteIpHigh && remoteIpLow == key.remoteIpLow;
+    }
+
+    @Override
+    public int hashCode() {
+        long hash = remoteIpHigh * 31 + remoteIpLow;
+        return (int) (hash ^ (hash >>> 32)) * 31 + ((localPort << 16) | (remotePort & 0xFFFF));
+    }
+
+}
@@ -0,0 +1,426 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.net;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.github.megatronking.netbare.NetBareLog;
+import com.github.megatronking.netbare.NetBareUtils;
+import com.github.megatronking.netbare.ip.Protocol;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A background indexer of the socket tables in /proc/net. The tcp, tcp6, udp and udp6 files are
+ * parsed together by a byte-level parser into a local port index, the index is swapped as a
+ * whole after each scan so lookups never block. A missed session is queued and the indexer scans
+ * again, the {@link Callback} is notified when it appears in the tables or is given up.
+ *
+ * @author Megatron King
+ * @since 2019-04-15 10:12
+ */
+/* package */ final class ProcNetIndexer implements Runnable {
+
+    /**
+     * Notified on the indexer thread when a queued session is resolved or given up.
+     */
+    interface Callback {
+
+        void onResolved(Session session, int uid);
+
+        void onFailed(Session session);
+
+    }
+
+    private static final String[] TCP_FILES = {"/proc/net/tcp6", "/proc/net/tcp"};
+    private static final String[] UDP_FILES = {"/proc/net/udp6", "/proc/net/udp"};
+
+    /**
+     * Requests arrived in this interval are served by one scan.
+     */
+    private static final long MIN_SCAN_INTERVAL = 50;
+
+    /**
+     * A session not found in this duration is given up.
+     */
+    private static final long MAX_PENDING_DURATION = 2000;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final int mLocalIp;
+    private final long mLocalIp6High;
+    private final long mLocalIp6Low;
+    private final Callback mCallback;
+
+    private final Object mLock;
+    private final Map<Session, Long> mPendingSessions;
+
+    private volatile Index mIndex;
+
+    private Thread mThread;
+    private long mLastScanTime;
+
+    private byte[] mBuffer;
+
+    /* package */ ProcNetIndexer(int localIp, long[] localIp6, Callback callback) {
+        this.mLocalIp = localIp;
+        this.mLocalIp6High = localIp6 != null ? localIp6[0] : 0;
+        this.mLocalIp6Low = localIp6 != null ? localIp6[1] : 0;
+        this.mCallback = callback;
+        this.mLock = new Object();
+        this.mPendingSessions = new LinkedHashMap<>();
+        this.mBuffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    /**
+     * Look up the uid of the session from the current index without blocking. If not found, the
+     * session is queued and the callback will be notified once a later scan finds it or the
+     * session is given up.
+     *
+     * @param session The session to look up.
+     * @return True if the uid is set right now.
+     */
+    /* package */ boolean request(Session session) {
+        int uid = lookup(mIndex, session);
+        if (uid > 0) {
+            session.uid = uid;
+            return true;
+        }
+        synchronized (mLock) {
+            if (!mPendingSessions.containsKey(session)) {
+                mPendingSessions.put(session, SystemClock.elapsedRealtime());
+            }
+            if (mThread == null) {
+                mThread = new Thread(this, "NetBare-ProcNetIndexer");
+                mThread.setDaemon(true);
+                mThread.start();
+            }
+            mLock.notify();
+        }
+        return false;
+    }
+
+    /**
+     * Stop the indexer thread and drop all pending sessions.
+     */
+    /* package */ void stop() {
+        synchronized (mLock) {
+            if (mThread != null) {
+                mThread.interrupt();
+                mThread = null;
+            }
+            mPendingSessions.clear();
+        }
+    }
+
+    @Override
+    public void run() {
+        Thread thread = Thread.currentThread();
+        try {
+            while (!thread.isInterrupted()) {
+                synchronized (mLock) {
+                    while (mPendingSessions.isEmpty()) {
+                        mLock.wait();
+                    }
+                }
+                long delay = mLastScanTime + MIN_SCAN_INTERVAL - SystemClock.elapsedRealtime();
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                Index index = scan();
+                mIndex = index;
+                mLastScanTime = SystemClock.elapsedRealtime();
+                resolvePendingSessions(index, mLastScanTime);
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        }
+    }
+
+    private void resolvePendingSessions(Index index, long now) {
+        List<Session> resolved = new ArrayList<>();
+        List<Session> failed = new ArrayList<>();
+        synchronized (mLock) {
+            Iterator<Map.Entry<Session, Long>> iterator = mPendingSessions.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Session, Long> entry = iterator.next();
+                Session session = entry.getKey();
+                int uid = lookup(index, session);
+                if (uid > 0) {
+                    session.uid = uid;
+                    resolved.add(session);
+                    iterator.remove();
+                } else if (session.uid != 0) {
+                    resolved.add(session);
+                    iterator.remove();
+                } else if (now - entry.getValue() > MAX_PENDING_DURATION) {
+                    failed.add(session);
+                    iterator.remove();
+                }
+            }
+        }
+        // Notify out of the lock, the callback may request again.
+        for (Session session : resolved) {
+            mCallback.onResolved(session, session.uid);
+        }
+        for (Session session : failed) {
+            mCallback.onFailed(session);
+        }
+    }
+
+    private static int lookup(Index index, Session session) {
+        if (index == null) {
+            return 0;
+        }
+        SparseArray<SocketEntry> sockets;
+        if (session.protocol == Protocol.TCP) {
+            sockets = index.tcp;
+        } else if (session.protocol == Protocol.UDP) {
+            sockets = index.udp;
+        } else {
+            return 0;
+        }
+        SocketEntry socket = sockets.get(NetBareUtils.convertPort(session.localPort));
+        if (socket == null) {
+            return 0;
+        }
+        // The port might be reused by another connection, unconnected UDP sockets have no remote.
+        if (socket.isConnected()) {
+            long remoteIpHigh = session.ipv6 ? session.remoteIp6High : 0;
+            long remoteIpLow = session.ipv6 ? session.remoteIp6Low : mappedIp(session.remoteIp);
+            if (socket.remoteIpHigh != remoteIpHigh || socket.remoteIpLow != remoteIpLow
+                    || socket.remotePort != NetBareUtils.convertPort(session.remotePort)) {
+                return 0;
+            }
+        }
+        return socket.uid;
+    }
+
+    private Index scan() {
+        Index index = new Index();
+        for (String file : TCP_FILES) {
+            parseFile(file, index.tcp);
+        }
+        for (String file : UDP_FILES) {
+            parseFile(file, index.udp);
+        }
+        return index;
+    }
+
+    private void parseFile(String file, SparseArray<SocketEntry> sockets) {
+        int length = read(file);
+        if (length > 0) {
+            parse(mBuffer, length, mLocalIp, mLocalIp6High, mLocalIp6Low, sockets);
+        }
+    }
+
+    private int read(String file) {
+        FileInputStream input = null;
+        int length = 0;
+        try {
+            input = new FileInputStream(file);
+            int read;
+            while ((read = input.read(mBuffer, length, mBuffer.length - length)) >= 0) {
+                length += read;
+                if (length == mBuffer.length) {
+                    byte[] buffer = new byte[mBuffer.length * 2];
+                    System.arraycopy(mBuffer, 0, buffer, 0, length);
+                    mBuffer = buffer;
+                }
+            }
+        } catch (IOException e) {
+            NetBareLog.w("Failed to read " + file + ": " + e.getMessage());
+        } finally {
+            NetBareUtils.closeQuietly(input);
+        }
+        return length;
+    }
+
+    /**
+     * Parse the socket table, the sockets bound to the local ip are put into the index.
+     *
+     * <pre>
+     *   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid ...
+     *    0: 0100000A:A01C 75DE9DB6:01BB 01 00000000:00000000 00:00000000 00000000 10086 ...
+     * </pre>
+     *
+     * The IPv6 addresses are 32 hex digits of four words, an IPv4 mapped address ends with the
+     * IPv4 word. The addresses are compared in full 128 bits, an IPv4 address is compared as the
+     * IPv4 mapped address.
+     */
+    /* package */ static void parse(byte[] data, int length, int localIp, long localIp6High,
+                                    long localIp6Low, SparseArray<SocketEntry> sockets) {
+        long[] ip = new long[2];
+        // Skip the title line.
+        int position = indexOf(data, (byte) '\n', 0, length) + 1;
+        while (position > 0 && position < length) {
+            int end = indexOf(data, (byte) '\n', position, length);
+            if (end < 0) {
+                end = length;
+            }
+            parseLine(data, position, end, localIp, localIp6High, localIp6Low, ip, sockets);
+            position = end + 1;
+        }
+    }
+
+    private static void parseLine(byte[] data, int start, int end, int localIp,
+                                  long localIp6High, long localIp6Low, long[] ip,
+                                  SparseArray<SocketEntry> sockets) {
+        // sl
+        int position = nextToken(data, start, end);
+        position = skipToken(data, position, end);
+        // local_address
+        position = nextToken(data, position, end);
+        int colon = indexOf(data, (byte) ':', position, end);
+        if (colon + 5 > end || !parseIp(data, position, colon, ip)) {
+            return;
+        }
+        boolean local = (ip[0] == 0 && ip[1] == mappedIp(localIp)) || ((localIp6High != 0
+                || localIp6Low != 0) && ip[0] == localIp6High && ip[1] == localIp6Low);
+        if (!local) {
+            return;
+        }
+        int localPort = (int) parseHex(data, colon + 1, colon + 5);
+        // rem_address
+        position = nextToken(data, colon + 5, end);
+        colon = indexOf(data, (byte) ':', position, end);
+        if (colon + 5 > end || !parseIp(data, position, colon, ip)) {
+            return;
+        }
+        long remoteIpHigh = ip[0];
+        long remoteIpLow = ip[1];
+        int remotePort = (int) parseHex(data, colon + 1, colon + 5);
+        position = colon + 5;
+        // st, tx_queue:rx_queue, tr:tm->when, retrnsmt
+        for (int i = 0; i < 4; i++) {
+            position = skipToken(data, nextToken(data, position, end), end);
+        }
+        // uid
+        position = nextToken(data, position, end);
+        int uid = 0;
+        while (position < end && data[position] >= '0' && data[position] <= '9') {
+            uid = uid * 10 + (data[position++] - '0');
+        }
+        if (uid <= 0 || localPort < 0 || remotePort < 0) {
+            return;
+        }
+        // Keep the first connected socket of the port.
+        SocketEntry socket = new SocketEntry(uid, remoteIpHigh, remoteIpLow, remotePort);
+        SocketEntry exist = sockets.get(localPort);
+        if (exist == null || (!exist.isConnected() && socket.isConnected())) {
+            sockets.put(localPort, socket);
+        }
+    }
+
+    /**
+     * Parse an address of 8 or 32 hex digits, each word is in the host byte order. An IPv4
+     * address is converted to the IPv4 mapped address, except the unspecified address.
+     */
+    private static boolean parseIp(byte[] data, int start, int end, long[] ip) {
+        int length = end - start;
+        if (length == 8) {
+            ip[0] = 0;
+            ip[1] = mappedIp(Integer.reverseBytes((int) parseHex(data, start, end)));
+            return true;
+        } else if (length == 32) {
+            ip[0] = parseWord(data, start) << 32 | parseWord(data, start + 8);
+            ip[1] = parseWord(data, start + 16) << 32 | parseWord(data, start + 24);
+            return true;
+        }
+        return false;
+    }
+
+    private static long parseWord(byte[] data, int start) {
+        return Integer.reverseBytes((int) parseHex(data, start, start + 8)) & 0xFFFFFFFFL;
+    }
+
+    private static long mappedIp(int ip) {
+        return ip == 0 ? 0 : 0xFFFF00000000L | (ip & 0xFFFFFFFFL);
+    }
+
+    private static int indexOf(byte[] data, byte b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int nextToken(byte[] data, int position, int end) {
+        while (position < end && (data[position] == ' ' || data[position] == '\t')) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int skipToken(byte[] data, int position, int end) {
+        while (position < end && data[position] != ' ' && data[position] != '\t') {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Parse hex digits into a value, returns -1 if there is an invalid digit.
+     */
+    private static long parseHex(byte[] data, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(data[i], 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private static final class Index {
+
+        private final SparseArray<SocketEntry> tcp = new SparseArray<>();
+        private final SparseArray<SocketEntry> udp = new SparseArray<>();
+
+    }
+
+    /* package */ static final class SocketEntry {
+
+        /* package */ final int uid;
+        /* package */ final long remoteIpHigh;
+        /* package */ final long remoteIpLow;
+        /* package */ final int remotePort;
+
+        private SocketEntry(int uid, long remoteIpHigh, long remoteIpLow, int remotePort) {
+            this.uid = uid;
+            this.remoteIpHigh = remoteIpHigh;
+            this.remoteIpLow = remoteIpLow;
+            this.remotePort = remotePort;
+        }
+
+        /* package */ boolean isConnected() {
+            return remoteIpHigh != 0 || remoteIpLow != 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,104 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.net;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The process wide IPv4 address to host name mappings learned from the DNS responses, a new
+ * {@link Session} takes the host name of its remote IP, so the flows without SNI or a HTTP host
+ * header still have a host. A mapping expires with the TTL of the DNS record, the least recently
+ * used mapping is dropped when the table is full.
+ *
+ * @author Megatron King
+ * @since 2019-04-20 11:30
+ */
+public final class ResolvedHosts {
+
+    private static class Holder {
+
+        private static final ResolvedHosts INSTANCE = new ResolvedHosts();
+
+    }
+
+    private static final int MAX_HOSTS = 2048;
+
+    private final Map<Integer, Host> mHosts;
+
+    public static ResolvedHosts get() {
+        return Holder.INSTANCE;
+    }
+
+    private ResolvedHosts() {
+        this.mHosts = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Map an IP to the host name it is resolved from.
+     *
+     * @param ip The IPv4 address.
+     * @param host The queried host name.
+     * @param ttl The TTL of the record in seconds.
+     */
+    public void put(int ip, @NonNull String host, int ttl) {
+        long expireTime = SystemClock.elapsedRealtime() + ttl * 1000L;
+        synchronized (mHosts) {
+            mHosts.put(ip, new Host(host, expireTime));
+            if (mHosts.size() > MAX_HOSTS) {
+                mHosts.remove(mHosts.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Query the host name of an IP.
+     *
+     * @param ip The IPv4 address.
+     * @return The host name, or null if it is unknown or expired.
+     */
+    @Nullable
+    public String query(int ip) {
+        synchronized (mHosts) {
+            Host host = mHosts.get(ip);
+            if (host == null) {
+                return null;
+            }
+            if (SystemClock.elapsedRealtime() >= host.expireTime) {
+                mHosts.remove(ip);
+                return null;
+            }
+            return host.name;
+        }
+    }
+
+    private static final class Host {
+
+        private final String name;
+        private final long expireTime;
+
+        private Host(String name, long expireTime) {
+            this.name = name;
+            this.expireTime = expireTime;
+        }
+
+    }
+
+}
@@ -16,6 +16,7 @@
 package com.github.megatronking.netbare.net;
 
 import com.github.megatronking.netbare.ip.Protocol;
+import com.github.megatronking.netbare.ssl.SSLClientHello;
 
 import java.util.UUID;
 
@@ -43,10 +44,26 @@ public final class Session {
     public final short remotePort;
 
     /**
-     * Remote server IP.
+     * Remote server IP. For an IPv6 session it is a 32 bits hash of the full address, it is not
+     * unique, use {@link #remoteIp6High} and {@link #remoteIp6Low} to identify the session.
      */
     public final int remoteIp;
 
+    /**
+     * Whether the remote server IP is an IPv6 address.
+     */
+    public final boolean ipv6;
+
+    /**
+     * The high 64 bits of the remote server IPv6 address, 0 for an IPv4 session.
+     */
+    public final long remoteIp6High;
+
+    /**
+     * The low 64 bits of the remote server IPv6 address, 0 for an IPv4 session.
+     */
+    public final long remoteIp6Low;
+
     /**
      * An unique id uses to identify this session.
      */
@@ -63,32 +80,69 @@ public final class Session {
     public String host;
 
     /**
-     * The process id that the session belongs to.
+     * The TLS ClientHello sent by the client, null if it is not a TLS session.
+     */
+    public SSLClientHello clientHello;
+
+    /**
+     * The process id that the session belongs to, it might be set later by a background thread.
      */
-    public int uid;
+    public volatile int uid;
 
     /**
      * Packet counts.
+     *
+     * The counters are updated by a single thread and can be read from any thread.
      */
-    public int packetIndex;
+    public volatile long packetIndex;
 
     /**
      * The total size of the packets that sends to remote server.
      */
-    public int sendDataSize;
+    public volatile long sendDataSize;
 
     /**
      * The total size of the packets that received from remote server.
      */
-    public int receiveDataSize;
+    public volatile long receiveDataSize;
+
+    /**
+     * The duration of TCP connecting to the remote server in microseconds, 0 if unknown.
+     */
+    public volatile long connectTime;
+
+    /**
+     * The duration from the first request byte to the first response byte in microseconds, 0 if
+     * unknown.
+     */
+    public volatile long firstByteTime;
 
     /* package */ Session(Protocol protocol, short localPort, short remotePort, int remoteIp) {
+        this(protocol, localPort, remotePort, remoteIp, false, 0, 0);
+    }
+
+    /* package */ Session(Protocol protocol, short localPort, short remotePort,
+                          long remoteIp6High, long remoteIp6Low) {
+        this(protocol, localPort, remotePort, hash(remoteIp6High, remoteIp6Low), true,
+                remoteIp6High, remoteIp6Low);
+    }
+
+    private Session(Protocol protocol, short localPort, short remotePort, int remoteIp,
+                    boolean ipv6, long remoteIp6High, long remoteIp6Low) {
         this.protocol = protocol;
         this.localPort = localPort;
         this.remotePort = remotePort;
         this.remoteIp = remoteIp;
+        this.ipv6 = ipv6;
+        this.remoteIp6High = remoteIp6High;
+        this.remoteIp6Low = remoteIp6Low;
         this.id = UUID.randomUUID().toString();
         this.time = System.currentTimeMillis();
     }
 
+    private static int hash(long high, long low) {
+        long hash = (high * 0x9E3779B97F4A7C15L + low) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (hash >>> 32);
+    }
+
 }
@@ -18,8 +18,11 @@ package com.github.megatronking.netbare.net;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.github.megatronking.netbare.NetBareTrace;
 import com.github.megatronking.netbare.ip.Protocol;
+import com.github.megatronking.netbare.metrics.Metrics;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -33,7 +36,14 @@ public final class SessionProvider {
 
     private static final int MAX_SESSION = 100;
 
+    /**
+     * The IPv6 sessions are keyed by the local port and the full remote address, the least
+     * recently used ones are evicted beyond the count of the local ports.
+     */
+    private static final int MAX_IPV6_SESSION = 0xFFFF;
+
     private final Map<Short, Session> mSessions;
+    private final Map<Ipv6SessionKey, Session> mIpv6Sessions;
     private final UidDumper mDumper;
 
     /**
@@ -43,23 +53,43 @@ public final class SessionProvider {
      */
     public SessionProvider(UidDumper dumper) {
         this.mSessions = new ConcurrentHashMap<>(MAX_SESSION);
+        this.mIpv6Sessions = new LinkedHashMap<Ipv6SessionKey, Session>(MAX_SESSION, 0.75f,
+                true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Ipv6SessionKey, Session> eldest) {
+                return size() > MAX_IPV6_SESSION;
+            }
+        };
         this.mDumper = dumper;
     }
 
     /**
-     * Query a session by local VPN port.
+     * Query an IPv4 session by local VPN port.
      *
      * @param localPort The local VPN port.
      * @return The instance of {@link Session} if it exists, or null.
      */
     @Nullable
     public Session query(short localPort) {
-        Session session = mSessions.get(localPort);
-        if (mDumper != null && session != null && session.uid == 0) {
-            // Query uid again.
-            mDumper.request(session);
+        return onQueried(mSessions.get(localPort));
+    }
+
+    /**
+     * Query an IPv6 session by local VPN port and remote server IPv6 address.
+     *
+     * @param localPort The local VPN port.
+     * @param remoteIp6High The high 64 bits of the remote server IPv6 address.
+     * @param remoteIp6Low The low 64 bits of the remote server IPv6 address.
+     * @return The instance of {@link Session} if it exists, or null.
+     */
+    @Nullable
+    public Session query(short localPort, long remoteIp6High, long remoteIp6Low) {
+        Session session;
+        synchronized (mIpv6Sessions) {
+            session = mIpv6Sessions.get(new Ipv6SessionKey(localPort, (short) 0, remoteIp6High,
+                    remoteIp6Low));
         }
-        return session;
+        return onQueried(session);
     }
 
     /**
@@ -81,14 +111,100 @@ public final class SessionProvider {
             }
         }
         if (session == null) {
-            session = new Session(protocol, localPort, remotePort, remoteIp);
+            session = create(protocol, localPort, remotePort, remoteIp);
             mSessions.put(localPort, session);
-            // Dump uid from /proc/net/
-            if (mDumper != null) {
-                mDumper.request(session);
+        }
+        return session;
+    }
+
+    /**
+     * Query or create a session by protocol, ports and remote server IPv6 address. IPv6 sessions
+     * are indexed by the local port and the full remote address, apart from IPv4 sessions.
+     *
+     * @param protocol IP protocol.
+     * @param localPort Local VPN port.
+     * @param remotePort Remote server port.
+     * @param remoteIp6High The high 64 bits of the remote server IPv6 address.
+     * @param remoteIp6Low The low 64 bits of the remote server IPv6 address.
+     * @return An instance of {@link Session}, if the instance not exists, will create a new one.
+     */
+    @NonNull
+    public Session ensureQuery(Protocol protocol, short localPort, short remotePort,
+                               long remoteIp6High, long remoteIp6Low) {
+        Ipv6SessionKey key = new Ipv6SessionKey(localPort, (short) 0, remoteIp6High,
+                remoteIp6Low);
+        Session session;
+        synchronized (mIpv6Sessions) {
+            session = mIpv6Sessions.get(key);
+        }
+        if (session != null) {
+            if (session.protocol != protocol || session.remotePort != remotePort) {
+                session = null;
+            }
+        }
+        if (session == null) {
+            session = create(protocol, localPort, remotePort, remoteIp6High, remoteIp6Low);
+            synchronized (mIpv6Sessions) {
+                mIpv6Sessions.put(key, session);
             }
         }
         return session;
     }
 
+    /**
+     * Create a session not indexed by the local port, the caller keeps it. It is used by the
+     * protocols whose flows share a local port, such as UDP.
+     *
+     * @param protocol IP protocol.
+     * @param localPort Local VPN port.
+     * @param remotePort Remote server port.
+     * @param remoteIp Remote server IP.
+     * @return A new instance of {@link Session}.
+     */
+    @NonNull
+    public Session create(Protocol protocol, short localPort, short remotePort, int remoteIp) {
+        Session session = new Session(protocol, localPort, remotePort, remoteIp);
+        // The host name resolved by DNS, SNI or the HTTP host header overrides it later.
+        session.host = ResolvedHosts.get().query(remoteIp);
+        onCreated(session);
+        return session;
+    }
+
+    /**
+     * Create an IPv6 session not indexed by the local port, the caller keeps it.
+     *
+     * @param protocol IP protocol.
+     * @param localPort Local VPN port.
+     * @param remotePort Remote server port.
+     * @param remoteIp6High The high 64 bits of the remote server IPv6 address.
+     * @param remoteIp6Low The low 64 bits of the remote server IPv6 address.
+     * @return A new instance of {@link Session}.
+     */
+    @NonNull
+    public Session create(Protocol protocol, short localPort, short remotePort,
+                          long remoteIp6High, long remoteIp6Low) {
+        Session session = new Session(protocol, localPort, remotePort, remoteIp6High,
+                remoteIp6Low);
+        NetBareTrace.record(NetBareTrace.EVENT_IPV6_SESSION, NetBareTrace.session(session),
+                remoteIp6High, remoteIp6Low);
+        onCreated(session);
+        return session;
+    }
+
+    private Session onQueried(Session session) {
+        if (mDumper != null && session != null && session.uid == 0) {
+            // Query uid again.
+            mDumper.request(session);
+        }
+        return session;
+    }
+
+    private void onCreated(Session session) {
+        Metrics.get().onSessionCreated();
+        // Dump uid from /proc/net/
+        if (mDumper != null) {
+            mDumper.request(session);
+        }
+    }
+
 }
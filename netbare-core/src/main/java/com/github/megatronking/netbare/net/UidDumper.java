@@ -15,67 +15,90 @@
  */
 package com.github.megatronking.netbare.net;
 
-import android.text.TextUtils;
-import android.util.ArrayMap;
+import android.os.SystemClock;
 
 import com.github.megatronking.netbare.NetBareConfig;
 import com.github.megatronking.netbare.NetBareUtils;
 import com.github.megatronking.netbare.ip.Protocol;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A dumper analyzes /proc/net/ files to dump uid of the network session. This class may be a
  * battery-killer, but can set {@link NetBareConfig.Builder#dumpUid} to false to close the dumper.
  *
+ * The files are parsed on a background thread, see {@link ProcNetIndexer}. A request never blocks
+ * the caller, the uid might be set to the session later.
+ *
+ * Results are cached by protocol, local port, remote ip and remote port. A resolved entry lives
+ * as long as its connection is active, it expires after being idle for a while. A failed lookup
+ * is cached for a short backoff which grows on repeated failures, and concurrent requests of the
+ * same connection share one lookup.
+ *
  * @author Megatron King
  * @since 2018-12-03 16:54
  */
 public final class UidDumper {
 
-    private static final int NET_ALIVE_SECONDS = 15;
-    private static final int NET_CONCURRENCY_LEVEL = 6;
-    private static final int NET_MAX_SIZE = 100;
+    private static final int MAX_CACHE_SIZE = 512;
+
+    /**
+     * Resolved entries expire after being idle for this duration, UDP has no connection state so
+     * the entries expire earlier.
+     */
+    private static final long TCP_IDLE_TIMEOUT = 5 * 60 * 1000;
+    private static final long UDP_IDLE_TIMEOUT = 60 * 1000;
 
-    private static final Pattern IPV4_PATTERN = Pattern.compile("\\s+\\d+:\\s([0-9A-F]{8}):" +
-            "([0-9A-F]{4})\\s([0-9A-F]{8}):([0-9A-F]{4})\\s([0-9A-F]{2})\\s[0-9A-F]{8}:[0-9A-F]{8}" +
-            "\\s[0-9A-F]{2}:[0-9A-F]{8}\\s[0-9A-F]{8}\\s+([0-9A-F]+)", Pattern.CASE_INSENSITIVE
-            | Pattern.UNIX_LINES);
-    private static final Pattern IPV6_PATTERN = Pattern.compile("\\s+\\d+:\\s([0-9A-F]{32}):" +
-            "([0-9A-F]{4})\\s([0-9A-F]{32}):([0-9A-F]{4})\\s([0-9A-F]{2})\\s[0-9A-F]{8}:[0-9A-F]{8}" +
-            "\\s[0-9A-F]{2}:[0-9A-F]{8}\\s[0-9A-F]{8}\\s+([0-9A-F]+)", Pattern.CASE_INSENSITIVE
-            | Pattern.UNIX_LINES);
+    /**
+     * The backoff of failed lookups, doubles on each consecutive failure.
+     */
+    private static final long MIN_FAILURE_BACKOFF = 1000;
+    private static final long MAX_FAILURE_BACKOFF = 16 * 1000;
 
-    private final Cache<Integer, Net> mNetCaches;
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_RESOLVED = 1;
+    private static final int STATE_FAILED = 2;
 
     private final UidProvider mUidProvider;
-    private final ArrayMap<Protocol, NetDumper[]> mDumpers;
+    private final ProcNetIndexer mIndexer;
+
+    private final Map<Object, CacheEntry> mTcpEntries;
+    private final Map<Object, CacheEntry> mUdpEntries;
+
+    private long mHitCount;
+    private long mMissCount;
 
     public UidDumper(String localIp, UidProvider provider) {
+        this(localIp, null, provider);
+    }
+
+    /**
+     * Constructs a dumper for a VPN interface with both IPv4 and IPv6 addresses.
+     *
+     * @param localIp The VPN IPv4 address.
+     * @param localIp6 The VPN IPv6 address, null if there is no IPv6 address.
+     * @param provider A provider to resolve the uid by another way, can be null.
+     */
+    public UidDumper(String localIp, String localIp6, UidProvider provider) {
         this.mUidProvider = provider;
-        this.mNetCaches = CacheBuilder.newBuilder()
-                .expireAfterAccess(NET_ALIVE_SECONDS, TimeUnit.SECONDS)
-                .concurrencyLevel(NET_CONCURRENCY_LEVEL)
-                .maximumSize(NET_MAX_SIZE)
-                .build();
-        this.mDumpers = new ArrayMap<>(2);
-        this.mDumpers.put(Protocol.TCP, new NetDumper[]{
-                new NetDumper("/proc/net/tcp6", localIp, IPV6_PATTERN),
-                new NetDumper("/proc/net/tcp", localIp, IPV4_PATTERN)});
-        this.mDumpers.put(Protocol.UDP, new NetDumper[] {
-                new NetDumper("/proc/net/udp6", localIp, IPV6_PATTERN),
-                new NetDumper("/proc/net/udp", localIp, IPV4_PATTERN)});
+        this.mIndexer = new ProcNetIndexer(NetBareUtils.convertIp(localIp),
+                localIp6 != null ? NetBareUtils.convertIp6(localIp6) : null,
+                new ProcNetIndexer.Callback() {
+                    @Override
+                    public void onResolved(Session session, int uid) {
+                        resolve(session, uid);
+                    }
+
+                    @Override
+                    public void onFailed(Session session) {
+                        fail(session);
+                    }
+                });
+        this.mTcpEntries = newLruMap();
+        this.mUdpEntries = newLruMap();
     }
 
     public void request(final Session session) {
@@ -90,107 +113,163 @@ public final class UidDumper {
         if (NetBareUtils.isAndroidQ()) {
             return;
         }
-        final int port = NetBareUtils.convertPort(session.localPort);
-        try {
-            Net net = mNetCaches.get(session.remoteIp, new Callable<Net>() {
-                @Override
-                public Net call() throws Exception {
-                    NetDumper[] dumpers = mDumpers.get(session.protocol);
-                    if (dumpers == null) {
-                        throw new Exception();
-                    }
-                    for (NetDumper dumper : dumpers) {
-                        Net net = dumper.dump(port);
-                        if (net != null) {
-                            return net;
+        Map<Object, CacheEntry> entries = entries(session.protocol);
+        if (entries == null) {
+            return;
+        }
+        Object key = key(session);
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                switch (entry.state) {
+                    case STATE_RESOLVED:
+                        if (now < entry.expireTime) {
+                            entry.expireTime = now + idleTimeout(session.protocol);
+                            session.uid = entry.uid;
+                            mHitCount++;
+                            return;
                         }
-                    }
-                    // No find the uid.
-                    throw new Exception();
+                        break;
+                    case STATE_FAILED:
+                        if (now < entry.expireTime) {
+                            mHitCount++;
+                            return;
+                        }
+                        break;
+                    default:
+                        // A lookup of the same connection is in flight, wait for its result.
+                        if (!entry.sessions.contains(session)) {
+                            entry.sessions.add(session);
+                        }
+                        mHitCount++;
+                        return;
                 }
-            });
-            if (net != null) {
-                session.uid = net.uid;
+            } else {
+                entry = new CacheEntry();
+                entries.put(key, entry);
             }
-        } catch (ExecutionException e) {
-            // Not find the uid
+            mMissCount++;
+            entry.state = STATE_PENDING;
+            entry.sessions.add(session);
+        }
+        if (mIndexer.request(session)) {
+            resolve(session, session.uid);
         }
     }
 
-    private static class NetDumper {
+    /**
+     * Returns the count of requests served from the cache, including the ones joined an in-flight
+     * lookup and the ones in the failure backoff.
+     *
+     * @return The cache hit count.
+     */
+    public synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the count of requests that started a new lookup.
+     *
+     * @return The cache miss count.
+     */
+    public synchronized long missCount() {
+        return mMissCount;
+    }
 
-        private static final long MAX_DUMP_DURATION = 100;
+    /**
+     * Stop the background indexer, pending requests are dropped.
+     */
+    public void release() {
+        mIndexer.stop();
+        synchronized (this) {
+            mTcpEntries.clear();
+            mUdpEntries.clear();
+        }
+    }
 
-        private String mArgs;
-        private String mLocalIp;
-        private Pattern mPattern;
+    private synchronized void resolve(Session session, int uid) {
+        CacheEntry entry = pendingEntry(session);
+        if (entry == null) {
+            return;
+        }
+        entry.state = STATE_RESOLVED;
+        entry.uid = uid;
+        entry.failures = 0;
+        entry.expireTime = SystemClock.elapsedRealtime() + idleTimeout(session.protocol);
+        for (Session waiter : entry.sessions) {
+            waiter.uid = uid;
+        }
+        entry.sessions.clear();
+    }
 
-        private NetDumper(String args, String localIp, Pattern pattern) {
-            this.mArgs = args;
-            this.mLocalIp = localIp;
-            this.mPattern = pattern;
+    private synchronized void fail(Session session) {
+        CacheEntry entry = pendingEntry(session);
+        if (entry == null) {
+            return;
         }
+        long backoff = Math.min(MIN_FAILURE_BACKOFF << Math.min(entry.failures, 16),
+                MAX_FAILURE_BACKOFF);
+        entry.state = STATE_FAILED;
+        entry.failures++;
+        entry.expireTime = SystemClock.elapsedRealtime() + backoff;
+        entry.sessions.clear();
+    }
 
-        private Net dump(int port) {
-            InputStream is = null;
-            BufferedReader reader = null;
-            try {
-                is = new FileInputStream(mArgs);
-                reader = new BufferedReader(new InputStreamReader(is));
-                long now = System.currentTimeMillis();
-                while (System.currentTimeMillis() - now < MAX_DUMP_DURATION) {
-                    String line;
-                    try {
-                        line = reader.readLine();
-                    } catch (IOException e) {
-                        continue;
-                    }
-                    if (line == null || TextUtils.isEmpty(line.trim())) {
-                        continue;
-                    }
-                    Matcher matcher = mPattern.matcher(line);
-                    while (matcher.find()) {
-                        int uid = NetBareUtils.parseInt(matcher.group(6), -1);
-                        if (uid <= 0) {
-                            continue;
-                        }
-                        int localPort = parsePort(matcher.group(2));
-                        if (localPort != port) {
-                            continue;
-                        }
-                        String localIp = parseIp(matcher.group(1));
-                        if (localIp == null || !localIp.equals(mLocalIp)) {
-                            continue;
-                        }
-                        String remoteIp = parseIp(matcher.group(3));
-                        int remotePort = parsePort(matcher.group(4));
-                        return new Net(uid, localIp, localPort, remoteIp, remotePort);
-                    }
-                }
-            } catch (IOException e) {
-                // Ignore
-            } finally {
-                NetBareUtils.closeQuietly(is);
-                NetBareUtils.closeQuietly(reader);
-            }
+    private CacheEntry pendingEntry(Session session) {
+        Map<Object, CacheEntry> entries = entries(session.protocol);
+        if (entries == null) {
             return null;
         }
+        CacheEntry entry = entries.get(key(session));
+        // The entry might be evicted or released.
+        return entry != null && entry.state == STATE_PENDING ? entry : null;
+    }
 
-        private String parseIp(String ip) {
-            ip = ip.substring(ip.length() - 8);
-            int ip1 = NetBareUtils.parseInt(ip.substring(6, 8), 16, -1);
-            int ip2 = NetBareUtils.parseInt(ip.substring(4, 6), 16, -1);
-            int ip3 = NetBareUtils.parseInt(ip.substring(2, 4), 16, -1);
-            int ip4 = NetBareUtils.parseInt(ip.substring(0, 2), 16, -1);
-            if (ip1 < 0 || ip2 < 0 || ip3 < 0 || ip4 < 0) {
-                return null;
-            }
-            return ip1 + "." + ip2 + "." + ip3 + "." + ip4;
+    private Map<Object, CacheEntry> entries(Protocol protocol) {
+        if (protocol == Protocol.TCP) {
+            return mTcpEntries;
+        } else if (protocol == Protocol.UDP) {
+            return mUdpEntries;
+        } else {
+            return null;
         }
+    }
 
-        private int parsePort(String port) {
-            return NetBareUtils.parseInt(port, 16, -1);
+    private static long idleTimeout(Protocol protocol) {
+        return protocol == Protocol.TCP ? TCP_IDLE_TIMEOUT : UDP_IDLE_TIMEOUT;
+    }
+
+    private static Object key(Session session) {
+        if (session.ipv6) {
+            return new Ipv6SessionKey(session.localPort, session.remotePort,
+                    session.remoteIp6High, session.remoteIp6Low);
         }
+        return ((long) (session.localPort & 0xFFFF) << 48)
+                | ((long) (session.remotePort & 0xFFFF) << 32)
+                | (session.remoteIp & 0xFFFFFFFFL);
+    }
+
+    private static Map<Object, CacheEntry> newLruMap() {
+        return new LinkedHashMap<Object, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, CacheEntry> eldest) {
+                return size() > MAX_CACHE_SIZE;
+            }
+        };
+    }
+
+    private static final class CacheEntry {
+
+        private int state;
+        private int uid;
+        private int failures;
+        private long expireTime;
+
+        /**
+         * Sessions waiting for the in-flight lookup.
+         */
+        private final List<Session> sessions = new ArrayList<>(1);
 
     }
 
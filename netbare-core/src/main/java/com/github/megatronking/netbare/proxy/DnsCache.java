@@ -0,0 +1,160 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.proxy;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The DNS responses cached by the query keys. An entry lives as long as the smallest TTL of its
+ * records, capped by {@link #MAX_TTL} or {@link #MAX_NEGATIVE_TTL} for the negative responses.
+ * The answers are copies of the cached response with the query id and the aged TTLs. The least
+ * recently used entry is evicted when the cache is full.
+ *
+ * The cache is confined to the server thread.
+ *
+ * @author Megatron King
+ * @since 2019-04-20 10:48
+ */
+/* package */ final class DnsCache {
+
+    private static final int MAX_ENTRIES = 1024;
+
+    /**
+     * The max seconds to cache a response, the records might be stale after a network change.
+     */
+    private static final int MAX_TTL = 60 * 60;
+    private static final int MAX_NEGATIVE_TTL = 5 * 60;
+
+    /**
+     * An entry is prefetched when it was hit so many times and only the last 1/10 of its TTL is
+     * left.
+     */
+    private static final int PREFETCH_HITS = 3;
+    private static final int PREFETCH_RATIO = 10;
+
+    private final Map<String, Entry> mEntries;
+
+    /* package */ DnsCache() {
+        this.mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Query an unexpired entry and count the hit.
+     *
+     * @param key The query key.
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     * @return The entry, or null if it doesn't exist or it is expired.
+     */
+    /* package */ Entry get(String key, long now) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (now >= entry.expireTime) {
+            mEntries.remove(key);
+            return null;
+        }
+        entry.hits++;
+        return entry;
+    }
+
+    /**
+     * Cache a response if it is cacheable.
+     *
+     * @param key The query key.
+     * @param response The parsed response.
+     * @param data The response array, it is kept by the cache.
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     */
+    /* package */ void put(String key, DnsMessage response, byte[] data, long now) {
+        int ttl = Math.min(response.ttl, response.negative ? MAX_NEGATIVE_TTL : MAX_TTL);
+        if (ttl <= 0) {
+            mEntries.remove(key);
+            return;
+        }
+        mEntries.put(key, new Entry(data, response.ttlOffsets, ttl, now));
+        if (mEntries.size() > MAX_ENTRIES) {
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Whether a hit entry is hot and about to expire, it should be refreshed before that.
+     *
+     * @param entry A hit entry.
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     * @return True if it should be prefetched, the entry is marked as prefetched.
+     */
+    /* package */ boolean shouldPrefetch(Entry entry, long now) {
+        if (entry.prefetched || entry.hits < PREFETCH_HITS
+                || (entry.expireTime - now) * PREFETCH_RATIO > entry.ttl * 1000L) {
+            return false;
+        }
+        entry.prefetched = true;
+        return true;
+    }
+
+    /**
+     * Build an answer from a cached entry, the TTLs are decreased by the cached time.
+     *
+     * @param entry The cached entry.
+     * @param id The query id.
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     * @return A new response array.
+     */
+    /* package */ byte[] answer(Entry entry, int id, long now) {
+        byte[] data = entry.data.clone();
+        DnsMessage.writeShort(data, 0, id);
+        int elapsed = (int) ((now - entry.storeTime) / 1000);
+        if (elapsed > 0) {
+            for (int offset : entry.ttlOffsets) {
+                long ttl = DnsMessage.readInt(entry.data, offset) & 0xFFFFFFFFL;
+                DnsMessage.writeInt(data, offset, (int) Math.max(0, ttl - elapsed));
+            }
+        }
+        return data;
+    }
+
+    /* package */ void clear() {
+        mEntries.clear();
+    }
+
+    /* package */ static final class Entry {
+
+        private final byte[] data;
+        private final int[] ttlOffsets;
+        private final int ttl;
+        private final long storeTime;
+        private final long expireTime;
+
+        private int hits;
+        private boolean prefetched;
+
+        private Entry(byte[] data, int[] ttlOffsets, int ttl, long now) {
+            this.data = data;
+            this.ttlOffsets = ttlOffsets;
+            this.ttl = ttl;
+            this.storeTime = now;
+            this.expireTime = now + ttl * 1000L;
+        }
+
+    }
+
+}
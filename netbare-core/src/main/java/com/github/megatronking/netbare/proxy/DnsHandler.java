@@ -0,0 +1,389 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.proxy;
+
+import android.os.SystemClock;
+
+import com.github.megatronking.netbare.NetBareLog;
+import com.github.megatronking.netbare.NetBareUtils;
+import com.github.megatronking.netbare.SocketProtector;
+import com.github.megatronking.netbare.ip.Ipv6Header;
+import com.github.megatronking.netbare.ip.UdpHeader;
+import com.github.megatronking.netbare.ip.UdpPacketBuilder;
+import com.github.megatronking.netbare.metrics.Metrics;
+import com.github.megatronking.netbare.net.ResolvedHosts;
+import com.github.megatronking.netbare.tunnel.NioCallback;
+import com.github.megatronking.netbare.tunnel.NioTunnel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Handles the DNS queries of {@link UdpProxyServer}: the queries to port 53 or to the configured
+ * DNS servers. A query is answered from the {@link DnsCache} if possible, otherwise it is sent to
+ * the server it is addressed to through one shared datagram channel, and the identical queries
+ * on the way wait for the same response instead of going upstream again. The servers may answer
+ * the same question differently, the cache and the queries on the way are kept per server. The hot entries are
+ * refreshed before they expire. The resolved IPv4 addresses are put into {@link ResolvedHosts}.
+ *
+ * Messages that are not standard queries are left to the UDP flows. The handler is confined to
+ * the server thread.
+ *
+ * @author Megatron King
+ * @since 2019-04-20 14:16
+ */
+/* package */ final class DnsHandler implements NioCallback {
+
+    private static final short DNS_PORT = 53;
+
+    /**
+     * A query without response is resent after the retry interval and dropped after the timeout,
+     * the client retries itself.
+     */
+    private static final long RETRY_INTERVAL = 1000;
+    private static final long QUERY_TIMEOUT = 5000;
+
+    private static final int MAX_QUERIES = 256;
+    private static final int MAX_WAITERS = 32;
+    private static final int MAX_READ_BATCH = 32;
+
+    private final SocketProtector mProtector;
+    private final Selector mSelector;
+    private final int mMtu;
+    private final Set<Integer> mServers;
+
+    private final DnsCache mCache;
+    private final Map<String, Query> mQueries;
+    private final Map<Integer, Query> mUpstreamIds;
+    private final Random mRandom;
+
+    private DatagramChannel mChannel;
+    private ByteBuffer mReadBuffer;
+
+    /* package */ DnsHandler(SocketProtector protector, Selector selector, int mtu,
+                             Set<String> servers) {
+        this.mProtector = protector;
+        this.mSelector = selector;
+        this.mMtu = mtu;
+        this.mServers = new HashSet<>();
+        for (String server : servers) {
+            // IPv6 servers are accepted by the port.
+            if (!server.contains(":")) {
+                mServers.add(NetBareUtils.convertIp(server));
+            }
+        }
+        this.mCache = new DnsCache();
+        this.mQueries = new HashMap<>();
+        this.mUpstreamIds = new HashMap<>();
+        this.mRandom = new Random();
+    }
+
+    /**
+     * Whether a UDP packet is sent to a DNS server.
+     *
+     * @param remoteIp The remote server ip.
+     * @param remotePort The remote server port.
+     * @return True if the packet should go through {@link #handle}.
+     */
+    /* package */ boolean accept(int remoteIp, short remotePort) {
+        return remotePort == DNS_PORT || mServers.contains(remoteIp);
+    }
+
+    /**
+     * Whether an IPv6 UDP packet is sent to a DNS server, only the port is checked.
+     *
+     * @param remotePort The remote server port.
+     * @return True if the packet should go through {@link #handle}.
+     */
+    /* package */ boolean accept(short remotePort) {
+        return remotePort == DNS_PORT;
+    }
+
+    /**
+     * Handle a DNS query from the VPN.
+     *
+     * @param header The UDP header of the query packet, it is kept until answered.
+     * @param output The VPN output stream to write the answers.
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     * @return False if the packet is not a standard query, it can't be sent or too many queries
+     * are waiting for the same answer, it should go through a UDP flow.
+     */
+    /* package */ boolean handle(UdpHeader header, OutputStream output, long now) {
+        byte[] data = header.data().array();
+        DnsMessage query = DnsMessage.parseQuery(data, 0, data.length);
+        if (query == null) {
+            return false;
+        }
+        InetSocketAddress server = server(header);
+        String key = query.key + '@' + server;
+        DnsCache.Entry entry = mCache.get(key, now);
+        if (entry != null) {
+            answer(header, output, mCache.answer(entry, query.id, now));
+            if (mCache.shouldPrefetch(entry, now) && !mQueries.containsKey(key)) {
+                // Nobody waits for the refreshed response.
+                send(new Query(query, key, server, now), data, now);
+            }
+            return true;
+        }
+        Query pending = mQueries.get(key);
+        if (pending != null) {
+            if (pending.waiters.size() >= MAX_WAITERS) {
+                // Don't lose the query, send it through a UDP flow.
+                return false;
+            }
+            pending.addWaiter(new Waiter(header, query.id, output));
+            if (now - pending.sendTime >= RETRY_INTERVAL) {
+                resend(pending, now);
+            }
+            return true;
+        }
+        if (mQueries.size() >= MAX_QUERIES) {
+            return false;
+        }
+        Query newQuery = new Query(query, key, server, now);
+        newQuery.addWaiter(new Waiter(header, query.id, output));
+        return send(newQuery, data, now);
+    }
+
+    /**
+     * Drop the queries without response in time.
+     *
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     */
+    /* package */ void sweep(long now) {
+        Iterator<Query> iterator = mQueries.values().iterator();
+        while (iterator.hasNext()) {
+            Query query = iterator.next();
+            if (now - query.startTime >= QUERY_TIMEOUT) {
+                iterator.remove();
+                mUpstreamIds.remove(query.upstreamId);
+            }
+        }
+    }
+
+    /* package */ boolean isIdle() {
+        return mQueries.isEmpty();
+    }
+
+    /* package */ void close() {
+        mQueries.clear();
+        mUpstreamIds.clear();
+        mCache.clear();
+        NetBareUtils.closeQuietly(mChannel);
+        mChannel = null;
+    }
+
+    @Override
+    public void onConnected() {
+    }
+
+    @Override
+    public void onRead() throws IOException {
+        long now = SystemClock.elapsedRealtime();
+        for (int i = 0; i < MAX_READ_BATCH; i++) {
+            ByteBuffer buffer = mReadBuffer;
+            buffer.clear();
+            SocketAddress source = mChannel.receive(buffer);
+            if (source == null) {
+                return;
+            }
+            Metrics.get().onDataReceived(buffer.position());
+            onResponse(source, buffer.array(), buffer.position(), now);
+        }
+    }
+
+    @Override
+    public void onWrite() {
+    }
+
+    @Override
+    public void onClosed() {
+        NetBareLog.w("[DNS]Channel is closed, %d queries are dropped.", mQueries.size());
+        mQueries.clear();
+        mUpstreamIds.clear();
+        NetBareUtils.closeQuietly(mChannel);
+        mChannel = null;
+    }
+
+    @Override
+    public NioTunnel getTunnel() {
+        return null;
+    }
+
+    private void onResponse(SocketAddress source, byte[] data, int length, long now) {
+        DnsMessage response = DnsMessage.parseResponse(data, 0, length);
+        if (response == null) {
+            return;
+        }
+        Query query = mUpstreamIds.get(response.id);
+        if (query == null || !query.server.equals(source)
+                || !query.message.question.equals(response.question)) {
+            // A late response of a dropped query, or a spoofed one.
+            return;
+        }
+        mUpstreamIds.remove(response.id);
+        mQueries.remove(query.key);
+
+        byte[] message = Arrays.copyOf(data, length);
+        mCache.put(query.key, response, message, now);
+        if (response.ttl > 0) {
+            for (int address : response.addresses) {
+                ResolvedHosts.get().put(address, query.message.name, response.ttl);
+            }
+        }
+        for (Waiter waiter : query.waiters) {
+            byte[] answer = message.clone();
+            DnsMessage.writeShort(answer, 0, waiter.id);
+            answer(waiter.header, waiter.output, answer);
+        }
+    }
+
+    private boolean send(Query query, byte[] data, long now) {
+        try {
+            if (mChannel == null) {
+                open();
+            }
+            int upstreamId;
+            do {
+                upstreamId = mRandom.nextInt(0x10000);
+            } while (mUpstreamIds.containsKey(upstreamId));
+            // The clients' ids may collide, the upstream query has its own id.
+            DnsMessage.writeShort(data, 0, upstreamId);
+            query.upstreamId = upstreamId;
+            query.request = data;
+            mChannel.send(ByteBuffer.wrap(data), query.server);
+            Metrics.get().onPacketSent(data.length);
+        } catch (IOException e) {
+            NetBareLog.e("[DNS]Failed to send the query: " + e.getMessage());
+            return false;
+        }
+        query.sendTime = now;
+        mQueries.put(query.key, query);
+        mUpstreamIds.put(query.upstreamId, query);
+        return true;
+    }
+
+    private void resend(Query query, long now) {
+        try {
+            mChannel.send(ByteBuffer.wrap(query.request), query.server);
+            Metrics.get().onPacketSent(query.request.length);
+            query.sendTime = now;
+        } catch (IOException e) {
+            NetBareLog.e("[DNS]Failed to resend the query: " + e.getMessage());
+        }
+    }
+
+    private void open() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (!mProtector.protect(channel.socket())) {
+                throw new IOException("[DNS]Can not protect the socket.");
+            }
+            channel.configureBlocking(false);
+            channel.register(mSelector, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            NetBareUtils.closeQuietly(channel);
+            throw e;
+        }
+        mChannel = channel;
+        mReadBuffer = ByteBuffer.allocate(mMtu);
+    }
+
+    private static InetSocketAddress server(UdpHeader header) {
+        Ipv6Header ipv6Header = header.getIpv6Header();
+        String ip = ipv6Header != null ? NetBareUtils.convertIp6(
+                ipv6Header.getDestinationIpHigh(), ipv6Header.getDestinationIpLow())
+                : NetBareUtils.convertIp(header.getIpHeader().getDestinationIp());
+        return new InetSocketAddress(ip, NetBareUtils.convertPort(header.getDestinationPort()));
+    }
+
+    private void answer(UdpHeader request, OutputStream output, byte[] response) {
+        UdpPacketBuilder builder = new UdpPacketBuilder(request, mMtu);
+        int length = builder.build(ByteBuffer.wrap(response));
+        try {
+            output.write(builder.packet(), 0, length);
+        } catch (IOException e) {
+            NetBareLog.e("[DNS]Failed to write the answer: " + e.getMessage());
+        }
+    }
+
+    private static final class Query {
+
+        private final DnsMessage message;
+
+        /**
+         * The query key with the server.
+         */
+        private final String key;
+        private final InetSocketAddress server;
+        private final long startTime;
+        private final List<Waiter> waiters;
+
+        private int upstreamId;
+        private byte[] request;
+        private long sendTime;
+
+        private Query(DnsMessage message, String key, InetSocketAddress server, long now) {
+            this.message = message;
+            this.key = key;
+            this.server = server;
+            this.startTime = now;
+            this.waiters = new ArrayList<>(1);
+        }
+
+        private void addWaiter(Waiter waiter) {
+            for (Waiter w : waiters) {
+                if (w.id == waiter.id
+                        && w.header.getSourcePort() == waiter.header.getSourcePort()) {
+                    // A retransmission of the client.
+                    return;
+                }
+            }
+            waiters.add(waiter);
+        }
+
+    }
+
+    private static final class Waiter {
+
+        private final UdpHeader header;
+        private final int id;
+        private final OutputStream output;
+
+        private Waiter(UdpHeader header, int id, OutputStream output) {
+            this.header = header;
+            this.id = id;
+            this.output = output;
+        }
+
+    }
+
+}
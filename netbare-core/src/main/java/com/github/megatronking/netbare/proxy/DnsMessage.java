@@ -0,0 +1,305 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A parsed DNS message, only the parts needed by {@link DnsHandler} are kept: the id, the question
+ * and, for responses, the TTLs and the IPv4 addresses. See https://tools.ietf.org/html/rfc1035
+ *
+ * @author Megatron King
+ * @since 2019-04-20 10:05
+ */
+/* package */ final class DnsMessage {
+
+    /* package */ static final int HEADER_LENGTH = 12;
+
+    private static final int TYPE_A = 1;
+    private static final int TYPE_SOA = 6;
+    private static final int TYPE_OPT = 41;
+    private static final int CLASS_IN = 1;
+
+    private static final int FLAG_QR = 0x8000;
+    private static final int FLAG_TC = 0x0200;
+    private static final int FLAG_RD = 0x0100;
+    private static final int FLAG_CD = 0x0010;
+    private static final int MASK_OPCODE = 0x7800;
+    private static final int MASK_RCODE = 0x000F;
+    private static final int EDNS_FLAG_DO = 0x8000;
+
+    private static final int RCODE_NOERROR = 0;
+    private static final int RCODE_NXDOMAIN = 3;
+
+    private static final int MAX_NAME_LENGTH = 255;
+
+    /**
+     * The message id.
+     */
+    /* package */ final int id;
+
+    /**
+     * The question name in lower case, without the trailing dot.
+     */
+    /* package */ final String name;
+
+    /**
+     * The question, name, type and class.
+     */
+    /* package */ final String question;
+
+    /**
+     * The cache key of a query, the question and the flags change the answer.
+     */
+    /* package */ final String key;
+
+    /**
+     * The TTL in seconds to cache a response, 0 means not cacheable.
+     */
+    /* package */ int ttl;
+
+    /**
+     * Whether a response is a NXDOMAIN or NODATA response.
+     */
+    /* package */ boolean negative;
+
+    /**
+     * The offsets of the TTL fields in a response, they are aged when answered from the cache.
+     */
+    /* package */ int[] ttlOffsets;
+
+    /**
+     * The IPv4 addresses in the answer section of a response.
+     */
+    /* package */ List<Integer> addresses;
+
+    private DnsMessage(int id, String name, String question, String key) {
+        this.id = id;
+        this.name = name;
+        this.question = question;
+        this.key = key;
+    }
+
+    /**
+     * Parse a standard query with one question.
+     *
+     * @param data The message array.
+     * @param offset The message offset.
+     * @param length The message length.
+     * @return The query, or null if it is not a standard query.
+     */
+    /* package */ static DnsMessage parseQuery(byte[] data, int offset, int length) {
+        if (length < HEADER_LENGTH) {
+            return null;
+        }
+        int flags = readShort(data, offset + 2);
+        if ((flags & FLAG_QR) != 0 || (flags & MASK_OPCODE) != 0
+                || readShort(data, offset + 4) != 1 || readShort(data, offset + 6) != 0
+                || readShort(data, offset + 8) != 0 || readShort(data, offset + 10) > 1) {
+            return null;
+        }
+        int end = offset + length;
+        StringBuilder name = new StringBuilder();
+        int position = readName(data, offset, offset + HEADER_LENGTH, end, name);
+        if (position < 0 || position + 4 > end) {
+            return null;
+        }
+        int type = readShort(data, position);
+        int clazz = readShort(data, position + 2);
+        position += 4;
+        int keyFlags = (flags & (FLAG_RD | FLAG_CD));
+        if (readShort(data, offset + 10) == 1) {
+            // The EDNS record decides the response size and the DNSSEC records.
+            if (position + 11 > end || data[position] != 0
+                    || readShort(data, position + 1) != TYPE_OPT) {
+                return null;
+            }
+            keyFlags |= 1 | (readShort(data, position + 7) & EDNS_FLAG_DO);
+        }
+        String lowerName = name.toString().toLowerCase(Locale.US);
+        String question = lowerName + '/' + type + '/' + clazz;
+        return new DnsMessage(readShort(data, offset), lowerName, question,
+                question + '/' + keyFlags);
+    }
+
+    /**
+     * Parse a response, the TTL is 0 if the response is not cacheable.
+     *
+     * @param data The message array.
+     * @param offset The message offset.
+     * @param length The message length.
+     * @return The response, or null if it is malformed.
+     */
+    /* package */ static DnsMessage parseResponse(byte[] data, int offset, int length) {
+        if (length < HEADER_LENGTH) {
+            return null;
+        }
+        int flags = readShort(data, offset + 2);
+        if ((flags & FLAG_QR) == 0 || readShort(data, offset + 4) != 1) {
+            return null;
+        }
+        int end = offset + length;
+        StringBuilder name = new StringBuilder();
+        int position = readName(data, offset, offset + HEADER_LENGTH, end, name);
+        if (position < 0 || position + 4 > end) {
+            return null;
+        }
+        String lowerName = name.toString().toLowerCase(Locale.US);
+        String question = lowerName + '/' + readShort(data, position) + '/'
+                + readShort(data, position + 2);
+        position += 4;
+        DnsMessage response = new DnsMessage(readShort(data, offset), lowerName, question,
+                null);
+
+        int answerCount = readShort(data, offset + 6);
+        int authorityEnd = answerCount + readShort(data, offset + 8);
+        int recordCount = authorityEnd + readShort(data, offset + 10);
+        int[] ttlOffsets = new int[recordCount];
+        int ttlCount = 0;
+        List<Integer> addresses = new ArrayList<>(answerCount);
+        long answerTtl = Long.MAX_VALUE;
+        long negativeTtl = -1;
+        for (int i = 0; i < recordCount; i++) {
+            position = skipName(data, position, end);
+            if (position < 0 || position + 10 > end) {
+                return null;
+            }
+            int type = readShort(data, position);
+            int clazz = readShort(data, position + 2);
+            long ttl = readInt(data, position + 4) & 0xFFFFFFFFL;
+            int rdLength = readShort(data, position + 8);
+            int rdata = position + 10;
+            if (rdata + rdLength > end) {
+                return null;
+            }
+            if (type != TYPE_OPT) {
+                // The TTL field of an OPT record is the extended flags.
+                ttlOffsets[ttlCount++] = position + 4 - offset;
+            }
+            if (i < answerCount) {
+                answerTtl = Math.min(answerTtl, ttl);
+                if (type == TYPE_A && clazz == CLASS_IN && rdLength == 4) {
+                    addresses.add(readInt(data, rdata));
+                }
+            } else if (i < authorityEnd && type == TYPE_SOA
+                    && rdLength >= 20) {
+                // The negative TTL is the smaller one of the SOA TTL and its minimum field.
+                negativeTtl = Math.min(ttl, readInt(data, rdata + rdLength - 4) & 0xFFFFFFFFL);
+            }
+            position = rdata + rdLength;
+        }
+        int rcode = flags & MASK_RCODE;
+        long ttl = 0;
+        // A truncated response is retried over TCP, don't cache it.
+        if ((flags & FLAG_TC) != 0) {
+            ttl = 0;
+        } else if (rcode == RCODE_NOERROR && answerCount > 0) {
+            ttl = answerTtl;
+        } else if ((rcode == RCODE_NXDOMAIN || rcode == RCODE_NOERROR) && negativeTtl >= 0) {
+            // NXDOMAIN or NODATA, cacheable only with a SOA record, see RFC 2308.
+            ttl = negativeTtl;
+            response.negative = true;
+        }
+        response.ttl = (int) Math.min(ttl, Integer.MAX_VALUE);
+        response.ttlOffsets = ttlCount == ttlOffsets.length ? ttlOffsets :
+                Arrays.copyOf(ttlOffsets, ttlCount);
+        response.addresses = addresses;
+        return response;
+    }
+
+    /* package */ static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+    }
+
+    /* package */ static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    /* package */ static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+    }
+
+    /* package */ static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    private static int readName(byte[] data, int message, int position, int end,
+                                StringBuilder name) {
+        int next = -1;
+        // Every pointer must go backwards, so a loop of pointers ends.
+        int limit = position;
+        while (position < end) {
+            int length = data[position] & 0xFF;
+            if (length == 0) {
+                return next < 0 ? position + 1 : next;
+            }
+            if ((length & 0xC0) == 0xC0) {
+                if (position + 1 >= end) {
+                    return -1;
+                }
+                int pointer = message + ((length & 0x3F) << 8 | (data[position + 1] & 0xFF));
+                if (pointer >= limit) {
+                    return -1;
+                }
+                if (next < 0) {
+                    next = position + 2;
+                }
+                position = limit = pointer;
+                continue;
+            }
+            if ((length & 0xC0) != 0 || position + 1 + length > end) {
+                return -1;
+            }
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            for (int i = position + 1; i <= position + length; i++) {
+                name.append((char) (data[i] & 0xFF));
+            }
+            if (name.length() > MAX_NAME_LENGTH) {
+                return -1;
+            }
+            position += length + 1;
+        }
+        return -1;
+    }
+
+    private static int skipName(byte[] data, int position, int end) {
+        while (position < end) {
+            int length = data[position] & 0xFF;
+            if (length == 0) {
+                return position + 1;
+            }
+            if ((length & 0xC0) == 0xC0) {
+                return position + 2;
+            }
+            if ((length & 0xC0) != 0) {
+                return -1;
+            }
+            position += length + 1;
+        }
+        return -1;
+    }
+
+}
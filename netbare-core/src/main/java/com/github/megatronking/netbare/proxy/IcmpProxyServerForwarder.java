@@ -15,6 +15,8 @@
  */
 package com.github.megatronking.netbare.proxy;
 
+import android.util.Log;
+
 import com.github.megatronking.netbare.NetBareLog;
 import com.github.megatronking.netbare.ip.IcmpHeader;
 import com.github.megatronking.netbare.ip.IpHeader;
@@ -38,8 +40,10 @@ public final class IcmpProxyServerForwarder implements ProxyServerForwarder {
     public void forward(byte[] packet, int len, OutputStream output) {
         IpHeader ipHeader = new IpHeader(packet, 0);
         IcmpHeader icmpHeader = new IcmpHeader(ipHeader, packet, ipHeader.getHeaderLength());
-        NetBareLog.v("ICMP type: " + icmpHeader.getType());
-        NetBareLog.v("ICMP code: " + icmpHeader.getCode());
+        if (NetBareLog.isLoggable(Log.VERBOSE)) {
+            NetBareLog.v("ICMP type: " + icmpHeader.getType());
+            NetBareLog.v("ICMP code: " + icmpHeader.getCode());
+        }
         // TODO transfer to proxy server
     }
 
@@ -15,10 +15,9 @@
  */
 package com.github.megatronking.netbare.proxy;
 
-import android.net.VpnService;
-
 import com.github.megatronking.netbare.NetBareLog;
 import com.github.megatronking.netbare.NetBareUtils;
+import com.github.megatronking.netbare.SocketProtector;
 import com.github.megatronking.netbare.gateway.VirtualGateway;
 import com.github.megatronking.netbare.net.Session;
 import com.github.megatronking.netbare.net.SessionProvider;
@@ -34,6 +33,7 @@ import com.github.megatronking.netbare.tunnel.TcpVATunnel;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.ConnectException;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -49,7 +49,7 @@ import javax.net.ssl.SSLHandshakeException;
 
 /**
  * The TCP proxy server is a nio {@link ServerSocketChannel}, it listens the connections from
- * {@link VpnService} and forwards request packets to real remote server. This server uses
+ * the VPN and forwards request packets to real remote server. This server uses
  * {@link TcpVATunnel} to bind {@link VirtualGateway} and {@link NioTunnel} together. Every TCP
  * connection has two channels: {@link TcpProxyTunnel} and {@link TcpRemoteTunnel}.
  * The {@link TcpProxyTunnel} is responsible for sending remote server response packets to VPN
@@ -60,7 +60,7 @@ import javax.net.ssl.SSLHandshakeException;
  */
 /* package */ class TcpProxyServer extends BaseProxyServer implements Runnable {
 
-    private final VpnService mVpnService;
+    private final SocketProtector mProtector;
 
     private final Selector mSelector;
     private final ServerSocketChannel mServerSocketChannel;
@@ -71,10 +71,10 @@ import javax.net.ssl.SSLHandshakeException;
 
     private SessionProvider mSessionProvider;
 
-    /* package */ TcpProxyServer(VpnService vpnService, String ip, int mtu)
+    /* package */ TcpProxyServer(SocketProtector protector, String ip, int mtu)
             throws IOException {
         super("TcpProxyServer");
-        this.mVpnService = vpnService;
+        this.mProtector = protector;
 
         this.mSelector = Selector.open();
         this.mServerSocketChannel = ServerSocketChannel.open();
@@ -170,12 +170,19 @@ import javax.net.ssl.SSLHandshakeException;
 
         // The client ip is the remote server ip
         // The client port is the local port(it is the vpn port not the proxy server port)
-        String ip = clientSocket.getInetAddress().getHostAddress();
+        InetAddress address = clientSocket.getInetAddress();
+        String ip = address.getHostAddress();
         int port = clientSocket.getPort();
 
         // The session should have be saved before the tcp packets be forwarded to proxy server. So
-        // we can query it by client port.
-        Session session = mSessionProvider.query((short) port);
+        // we can query it by client port, and the client ip for IPv6.
+        Session session;
+        if (address instanceof Inet6Address) {
+            long[] ip6 = NetBareUtils.convertIp6(address.getAddress());
+            session = mSessionProvider.query((short) port, ip6[0], ip6[1]);
+        } else {
+            session = mSessionProvider.query((short) port);
+        }
         if (session == null) {
             throw new IOException("No session saved with key: " + port);
         }
@@ -187,7 +194,7 @@ import javax.net.ssl.SSLHandshakeException;
         TcpTunnel remoteTunnel = null;
         try {
             proxyTunnel = new TcpProxyTunnel(clientChannel, mSelector, remotePort);
-            remoteTunnel = new TcpRemoteTunnel(mVpnService, SocketChannel.open(),
+            remoteTunnel = new TcpRemoteTunnel(mProtector, SocketChannel.open(),
                     mSelector, ip, remotePort);
             TcpVATunnel gatewayTunnel = new TcpVATunnel(session, proxyTunnel,
                     remoteTunnel, mMtu);
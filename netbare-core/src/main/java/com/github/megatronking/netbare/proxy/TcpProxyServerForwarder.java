@@ -15,13 +15,17 @@
  */
 package com.github.megatronking.netbare.proxy;
 
-import android.net.VpnService;
+import android.util.Log;
 
 import com.github.megatronking.netbare.NetBareLog;
+import com.github.megatronking.netbare.NetBareTrace;
 import com.github.megatronking.netbare.NetBareUtils;
+import com.github.megatronking.netbare.SocketProtector;
 import com.github.megatronking.netbare.ip.IpHeader;
+import com.github.megatronking.netbare.ip.Ipv6Header;
 import com.github.megatronking.netbare.ip.Protocol;
 import com.github.megatronking.netbare.ip.TcpHeader;
+import com.github.megatronking.netbare.metrics.Metrics;
 import com.github.megatronking.netbare.net.Session;
 import com.github.megatronking.netbare.net.SessionProvider;
 import com.github.megatronking.netbare.net.UidDumper;
@@ -40,10 +44,10 @@ public final class TcpProxyServerForwarder implements ProxyServerForwarder {
     private final SessionProvider mSessionProvider;
     private final TcpProxyServer mProxyServer;
 
-    public TcpProxyServerForwarder(VpnService vpnService, String ip, int mtu,
+    public TcpProxyServerForwarder(SocketProtector protector, String ip, int mtu,
                                    UidDumper dumper) throws IOException {
         this.mSessionProvider = new SessionProvider(dumper);
-        this.mProxyServer = new TcpProxyServer(vpnService, ip, mtu);
+        this.mProxyServer = new TcpProxyServer(protector, ip, mtu);
         this.mProxyServer.setSessionProvider(mSessionProvider);
     }
 
@@ -54,6 +58,10 @@ public final class TcpProxyServerForwarder implements ProxyServerForwarder {
 
     @Override
     public void forward(byte[] packet, int len, OutputStream output) {
+        if ((packet[0] >> 4 & 0x0F) == 6) {
+            forward6(packet, len, output);
+            return;
+        }
         IpHeader ipHeader = new IpHeader(packet, 0);
         TcpHeader tcpHeader = new TcpHeader(ipHeader, packet, ipHeader.getHeaderLength());
 
@@ -68,10 +76,12 @@ public final class TcpProxyServerForwarder implements ProxyServerForwarder {
         // TCP data size
         int tcpDataSize = ipHeader.getDataLength() - tcpHeader.getHeaderLength();
 
-        NetBareLog.v("ip: %s:%d -> %s:%d", NetBareUtils.convertIp(localIp),
-                NetBareUtils.convertPort(localPort), NetBareUtils.convertIp(remoteIp),
-                NetBareUtils.convertPort(remotePort));
-        NetBareLog.v("tcp: %s, size: %d", tcpHeader.toString(), tcpDataSize);
+        if (NetBareLog.isLoggable(Log.VERBOSE)) {
+            NetBareLog.v("ip: %s:%d -> %s:%d", NetBareUtils.convertIp(localIp),
+                    NetBareUtils.convertPort(localPort), NetBareUtils.convertIp(remoteIp),
+                    NetBareUtils.convertPort(remotePort));
+            NetBareLog.v("tcp: %s, size: %d", tcpHeader.toString(), tcpDataSize);
+        }
 
         // Tcp handshakes and proxy forward flow.
 
@@ -101,7 +111,7 @@ public final class TcpProxyServerForwarder implements ProxyServerForwarder {
             ipHeader.updateChecksum();
             tcpHeader.updateChecksum();
 
-            session.sendDataSize += tcpDataSize;
+            onSent(session, tcpHeader, tcpDataSize);
         } else {
             // Proxy server responses forward client request.
             Session session = mSessionProvider.query(remotePort);
@@ -117,9 +127,87 @@ public final class TcpProxyServerForwarder implements ProxyServerForwarder {
             ipHeader.updateChecksum();
             tcpHeader.updateChecksum();
 
-            session.receiveDataSize += tcpDataSize;
+            onReceived(session, tcpHeader, tcpDataSize);
+        }
+
+        write(packet, len, output);
+    }
+
+    private void forward6(byte[] packet, int len, OutputStream output) {
+        Ipv6Header ipHeader = new Ipv6Header(packet, 0);
+        TcpHeader tcpHeader = new TcpHeader(ipHeader, packet, ipHeader.getHeaderLength());
+
+        short localPort = tcpHeader.getSourcePort();
+        short remotePort = tcpHeader.getDestinationPort();
+
+        // TCP data size
+        int tcpDataSize = ipHeader.getDataLength() - tcpHeader.getHeaderLength();
+
+        if (NetBareLog.isLoggable(Log.VERBOSE)) {
+            NetBareLog.v("ip: [%s]:%d -> [%s]:%d",
+                    NetBareUtils.convertIp6(ipHeader.getSourceIpHigh(), ipHeader.getSourceIpLow()),
+                    NetBareUtils.convertPort(localPort),
+                    NetBareUtils.convertIp6(ipHeader.getDestinationIpHigh(),
+                            ipHeader.getDestinationIpLow()),
+                    NetBareUtils.convertPort(remotePort));
+            NetBareLog.v("tcp: %s, size: %d", tcpHeader.toString(), tcpDataSize);
+        }
+
+        // The same handshakes as IPv4. The proxy server listens on the wildcard address and the
+        // local address is the VPN IPv6 address, so the addresses are just swapped.
+
+        // [fd00::1]:40988 -> [2001:db8::1]:80 SYN
+        // Forward: [2001:db8::1]:40988 -> [fd00::1]:38283 SYN
+
+        // [fd00::1]:38283 -> [2001:db8::1]:40988 SYN+ACK
+        // Forward: [2001:db8::1]:80 -> [fd00::1]:40988 SYN+ACK
+
+        if (localPort != mProxyServer.getPort()) {
+            // Client requests to server
+            Session session = mSessionProvider.ensureQuery(Protocol.TCP, localPort, remotePort,
+                    ipHeader.getDestinationIpHigh(), ipHeader.getDestinationIpLow());
+            session.packetIndex++;
+
+            // Forward client request to proxy server.
+            ipHeader.swapIp();
+            tcpHeader.setDestinationPort(mProxyServer.getPort());
+            tcpHeader.updateChecksum();
+
+            onSent(session, tcpHeader, tcpDataSize);
+        } else {
+            // Proxy server responses forward client request, the destination is the remote server.
+            Session session = mSessionProvider.query(remotePort, ipHeader.getDestinationIpHigh(),
+                    ipHeader.getDestinationIpLow());
+            if (session == null) {
+                NetBareLog.w("No session saved with key: " + remotePort);
+                return;
+            }
+            // Forward proxy server response to client.
+            ipHeader.swapIp();
+            tcpHeader.setSourcePort(session.remotePort);
+            tcpHeader.updateChecksum();
+
+            onReceived(session, tcpHeader, tcpDataSize);
         }
 
+        write(packet, len, output);
+    }
+
+    private void onSent(Session session, TcpHeader tcpHeader, int tcpDataSize) {
+        session.sendDataSize += tcpDataSize;
+        Metrics.get().onPacketSent(tcpDataSize);
+        NetBareTrace.record(NetBareTrace.EVENT_TCP_SEND, NetBareTrace.session(session),
+                tcpHeader.getFlag(), tcpDataSize);
+    }
+
+    private void onReceived(Session session, TcpHeader tcpHeader, int tcpDataSize) {
+        session.receiveDataSize += tcpDataSize;
+        Metrics.get().onDataReceived(tcpDataSize);
+        NetBareTrace.record(NetBareTrace.EVENT_TCP_RECEIVE, NetBareTrace.session(session),
+                tcpHeader.getFlag(), tcpDataSize);
+    }
+
+    private void write(byte[] packet, int len, OutputStream output) {
         try {
             output.write(packet, 0, len);
         } catch (IOException e) {
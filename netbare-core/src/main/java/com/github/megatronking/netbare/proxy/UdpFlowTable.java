@@ -0,0 +1,251 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.proxy;
+
+import com.github.megatronking.netbare.NetBareUtils;
+import com.github.megatronking.netbare.net.Session;
+import com.github.megatronking.netbare.tunnel.NioTunnel;
+import com.github.megatronking.netbare.tunnel.UdpVATunnel;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The UDP flows of {@link UdpProxyServer}, a flow is keyed by the local port, remote ip and remote
+ * port, so a socket sending to many destinations gets a tunnel for each of them. The flows are
+ * kept in the least recently used order, the idle ones are closed by {@link #sweep(long)} and the
+ * least recently used one is evicted when the table is full. A reverse index from the remote
+ * tunnel to the flow makes the removal on channel errors O(1). IPv4 flows are keyed by a packed
+ * long, IPv6 flows by a small key object holding the 128 bits address.
+ *
+ * The table is confined to the server thread.
+ *
+ * @author Megatron King
+ * @since 2019-04-19 17:08
+ */
+/* package */ final class UdpFlowTable {
+
+    /**
+     * The max flows, each flow holds a datagram socket.
+     */
+    private static final int MAX_FLOWS = 512;
+
+    /**
+     * Flows are closed after being idle for this duration, a DNS flow is usually one exchange.
+     */
+    private static final long IDLE_TIMEOUT = 60 * 1000;
+    private static final long DNS_IDLE_TIMEOUT = 10 * 1000;
+
+    private static final short DNS_PORT = 53;
+
+    private final Map<Object, Flow> mFlows;
+    private final Map<NioTunnel, Flow> mTunnels;
+
+    /* package */ UdpFlowTable() {
+        this.mFlows = new LinkedHashMap<>(16, 0.75f, true);
+        this.mTunnels = new HashMap<>();
+    }
+
+    /**
+     * Query a flow and mark it active.
+     *
+     * @param localPort The local VPN port.
+     * @param remoteIp The remote server ip.
+     * @param remotePort The remote server port.
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     * @return The flow, or null if it doesn't exist.
+     */
+    /* package */ Flow get(short localPort, int remoteIp, short remotePort, long now) {
+        return get(key(localPort, remoteIp, remotePort), now);
+    }
+
+    /**
+     * Query an IPv6 flow and mark it active.
+     *
+     * @param localPort The local VPN port.
+     * @param remoteIpHigh The high 64 bits of the remote server ip.
+     * @param remoteIpLow The low 64 bits of the remote server ip.
+     * @param remotePort The remote server port.
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     * @return The flow, or null if it doesn't exist.
+     */
+    /* package */ Flow get(short localPort, long remoteIpHigh, long remoteIpLow,
+                           short remotePort, long now) {
+        return get(new Ipv6Key(localPort, remoteIpHigh, remoteIpLow, remotePort), now);
+    }
+
+    private Flow get(Object key, long now) {
+        Flow flow = mFlows.get(key);
+        if (flow != null) {
+            flow.activeTime = now;
+        }
+        return flow;
+    }
+
+    /**
+     * Add a flow, the least recently used flow is closed if the table is full.
+     *
+     * @param session The session of the flow.
+     * @param tunnel The tunnel of the flow.
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     * @return The new flow.
+     */
+    /* package */ Flow put(Session session, UdpVATunnel tunnel, long now) {
+        Flow flow = new Flow(session, tunnel, now);
+        Flow old = mFlows.put(flow.key, flow);
+        if (old != null) {
+            mTunnels.remove(old.tunnel.getRemoteChannel());
+            NetBareUtils.closeQuietly(old.tunnel);
+        }
+        mTunnels.put(tunnel.getRemoteChannel(), flow);
+        if (mFlows.size() > MAX_FLOWS) {
+            Iterator<Flow> iterator = mFlows.values().iterator();
+            Flow eldest = iterator.next();
+            iterator.remove();
+            mTunnels.remove(eldest.tunnel.getRemoteChannel());
+            NetBareUtils.closeQuietly(eldest.tunnel);
+        }
+        return flow;
+    }
+
+    /**
+     * Mark the flow of a remote tunnel active when it receives data.
+     *
+     * @param remoteTunnel The remote tunnel.
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     */
+    /* package */ void touch(NioTunnel remoteTunnel, long now) {
+        Flow flow = mTunnels.get(remoteTunnel);
+        if (flow != null) {
+            // Move it to the most recently used end.
+            mFlows.get(flow.key);
+            flow.activeTime = now;
+        }
+    }
+
+    /**
+     * Remove the flow of a remote tunnel, the tunnel is not closed.
+     *
+     * @param remoteTunnel The remote tunnel.
+     */
+    /* package */ void remove(NioTunnel remoteTunnel) {
+        Flow flow = mTunnels.remove(remoteTunnel);
+        if (flow != null) {
+            mFlows.remove(flow.key);
+        }
+    }
+
+    /**
+     * Close the flows being idle longer than their timeouts.
+     *
+     * @param now The current time from {@link android.os.SystemClock#elapsedRealtime()}.
+     */
+    /* package */ void sweep(long now) {
+        Iterator<Flow> iterator = mFlows.values().iterator();
+        while (iterator.hasNext()) {
+            Flow flow = iterator.next();
+            long idle = now - flow.activeTime;
+            if (idle < DNS_IDLE_TIMEOUT) {
+                // The rest are used more recently.
+                break;
+            }
+            if (idle >= flow.idleTimeout) {
+                iterator.remove();
+                mTunnels.remove(flow.tunnel.getRemoteChannel());
+                NetBareUtils.closeQuietly(flow.tunnel);
+            }
+        }
+    }
+
+    /**
+     * Close all the flows.
+     */
+    /* package */ void clear() {
+        for (Flow flow : mFlows.values()) {
+            NetBareUtils.closeQuietly(flow.tunnel);
+        }
+        mFlows.clear();
+        mTunnels.clear();
+    }
+
+    /* package */ boolean isEmpty() {
+        return mFlows.isEmpty();
+    }
+
+    private static long key(short localPort, int remoteIp, short remotePort) {
+        return ((long) (localPort & 0xFFFF) << 48) | ((long) (remotePort & 0xFFFF) << 32)
+                | (remoteIp & 0xFFFFFFFFL);
+    }
+
+    /* package */ static final class Flow {
+
+        /* package */ final Session session;
+        /* package */ final UdpVATunnel tunnel;
+
+        private final Object key;
+        private final long idleTimeout;
+        private long activeTime;
+
+        private Flow(Session session, UdpVATunnel tunnel, long now) {
+            this.session = session;
+            this.tunnel = tunnel;
+            this.key = session.ipv6 ? new Ipv6Key(session.localPort, session.remoteIp6High,
+                    session.remoteIp6Low, session.remotePort)
+                    : key(session.localPort, session.remoteIp, session.remotePort);
+            this.idleTimeout = session.remotePort == DNS_PORT ? DNS_IDLE_TIMEOUT : IDLE_TIMEOUT;
+            this.activeTime = now;
+        }
+
+    }
+
+    private static final class Ipv6Key {
+
+        private final short localPort;
+        private final long remoteIpHigh;
+        private final long remoteIpLow;
+        private final short remotePort;
+
+        private Ipv6Key(short localPort, long remoteIpHigh, long remoteIpLow, short remotePort) {
+            this.localPort = localPort;
+            this.remoteIpHigh = remoteIpHigh;
+            this.remoteIpLow = remoteIpLow;
+            this.remotePort = remotePort;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Ipv6Key)) {
+                return false;
+            }
+            Ipv6Key key = (Ipv6Key) o;
+            return localPort == key.localPort && remotePort == key.remotePort
+                    && remoteIpHigh == key.remoteIpHigh && remoteIpLow == key.remoteIpLow;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = remoteIpHigh * 31 + remoteIpLow;
+            return (int) (hash ^ (hash >>> 32)) * 31 + ((localPort << 16) | (remotePort & 0xFFFF));
+        }
+
+    }
+
+}
@@ -15,33 +15,36 @@
  */
 package com.github.megatronking.netbare.proxy;
 
-import android.net.VpnService;
 import android.os.SystemClock;
 
 import com.github.megatronking.netbare.NetBareLog;
+import com.github.megatronking.netbare.NetBareTrace;
 import com.github.megatronking.netbare.NetBareUtils;
+import com.github.megatronking.netbare.SocketProtector;
 import com.github.megatronking.netbare.gateway.VirtualGateway;
 import com.github.megatronking.netbare.ip.IpHeader;
+import com.github.megatronking.netbare.ip.Ipv6Header;
+import com.github.megatronking.netbare.ip.Protocol;
 import com.github.megatronking.netbare.ip.UdpHeader;
+import com.github.megatronking.netbare.metrics.Metrics;
 import com.github.megatronking.netbare.net.Session;
 import com.github.megatronking.netbare.net.SessionProvider;
 import com.github.megatronking.netbare.tunnel.NioCallback;
 import com.github.megatronking.netbare.tunnel.NioTunnel;
-import com.github.megatronking.netbare.tunnel.Tunnel;
 import com.github.megatronking.netbare.tunnel.UdpRemoteTunnel;
 import com.github.megatronking.netbare.tunnel.UdpVATunnel;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * The UDP proxy server is a virtual server, every packet from {@link UdpProxyServerForwarder} is
@@ -49,30 +52,47 @@ import java.util.concurrent.ConcurrentHashMap;
  * {@link NioTunnel} together. Not like TCP, UDP only use {@link UdpRemoteTunnel} to communicate with
  * real remote server.
  *
+ * The tunnels are owned by the server thread: packets from the VPN are put into a queue and the
+ * selector is woken up, the server thread drains the queue before every select, creates and
+ * registers the tunnels and sends the packets. So a select never returns for a registration and
+ * nothing waits for a sleep. The tunnels are kept in a {@link UdpFlowTable} by the flows. The DNS
+ * queries are handled by a {@link DnsHandler} if the DNS cache is enabled.
+ *
  * @author Megatron King
  * @since 2018-10-11 17:35
  */
 /* package */ class UdpProxyServer extends BaseProxyServer {
 
-    private static final int SELECTOR_WAIT_TIME = 50;
+    /**
+     * The interval to close idle flows.
+     */
+    private static final long SWEEP_INTERVAL = 1000;
 
-    private final VpnService mVpnService;
+    private final SocketProtector mProtector;
 
     private int mMtu;
 
     private final Selector mSelector;
-    private final Map<Short, UdpVATunnel> mTunnels;
+    private final UdpFlowTable mFlows;
+    private final DnsHandler mDnsHandler;
+    private final Queue<UdpHeader> mPendingPackets;
+
+    private long mNextSweepTime;
 
     private SessionProvider mSessionProvider;
+    private volatile OutputStream mOutput;
 
-    /* package */ UdpProxyServer(VpnService vpnService, int mtu) throws IOException {
+    /* package */ UdpProxyServer(SocketProtector protector, int mtu, boolean dnsCache,
+                                 Set<String> dnsServers) throws IOException {
         super("UdpProxyServer");
-        this.mVpnService = vpnService;
+        this.mProtector = protector;
 
         this.mMtu = mtu;
 
         this.mSelector = Selector.open();
-        this.mTunnels = new ConcurrentHashMap<>();
+        this.mFlows = new UdpFlowTable();
+        this.mDnsHandler = dnsCache ? new DnsHandler(protector, mSelector, mtu, dnsServers) : null;
+        this.mPendingPackets = new ConcurrentLinkedQueue<>();
     }
 
     @Override
@@ -89,52 +109,66 @@ import java.util.concurrent.ConcurrentHashMap;
         this.mSessionProvider = sessionProvider;
     }
 
-    void send(UdpHeader header, OutputStream output) throws IOException {
-        short localPort = header.getSourcePort();
-        UdpVATunnel tunnel = mTunnels.get(localPort);
-        try {
-            if (tunnel == null) {
-                Session session = mSessionProvider.query(localPort);
-                if (session == null) {
-                    throw new IOException("No session saved with key: " + localPort);
-                }
-
-                IpHeader ipHeader = header.getIpHeader();
-                NioTunnel remoteTunnel = new UdpRemoteTunnel(mVpnService, DatagramChannel.open(),
-                        mSelector, NetBareUtils.convertIp(session.remoteIp), session.remotePort);
-                tunnel = new UdpVATunnel(session, remoteTunnel, output, mMtu);
-                tunnel.connect(new InetSocketAddress(NetBareUtils.convertIp(ipHeader.getDestinationIp()),
-                        NetBareUtils.convertPort(header.getDestinationPort())));
-                mTunnels.put(header.getSourcePort(), tunnel);
-            }
-            tunnel.send(header);
-        } catch (IOException e) {
-            mTunnels.remove(localPort);
-            NetBareUtils.closeQuietly(tunnel);
-            throw e;
+    /**
+     * Queue a packet from the VPN, it is sent by the server thread.
+     *
+     * @param header The UDP header of the packet.
+     * @param output The VPN output stream to write responses.
+     */
+    void send(UdpHeader header, OutputStream output) {
+        // The packet array is reused by the VPN thread, copy the packet out.
+        ByteBuffer buffer = header.buffer();
+        byte[] packet = new byte[buffer.remaining()];
+        buffer.get(packet);
+        UdpHeader copy;
+        if (header.getIpv6Header() != null) {
+            Ipv6Header ipv6Header = new Ipv6Header(packet, 0);
+            copy = new UdpHeader(ipv6Header, packet, ipv6Header.getHeaderLength());
+        } else {
+            IpHeader ipHeader = new IpHeader(packet, 0);
+            copy = new UdpHeader(ipHeader, packet, ipHeader.getHeaderLength());
         }
+        mOutput = output;
+        mPendingPackets.offer(copy);
+        mSelector.wakeup();
     }
 
     @Override
     public void run() {
         NetBareLog.i("[UDP]Server starts running.");
         super.run();
+        mFlows.clear();
+        if (mDnsHandler != null) {
+            mDnsHandler.close();
+        }
+        mPendingPackets.clear();
         NetBareUtils.closeQuietly(mSelector);
         NetBareLog.i("[UDP]Server stops running.");
     }
 
     @Override
     protected void process() throws IOException {
-        int select = mSelector.select();
+        long now = SystemClock.elapsedRealtime();
+        sendPendingPackets(now);
+        if (now >= mNextSweepTime) {
+            mFlows.sweep(now);
+            if (mDnsHandler != null) {
+                mDnsHandler.sweep(now);
+            }
+            mNextSweepTime = now + SWEEP_INTERVAL;
+        }
+        // Block until new packets come if there is nothing to sweep.
+        boolean idle = mFlows.isEmpty() && (mDnsHandler == null || mDnsHandler.isIdle());
+        int select = idle ? mSelector.select() : mSelector.select(SWEEP_INTERVAL);
         if (select == 0) {
-            // Wait a short time to let the selector register or interest.
-            SystemClock.sleep(SELECTOR_WAIT_TIME);
+            // Woken up by new packets or the stop.
             return;
         }
         Set<SelectionKey> selectedKeys = mSelector.selectedKeys();
         if (selectedKeys == null) {
             return;
         }
+        now = SystemClock.elapsedRealtime();
         Iterator<SelectionKey> iterator = selectedKeys.iterator();
         while (iterator.hasNext()) {
             SelectionKey key = iterator.next();
@@ -145,6 +179,7 @@ import java.util.concurrent.ConcurrentHashMap;
                     try {
                         if (key.isReadable()) {
                             callback.onRead();
+                            mFlows.touch(callback.getTunnel(), now);
                         } else if (key.isWritable()) {
                             callback.onWrite();
                         } else if (key.isConnectable()) {
@@ -152,7 +187,7 @@ import java.util.concurrent.ConcurrentHashMap;
                         }
                     } catch (IOException e) {
                         callback.onClosed();
-                        removeTunnel(callback.getTunnel());
+                        mFlows.remove(callback.getTunnel());
                     }
                 }
             }
@@ -160,21 +195,74 @@ import java.util.concurrent.ConcurrentHashMap;
         }
     }
 
-    @Override
-    void stopServer() {
-        super.stopServer();
-        for (UdpVATunnel tunnel : mTunnels.values()) {
-            NetBareUtils.closeQuietly(tunnel);
+    private void sendPendingPackets(long now) {
+        UdpHeader header;
+        while ((header = mPendingPackets.poll()) != null) {
+            try {
+                sendPacket(header, now);
+            } catch (IOException e) {
+                NetBareLog.e(e.getMessage());
+            }
         }
     }
 
-    private void removeTunnel(Tunnel tunnel) {
-        Map<Short, UdpVATunnel> tunnels = new HashMap<>(mTunnels);
-        for (short key : tunnels.keySet()) {
-            if (tunnels.get(key).getRemoteChannel() == tunnel) {
-                mTunnels.remove(key);
+    private void sendPacket(UdpHeader header, long now) throws IOException {
+        Ipv6Header ipv6Header = header.getIpv6Header();
+        short localPort = header.getSourcePort();
+        short remotePort = header.getDestinationPort();
+        UdpFlowTable.Flow flow;
+        if (ipv6Header != null) {
+            if (mDnsHandler != null && mDnsHandler.accept(remotePort)
+                    && mDnsHandler.handle(header, mOutput, now)) {
+                return;
+            }
+            flow = mFlows.get(localPort, ipv6Header.getDestinationIpHigh(),
+                    ipv6Header.getDestinationIpLow(), remotePort, now);
+        } else {
+            int remoteIp = header.getIpHeader().getDestinationIp();
+            if (mDnsHandler != null && mDnsHandler.accept(remoteIp, remotePort)
+                    && mDnsHandler.handle(header, mOutput, now)) {
+                return;
+            }
+            flow = mFlows.get(localPort, remoteIp, remotePort, now);
+        }
+        if (flow != null && flow.tunnel.getRemoteChannel().isClosed()) {
+            // The remote closed the flow, open a new one.
+            mFlows.remove(flow.tunnel.getRemoteChannel());
+            flow = null;
+        }
+        if (flow == null) {
+            Session session;
+            String remoteIp;
+            if (ipv6Header != null) {
+                session = mSessionProvider.create(Protocol.UDP, localPort, remotePort,
+                        ipv6Header.getDestinationIpHigh(), ipv6Header.getDestinationIpLow());
+                remoteIp = NetBareUtils.convertIp6(session.remoteIp6High, session.remoteIp6Low);
+            } else {
+                session = mSessionProvider.create(Protocol.UDP, localPort, remotePort,
+                        header.getIpHeader().getDestinationIp());
+                remoteIp = NetBareUtils.convertIp(session.remoteIp);
+            }
+            NioTunnel remoteTunnel = new UdpRemoteTunnel(mProtector, DatagramChannel.open(),
+                    mSelector, remoteIp, remotePort);
+            UdpVATunnel tunnel = new UdpVATunnel(session, remoteTunnel, mOutput, mMtu);
+            try {
+                tunnel.connect(new InetSocketAddress(remoteIp,
+                        NetBareUtils.convertPort(remotePort)));
+            } catch (IOException e) {
+                NetBareUtils.closeQuietly(tunnel);
+                throw e;
             }
+            flow = mFlows.put(session, tunnel, now);
         }
+        Session session = flow.session;
+        int dataSize = header.getDataLength() - header.getHeaderLength();
+        session.packetIndex++;
+        flow.tunnel.send(header);
+        session.sendDataSize += dataSize;
+        Metrics.get().onPacketSent(dataSize);
+        NetBareTrace.record(NetBareTrace.EVENT_UDP_SEND, NetBareTrace.session(session), 0,
+                dataSize);
     }
 
 }
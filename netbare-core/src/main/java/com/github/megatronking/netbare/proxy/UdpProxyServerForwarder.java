@@ -15,19 +15,20 @@
  */
 package com.github.megatronking.netbare.proxy;
 
-import android.net.VpnService;
+import android.util.Log;
 
 import com.github.megatronking.netbare.NetBareLog;
 import com.github.megatronking.netbare.NetBareUtils;
+import com.github.megatronking.netbare.SocketProtector;
 import com.github.megatronking.netbare.ip.IpHeader;
-import com.github.megatronking.netbare.ip.Protocol;
+import com.github.megatronking.netbare.ip.Ipv6Header;
 import com.github.megatronking.netbare.ip.UdpHeader;
-import com.github.megatronking.netbare.net.Session;
 import com.github.megatronking.netbare.net.SessionProvider;
 import com.github.megatronking.netbare.net.UidDumper;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Set;
 
 /**
  * Unlike TCP proxy server, UDP doesn't need handshake, we can forward packets to it directly.
@@ -40,10 +41,10 @@ public final class UdpProxyServerForwarder implements ProxyServerForwarder {
     private final SessionProvider mSessionProvider;
     private final UdpProxyServer mProxyServer;
 
-    public UdpProxyServerForwarder(VpnService vpnService, int mtu, UidDumper dumper)
-            throws IOException {
+    public UdpProxyServerForwarder(SocketProtector protector, int mtu, UidDumper dumper,
+                                   boolean dnsCache, Set<String> dnsServers) throws IOException {
         this.mSessionProvider = new SessionProvider(dumper);
-        this.mProxyServer = new UdpProxyServer(vpnService, mtu);
+        this.mProxyServer = new UdpProxyServer(protector, mtu, dnsCache, dnsServers);
         this.mProxyServer.setSessionProvider(mSessionProvider);
     }
 
@@ -54,6 +55,10 @@ public final class UdpProxyServerForwarder implements ProxyServerForwarder {
 
     @Override
     public void forward(byte[] packet, int len, OutputStream output) {
+        if ((packet[0] >> 4 & 0x0F) == 6) {
+            forward6(packet, output);
+            return;
+        }
         IpHeader ipHeader = new IpHeader(packet, 0);
         UdpHeader udpHeader = new UdpHeader(ipHeader, packet, ipHeader.getHeaderLength());
 
@@ -68,20 +73,33 @@ public final class UdpProxyServerForwarder implements ProxyServerForwarder {
         // UDP data size
         int udpDataSize = ipHeader.getDataLength() - udpHeader.getHeaderLength();
 
-        NetBareLog.v("ip: %s:%d -> %s:%d", NetBareUtils.convertIp(localIp),
-                NetBareUtils.convertPort(localPort), NetBareUtils.convertIp(remoteIp),
-                NetBareUtils.convertPort(remotePort));
-        NetBareLog.v("udp: %s, size: %d", udpHeader.toString(), udpDataSize);
+        if (NetBareLog.isLoggable(Log.VERBOSE)) {
+            NetBareLog.v("ip: %s:%d -> %s:%d", NetBareUtils.convertIp(localIp),
+                    NetBareUtils.convertPort(localPort), NetBareUtils.convertIp(remoteIp),
+                    NetBareUtils.convertPort(remotePort));
+            NetBareLog.v("udp: %s, size: %d", udpHeader.toString(), udpDataSize);
+        }
+
+        // The flow and its session are looked up by the proxy server.
+        mProxyServer.send(udpHeader, output);
+    }
 
-        Session session = mSessionProvider.ensureQuery(Protocol.UDP, localPort, remotePort, remoteIp);
-        session.packetIndex++;
+    private void forward6(byte[] packet, OutputStream output) {
+        Ipv6Header ipHeader = new Ipv6Header(packet, 0);
+        UdpHeader udpHeader = new UdpHeader(ipHeader, packet, ipHeader.getHeaderLength());
 
-        try {
-            mProxyServer.send(udpHeader, output);
-            session.sendDataSize += udpDataSize;
-        } catch (IOException e) {
-            NetBareLog.e(e.getMessage());
+        if (NetBareLog.isLoggable(Log.VERBOSE)) {
+            NetBareLog.v("ip: [%s]:%d -> [%s]:%d",
+                    NetBareUtils.convertIp6(ipHeader.getSourceIpHigh(), ipHeader.getSourceIpLow()),
+                    NetBareUtils.convertPort(udpHeader.getSourcePort()),
+                    NetBareUtils.convertIp6(ipHeader.getDestinationIpHigh(),
+                            ipHeader.getDestinationIpLow()),
+                    NetBareUtils.convertPort(udpHeader.getDestinationPort()));
+            NetBareLog.v("udp: %s, size: %d", udpHeader.toString(),
+                    ipHeader.getDataLength() - udpHeader.getHeaderLength());
         }
+
+        mProxyServer.send(udpHeader, output);
     }
 
     @Override
@@ -0,0 +1,183 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ssl;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The parsed TLS ClientHello message of a session, see {@link SSLClientHelloParser}.
+ *
+ * @author Megatron King
+ * @since 2019-04-14 15:20
+ */
+public final class SSLClientHello {
+
+    private final int mVersion;
+    private final String mServerName;
+    private final String[] mAlpnProtocols;
+    private final int[] mSupportedVersions;
+    private final int[] mCipherSuites;
+    private final int[] mExtensions;
+    private final int[] mSupportedGroups;
+    private final int[] mEcPointFormats;
+
+    private String mJa3;
+
+    /* package */ SSLClientHello(int version, String serverName, String[] alpnProtocols,
+                                 int[] supportedVersions, int[] cipherSuites, int[] extensions,
+                                 int[] supportedGroups, int[] ecPointFormats) {
+        this.mVersion = version;
+        this.mServerName = serverName;
+        this.mAlpnProtocols = alpnProtocols;
+        this.mSupportedVersions = supportedVersions;
+        this.mCipherSuites = cipherSuites;
+        this.mExtensions = extensions;
+        this.mSupportedGroups = supportedGroups;
+        this.mEcPointFormats = ecPointFormats;
+    }
+
+    /**
+     * Returns the legacy version field of the ClientHello, like 0x0303 for TLS 1.2.
+     *
+     * @return The client version.
+     */
+    public int version() {
+        return mVersion;
+    }
+
+    /**
+     * Returns the host name of the server_name extension (SNI).
+     *
+     * @return The server name, or null if not sent.
+     */
+    @Nullable
+    public String serverName() {
+        return mServerName;
+    }
+
+    /**
+     * Returns the protocols of the application_layer_protocol_negotiation extension (ALPN), in the
+     * client's preference order.
+     *
+     * @return The ALPN protocols, empty if not sent.
+     */
+    @NonNull
+    public String[] alpnProtocols() {
+        return mAlpnProtocols.clone();
+    }
+
+    /**
+     * Returns the versions of the supported_versions extension, the TLS 1.3 clients send it.
+     *
+     * @return The supported versions, empty if not sent.
+     */
+    @NonNull
+    public int[] supportedVersions() {
+        return mSupportedVersions.clone();
+    }
+
+    /**
+     * Returns the cipher suites in the client's preference order.
+     *
+     * @return The cipher suites.
+     */
+    @NonNull
+    public int[] cipherSuites() {
+        return mCipherSuites.clone();
+    }
+
+    /**
+     * Returns the extension types in the order they are sent.
+     *
+     * @return The extension types.
+     */
+    @NonNull
+    public int[] extensions() {
+        return mExtensions.clone();
+    }
+
+    /**
+     * Returns the JA3 fingerprint string of the ClientHello:
+     * SSLVersion,Ciphers,Extensions,EllipticCurves,EllipticCurvePointFormats. GREASE values are
+     * excluded. See https://github.com/salesforce/ja3
+     *
+     * @return The JA3 fingerprint string.
+     */
+    @NonNull
+    public String ja3() {
+        if (mJa3 == null) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(mVersion).append(',');
+            appendJa3Values(sb, mCipherSuites);
+            sb.append(',');
+            appendJa3Values(sb, mExtensions);
+            sb.append(',');
+            appendJa3Values(sb, mSupportedGroups);
+            sb.append(',');
+            appendJa3Values(sb, mEcPointFormats);
+            mJa3 = sb.toString();
+        }
+        return mJa3;
+    }
+
+    /**
+     * Returns the MD5 hex digest of {@link #ja3()}, it is the usual form to compare fingerprints.
+     *
+     * @return The JA3 hash.
+     */
+    @NonNull
+    public String ja3Hash() {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(ja3().getBytes());
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is always available.
+            throw new IllegalStateException(e);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = Character.forDigit((digest[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(digest[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    private static void appendJa3Values(StringBuilder sb, int[] values) {
+        boolean first = true;
+        for (int value : values) {
+            if (isGrease(value)) {
+                continue;
+            }
+            if (!first) {
+                sb.append('-');
+            }
+            sb.append(value);
+            first = false;
+        }
+    }
+
+    /**
+     * GREASE values (RFC 8701) are random reserved values like 0x0A0A, 0x1A1A ... 0xFAFA.
+     */
+    private static boolean isGrease(int value) {
+        return (value & 0x0F0F) == 0x0A0A && (value >> 8) == (value & 0xFF);
+    }
+
+}
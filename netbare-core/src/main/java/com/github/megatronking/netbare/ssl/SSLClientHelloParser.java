@@ -0,0 +1,303 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ssl;
+
+import android.support.annotation.Nullable;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * An incremental parser of the TLS ClientHello message. The message may be split across TCP
+ * segments and TLS records, feed the buffers one by one until the result is not
+ * {@link #RESULT_NEED_MORE}. Only the ClientHello handshake message is buffered, the fields are
+ * extracted in a single pass once it is complete. The fed buffers are not changed.
+ *
+ * See https://tools.ietf.org/html/rfc8446#section-4.1.2
+ *
+ * @author Megatron King
+ * @since 2019-04-14 15:52
+ */
+public final class SSLClientHelloParser {
+
+    /**
+     * More data is needed to complete the ClientHello.
+     */
+    public static final int RESULT_NEED_MORE = 0;
+
+    /**
+     * The ClientHello is parsed, get it by {@link #clientHello()}.
+     */
+    public static final int RESULT_DONE = 1;
+
+    /**
+     * The data is not a valid ClientHello.
+     */
+    public static final int RESULT_INVALID = 2;
+
+    private static final int RECORD_HEADER_LENGTH = 5;
+    private static final int HANDSHAKE_HEADER_LENGTH = 4;
+
+    /**
+     * Max record length, including the allowed expansion of the ciphertext.
+     */
+    private static final int MAX_RECORD_LENGTH = 16384 + 2048;
+
+    /**
+     * We don't buffer a ClientHello larger than this, the real ones are far smaller.
+     */
+    private static final int MAX_CLIENT_HELLO_LENGTH = 64 * 1024;
+
+    private static final int HANDSHAKE_TYPE_CLIENT_HELLO = 1;
+
+    private static final int EXTENSION_SERVER_NAME = 0;
+    private static final int EXTENSION_SUPPORTED_GROUPS = 10;
+    private static final int EXTENSION_EC_POINT_FORMATS = 11;
+    private static final int EXTENSION_ALPN = 16;
+    private static final int EXTENSION_SUPPORTED_VERSIONS = 43;
+
+    private static final int SERVER_NAME_TYPE_HOST_NAME = 0;
+
+    private final byte[] mRecordHeader;
+    private int mRecordHeaderSize;
+    private int mRecordRemaining;
+
+    private final byte[] mHandshakeHeader;
+    private int mHandshakeHeaderSize;
+
+    private byte[] mMessage;
+    private int mMessageSize;
+
+    private int mResult;
+    private SSLClientHello mClientHello;
+
+    public SSLClientHelloParser() {
+        this.mRecordHeader = new byte[RECORD_HEADER_LENGTH];
+        this.mHandshakeHeader = new byte[HANDSHAKE_HEADER_LENGTH];
+        this.mResult = RESULT_NEED_MORE;
+    }
+
+    /**
+     * Parse a complete ClientHello in one buffer.
+     *
+     * @param buffer A buffer starts with the ClientHello record.
+     * @return The ClientHello, or null if the data is invalid or not enough.
+     */
+    @Nullable
+    public static SSLClientHello parse(ByteBuffer buffer) {
+        SSLClientHelloParser parser = new SSLClientHelloParser();
+        parser.feed(buffer);
+        return parser.clientHello();
+    }
+
+    /**
+     * Feed the next buffer of the connection, the bytes after the ClientHello are ignored.
+     *
+     * @param buffer The buffer read from the client.
+     * @return One of {@link #RESULT_NEED_MORE}, {@link #RESULT_DONE} and {@link #RESULT_INVALID}.
+     */
+    public int feed(ByteBuffer buffer) {
+        if (mResult != RESULT_NEED_MORE) {
+            return mResult;
+        }
+        int position = buffer.position();
+        int limit = buffer.limit();
+        while (position < limit) {
+            if (mRecordRemaining == 0) {
+                // Read the record header: type(1) version(2) length(2)
+                while (mRecordHeaderSize < RECORD_HEADER_LENGTH && position < limit) {
+                    mRecordHeader[mRecordHeaderSize++] = buffer.get(position++);
+                }
+                if (mRecordHeaderSize < RECORD_HEADER_LENGTH) {
+                    break;
+                }
+                mRecordHeaderSize = 0;
+                int length = (mRecordHeader[3] & 0xFF) << 8 | (mRecordHeader[4] & 0xFF);
+                if (mRecordHeader[0] != SSLUtils.SSL_CONTENT_TYPE_HANDSHAKE
+                        || mRecordHeader[1] != 3 || length == 0 || length > MAX_RECORD_LENGTH) {
+                    return mResult = RESULT_INVALID;
+                }
+                mRecordRemaining = length;
+                continue;
+            }
+            int count = Math.min(limit - position, mRecordRemaining);
+            mRecordRemaining -= count;
+            // Read the handshake header: type(1) length(3)
+            while (mHandshakeHeaderSize < HANDSHAKE_HEADER_LENGTH && count > 0) {
+                mHandshakeHeader[mHandshakeHeaderSize++] = buffer.get(position++);
+                count--;
+            }
+            if (mHandshakeHeaderSize < HANDSHAKE_HEADER_LENGTH) {
+                continue;
+            }
+            if (mMessage == null) {
+                int length = (mHandshakeHeader[1] & 0xFF) << 16
+                        | (mHandshakeHeader[2] & 0xFF) << 8 | (mHandshakeHeader[3] & 0xFF);
+                if (mHandshakeHeader[0] != HANDSHAKE_TYPE_CLIENT_HELLO
+                        || length > MAX_CLIENT_HELLO_LENGTH) {
+                    return mResult = RESULT_INVALID;
+                }
+                mMessage = new byte[length];
+            }
+            count = Math.min(count, mMessage.length - mMessageSize);
+            ByteBuffer input = buffer.duplicate();
+            input.limit(position + count).position(position);
+            input.get(mMessage, mMessageSize, count);
+            mMessageSize += count;
+            position += count;
+            if (mMessageSize == mMessage.length) {
+                mClientHello = parseClientHello(ByteBuffer.wrap(mMessage));
+                mMessage = null;
+                return mResult = mClientHello != null ? RESULT_DONE : RESULT_INVALID;
+            }
+        }
+        return RESULT_NEED_MORE;
+    }
+
+    /**
+     * Returns the parsed ClientHello.
+     *
+     * @return The ClientHello, or null if the result is not {@link #RESULT_DONE}.
+     */
+    @Nullable
+    public SSLClientHello clientHello() {
+        return mClientHello;
+    }
+
+    private static SSLClientHello parseClientHello(ByteBuffer message) {
+        try {
+            int version = message.getShort() & 0xFFFF;
+            // Skip the 32 bytes random.
+            skip(message, 32);
+            // Skip the session id.
+            skip(message, message.get() & 0xFF);
+
+            ByteBuffer cipherSuites = vector(message, message.getShort() & 0xFFFF);
+            int[] ciphers = new int[cipherSuites.remaining() / 2];
+            for (int i = 0; i < ciphers.length; i++) {
+                ciphers[i] = cipherSuites.getShort() & 0xFFFF;
+            }
+            // Skip the compression methods.
+            skip(message, message.get() & 0xFF);
+
+            String serverName = null;
+            String[] alpnProtocols = new String[0];
+            int[] supportedVersions = new int[0];
+            int[] supportedGroups = new int[0];
+            int[] ecPointFormats = new int[0];
+            int[] extensionTypes = new int[0];
+            if (message.hasRemaining()) {
+                ByteBuffer extensions = vector(message, message.getShort() & 0xFFFF);
+                // Each extension takes at least 4 bytes.
+                extensionTypes = new int[extensions.remaining() / 4];
+                int extensionCount = 0;
+                while (extensions.hasRemaining()) {
+                    int type = extensions.getShort() & 0xFFFF;
+                    ByteBuffer data = vector(extensions, extensions.getShort() & 0xFFFF);
+                    extensionTypes[extensionCount++] = type;
+                    switch (type) {
+                        case EXTENSION_SERVER_NAME:
+                            serverName = parseServerName(data);
+                            break;
+                        case EXTENSION_ALPN:
+                            alpnProtocols = parseAlpn(data);
+                            break;
+                        case EXTENSION_SUPPORTED_VERSIONS:
+                            supportedVersions = readShorts(vector(data, data.get() & 0xFF));
+                            break;
+                        case EXTENSION_SUPPORTED_GROUPS:
+                            supportedGroups = readShorts(vector(data,
+                                    data.getShort() & 0xFFFF));
+                            break;
+                        case EXTENSION_EC_POINT_FORMATS:
+                            ByteBuffer formats = vector(data, data.get() & 0xFF);
+                            ecPointFormats = new int[formats.remaining()];
+                            for (int i = 0; i < ecPointFormats.length; i++) {
+                                ecPointFormats[i] = formats.get() & 0xFF;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                if (extensionCount < extensionTypes.length) {
+                    int[] types = new int[extensionCount];
+                    System.arraycopy(extensionTypes, 0, types, 0, extensionCount);
+                    extensionTypes = types;
+                }
+            }
+            return new SSLClientHello(version, serverName, alpnProtocols, supportedVersions,
+                    ciphers, extensionTypes, supportedGroups, ecPointFormats);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // The lengths don't match the data.
+            return null;
+        }
+    }
+
+    private static String parseServerName(ByteBuffer data) {
+        ByteBuffer list = vector(data, data.getShort() & 0xFFFF);
+        while (list.hasRemaining()) {
+            int type = list.get() & 0xFF;
+            ByteBuffer name = vector(list, list.getShort() & 0xFFFF);
+            if (type == SERVER_NAME_TYPE_HOST_NAME && name.hasRemaining()) {
+                return new String(name.array(), name.arrayOffset() + name.position(),
+                        name.remaining());
+            }
+        }
+        return null;
+    }
+
+    private static String[] parseAlpn(ByteBuffer data) {
+        ByteBuffer list = vector(data, data.getShort() & 0xFFFF);
+        // Each protocol takes at least 1 byte.
+        String[] protocols = new String[list.remaining()];
+        int count = 0;
+        while (list.hasRemaining()) {
+            ByteBuffer protocol = vector(list, list.get() & 0xFF);
+            protocols[count++] = new String(protocol.array(),
+                    protocol.arrayOffset() + protocol.position(), protocol.remaining());
+        }
+        if (count == protocols.length) {
+            return protocols;
+        }
+        String[] result = new String[count];
+        System.arraycopy(protocols, 0, result, 0, count);
+        return result;
+    }
+
+    private static int[] readShorts(ByteBuffer data) {
+        int[] values = new int[data.remaining() / 2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data.getShort() & 0xFFFF;
+        }
+        return values;
+    }
+
+    /**
+     * Returns a view of the next length bytes and skips them.
+     */
+    private static ByteBuffer vector(ByteBuffer buffer, int length) {
+        ByteBuffer vector = buffer.slice();
+        vector.limit(length);
+        skip(buffer, length);
+        return vector;
+    }
+
+    private static void skip(ByteBuffer buffer, int length) {
+        buffer.position(buffer.position() + length);
+    }
+
+}
@@ -16,6 +16,7 @@
 package com.github.megatronking.netbare.ssl;
 
 import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
 import com.github.megatronking.netbare.NetBareLog;
@@ -98,6 +99,7 @@ public abstract class SSLCodec {
     private boolean mEngineClosed;
     private boolean mHandshakeStarted;
     private boolean mHandshakeFinished;
+    private long mHandshakeStartTime;
 
     private Queue<ByteBuffer> mPlaintextBuffers;
 
@@ -198,11 +200,20 @@ public abstract class SSLCodec {
         }
     }
 
+    /**
+     * Invoked when the handshake is finished.
+     *
+     * @param nanos The handshake duration in nanoseconds.
+     */
+    protected void onHandshakeFinished(long nanos) {
+    }
+
     /* package */ void handshake(SSLEngine engine, ByteBuffer input, CodecCallback callback)
             throws IOException {
         if (!mHandshakeStarted) {
             engine.beginHandshake();
             mHandshakeStarted = true;
+            mHandshakeStartTime = SystemClock.elapsedRealtimeNanos();
         }
         SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
         while (!mHandshakeFinished) {
@@ -215,6 +226,7 @@ public abstract class SSLCodec {
             } else if (status == SSLEngineResult.HandshakeStatus.FINISHED) {
                 mHandshakeFinished = true;
                 NetBareLog.i("SSL handshake finished!");
+                onHandshakeFinished(SystemClock.elapsedRealtimeNanos() - mHandshakeStartTime);
                 if (input.hasRemaining()) {
                     decode(engine, input, callback);
                 }
@@ -228,6 +240,7 @@ public abstract class SSLCodec {
                 status = handshakeUnwrap(engine, input, callback).getHandshakeStatus();
             } else if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
                 runDelegatedTasks(engine);
+                status = engine.getHandshakeStatus();
             }
         }
     }
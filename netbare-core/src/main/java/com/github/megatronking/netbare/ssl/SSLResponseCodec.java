@@ -17,6 +17,7 @@ package com.github.megatronking.netbare.ssl;
 
 import com.github.megatronking.netbare.NetBareLog;
 import com.github.megatronking.netbare.gateway.Request;
+import com.github.megatronking.netbare.metrics.Metrics;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -73,6 +74,11 @@ public class SSLResponseCodec extends SSLCodec {
         return mEngine;
     }
 
+    @Override
+    protected void onHandshakeFinished(long nanos) {
+        Metrics.get().recordTlsHandshake(nanos);
+    }
+
     /**
      * Prepare and start SSL handshake with the remote server.
      *
@@ -15,6 +15,8 @@
  */
 package com.github.megatronking.netbare.ssl;
 
+import android.support.annotation.Nullable;
+
 import com.github.megatronking.netbare.NetBareLog;
 import com.github.megatronking.netbare.http.HttpProtocol;
 
@@ -148,94 +150,39 @@ public final class SSLUtils {
         return PACKET_SSL;
     }
 
+    /**
+     * Parse the HTTP protocols of the ALPN extension in a complete ClientHello record.
+     *
+     * @param clienthelloMessage A buffer starts with the ClientHello record.
+     * @return The HTTP/1.1 and HTTP/2 protocols in the client's preference order, or null if
+     * there is none.
+     */
     public static HttpProtocol[] parseClientHelloAlpn(ByteBuffer clienthelloMessage) {
-        byte[] buffer = clienthelloMessage.array();
-        int offset = clienthelloMessage.position();
-        int size = clienthelloMessage.remaining();
-        int limit = offset + size;
-        // Client Hello
-        if (size <= 43 || buffer[offset] != 0x16) {
-            return null;
-        }
-        // Skip 43 byte header
-        offset += 43;
-        // Read sessionID
-        if (offset + 1 > limit) {
-            return null;
-        }
-        int sessionIDLength = buffer[offset++] & 0xFF;
-        offset += sessionIDLength;
-
-        // Read cipher suites
-        if (offset + 2 > limit) {
-            return null;
-        }
-
-        int cipherSuitesLength = readShort(buffer, offset) & 0xFFFF;
-        offset += 2;
-        offset += cipherSuitesLength;
+        return parseClientHelloAlpn(SSLClientHelloParser.parse(clienthelloMessage));
+    }
 
-        // Read Compression method.
-        if (offset + 1 > limit) {
+    /**
+     * Returns the HTTP protocols of the ALPN extension in the ClientHello.
+     *
+     * @param clientHello A parsed ClientHello.
+     * @return The HTTP/1.1 and HTTP/2 protocols in the client's preference order, or null if
+     * there is none.
+     */
+    public static HttpProtocol[] parseClientHelloAlpn(@Nullable SSLClientHello clientHello) {
+        if (clientHello == null) {
             return null;
         }
-        int compressionMethodLength = buffer[offset++] & 0xFF;
-        offset += compressionMethodLength;
-
-        // Read Extensions
-        if (offset + 2 > limit) {
-            return null;
+        List<HttpProtocol> httpProtocols = new ArrayList<>(2);
+        for (String alpnProtocol : clientHello.alpnProtocols()) {
+            HttpProtocol protocol = HttpProtocol.parse(alpnProtocol);
+            if (protocol == HttpProtocol.HTTP_1_1 || protocol == HttpProtocol.HTTP_2) {
+                httpProtocols.add(protocol);
+            }
         }
-        int extensionsLength = readShort(buffer, offset) & 0xFFFF;
-        offset += 2;
-
-        if (offset + extensionsLength > limit) {
+        if (httpProtocols.isEmpty()) {
             return null;
         }
-
-        while (offset + 4 <= limit) {
-            int type = readShort(buffer, offset) & 0xFFFF;
-            offset += 2;
-            int length = readShort(buffer, offset) & 0xFFFF;
-            offset += 2;
-            // TYPE_APPLICATION_LAYER_PROTOCOL_NEGOTIATION = 16
-            if (type == 16) {
-                int protocolCount = readShort(buffer, offset) & 0xFFFF;
-                offset += 2;
-                length -= 2;
-                if (offset + length > limit) {
-                    return null;
-                }
-                List<HttpProtocol> httpProtocols = new ArrayList<>();
-                int read = 0;
-                while (read <= protocolCount) {
-                    int protocolLength = buffer[offset + read];
-                    read += 1;
-                    if (protocolLength < 0 || offset + read + protocolLength > buffer.length) {
-                        return null;
-                    }
-                    HttpProtocol protocol = HttpProtocol.parse(new String(buffer, offset + read,
-                            protocolLength));
-                    if (protocol == HttpProtocol.HTTP_1_1 || protocol == HttpProtocol.HTTP_2) {
-                        httpProtocols.add(protocol);
-                    }
-                    read += protocolLength;
-                }
-                if (httpProtocols.isEmpty()) {
-                    return null;
-                } else {
-                    HttpProtocol[] protocols = new HttpProtocol[httpProtocols.size()];
-                    for (int i = 0; i < protocols.length; i++) {
-                        protocols[i] = httpProtocols.get(i);
-                    }
-                    return protocols;
-                }
-            } else {
-                offset += length;
-            }
-
-        }
-        return null;
+        return httpProtocols.toArray(new HttpProtocol[httpProtocols.size()]);
     }
 
     private static int unsignedByte(ByteBuffer buffer, int index) {
@@ -246,9 +193,4 @@ public final class SSLUtils {
         return buffer.getShort(index) & 0x0FFFF;
     }
 
-    private static short readShort(byte[] data, int offset) {
-        int r = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
-        return (short) r;
-    }
-
 }
@@ -0,0 +1,42 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.tunnel;
+
+import java.io.IOException;
+
+/**
+ * A callback to be invoked when a {@link NioTunnel} has wrote all its pending buffers to the
+ * terminal. It is used to produce large data at the pace of the terminal instead of queueing all
+ * of it in memory.
+ *
+ * @author Megatron King
+ * @since 2019-04-02 21:05
+ */
+public interface DrainCallback {
+
+    /**
+     * Invoked on the selector thread when all the pending buffers have been wrote.
+     *
+     * @throws IOException If an I/O error has occurred.
+     */
+    void onDrained() throws IOException;
+
+    /**
+     * Invoked when the tunnel is closed before the pending buffers are wrote.
+     */
+    void onAborted();
+
+}
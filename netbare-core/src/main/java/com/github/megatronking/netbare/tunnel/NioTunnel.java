@@ -80,6 +80,7 @@ public abstract class NioTunnel<T extends AbstractSelectableChannel, S> implemen
     private Deque<ByteBuffer> mPendingBuffers;
 
     private NioCallback mCallback;
+    private DrainCallback mDrainCallback;
     private boolean mIsClosed;
 
     NioTunnel(T channel, Selector selector) {
@@ -119,6 +120,11 @@ public abstract class NioTunnel<T extends AbstractSelectableChannel, S> implemen
             }
         }
         interestRead();
+        DrainCallback drainCallback = mDrainCallback;
+        if (drainCallback != null) {
+            mDrainCallback = null;
+            drainCallback.onDrained();
+        }
     }
 
     @Override
@@ -138,6 +144,11 @@ public abstract class NioTunnel<T extends AbstractSelectableChannel, S> implemen
         mIsClosed = true;
         mPendingBuffers.clear();
         NetBareUtils.closeQuietly(mChannel);
+        DrainCallback drainCallback = mDrainCallback;
+        if (drainCallback != null) {
+            mDrainCallback = null;
+            drainCallback.onAborted();
+        }
     }
 
     @Override
@@ -161,10 +172,35 @@ public abstract class NioTunnel<T extends AbstractSelectableChannel, S> implemen
         return len;
     }
 
+    /**
+     * Waits until all the pending buffers have been wrote to the terminal, the callback is invoked
+     * once on the selector thread, never synchronously. Only one callback is kept, the previous
+     * one is aborted.
+     *
+     * @param callback A callback to be invoked when the tunnel is drained.
+     */
+    public void awaitDrained(DrainCallback callback) {
+        DrainCallback previous = mDrainCallback;
+        mDrainCallback = null;
+        if (previous != null) {
+            previous.onAborted();
+        }
+        if (mIsClosed) {
+            callback.onAborted();
+            return;
+        }
+        mDrainCallback = callback;
+        interestWrite();
+    }
+
     public boolean isClosed() {
         return mIsClosed;
     }
 
+    /* package */ boolean hasPendingBuffers() {
+        return !mPendingBuffers.isEmpty();
+    }
+
     /* package */ void setNioCallback(NioCallback callback) {
         this.mCallback = callback;
     }
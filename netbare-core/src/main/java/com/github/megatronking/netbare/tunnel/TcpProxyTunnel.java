@@ -15,6 +15,9 @@
  */
 package com.github.megatronking.netbare.tunnel;
 
+import android.util.Log;
+
+import com.github.megatronking.netbare.NetBareLog;
 import com.github.megatronking.netbare.NetBareXLog;
 import com.github.megatronking.netbare.ip.Protocol;
 
@@ -56,13 +59,17 @@ public class TcpProxyTunnel extends TcpTunnel {
     @Override
     public int read(ByteBuffer buffer) throws IOException {
         int len = super.read(buffer);
-        mLog.i("Read from proxy: " + len);
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            mLog.i("Read from proxy: " + len);
+        }
         return len;
     }
 
     @Override
     public void write(ByteBuffer buffer) throws IOException {
-        mLog.i("Write to proxy: " + buffer.remaining());
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            mLog.i("Write to proxy: " + buffer.remaining());
+        }
         super.write(buffer);
     }
 
@@ -15,9 +15,11 @@
  */
 package com.github.megatronking.netbare.tunnel;
 
-import android.net.VpnService;
+import android.util.Log;
 
+import com.github.megatronking.netbare.NetBareLog;
 import com.github.megatronking.netbare.NetBareXLog;
+import com.github.megatronking.netbare.SocketProtector;
 import com.github.megatronking.netbare.ip.Protocol;
 
 import java.io.IOException;
@@ -34,20 +36,20 @@ import java.nio.channels.SocketChannel;
  */
 public class TcpRemoteTunnel extends TcpTunnel {
 
-    private final VpnService mVpnService;
+    private final SocketProtector mProtector;
 
     private NetBareXLog mLog;
 
-    public TcpRemoteTunnel(VpnService vpnService, SocketChannel channel, Selector selector,
+    public TcpRemoteTunnel(SocketProtector protector, SocketChannel channel, Selector selector,
                            String remoteIp, int remotePort) {
         super(channel, selector);
-        this.mVpnService = vpnService;
+        this.mProtector = protector;
         this.mLog = new NetBareXLog(Protocol.TCP, remoteIp, remotePort);
     }
 
     @Override
     public void connect(InetSocketAddress address) throws IOException {
-        if (mVpnService.protect(socket())) {
+        if (mProtector.protect(socket())) {
             super.connect(address);
             mLog.i("Connect to remote server %s", address);
         } else {
@@ -64,13 +66,17 @@ public class TcpRemoteTunnel extends TcpTunnel {
     @Override
     public int read(ByteBuffer buffer) throws IOException {
         int len = super.read(buffer);
-        mLog.i("Read from remote: " + len);
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            mLog.i("Read from remote: " + len);
+        }
         return len;
     }
 
     @Override
     public void write(ByteBuffer buffer) throws IOException {
-        mLog.i("Write to remote: " + buffer.remaining());
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            mLog.i("Write to remote: " + buffer.remaining());
+        }
         super.write(buffer);
     }
 
@@ -15,16 +15,20 @@
  */
 package com.github.megatronking.netbare.tunnel;
 
+import android.os.SystemClock;
+
 import com.github.megatronking.netbare.NetBareUtils;
 import com.github.megatronking.netbare.NetBareVirtualGateway;
 import com.github.megatronking.netbare.gateway.Request;
 import com.github.megatronking.netbare.gateway.Response;
 import com.github.megatronking.netbare.gateway.VirtualGateway;
+import com.github.megatronking.netbare.metrics.Metrics;
 import com.github.megatronking.netbare.net.Session;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 
 /**
  * TCP protocol virtual gateway tunnel wraps {@link TcpProxyTunnel} and {@link TcpRemoteTunnel} as
@@ -35,13 +39,17 @@ import java.nio.ByteBuffer;
  */
 public class TcpVATunnel extends VirtualGatewayTunnel {
 
+    private final Session mSession;
     private final NioTunnel mRemoteTunnel;
     private final NioTunnel mProxyTunnel;
     private VirtualGateway mGateway;
 
     private final int mMtu;
 
+    private long mConnectStartTime;
+
     public TcpVATunnel(Session session, NioTunnel proxyServerTunnel, NioTunnel remoteServerTunnel, int mtu) {
+        this.mSession = session;
         this.mProxyTunnel = proxyServerTunnel;
         this.mRemoteTunnel = remoteServerTunnel;
         this.mGateway = new NetBareVirtualGateway(session, new Request(mRemoteTunnel),
@@ -59,6 +67,7 @@ public class TcpVATunnel extends VirtualGatewayTunnel {
 
     @Override
     public void connect(InetSocketAddress address) throws IOException {
+        mConnectStartTime = SystemClock.elapsedRealtimeNanos();
         mRemoteTunnel.connect(address);
     }
 
@@ -108,6 +117,9 @@ public class TcpVATunnel extends VirtualGatewayTunnel {
         mRemoteTunnel.setNioCallback(new NioCallback() {
             @Override
             public void onConnected() throws IOException {
+                long duration = SystemClock.elapsedRealtimeNanos() - mConnectStartTime;
+                mSession.connectTime = TimeUnit.NANOSECONDS.toMicros(duration);
+                Metrics.get().recordTcpConnect(duration);
                 // Prepare to read data.
                 mProxyTunnel.prepareRead();
                 mRemoteTunnel.prepareRead();
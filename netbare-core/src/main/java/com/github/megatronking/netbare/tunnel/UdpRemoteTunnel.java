@@ -15,9 +15,11 @@
  */
 package com.github.megatronking.netbare.tunnel;
 
-import android.net.VpnService;
+import android.util.Log;
 
+import com.github.megatronking.netbare.NetBareLog;
 import com.github.megatronking.netbare.NetBareXLog;
+import com.github.megatronking.netbare.SocketProtector;
 import com.github.megatronking.netbare.ip.Protocol;
 
 import java.io.IOException;
@@ -34,19 +36,19 @@ import java.nio.channels.Selector;
  */
 public class UdpRemoteTunnel extends UdpTunnel {
 
-    private final VpnService mVpnService;
+    private final SocketProtector mProtector;
     private NetBareXLog mLog;
 
-    public UdpRemoteTunnel(VpnService vpnService, DatagramChannel channel, Selector selector,
+    public UdpRemoteTunnel(SocketProtector protector, DatagramChannel channel, Selector selector,
                            String remoteIp, short remotePort) {
         super(channel, selector);
-        this.mVpnService = vpnService;
+        this.mProtector = protector;
         this.mLog = new NetBareXLog(Protocol.UDP, remoteIp, remotePort);
     }
 
     @Override
     public void connect(InetSocketAddress address) throws IOException {
-        if (mVpnService.protect(socket())) {
+        if (mProtector.protect(socket())) {
             super.connect(address);
             mLog.i("Connect to remote server %s", address);
         } else {
@@ -57,13 +59,17 @@ public class UdpRemoteTunnel extends UdpTunnel {
     @Override
     public int read(ByteBuffer buffer) throws IOException {
         int len = super.read(buffer);
-        mLog.i("Read from remote: " + len);
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            mLog.i("Read from remote: " + len);
+        }
         return len;
     }
 
     @Override
     public void write(ByteBuffer buffer) throws IOException {
-        mLog.i("Write to remote: " + buffer.remaining());
+        if (NetBareLog.isLoggable(Log.INFO)) {
+            mLog.i("Write to remote: " + buffer.remaining());
+        }
         super.write(buffer);
     }
 
@@ -50,6 +50,17 @@ public abstract class UdpTunnel extends NioTunnel<DatagramChannel, DatagramSocke
         prepareRead();
     }
 
+    @Override
+    public void write(ByteBuffer buffer) throws IOException {
+        // A datagram is sent as a whole or not at all, send it right away unless the earlier
+        // ones are still waiting for the channel, this saves a select for every datagram.
+        if (!isClosed() && buffer.hasRemaining() && !hasPendingBuffers()
+                && channelWrite(buffer) > 0) {
+            return;
+        }
+        super.write(buffer);
+    }
+
     @Override
     public DatagramSocket socket() {
         return mDatagramChannel.socket();
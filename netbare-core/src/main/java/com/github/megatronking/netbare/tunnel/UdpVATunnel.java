@@ -36,8 +36,9 @@ import com.github.megatronking.netbare.NetBareVirtualGateway;
 import com.github.megatronking.netbare.gateway.Request;
 import com.github.megatronking.netbare.gateway.Response;
 import com.github.megatronking.netbare.gateway.VirtualGateway;
-import com.github.megatronking.netbare.ip.IpHeader;
 import com.github.megatronking.netbare.ip.UdpHeader;
+import com.github.megatronking.netbare.ip.UdpPacketBuilder;
+import com.github.megatronking.netbare.metrics.Metrics;
 import com.github.megatronking.netbare.net.Session;
 
 import java.io.IOException;
@@ -55,6 +56,11 @@ import java.nio.ByteBuffer;
 public class UdpVATunnel extends VirtualGatewayTunnel implements NioCallback,
         Tunnel {
 
+    /**
+     * The max datagrams read from the remote server in one selector wakeup.
+     */
+    private static final int MAX_READ_BATCH = 32;
+
     private final NioTunnel mRemoteTunnel;
     private final OutputStream mOutput;
 
@@ -63,7 +69,7 @@ public class UdpVATunnel extends VirtualGatewayTunnel implements NioCallback,
     private Session mSession;
     private VirtualGateway mGateway;
 
-    private UdpHeader mTemplateHeader;
+    private UdpPacketBuilder mPacketBuilder;
 
     public UdpVATunnel(Session session, NioTunnel tunnel, OutputStream output, int mtu) {
         this.mRemoteTunnel = tunnel;
@@ -98,18 +104,28 @@ public class UdpVATunnel extends VirtualGatewayTunnel implements NioCallback,
             mGateway.onResponseFinished();
             return;
         }
-        ByteBuffer buffer = ByteBuffer.allocate(mMtu);
-        int len;
-        try {
-            len = mRemoteTunnel.read(buffer);
-        } catch (IOException e) {
-            throw new ConnectionShutdownException(e.getMessage());
+        // Drain the datagrams queued in the socket, they are likely to come in bursts.
+        for (int i = 0; i < MAX_READ_BATCH; i++) {
+            // The gateway may hold the buffer, a new one is required for every datagram.
+            ByteBuffer buffer = ByteBuffer.allocate(mMtu);
+            int len;
+            try {
+                len = mRemoteTunnel.read(buffer);
+            } catch (IOException e) {
+                throw new ConnectionShutdownException(e.getMessage());
+            }
+            if (len < 0) {
+                close();
+                return;
+            }
+            if (len == 0) {
+                return;
+            }
+            mGateway.onResponse(buffer);
+            if (mRemoteTunnel.isClosed()) {
+                return;
+            }
         }
-        if (len < 0) {
-            close();
-            return;
-        }
-        mGateway.onResponse(buffer);
     }
 
     @Override
@@ -137,9 +153,9 @@ public class UdpVATunnel extends VirtualGatewayTunnel implements NioCallback,
         if (mRemoteTunnel.isClosed()) {
             return;
         }
-        // Clone a template by the send data.
-        if (mTemplateHeader == null) {
-            mTemplateHeader = createTemplate(header);
+        // Build the response header template by the first packet.
+        if (mPacketBuilder == null) {
+            mPacketBuilder = new UdpPacketBuilder(header, mMtu);
         }
 
         try {
@@ -151,47 +167,18 @@ public class UdpVATunnel extends VirtualGatewayTunnel implements NioCallback,
     }
 
     @Override
-    public void write(ByteBuffer buffer) throws IOException {
-        // Write to vpn.
-        UdpHeader header = mTemplateHeader.copy();
-        ByteBuffer headerBuffer = header.buffer();
-        int headLength = header.getIpHeader().getHeaderLength() + header.getHeaderLength();
-        byte[] packet = new byte[headLength + buffer.remaining()];
-        headerBuffer.get(packet, 0, headLength);
-        buffer.get(packet, headLength, packet.length - headLength);
-
-        IpHeader ipHeader = new IpHeader(packet, 0);
-        ipHeader.setTotalLength((short) packet.length);
-
-        UdpHeader udpHeader = new UdpHeader(ipHeader, packet, ipHeader.getHeaderLength());
-        udpHeader.setTotalLength((short) (packet.length - ipHeader.getHeaderLength()));
-
-        ipHeader.updateChecksum();
-        udpHeader.updateChecksum();
-
-        mOutput.write(packet, 0, packet.length);
-
-        mSession.receiveDataSize += packet.length;
+    public synchronized void write(ByteBuffer buffer) throws IOException {
+        // Write to vpn, the response packet is assembled in the builder's reused array.
+        int dataLength = buffer.remaining();
+        int length = mPacketBuilder.build(buffer);
+        mOutput.write(mPacketBuilder.packet(), 0, length);
+
+        mSession.receiveDataSize += length;
+        Metrics.get().onDataReceived(dataLength);
     }
 
     public NioTunnel getRemoteChannel() {
         return mRemoteTunnel;
     }
 
-    private UdpHeader createTemplate(UdpHeader header) {
-        UdpHeader templateUdp = header.copy();
-        IpHeader templateIp = templateUdp.getIpHeader();
-        // Swap ip
-        int sourceIp = templateIp.getSourceIp();
-        int destinationIp = templateIp.getDestinationIp();
-        templateIp.setSourceIp(destinationIp);
-        templateIp.setDestinationIp(sourceIp);
-        // Swap port
-        short sourcePort = templateUdp.getSourcePort();
-        short destinationPort = templateUdp.getDestinationPort();
-        templateUdp.setDestinationPort(sourcePort);
-        templateUdp.setSourcePort(destinationPort);
-        return templateUdp;
-    }
-
 }
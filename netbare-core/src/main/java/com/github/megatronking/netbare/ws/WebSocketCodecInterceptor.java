@@ -0,0 +1,172 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ws;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.megatronking.netbare.NetBareXLog;
+import com.github.megatronking.netbare.http.HttpIndexedInterceptor;
+import com.github.megatronking.netbare.http.HttpProtocol;
+import com.github.megatronking.netbare.http.HttpRequest;
+import com.github.megatronking.netbare.http.HttpRequestChain;
+import com.github.megatronking.netbare.http.HttpResponse;
+import com.github.megatronking.netbare.http.HttpResponseChain;
+import com.github.megatronking.netbare.ip.Protocol;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A non-blocking web socket codec interceptor, it decodes the frames after the HTTP connection is
+ * upgraded to web socket and delivers the messages to {@link WebSocketMessageCallback}s. The
+ * buffers are decoded in place and forwarded as they are, messages are never buffered.
+ *
+ * Add it by a {@link com.github.megatronking.netbare.http.HttpInterceptorFactory}, every HTTP
+ * session has its own instance.
+ *
+ * @author Megatron King
+ * @since 2019-04-13 11:35
+ */
+public class WebSocketCodecInterceptor extends HttpIndexedInterceptor {
+
+    private static final String EXTENSION_HEADER = "Sec-WebSocket-Extensions";
+    private static final String EXTENSION_DEFLATE = "permessage-deflate";
+
+    private final WebSocketMessageCallback mRequestCallback;
+    private final WebSocketMessageCallback mResponseCallback;
+
+    private WebSocketDecoder mRequestDecoder;
+    private WebSocketDecoder mResponseDecoder;
+
+    private NetBareXLog mLog;
+
+    /**
+     * Constructs a codec interceptor.
+     *
+     * @param requestCallback The callback of messages sent by the client, null means ignored.
+     * @param responseCallback The callback of messages sent by the server, null means ignored.
+     */
+    public WebSocketCodecInterceptor(@Nullable WebSocketMessageCallback requestCallback,
+                                     @Nullable WebSocketMessageCallback responseCallback) {
+        this.mRequestCallback = requestCallback;
+        this.mResponseCallback = responseCallback;
+    }
+
+    @Override
+    protected void intercept(@NonNull HttpRequestChain chain, @NonNull ByteBuffer buffer,
+                             int index) throws IOException {
+        if (mRequestDecoder != null && buffer.hasRemaining()) {
+            try {
+                mRequestDecoder.decode(buffer);
+            } catch (ProtocolException e) {
+                mLog.w("Stop decoding web socket request: " + e.getMessage());
+                mRequestDecoder.release();
+                mRequestDecoder = null;
+            }
+        }
+        chain.process(buffer);
+    }
+
+    @Override
+    protected void intercept(@NonNull HttpResponseChain chain, @NonNull ByteBuffer buffer,
+                             int index) throws IOException {
+        if (index == 0) {
+            // The response header is parsed, check whether the connection is upgraded.
+            HttpResponse response = chain.response();
+            if (response.httpProtocol() == HttpProtocol.HTTP_1_1 && response.isWebSocket()) {
+                upgrade(response);
+            }
+        } else if (mResponseDecoder != null && buffer.hasRemaining()) {
+            try {
+                mResponseDecoder.decode(buffer);
+            } catch (ProtocolException e) {
+                mLog.w("Stop decoding web socket response: " + e.getMessage());
+                mResponseDecoder.release();
+                mResponseDecoder = null;
+            }
+        }
+        chain.process(buffer);
+    }
+
+    @Override
+    public void onRequestFinished(@NonNull HttpRequest request) {
+        super.onRequestFinished(request);
+        if (mRequestDecoder != null) {
+            mRequestDecoder.release();
+            mRequestDecoder = null;
+        }
+    }
+
+    @Override
+    public void onResponseFinished(@NonNull HttpResponse response) {
+        super.onResponseFinished(response);
+        if (mResponseDecoder != null) {
+            mResponseDecoder.release();
+            mResponseDecoder = null;
+        }
+    }
+
+    private void upgrade(HttpResponse response) {
+        mLog = new NetBareXLog(Protocol.TCP, response.ip(), response.port());
+        if (mRequestCallback != null) {
+            mRequestDecoder = new WebSocketDecoder(mRequestCallback);
+        }
+        if (mResponseCallback != null) {
+            mResponseDecoder = new WebSocketDecoder(mResponseCallback);
+        }
+        List<String> extensions = null;
+        for (Map.Entry<String, List<String>> entry : response.responseHeaders().entrySet()) {
+            if (EXTENSION_HEADER.equalsIgnoreCase(entry.getKey())) {
+                extensions = entry.getValue();
+            }
+        }
+        if (extensions == null) {
+            return;
+        }
+        // Sec-WebSocket-Extensions: permessage-deflate; client_no_context_takeover
+        for (String value : extensions) {
+            for (String extension : value.split(",")) {
+                String[] params = extension.split(";");
+                if (!EXTENSION_DEFLATE.equalsIgnoreCase(params[0].trim())) {
+                    continue;
+                }
+                boolean clientNoContextTakeover = false;
+                boolean serverNoContextTakeover = false;
+                for (int i = 1; i < params.length; i++) {
+                    String param = params[i].trim();
+                    if ("client_no_context_takeover".equalsIgnoreCase(param)) {
+                        clientNoContextTakeover = true;
+                    } else if ("server_no_context_takeover".equalsIgnoreCase(param)) {
+                        serverNoContextTakeover = true;
+                    }
+                }
+                mLog.i("Web socket permessage-deflate is enabled.");
+                if (mRequestDecoder != null) {
+                    mRequestDecoder.enableDeflate(clientNoContextTakeover);
+                }
+                if (mResponseDecoder != null) {
+                    mResponseDecoder.enableDeflate(serverNoContextTakeover);
+                }
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,365 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ws;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static java.lang.Integer.toHexString;
+
+/**
+ * A non-blocking web socket frame decoder. Frames are parsed incrementally from buffers of any
+ * size, a frame may be split across buffers. Message payloads are unmasked in place and delivered
+ * to the {@link WebSocketMessageCallback} piece by piece, then masked back again, so the buffers
+ * can be forwarded as they are. See https://tools.ietf.org/html/rfc6455#section-5
+ *
+ * The permessage-deflate extension is supported, compressed messages are inflated with one
+ * inflater shared by all messages unless the context takeover is disabled.
+ * See https://tools.ietf.org/html/rfc7692
+ *
+ * @author Megatron King
+ * @since 2019-04-13 10:48
+ */
+/* package */ final class WebSocketDecoder {
+
+    /**
+     * 2 bytes header, 8 bytes extended payload length and 4 bytes mask key.
+     */
+    private static final int MAX_HEADER_SIZE = 14;
+
+    private static final int INFLATE_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The tail removed from each compressed message by the sender.
+     */
+    private static final byte[] DEFLATE_TAIL = new byte[] {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final WebSocketMessageCallback mCallback;
+
+    private final byte[] mHeader;
+    private final byte[] mMaskKey;
+    private final byte[] mControlPayload;
+
+    private int mHeaderSize;
+    private int mHeaderLength;
+
+    private int mOpcode;
+    private boolean mMasked;
+    private boolean mFinalFrame;
+    private boolean mControlFrame;
+    private long mFrameLength;
+    private long mFrameOffset;
+
+    private boolean mInMessage;
+    private boolean mMessageCompressed;
+
+    private boolean mDeflate;
+    private boolean mNoContextTakeover;
+    private Inflater mInflater;
+    private byte[] mInflated;
+    private byte[] mInflateInput;
+
+    /* package */ WebSocketDecoder(WebSocketMessageCallback callback) {
+        this.mCallback = callback;
+        this.mHeader = new byte[MAX_HEADER_SIZE];
+        this.mMaskKey = new byte[4];
+        this.mControlPayload = new byte[(int) WebSocketProtocol.PAYLOAD_BYTE_MAX];
+    }
+
+    /**
+     * Enable the permessage-deflate extension.
+     *
+     * @param noContextTakeover Whether the sender resets the compression context after each
+     *                          message.
+     */
+    /* package */ void enableDeflate(boolean noContextTakeover) {
+        this.mDeflate = true;
+        this.mNoContextTakeover = noContextTakeover;
+    }
+
+    /**
+     * Decode the remaining bytes of the buffer. The buffer's position, limit and content are not
+     * changed after decoding.
+     *
+     * @param buffer A buffer contains web socket frames or part of them.
+     * @throws IOException If an I/O error has occurred.
+     */
+    /* package */ void decode(ByteBuffer buffer) throws IOException {
+        ByteBuffer input = buffer.duplicate();
+        while (input.hasRemaining()) {
+            if (mHeaderLength == 0 || mHeaderSize < mHeaderLength) {
+                if (!readHeader(input)) {
+                    return;
+                }
+                if (mFrameLength == 0) {
+                    finishFrame();
+                }
+                continue;
+            }
+            int length = (int) Math.min(input.remaining(), mFrameLength - mFrameOffset);
+            ByteBuffer payload = input.duplicate();
+            payload.limit(payload.position() + length);
+            input.position(payload.limit());
+            if (mControlFrame) {
+                readControlPayload(payload);
+            } else {
+                readMessagePayload(payload);
+            }
+            mFrameOffset += length;
+            if (mFrameOffset == mFrameLength) {
+                finishFrame();
+            }
+        }
+    }
+
+    /**
+     * Release the inflater, the decoder can not be used any more.
+     */
+    /* package */ void release() {
+        if (mInflater != null) {
+            mInflater.end();
+            mInflater = null;
+        }
+    }
+
+    private boolean readHeader(ByteBuffer input) throws IOException {
+        // Each frame starts with two bytes of data.
+        //
+        // 0 1 2 3 4 5 6 7    0 1 2 3 4 5 6 7
+        // +-+-+-+-+-------+  +-+-------------+
+        // |F|R|R|R| OP    |  |M| LENGTH      |
+        // |I|S|S|S| CODE  |  |A|             |
+        // |N|V|V|V|       |  |S|             |
+        // | |1|2|3|       |  |K|             |
+        // +-+-+-+-+-------+  +-+-------------+
+        while (mHeaderSize < 2) {
+            if (!input.hasRemaining()) {
+                return false;
+            }
+            mHeader[mHeaderSize++] = input.get();
+        }
+        if (mHeaderLength == 0) {
+            int b1 = mHeader[1] & 0xff;
+            int length = b1 & WebSocketProtocol.B1_MASK_LENGTH;
+            mHeaderLength = 2;
+            if (length == WebSocketProtocol.PAYLOAD_SHORT) {
+                mHeaderLength += 2;
+            } else if (length == WebSocketProtocol.PAYLOAD_LONG) {
+                mHeaderLength += 8;
+            }
+            if ((b1 & WebSocketProtocol.B1_FLAG_MASK) != 0) {
+                mHeaderLength += 4;
+            }
+        }
+        int count = Math.min(input.remaining(), mHeaderLength - mHeaderSize);
+        input.get(mHeader, mHeaderSize, count);
+        mHeaderSize += count;
+        if (mHeaderSize < mHeaderLength) {
+            return false;
+        }
+        parseHeader();
+        return true;
+    }
+
+    private void parseHeader() throws IOException {
+        int b0 = mHeader[0] & 0xff;
+        mOpcode = b0 & WebSocketProtocol.B0_MASK_OPCODE;
+        mFinalFrame = (b0 & WebSocketProtocol.B0_FLAG_FIN) != 0;
+        mControlFrame = (b0 & WebSocketProtocol.OPCODE_FLAG_CONTROL) != 0;
+
+        // Control frames must be final frames (cannot contain continuations).
+        if (mControlFrame && !mFinalFrame) {
+            throw new ProtocolException("Control frames must be final.");
+        }
+
+        // The RSV1 flag marks the first frame of a compressed message, the others are for
+        // extensions which we currently do not support.
+        boolean compressed = (b0 & WebSocketProtocol.B0_FLAG_RSV1) != 0;
+        if ((b0 & (WebSocketProtocol.B0_FLAG_RSV2 | WebSocketProtocol.B0_FLAG_RSV3)) != 0
+                || (compressed && (!mDeflate || mControlFrame
+                || mOpcode == WebSocketProtocol.OPCODE_CONTINUATION))) {
+            throw new ProtocolException("Reserved flags are unsupported.");
+        }
+
+        int b1 = mHeader[1] & 0xff;
+        mMasked = (b1 & WebSocketProtocol.B1_FLAG_MASK) != 0;
+        int index = 2;
+        long length = b1 & WebSocketProtocol.B1_MASK_LENGTH;
+        if (length == WebSocketProtocol.PAYLOAD_SHORT) {
+            length = (mHeader[2] & 0xffL) << 8 | (mHeader[3] & 0xffL);
+            index += 2;
+        } else if (length == WebSocketProtocol.PAYLOAD_LONG) {
+            length = 0;
+            for (int i = 0; i < 8; i++) {
+                length = length << 8 | (mHeader[index++] & 0xffL);
+            }
+            if (length < 0) {
+                throw new ProtocolException("Frame length 0x" + Long.toHexString(length)
+                        + " > 0x7FFFFFFFFFFFFFFF");
+            }
+        }
+        if (mControlFrame && length > WebSocketProtocol.PAYLOAD_BYTE_MAX) {
+            throw new ProtocolException("Control frame must be less than " +
+                    WebSocketProtocol.PAYLOAD_BYTE_MAX + "B.");
+        }
+        if (mMasked) {
+            System.arraycopy(mHeader, index, mMaskKey, 0, 4);
+        }
+        mFrameLength = length;
+        mFrameOffset = 0;
+
+        if (mControlFrame) {
+            return;
+        }
+        if (mOpcode == WebSocketProtocol.OPCODE_CONTINUATION) {
+            if (!mInMessage) {
+                throw new ProtocolException("Unexpected continuation frame.");
+            }
+        } else if (mOpcode == WebSocketProtocol.OPCODE_TEXT
+                || mOpcode == WebSocketProtocol.OPCODE_BINARY) {
+            if (mInMessage) {
+                throw new ProtocolException("Expected continuation opcode. Got: "
+                        + toHexString(mOpcode));
+            }
+            mInMessage = true;
+            mMessageCompressed = compressed;
+            mCallback.onMessageStart(mOpcode == WebSocketProtocol.OPCODE_TEXT);
+        } else {
+            throw new ProtocolException("Unknown opcode: " + toHexString(mOpcode));
+        }
+    }
+
+    private void readControlPayload(ByteBuffer payload) {
+        int offset = (int) mFrameOffset;
+        int length = payload.remaining();
+        payload.get(mControlPayload, offset, length);
+        if (mMasked) {
+            for (int i = offset; i < offset + length; i++) {
+                mControlPayload[i] ^= mMaskKey[i & 3];
+            }
+        }
+    }
+
+    private void readMessagePayload(ByteBuffer payload) throws IOException {
+        if (!mMasked) {
+            onMessageData(payload);
+            return;
+        }
+        WebSocketProtocol.toggleMask(payload, mMaskKey, mFrameOffset);
+        try {
+            onMessageData(payload.duplicate());
+        } finally {
+            // Mask back, the buffer is forwarded to the receiver.
+            WebSocketProtocol.toggleMask(payload, mMaskKey, mFrameOffset);
+        }
+    }
+
+    private void onMessageData(ByteBuffer data) throws IOException {
+        if (!mMessageCompressed) {
+            if (data.hasRemaining()) {
+                mCallback.onMessageData(data);
+            }
+            return;
+        }
+        int length = data.remaining();
+        if (data.hasArray()) {
+            inflate(data.array(), data.arrayOffset() + data.position(), length);
+        } else {
+            if (mInflateInput == null || mInflateInput.length < length) {
+                mInflateInput = new byte[Math.max(length, INFLATE_BUFFER_SIZE)];
+            }
+            data.get(mInflateInput, 0, length);
+            inflate(mInflateInput, 0, length);
+        }
+    }
+
+    private void inflate(byte[] input, int offset, int length) throws IOException {
+        if (mInflater == null) {
+            mInflater = new Inflater(true);
+            mInflated = new byte[INFLATE_BUFFER_SIZE];
+        }
+        mInflater.setInput(input, offset, length);
+        try {
+            int count;
+            while ((count = mInflater.inflate(mInflated)) > 0) {
+                mCallback.onMessageData(ByteBuffer.wrap(mInflated, 0, count));
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Invalid compressed message: " + e.getMessage());
+        }
+        if (mInflater.finished()) {
+            // The sender ended the deflate stream, the next message starts a new context.
+            mInflater.reset();
+        }
+    }
+
+    private void finishFrame() throws IOException {
+        mHeaderSize = 0;
+        mHeaderLength = 0;
+        if (mControlFrame) {
+            onControlFrame();
+            return;
+        }
+        if (!mFinalFrame) {
+            return;
+        }
+        mInMessage = false;
+        if (mMessageCompressed) {
+            inflate(DEFLATE_TAIL, 0, DEFLATE_TAIL.length);
+            if (mNoContextTakeover) {
+                mInflater.reset();
+            }
+        }
+        mCallback.onMessageEnd();
+    }
+
+    private void onControlFrame() throws IOException {
+        int length = (int) mFrameLength;
+        switch (mOpcode) {
+            case WebSocketProtocol.OPCODE_CONTROL_PING:
+                mCallback.onPing(Arrays.copyOf(mControlPayload, length));
+                break;
+            case WebSocketProtocol.OPCODE_CONTROL_PONG:
+                mCallback.onPong(Arrays.copyOf(mControlPayload, length));
+                break;
+            case WebSocketProtocol.OPCODE_CONTROL_CLOSE:
+                int code = WebSocketProtocol.CLOSE_NO_STATUS_CODE;
+                String reason = "";
+                if (length == 1) {
+                    throw new ProtocolException("Malformed close payload length of 1.");
+                } else if (length != 0) {
+                    code = (mControlPayload[0] & 0xff) << 8 | (mControlPayload[1] & 0xff);
+                    reason = new String(mControlPayload, 2, length - 2, UTF_8);
+                    String codeExceptionMessage = WebSocketProtocol.closeCodeExceptionMessage(code);
+                    if (codeExceptionMessage != null) {
+                        throw new ProtocolException(codeExceptionMessage);
+                    }
+                }
+                mCallback.onClose(code, reason);
+                break;
+            default:
+                throw new ProtocolException("Unknown control opcode: " + toHexString(mOpcode));
+        }
+    }
+
+}
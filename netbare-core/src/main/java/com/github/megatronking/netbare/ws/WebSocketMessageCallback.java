@@ -0,0 +1,79 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ws;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A callback to be invoked when the web socket frames are decoded. Unlike
+ * {@link WebSocketCallback}, messages are not buffered, the payload is delivered piece by piece
+ * as soon as it arrives.
+ *
+ * @author Megatron King
+ * @since 2019-04-13 10:26
+ */
+public interface WebSocketMessageCallback {
+
+    /**
+     * Invoked when the first frame of a text or binary message is decoded.
+     *
+     * @param text Whether the message is a text message, the text is encoded by UTF-8.
+     * @throws IOException If an I/O error has occurred.
+     */
+    void onMessageStart(boolean text) throws IOException;
+
+    /**
+     * Invoked when a piece of the message payload is decoded, the payload has been unmasked and
+     * decompressed. The buffer is only valid during the call and must not be modified.
+     *
+     * @param data A piece of the message payload.
+     * @throws IOException If an I/O error has occurred.
+     */
+    void onMessageData(@NonNull ByteBuffer data) throws IOException;
+
+    /**
+     * Invoked when the final frame of the message is decoded.
+     *
+     * @throws IOException If an I/O error has occurred.
+     */
+    void onMessageEnd() throws IOException;
+
+    /**
+     * Invoked when a ping message is decoded.
+     *
+     * @param ping The ping message content.
+     */
+    void onPing(@NonNull byte[] ping);
+
+    /**
+     * Invoked when a pong message is decoded.
+     *
+     * @param pong The pong message content.
+     */
+    void onPong(@NonNull byte[] pong);
+
+    /**
+     * Invoked when a close message is decoded.
+     *
+     * @param code Status code.
+     * @param reason Close reason.
+     */
+    void onClose(int code, @NonNull String reason);
+
+}
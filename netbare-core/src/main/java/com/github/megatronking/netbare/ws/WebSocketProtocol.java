@@ -30,6 +30,9 @@
  */
 package com.github.megatronking.netbare.ws;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * Protocol see: http://tools.ietf.org/html/rfc6455
  *
@@ -137,8 +140,37 @@ package com.github.megatronking.netbare.ws;
     }
 
     static void toggleMask(byte[] data, byte[] key) {
-        for (int i = 0; i < data.length; i++) {
-            data[i] = (byte) (data[i] ^ key[i % key.length]);
+        toggleMask(ByteBuffer.wrap(data), key, 0);
+    }
+
+    /**
+     * Toggle the mask of the buffer's remaining bytes in place, eight bytes a time with the mask
+     * key rotated to the slice offset, so a frame payload can be toggled slice by slice. The
+     * buffer's position, limit and byte order are not changed.
+     *
+     * @param buffer The payload slice, a heap or direct buffer.
+     * @param key The 4 bytes mask key.
+     * @param offset The offset of the slice's first byte in the frame payload.
+     */
+    static void toggleMask(ByteBuffer buffer, byte[] key, long offset) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        int keyIndex = (int) (offset & 3);
+        // Words are accessed in the native order, lay out the repeated key the same way.
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.nativeOrder());
+        boolean littleEndian = data.order() == ByteOrder.LITTLE_ENDIAN;
+        long wordKey = 0;
+        for (int i = 0; i < 8; i++) {
+            long b = key[(keyIndex + i) & 3] & 0xffL;
+            wordKey |= littleEndian ? b << (i << 3) : b << ((7 - i) << 3);
+        }
+        int i = start;
+        for (; i + 8 <= end; i += 8) {
+            data.putLong(i, data.getLong(i) ^ wordKey);
+        }
+        // The word size is a multiple of the key size, the key index is still aligned.
+        for (; i < end; i++) {
+            data.put(i, (byte) (data.get(i) ^ key[(keyIndex + i - start) & 3]));
         }
     }
 
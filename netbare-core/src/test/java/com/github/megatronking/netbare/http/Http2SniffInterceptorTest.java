@@ -0,0 +1,122 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http;
+
+import android.support.annotation.NonNull;
+
+import com.github.megatronking.netbare.http2.Http2;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests of {@link Http2SniffInterceptor}.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 18:15
+ */
+public class Http2SniffInterceptorTest {
+
+    private static final byte[] UPGRADE_REQUEST = ("GET / HTTP/1.1\r\n"
+            + "Host: a.com\r\n"
+            + "Connection: Upgrade, HTTP2-Settings\r\n"
+            + "Upgrade: h2c\r\n"
+            + "HTTP2-Settings: AAMAAABkAAQAAP__\r\n\r\n").getBytes();
+
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Upgrade: h2c\r\n\r\n").getBytes();
+
+    // An empty SETTINGS frame.
+    private static final byte[] SETTINGS = {0, 0, 0, 0x4, 0, 0, 0, 0, 0};
+
+    // The response of the upgrade request on stream 1: HEADERS, END_STREAM | END_HEADERS,
+    // :status 200.
+    private static final byte[] STREAM_1_RESPONSE = {0, 0, 1, 0x1, 0x5, 0, 0, 0, 1,
+            (byte) 0x88};
+
+    @Test
+    public void upgradeRequestCompletesWithSwitchingProtocols() throws IOException {
+        final List<String> finishedRequests = new ArrayList<>();
+        final List<String> finishedResponses = new ArrayList<>();
+        Http2TestConnection connection = new Http2TestConnection(new HttpInterceptorFactory() {
+            @NonNull
+            @Override
+            public HttpInterceptor create() {
+                return new HttpInterceptor() {
+                    @Override
+                    public void intercept(@NonNull HttpRequestChain chain,
+                                          @NonNull ByteBuffer buffer) throws IOException {
+                        chain.process(buffer);
+                    }
+
+                    @Override
+                    public void intercept(@NonNull HttpResponseChain chain,
+                                          @NonNull ByteBuffer buffer) throws IOException {
+                        chain.process(buffer);
+                    }
+
+                    @Override
+                    public void onRequestFinished(@NonNull HttpRequest request) {
+                        finishedRequests.add(request.id() + " " + request.method());
+                    }
+
+                    @Override
+                    public void onResponseFinished(@NonNull HttpResponse response) {
+                        finishedResponses.add(response.id() + " " + response.code());
+                    }
+                };
+            }
+        });
+
+        connection.request(UPGRADE_REQUEST);
+        assertArrayEquals(UPGRADE_REQUEST, connection.takeServerBytes());
+        connection.response(concat(SWITCHING_PROTOCOLS, SETTINGS));
+        assertArrayEquals(concat(SWITCHING_PROTOCOLS, SETTINGS), connection.takeClientBytes());
+
+        // The upgrade request and its 101 response are finished before the connection is.
+        assertEquals(1, finishedRequests.size());
+        String id = finishedRequests.get(0).split(" ")[0];
+        assertEquals(id + " GET", finishedRequests.get(0));
+        assertEquals(Arrays.asList(id + " 101"), finishedResponses);
+
+        // The connection continues in HTTP2.
+        connection.request(concat(Http2.CONNECTION_PREFACE, SETTINGS));
+        assertArrayEquals(concat(Http2.CONNECTION_PREFACE, SETTINGS),
+                connection.takeServerBytes());
+        connection.response(STREAM_1_RESPONSE);
+        assertArrayEquals(STREAM_1_RESPONSE, connection.takeClientBytes());
+        assertEquals(1, finishedRequests.size());
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            output.write(array, 0, array.length);
+        }
+        return output.toByteArray();
+    }
+
+}
@@ -0,0 +1,199 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http;
+
+import android.support.annotation.NonNull;
+
+import com.github.megatronking.netbare.gateway.Request;
+import com.github.megatronking.netbare.gateway.Response;
+import com.github.megatronking.netbare.gateway.VirtualGateway;
+import com.github.megatronking.netbare.http2.Http2DecodeInterceptor;
+import com.github.megatronking.netbare.http2.Http2EncodeInterceptor;
+import com.github.megatronking.netbare.ip.Protocol;
+import com.github.megatronking.netbare.net.Session;
+import com.github.megatronking.netbare.net.SessionProvider;
+import com.github.megatronking.netbare.ssl.SSLRefluxCallback;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cleartext HTTP connection for tests, the packets go through the same interceptors as
+ * {@link HttpVirtualGateway} except the SSL ones, and the bytes sent to the server and the
+ * client are recorded.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 16:20
+ */
+public final class Http2TestConnection {
+
+    private final ByteArrayOutputStream mServerBytes;
+    private final ByteArrayOutputStream mClientBytes;
+
+    private final HttpZygoteRequest mZygoteRequest;
+    private final HttpZygoteResponse mZygoteResponse;
+
+    private final Http2DecodeInterceptor mDecodeInterceptor;
+    private final List<HttpInterceptor> mInterceptors;
+
+    /**
+     * Constructs a connection with the extension interceptors, they are created once for each
+     * HTTP session.
+     *
+     * @param factories Factories of the extension interceptors.
+     */
+    public Http2TestConnection(final HttpInterceptorFactory... factories) {
+        this.mServerBytes = new ByteArrayOutputStream();
+        this.mClientBytes = new ByteArrayOutputStream();
+
+        Session session = new SessionProvider(null).create(Protocol.TCP, (short) 40000,
+                (short) 80, 0x7f000001);
+        session.host = "a.com";
+        Request request = new Request() {
+            @Override
+            public void process(ByteBuffer buffer) {
+                write(mServerBytes, buffer);
+            }
+        };
+        Response response = new Response() {
+            @Override
+            public void process(ByteBuffer buffer) {
+                write(mClientBytes, buffer);
+            }
+        };
+        new VirtualGateway(session, request, response);
+
+        HttpSessionFactory sessionFactory = new HttpSessionFactory();
+        this.mZygoteRequest = new HttpZygoteRequest(request, sessionFactory);
+        this.mZygoteResponse = new HttpZygoteResponse(response, sessionFactory);
+
+        SSLRefluxCallback<HttpRequest, HttpResponse> callback =
+                new SSLRefluxCallback<HttpRequest, HttpResponse>() {
+                    @Override
+                    public void onRequest(HttpRequest request, ByteBuffer buffer) {
+                        write(mServerBytes, buffer);
+                    }
+
+                    @Override
+                    public void onResponse(HttpResponse response, ByteBuffer buffer) {
+                        write(mClientBytes, buffer);
+                    }
+                };
+
+        this.mInterceptors = new ArrayList<>(8);
+        Http2SniffInterceptor sniffInterceptor = new Http2SniffInterceptor(callback);
+        mInterceptors.add(sniffInterceptor);
+        this.mDecodeInterceptor = new Http2DecodeInterceptor(callback, mZygoteRequest,
+                mZygoteResponse);
+        mInterceptors.add(mDecodeInterceptor);
+        mInterceptors.add(new HttpMultiplexInterceptor(mZygoteRequest, mZygoteResponse));
+        mInterceptors.add(new HttpHeaderSniffInterceptor(callback));
+        ContainerHttpInterceptor containerInterceptor = new ContainerHttpInterceptor(
+                new HttpInterceptorsFactory() {
+                    @NonNull
+                    @Override
+                    public List<HttpInterceptor> create() {
+                        List<HttpInterceptor> subs = new ArrayList<>(factories.length + 2);
+                        subs.add(new HttpHeaderSeparateInterceptor());
+                        subs.add(new HttpHeaderParseInterceptor());
+                        for (HttpInterceptorFactory factory : factories) {
+                            subs.add(factory.create());
+                        }
+                        return subs;
+                    }
+                });
+        mDecodeInterceptor.setStreamListener(containerInterceptor);
+        sniffInterceptor.setStreamListener(containerInterceptor);
+        mInterceptors.add(containerInterceptor);
+        mInterceptors.add(new Http2EncodeInterceptor(mDecodeInterceptor));
+        mInterceptors.add(new HttpSSLRefluxInterceptor(callback));
+    }
+
+    /**
+     * Sends the bytes from the client to the server.
+     *
+     * @param bytes The request packet.
+     * @throws IOException If the packet is rejected.
+     */
+    public void request(byte[] bytes) throws IOException {
+        new HttpRequestChain(mZygoteRequest, mInterceptors).process(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Sends the bytes from the server to the client.
+     *
+     * @param bytes The response packet.
+     * @throws IOException If the packet is rejected.
+     */
+    public void response(byte[] bytes) throws IOException {
+        new HttpResponseChain(mZygoteResponse, mInterceptors).process(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Finishes the connection, like the tunnels are closed.
+     */
+    public void close() {
+        for (HttpInterceptor interceptor : mInterceptors) {
+            interceptor.onRequestFinished(mZygoteRequest);
+        }
+        for (HttpInterceptor interceptor : mInterceptors) {
+            interceptor.onResponseFinished(mZygoteResponse);
+        }
+    }
+
+    /**
+     * Returns and clears the bytes received by the server.
+     *
+     * @return The bytes sent to the server.
+     */
+    public byte[] takeServerBytes() {
+        return take(mServerBytes);
+    }
+
+    /**
+     * Returns and clears the bytes received by the client.
+     *
+     * @return The bytes sent to the client.
+     */
+    public byte[] takeClientBytes() {
+        return take(mClientBytes);
+    }
+
+    /**
+     * Returns the HTTP2 decoder of the connection, it keeps the per-stream states.
+     *
+     * @return The HTTP2 decoder.
+     */
+    public Http2DecodeInterceptor decodeInterceptor() {
+        return mDecodeInterceptor;
+    }
+
+    private static void write(ByteArrayOutputStream output, ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        output.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] take(ByteArrayOutputStream output) {
+        byte[] bytes = output.toByteArray();
+        output.reset();
+        return bytes;
+    }
+
+}
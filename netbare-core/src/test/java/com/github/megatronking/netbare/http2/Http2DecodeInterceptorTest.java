@@ -0,0 +1,77 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import com.github.megatronking.netbare.http.Http2TestConnection;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static com.github.megatronking.netbare.http2.Http2TestFrames.bytes;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.concat;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.data;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.frame;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.headers;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.settings;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of {@link Http2DecodeInterceptor}.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 17:05
+ */
+public class Http2DecodeInterceptorTest {
+
+    // :method POST, :path /, :scheme http, :authority a.com without indexing.
+    private static final byte[] POST_REQUEST_LINE = bytes(0x83, 0x84, 0x86, 0x01, 0x05,
+            'a', '.', 'c', 'o', 'm');
+
+    // :status 200.
+    private static final byte[] STATUS_200 = bytes(0x88);
+
+    // x-checksum: 1 without indexing.
+    private static final byte[] TRAILER = bytes(0x00, 0x0a,
+            'x', '-', 'c', 'h', 'e', 'c', 'k', 's', 'u', 'm', 0x01, '1');
+
+    @Test
+    public void trailersCloseStreamAndEvictWindows() throws IOException {
+        Http2TestConnection connection = new Http2TestConnection();
+        connection.request(concat(Http2.CONNECTION_PREFACE, settings()));
+        // SETTINGS_INITIAL_WINDOW_SIZE 5, the request body is held by the server's window.
+        connection.response(frame(0, FrameType.SETTINGS, Http2.FLAG_NONE,
+                bytes(0x00, 0x04, 0x00, 0x00, 0x00, 0x05)));
+
+        connection.request(concat(headers(1, Http2.FLAG_NONE, POST_REQUEST_LINE),
+                data(1, Http2.FLAG_NONE, new byte[10]),
+                headers(1, Http2.FLAG_END_STREAM, TRAILER)));
+        Http2DecodeInterceptor decodeInterceptor = connection.decodeInterceptor();
+        assertTrue(decodeInterceptor.requestFlow().hasPending(1));
+
+        connection.response(concat(headers(1, Http2.FLAG_NONE, STATUS_200),
+                data(1, Http2.FLAG_NONE, new byte[10]),
+                headers(1, Http2.FLAG_END_STREAM, TRAILER)));
+
+        assertFalse(decodeInterceptor.streamTracker().isOpen(1));
+        assertFalse(decodeInterceptor.requestFlow().hasPending(1));
+        assertEquals(0, decodeInterceptor.requestFlow().streamCount());
+        assertEquals(0, decodeInterceptor.responseFlow().streamCount());
+    }
+
+}
@@ -0,0 +1,161 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import android.support.annotation.NonNull;
+
+import com.github.megatronking.netbare.http.Http2TestConnection;
+import com.github.megatronking.netbare.http.HttpInterceptor;
+import com.github.megatronking.netbare.http.HttpInterceptorFactory;
+import com.github.megatronking.netbare.http.HttpRequest;
+import com.github.megatronking.netbare.http.HttpRequestChain;
+import com.github.megatronking.netbare.http.HttpResponse;
+import com.github.megatronking.netbare.http.HttpResponseChain;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.github.megatronking.netbare.http2.Http2TestFrames.bytes;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.concat;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.headers;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.settings;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of {@link Http2EncodeInterceptor}.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 16:30
+ */
+public class Http2EncodeInterceptorTest {
+
+    // :method GET, :path /, :scheme http, :authority a.com without indexing.
+    private static final byte[] REQUEST_LINE = bytes(0x82, 0x84, 0x86, 0x01, 0x05,
+            'a', '.', 'c', 'o', 'm');
+
+    // x-token: abc with incremental indexing, the first dynamic table entry.
+    private static final byte[] INDEXED_TOKEN = bytes(0x40, 0x07,
+            'x', '-', 't', 'o', 'k', 'e', 'n', 0x03, 'a', 'b', 'c');
+
+    // The first dynamic table entry.
+    private static final byte[] TOKEN_REFERENCE = bytes(0xbe);
+
+    @Test
+    public void unchangedHeaderBlocksPassThrough() throws IOException {
+        Http2TestConnection connection = new Http2TestConnection();
+        connection.request(concat(Http2.CONNECTION_PREFACE, settings()));
+        connection.takeServerBytes();
+
+        byte[] stream1 = headers(1, Http2.FLAG_END_STREAM, concat(REQUEST_LINE, INDEXED_TOKEN));
+        byte[] stream3 = headers(3, Http2.FLAG_END_STREAM, concat(REQUEST_LINE, TOKEN_REFERENCE));
+        connection.request(concat(stream1, stream3));
+
+        assertArrayEquals(concat(stream1, stream3), connection.takeServerBytes());
+    }
+
+    @Test
+    public void skippedHeaderBlockFallsBackToReencoding() throws IOException {
+        Http2TestConnection connection = new Http2TestConnection(new HttpInterceptorFactory() {
+            @NonNull
+            @Override
+            public HttpInterceptor create() {
+                return new DropStreamInterceptor(3);
+            }
+        });
+        connection.request(concat(Http2.CONNECTION_PREFACE, settings()));
+        connection.takeServerBytes();
+
+        byte[] stream1 = headers(1, Http2.FLAG_END_STREAM, REQUEST_LINE);
+        // The dropped header block adds the token to the client's dynamic table.
+        byte[] stream3 = headers(3, Http2.FLAG_END_STREAM, concat(REQUEST_LINE, INDEXED_TOKEN));
+        byte[] stream5 = headers(5, Http2.FLAG_END_STREAM, concat(REQUEST_LINE, TOKEN_REFERENCE));
+        connection.request(concat(stream1, stream3, stream5));
+
+        List<Http2FrameParser.Frame> frames = Http2TestFrames.parse(
+                connection.takeServerBytes());
+        assertEquals(2, frames.size());
+        assertEquals(1, frames.get(0).streamId);
+        assertEquals(ByteBuffer.wrap(stream1), frames.get(0).raw);
+        assertEquals(5, frames.get(1).streamId);
+        assertFalse(ByteBuffer.wrap(stream5).equals(frames.get(1).raw));
+
+        // The server never sees the dropped header block, its dynamic table stays empty.
+        List<String> headerParts = decodeHeaderBlocks(frames);
+        assertFalse(headerParts.get(0).contains("x-token"));
+        assertTrue(headerParts.get(1).contains("x-token: abc\r\n"));
+    }
+
+    private static List<String> decodeHeaderBlocks(List<Http2FrameParser.Frame> frames)
+            throws IOException {
+        final List<String> headerParts = new ArrayList<>();
+        Hpack.Reader reader = new Hpack.Reader();
+        for (Http2FrameParser.Frame frame : frames) {
+            reader.readHeaders(frame.payload, frame.flags, new DecodeCallback() {
+                @Override
+                public void onResult(ByteBuffer buffer, boolean isFinished) {
+                    headerParts.add(new String(Arrays.copyOfRange(buffer.array(),
+                            buffer.position(), buffer.limit())));
+                }
+
+                @Override
+                public void onSkip(ByteBuffer buffer) {
+                }
+            });
+        }
+        return headerParts;
+    }
+
+    private static final class DropStreamInterceptor implements HttpInterceptor {
+
+        private final int mStreamId;
+
+        private DropStreamInterceptor(int streamId) {
+            this.mStreamId = streamId;
+        }
+
+        @Override
+        public void intercept(@NonNull HttpRequestChain chain, @NonNull ByteBuffer buffer)
+                throws IOException {
+            if (chain.request().streamId() != mStreamId) {
+                chain.process(buffer);
+            }
+        }
+
+        @Override
+        public void intercept(@NonNull HttpResponseChain chain, @NonNull ByteBuffer buffer)
+                throws IOException {
+            chain.process(buffer);
+        }
+
+        @Override
+        public void onRequestFinished(@NonNull HttpRequest request) {
+        }
+
+        @Override
+        public void onResponseFinished(@NonNull HttpResponse response) {
+        }
+
+    }
+
+}
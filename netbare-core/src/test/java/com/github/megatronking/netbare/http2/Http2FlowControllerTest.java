@@ -0,0 +1,92 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import com.github.megatronking.netbare.http.Http2TestConnection;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.github.megatronking.netbare.http2.Http2TestFrames.bytes;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.concat;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.data;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.headers;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.settings;
+import static com.github.megatronking.netbare.http2.Http2TestFrames.windowUpdate;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of {@link Http2FlowController}.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 16:50
+ */
+public class Http2FlowControllerTest {
+
+    // :method POST, :path /, :scheme http, :authority a.com without indexing.
+    private static final byte[] POST_REQUEST_LINE = bytes(0x83, 0x84, 0x86, 0x01, 0x05,
+            'a', '.', 'c', 'o', 'm');
+
+    private static final Http2FlowController.Sink NO_SINK = new Http2FlowController.Sink() {
+        @Override
+        public void write(ByteBuffer buffer) {
+        }
+    };
+
+    @Test
+    public void windowUpdateBeforeFirstDataEnlargesStreamWindow() {
+        Http2FlowController flow = new Http2FlowController(NO_SINK, NO_SINK);
+        assertEquals(100000, flow.onWindowUpdate(0, 100000));
+        assertEquals(100000, flow.onWindowUpdate(1, 100000));
+        assertEquals(Http2.DEFAULT_INITIAL_WINDOW_SIZE + 100000, flow.writableBytes(1));
+    }
+
+    @Test
+    public void windowUpdateBeforeFirstDataAllowsMoreThanInitialWindow() throws IOException {
+        Http2TestConnection connection = new Http2TestConnection();
+        connection.request(concat(Http2.CONNECTION_PREFACE, settings(),
+                headers(1, Http2.FLAG_NONE, POST_REQUEST_LINE)));
+        // The server enlarges the windows before the client sends any DATA frame.
+        int increment = 100000;
+        connection.response(concat(settings(), windowUpdate(0, increment),
+                windowUpdate(1, increment)));
+        connection.takeServerBytes();
+
+        int bodySize = Http2.DEFAULT_INITIAL_WINDOW_SIZE + increment;
+        for (int sent = 0; sent < bodySize; sent += Http2.INITIAL_MAX_FRAME_SIZE) {
+            int length = Math.min(Http2.INITIAL_MAX_FRAME_SIZE, bodySize - sent);
+            byte flags = sent + length == bodySize ? Http2.FLAG_END_STREAM : Http2.FLAG_NONE;
+            connection.request(data(1, flags, new byte[length]));
+        }
+
+        int received = 0;
+        boolean ended = false;
+        for (Http2FrameParser.Frame frame : Http2TestFrames.parse(connection.takeServerBytes())) {
+            if (frame.frameType == FrameType.DATA && frame.streamId == 1) {
+                received += frame.length;
+                ended = (frame.flags & Http2.FLAG_END_STREAM) != 0;
+            }
+        }
+        assertEquals(bodySize, received);
+        assertTrue(ended);
+        assertFalse(connection.decodeInterceptor().requestFlow().hasPending(1));
+    }
+
+}
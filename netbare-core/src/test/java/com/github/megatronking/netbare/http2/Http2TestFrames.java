@@ -0,0 +1,98 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds and parses the HTTP2 frames on the wire for tests.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 16:25
+ */
+/* package */ final class Http2TestFrames {
+
+    private Http2TestFrames() {
+    }
+
+    /* package */ static byte[] frame(int streamId, FrameType type, byte flags, byte[] payload) {
+        ByteBuffer output = ByteBuffer.allocate(Http2.FRAME_HEADER_LENGTH + payload.length);
+        Http2.writeFrameHeader(output, streamId, payload.length, type.get(), flags);
+        output.put(payload);
+        return output.array();
+    }
+
+    /* package */ static byte[] headers(int streamId, byte flags, byte[] headerBlock) {
+        return frame(streamId, FrameType.HEADERS, (byte) (flags | Http2.FLAG_END_HEADERS),
+                headerBlock);
+    }
+
+    /* package */ static byte[] data(int streamId, byte flags, byte[] data) {
+        return frame(streamId, FrameType.DATA, flags, data);
+    }
+
+    /* package */ static byte[] windowUpdate(int streamId, int increment) {
+        return Http2.windowUpdateFrame(streamId, increment).array();
+    }
+
+    /* package */ static byte[] settings() {
+        return frame(0, FrameType.SETTINGS, Http2.FLAG_NONE, new byte[0]);
+    }
+
+    /* package */ static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            output.write(part, 0, part.length);
+        }
+        return output.toByteArray();
+    }
+
+    /* package */ static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Parses the frames, the bytes must be whole frames.
+     */
+    /* package */ static List<Http2FrameParser.Frame> parse(byte[] bytes) throws IOException {
+        final List<Http2FrameParser.Frame> frames = new ArrayList<>();
+        new Http2FrameParser().parse(ByteBuffer.wrap(bytes), new Http2FrameParser.Callback() {
+            @Override
+            public void onFrame(Http2FrameParser.Frame frame) {
+                // The frame instance is reused, but its buffers are not.
+                Http2FrameParser.Frame copy = new Http2FrameParser.Frame();
+                copy.type = frame.type;
+                copy.frameType = frame.frameType;
+                copy.flags = frame.flags;
+                copy.streamId = frame.streamId;
+                copy.length = frame.length;
+                copy.payload = frame.payload;
+                copy.raw = frame.raw;
+                frames.add(copy);
+            }
+        });
+        return frames;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http2;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests of {@link Huffman}, the vectors are the Huffman encoded string literals of RFC 7541
+ * Appendix C.4 (requests) and C.6 (responses).
+ *
+ * @author Megatron King
+ * @since 2019-04-22 17:20
+ */
+public class HuffmanTest {
+
+    private static final String[][] VECTORS = {
+            // C.4.1
+            {"www.example.com", "f1e3c2e5f23a6ba0ab90f4ff"},
+            // C.4.2
+            {"no-cache", "a8eb10649cbf"},
+            // C.4.3
+            {"custom-key", "25a849e95ba97d7f"},
+            {"custom-value", "25a849e95bb8e8b4bf"},
+            // C.6.1
+            {"302", "6402"},
+            {"private", "aec3771a4b"},
+            {"Mon, 21 Oct 2013 20:13:21 GMT", "d07abe941054d444a8200595040b8166e082a62d1bff"},
+            {"https://www.example.com", "9d29ad171863c78f0b97c8e9ae82ae43d3"},
+            // C.6.2
+            {"307", "640eff"},
+            // C.6.3
+            {"Mon, 21 Oct 2013 20:13:22 GMT", "d07abe941054d444a8200595040b8166e084a62d1bff"},
+            {"gzip", "9bd9ab"},
+            {"foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1",
+                    "94e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c0"
+                            + "03ed4ee5b1063d5007"},
+    };
+
+    @Test
+    public void encodeRfc7541Vectors() {
+        Huffman huffman = Huffman.get();
+        for (String[] vector : VECTORS) {
+            byte[] data = vector[0].getBytes();
+            byte[] expected = hex(vector[1]);
+            assertEquals(vector[0], expected.length, huffman.encodedLength(data));
+            byte[] out = new byte[expected.length];
+            assertEquals(vector[0], expected.length, huffman.encode(data, out, 0));
+            assertArrayEquals(vector[0], expected, out);
+        }
+    }
+
+    @Test
+    public void decodeRfc7541Vectors() throws IOException {
+        Huffman huffman = Huffman.get();
+        for (String[] vector : VECTORS) {
+            byte[] encoded = hex(vector[1]);
+            ByteBuffer buffer = ByteBuffer.wrap(encoded);
+            byte[] out = new byte[encoded.length * 8 / 5];
+            int length = huffman.decode(buffer, encoded.length, out);
+            assertEquals(vector[0], new String(Arrays.copyOf(out, length)));
+            assertEquals(encoded.length, buffer.position());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeRejectsPaddingLongerThanSevenBits() throws IOException {
+        // "302" followed by a whole byte of EOS prefix.
+        byte[] encoded = {0x64, 0x02, (byte) 0xff};
+        Huffman.get().decode(ByteBuffer.wrap(encoded), encoded.length, new byte[8]);
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeRejectsPaddingNotOfEos() throws IOException {
+        // "307" with the 7 padding bits cleared.
+        byte[] encoded = {0x64, 0x0e, (byte) 0x80};
+        Huffman.get().decode(ByteBuffer.wrap(encoded), encoded.length, new byte[8]);
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+}
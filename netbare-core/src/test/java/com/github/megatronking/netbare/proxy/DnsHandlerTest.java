@@ -0,0 +1,171 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.proxy;
+
+import com.github.megatronking.netbare.SocketProtector;
+import com.github.megatronking.netbare.ip.IpHeader;
+import com.github.megatronking.netbare.ip.UdpHeader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of {@link DnsHandler}, the upstream servers are two local datagram sockets.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 18:10
+ */
+public class DnsHandlerTest {
+
+    private static final int MTU = 1500;
+    private static final int IP_HEADER_LENGTH = 20;
+    private static final int UDP_HEADER_LENGTH = 8;
+    private static final int LOCAL_IP = 0x0A010A01;
+
+    private static final byte[] QUESTION = {1, 'a', 3, 'c', 'o', 'm', 0, 0, 1, 0, 1};
+
+    private static final SocketProtector PROTECTOR = new SocketProtector() {
+        @Override
+        public boolean protect(Socket socket) {
+            return true;
+        }
+
+        @Override
+        public boolean protect(DatagramSocket socket) {
+            return true;
+        }
+    };
+
+    private Selector mSelector;
+    private DnsHandler mHandler;
+    private DatagramSocket mServer1;
+    private DatagramSocket mServer2;
+    private ByteArrayOutputStream mOutput;
+
+    @Before
+    public void setUp() throws IOException {
+        mSelector = Selector.open();
+        mHandler = new DnsHandler(PROTECTOR, mSelector, MTU, Collections.<String>emptySet());
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        mServer1 = new DatagramSocket(0, loopback);
+        mServer2 = new DatagramSocket(0, loopback);
+        mServer1.setSoTimeout(2000);
+        mServer2.setSoTimeout(2000);
+        mOutput = new ByteArrayOutputStream();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mHandler.close();
+        mSelector.close();
+        mServer1.close();
+        mServer2.close();
+    }
+
+    @Test
+    public void cachedAnswerIsKeptPerServer() throws IOException {
+        assertTrue(mHandler.handle(query(mServer1, 1, 40000), mOutput, 0));
+        answer(mServer1);
+        int size = mOutput.size();
+        assertTrue(size > 0);
+
+        // Answered from the cache of the first server.
+        assertTrue(mHandler.handle(query(mServer1, 2, 40001), mOutput, 0));
+        assertTrue(mOutput.size() > size);
+        size = mOutput.size();
+
+        // The second server is asked, not answered by the first one.
+        assertTrue(mHandler.handle(query(mServer2, 3, 40002), mOutput, 0));
+        assertEquals(size, mOutput.size());
+        answer(mServer2);
+        assertTrue(mOutput.size() > size);
+    }
+
+    @Test
+    public void queriesOnTheWayAreKeptPerServer() throws IOException {
+        assertTrue(mHandler.handle(query(mServer1, 1, 40000), mOutput, 0));
+        assertTrue(mHandler.handle(query(mServer2, 2, 40001), mOutput, 0));
+        // Both servers are asked.
+        answer(mServer1);
+        answer(mServer2);
+        assertTrue(mHandler.isIdle());
+    }
+
+    /**
+     * Receive one query at the server, answer it and let the handler read the response.
+     */
+    private void answer(DatagramSocket server) throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[MTU], MTU);
+        server.receive(packet);
+        byte[] query = Arrays.copyOf(packet.getData(), packet.getLength());
+        byte[] response = Arrays.copyOf(query, DnsMessage.HEADER_LENGTH + QUESTION.length + 16);
+        // QR RD RA, one answer.
+        DnsMessage.writeShort(response, 2, 0x8180);
+        DnsMessage.writeShort(response, 6, 1);
+        int position = DnsMessage.HEADER_LENGTH + QUESTION.length;
+        // A pointer to the question name, A, IN, TTL 60 and 1.2.3.4.
+        byte[] record = {(byte) 0xc0, 0x0c, 0, 1, 0, 1, 0, 0, 0, 60, 0, 4, 1, 2, 3, 4};
+        System.arraycopy(record, 0, response, position, record.length);
+        server.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+
+        assertTrue(mSelector.select(2000) > 0);
+        mSelector.selectedKeys().clear();
+        mHandler.onRead();
+    }
+
+    private static UdpHeader query(DatagramSocket server, int id, int localPort) {
+        byte[] dns = new byte[DnsMessage.HEADER_LENGTH + QUESTION.length];
+        DnsMessage.writeShort(dns, 0, id);
+        // RD, one question.
+        DnsMessage.writeShort(dns, 2, 0x0100);
+        DnsMessage.writeShort(dns, 4, 1);
+        System.arraycopy(QUESTION, 0, dns, DnsMessage.HEADER_LENGTH, QUESTION.length);
+
+        int totalLength = IP_HEADER_LENGTH + UDP_HEADER_LENGTH + dns.length;
+        byte[] packet = new byte[totalLength];
+        packet[0] = 0x45;
+        DnsMessage.writeShort(packet, 2, totalLength);
+        packet[8] = 64;
+        packet[9] = 17;
+        writeInt(packet, 12, LOCAL_IP);
+        System.arraycopy(server.getLocalAddress().getAddress(), 0, packet, 16, 4);
+        DnsMessage.writeShort(packet, IP_HEADER_LENGTH, localPort);
+        DnsMessage.writeShort(packet, IP_HEADER_LENGTH + 2, server.getLocalPort());
+        DnsMessage.writeShort(packet, IP_HEADER_LENGTH + 4, UDP_HEADER_LENGTH + dns.length);
+        System.arraycopy(dns, 0, packet, IP_HEADER_LENGTH + UDP_HEADER_LENGTH, dns.length);
+        return new UdpHeader(new IpHeader(packet, 0), packet, IP_HEADER_LENGTH);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        DnsMessage.writeShort(data, offset, value >>> 16);
+        DnsMessage.writeShort(data, offset + 2, value);
+    }
+
+}
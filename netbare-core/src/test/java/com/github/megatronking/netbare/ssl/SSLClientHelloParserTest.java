@@ -0,0 +1,283 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.ssl;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of {@link SSLClientHelloParser}, the ClientHello is fed whole, in TCP segments of
+ * any size and in several TLS records.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 18:00
+ */
+public class SSLClientHelloParserTest {
+
+    private static final String SERVER_NAME = "www.example.com";
+    private static final int[] CIPHER_SUITES = {0x1301, 0x1302, 0xc02b};
+    private static final int[] EXTENSIONS = {0, 16, 43, 10, 11};
+
+    @Test
+    public void parsesWholeClientHello() {
+        byte[] message = clientHello();
+        SSLClientHelloParser parser = new SSLClientHelloParser();
+        assertEquals(SSLClientHelloParser.RESULT_DONE,
+                parser.feed(ByteBuffer.wrap(records(message, message.length))));
+        assertClientHello(parser.clientHello());
+    }
+
+    @Test
+    public void parsesClientHelloFedByteByByte() {
+        byte[] data = records(clientHello(), 16384);
+        SSLClientHelloParser parser = new SSLClientHelloParser();
+        for (int i = 0; i < data.length - 1; i++) {
+            assertEquals(SSLClientHelloParser.RESULT_NEED_MORE,
+                    parser.feed(ByteBuffer.wrap(data, i, 1)));
+        }
+        assertEquals(SSLClientHelloParser.RESULT_DONE,
+                parser.feed(ByteBuffer.wrap(data, data.length - 1, 1)));
+        assertClientHello(parser.clientHello());
+    }
+
+    @Test
+    public void parsesServerNameSplitAcrossRecords() {
+        byte[] message = clientHello();
+        // The first record ends in the middle of the host name.
+        int split = indexOf(message, SERVER_NAME.getBytes()) + 5;
+        byte[] data = concat(record(Arrays.copyOfRange(message, 0, split)),
+                record(Arrays.copyOfRange(message, split, message.length)));
+        SSLClientHelloParser parser = new SSLClientHelloParser();
+        int headerSplit = 5 + split + 2;
+        assertEquals(SSLClientHelloParser.RESULT_NEED_MORE,
+                parser.feed(ByteBuffer.wrap(data, 0, headerSplit)));
+        assertEquals(SSLClientHelloParser.RESULT_DONE,
+                parser.feed(ByteBuffer.wrap(data, headerSplit, data.length - headerSplit)));
+        assertClientHello(parser.clientHello());
+    }
+
+    @Test
+    public void parsesRandomlyFragmentedClientHello() {
+        byte[] message = clientHello();
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            byte[] data = records(message, 1 + random.nextInt(message.length));
+            SSLClientHelloParser parser = new SSLClientHelloParser();
+            int result = SSLClientHelloParser.RESULT_NEED_MORE;
+            int offset = 0;
+            while (offset < data.length) {
+                assertEquals(SSLClientHelloParser.RESULT_NEED_MORE, result);
+                int length = Math.min(1 + random.nextInt(64), data.length - offset);
+                result = parser.feed(ByteBuffer.wrap(data, offset, length));
+                offset += length;
+            }
+            assertEquals(SSLClientHelloParser.RESULT_DONE, result);
+            assertClientHello(parser.clientHello());
+        }
+    }
+
+    @Test
+    public void ignoresBytesAfterClientHello() {
+        byte[] data = concat(records(clientHello(), 16384), new byte[] {0x14, 0x03, 0x03});
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        SSLClientHelloParser parser = new SSLClientHelloParser();
+        assertEquals(SSLClientHelloParser.RESULT_DONE, parser.feed(buffer));
+        assertEquals(0, buffer.position());
+        assertEquals(SSLClientHelloParser.RESULT_DONE, parser.feed(ByteBuffer.wrap(data)));
+        assertClientHello(parser.clientHello());
+    }
+
+    @Test
+    public void truncatedClientHelloNeedsMore() {
+        byte[] data = records(clientHello(), 16384);
+        for (int length = 0; length < data.length; length++) {
+            SSLClientHelloParser parser = new SSLClientHelloParser();
+            assertEquals(SSLClientHelloParser.RESULT_NEED_MORE,
+                    parser.feed(ByteBuffer.wrap(data, 0, length)));
+            assertNull(parser.clientHello());
+            assertNull(SSLClientHelloParser.parse(ByteBuffer.wrap(data, 0, length)));
+        }
+    }
+
+    @Test
+    public void rejectsVectorLongerThanClientHello() {
+        byte[] message = clientHello();
+        // The cipher suites length, after the handshake header(4), version(2), random(32) and
+        // session id(1 + 32).
+        message[4 + 2 + 32 + 1 + 32] = (byte) 0xff;
+        SSLClientHelloParser parser = new SSLClientHelloParser();
+        assertEquals(SSLClientHelloParser.RESULT_INVALID,
+                parser.feed(ByteBuffer.wrap(records(message, 16384))));
+        assertNull(parser.clientHello());
+    }
+
+    @Test
+    public void rejectsOversizedRecordLength() {
+        // A handshake record of 0x4801 bytes, larger than 2^14 + 2048.
+        SSLClientHelloParser parser = new SSLClientHelloParser();
+        assertEquals(SSLClientHelloParser.RESULT_INVALID,
+                parser.feed(ByteBuffer.wrap(new byte[] {0x16, 0x03, 0x01, 0x48, 0x01})));
+    }
+
+    @Test
+    public void rejectsOversizedHandshakeLength() {
+        // A ClientHello of 0x010001 bytes, it is never buffered.
+        SSLClientHelloParser parser = new SSLClientHelloParser();
+        assertEquals(SSLClientHelloParser.RESULT_INVALID,
+                parser.feed(ByteBuffer.wrap(new byte[] {0x16, 0x03, 0x01, 0x00, 0x04,
+                        0x01, 0x01, 0x00, 0x01})));
+    }
+
+    @Test
+    public void rejectsOtherRecordAfterFirstFragment() {
+        byte[] message = clientHello();
+        byte[] data = records(message, 100);
+        // The second record is turned into application data.
+        data[5 + 100] = 0x17;
+        SSLClientHelloParser parser = new SSLClientHelloParser();
+        assertEquals(SSLClientHelloParser.RESULT_INVALID, parser.feed(ByteBuffer.wrap(data)));
+    }
+
+    @Test
+    public void survivesRandomCorruption() {
+        byte[] original = records(clientHello(), 128);
+        Random random = new Random(7);
+        for (int round = 0; round < 5000; round++) {
+            byte[] data = original.clone();
+            int mutations = 1 + random.nextInt(4);
+            for (int i = 0; i < mutations; i++) {
+                data[random.nextInt(data.length)] = (byte) random.nextInt();
+            }
+            SSLClientHelloParser parser = new SSLClientHelloParser();
+            int result = parser.feed(ByteBuffer.wrap(data));
+            if (result == SSLClientHelloParser.RESULT_DONE) {
+                assertNotNull(parser.clientHello().ja3());
+            } else {
+                assertNull(parser.clientHello());
+            }
+        }
+    }
+
+    private static void assertClientHello(SSLClientHello clientHello) {
+        assertNotNull(clientHello);
+        assertEquals(0x0303, clientHello.version());
+        assertEquals(SERVER_NAME, clientHello.serverName());
+        assertArrayEquals(new String[] {"h2", "http/1.1"}, clientHello.alpnProtocols());
+        assertArrayEquals(new int[] {0x0304, 0x0303}, clientHello.supportedVersions());
+        assertArrayEquals(CIPHER_SUITES, clientHello.cipherSuites());
+        assertArrayEquals(EXTENSIONS, clientHello.extensions());
+        assertEquals("771,4865-4866-49195,0-16-43-10-11,29-23,0", clientHello.ja3());
+        assertTrue(clientHello.ja3Hash().matches("[0-9a-f]{32}"));
+    }
+
+    /**
+     * The handshake message of a ClientHello with the EXTENSIONS in order.
+     */
+    private static byte[] clientHello() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeShort(body, 0x0303);
+        body.write(new byte[32], 0, 32);
+        body.write(32);
+        body.write(new byte[32], 0, 32);
+        writeShort(body, CIPHER_SUITES.length * 2);
+        for (int cipherSuite : CIPHER_SUITES) {
+            writeShort(body, cipherSuite);
+        }
+        // The null compression method.
+        body.write(1);
+        body.write(0);
+
+        byte[] host = SERVER_NAME.getBytes();
+        byte[] extensions = concat(
+                extension(0, concat(shorts(host.length + 3), new byte[] {0},
+                        shorts(host.length), host)),
+                extension(16, concat(shorts(12), new byte[] {2, 'h', '2', 8},
+                        "http/1.1".getBytes())),
+                extension(43, concat(new byte[] {4}, shorts(0x0304, 0x0303))),
+                extension(10, concat(shorts(4), shorts(29, 23))),
+                extension(11, new byte[] {1, 0}));
+        writeShort(body, extensions.length);
+        body.write(extensions, 0, extensions.length);
+
+        byte[] bytes = body.toByteArray();
+        return concat(new byte[] {0x01, 0x00, (byte) (bytes.length >> 8), (byte) bytes.length},
+                bytes);
+    }
+
+    /**
+     * Split the handshake message into handshake records of the max fragment length.
+     */
+    private static byte[] records(byte[] message, int fragmentLength) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int offset = 0; offset < message.length; offset += fragmentLength) {
+            byte[] record = record(Arrays.copyOfRange(message, offset,
+                    Math.min(message.length, offset + fragmentLength)));
+            output.write(record, 0, record.length);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] record(byte[] fragment) {
+        return concat(new byte[] {SSLUtils.SSL_CONTENT_TYPE_HANDSHAKE, 0x03, 0x01},
+                shorts(fragment.length), fragment);
+    }
+
+    private static byte[] extension(int type, byte[] data) {
+        return concat(shorts(type, data.length), data);
+    }
+
+    private static byte[] shorts(int... values) {
+        byte[] bytes = new byte[values.length * 2];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i * 2] = (byte) (values[i] >> 8);
+            bytes[i * 2 + 1] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static void writeShort(ByteArrayOutputStream output, int value) {
+        output.write(value >> 8);
+        output.write(value);
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            output.write(array, 0, array.length);
+        }
+        return output.toByteArray();
+    }
+
+    private static int indexOf(byte[] data, byte[] target) {
+        for (int i = 0; i + target.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + target.length), target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
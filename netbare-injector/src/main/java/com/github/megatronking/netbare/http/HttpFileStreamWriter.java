@@ -0,0 +1,98 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http;
+
+import com.github.megatronking.netbare.gateway.InterceptorChain;
+import com.github.megatronking.netbare.gateway.SessionTunnelFlow;
+import com.github.megatronking.netbare.stream.FileStream;
+import com.github.megatronking.netbare.tunnel.DrainCallback;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Outputs a {@link FileStream} to the chain chunk by chunk, the next chunk is read only after the
+ * tunnel has sent the previous one. So there is at most one chunk queued in the tunnel no matter
+ * how large the file is.
+ *
+ * The interceptors may access {@link ByteBuffer#array()} or write into the buffers, so a chunk not
+ * backed by an accessible array, such as a read-only slice of a memory mapped file, is copied into
+ * a heap buffer before it is handed to the chain.
+ *
+ * @author Megatron King
+ * @since 2019-04-02 21:20
+ */
+/* package */ final class HttpFileStreamWriter implements DrainCallback {
+
+    private final InterceptorChain<?, ?> mChain;
+    private final SessionTunnelFlow mFlow;
+    private final FileStream mStream;
+
+    private boolean mWriting;
+    private boolean mDrained;
+
+    /* package */ HttpFileStreamWriter(InterceptorChain<?, ?> chain, SessionTunnelFlow flow,
+                                       FileStream stream) {
+        this.mChain = chain;
+        this.mFlow = flow;
+        this.mStream = stream;
+    }
+
+    /* package */ void start() throws IOException {
+        onDrained();
+    }
+
+    @Override
+    public void onDrained() throws IOException {
+        mDrained = true;
+        if (mWriting) {
+            // The flow has no write queue and drained synchronously, let the loop below go on
+            // instead of recursing.
+            return;
+        }
+        mWriting = true;
+        try {
+            while (mDrained && mStream.hasRemaining()) {
+                mDrained = false;
+                mChain.process(heapBuffer(mStream.nextChunk()));
+                if (mStream.hasRemaining()) {
+                    mFlow.awaitDrained(this);
+                }
+            }
+        } catch (IOException e) {
+            mStream.close();
+            throw e;
+        } finally {
+            mWriting = false;
+        }
+    }
+
+    @Override
+    public void onAborted() {
+        mStream.close();
+    }
+
+    private static ByteBuffer heapBuffer(ByteBuffer chunk) {
+        if (chunk.hasArray()) {
+            return chunk;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(chunk.remaining());
+        buffer.put(chunk);
+        buffer.flip();
+        return buffer;
+    }
+
+}
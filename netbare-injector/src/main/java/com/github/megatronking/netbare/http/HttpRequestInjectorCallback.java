@@ -15,6 +15,7 @@
  */
 package com.github.megatronking.netbare.http;
 
+import com.github.megatronking.netbare.stream.FileStream;
 import com.github.megatronking.netbare.stream.Stream;
 import com.github.megatronking.netbare.injector.InjectorCallback;
 
@@ -43,6 +44,11 @@ public class HttpRequestInjectorCallback implements InjectorCallback {
 
     @Override
     public void onFinished(Stream stream) throws IOException {
+        if (stream instanceof FileStream) {
+            // Output large files chunk by chunk, at the pace of the tunnel.
+            new HttpFileStreamWriter(mChain, mChain.request(), (FileStream) stream).start();
+            return;
+        }
         ByteBuffer byteBuffer = stream.toBuffer();
         if (stream instanceof HttpRequestHeaderPart) {
             HttpRequestHeaderPart header = (HttpRequestHeaderPart) stream;
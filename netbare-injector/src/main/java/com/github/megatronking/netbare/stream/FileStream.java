@@ -0,0 +1,210 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.stream;
+
+import android.support.annotation.NonNull;
+
+import com.github.megatronking.netbare.NetBareLog;
+import com.github.megatronking.netbare.NetBareUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file stream supports files of any size. Files no larger than 64 MB are memory mapped and
+ * the mappings are shared between streams of the same file, larger files are read through a
+ * file channel. Use {@link #hasRemaining()} and {@link #nextChunk()} to output the file in
+ * chunk-sized slices instead of loading it into memory by {@link #toBuffer()}, the HTTP injector
+ * callbacks read the next chunk only after the previous one has been sent.
+ *
+ * @author Megatron King
+ * @since 2019-04-02 20:38
+ */
+public class FileStream implements Stream, Closeable {
+
+    /**
+     * The default chunk size, equals to the default max HTTP2 frame size and the max plaintext
+     * size of a SSL record.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    private final File mFile;
+    private final int mChunkSize;
+    private final long mLength;
+
+    private ByteBuffer mMappedBuffer;
+    private FileInputStream mInput;
+    private FileChannel mChannel;
+
+    private long mPosition;
+
+    /**
+     * Constructs a stream by a file with the {@link #DEFAULT_CHUNK_SIZE}.
+     *
+     * @param file A file.
+     * @throws IOException If the file is not readable.
+     */
+    public FileStream(@NonNull File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a stream by a file.
+     *
+     * @param file A file.
+     * @param chunkSize The max size of the buffer returned by {@link #nextChunk()}.
+     * @throws IOException If the file is not readable.
+     */
+    public FileStream(@NonNull File file, int chunkSize) throws IOException {
+        if (!file.isFile() || !file.canRead()) {
+            throw new IOException("Can not read file: " + file);
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Illegal chunk size: " + chunkSize);
+        }
+        this.mFile = file;
+        this.mChunkSize = chunkSize;
+        this.mLength = file.length();
+    }
+
+    /**
+     * Returns the total length of the file.
+     *
+     * @return The file length.
+     */
+    public long length() {
+        return mLength;
+    }
+
+    /**
+     * Whether there are more chunks to be output.
+     *
+     * @return True if {@link #nextChunk()} will return more data.
+     */
+    public boolean hasRemaining() {
+        return mPosition < mLength;
+    }
+
+    /**
+     * Reads the next chunk of the file, the size of the returned buffer is no larger than the
+     * chunk size. For memory mapped files the chunk is a read-only direct slice of the mapping and
+     * nothing is copied, it has no accessible {@link ByteBuffer#array()} and can't be written,
+     * otherwise it is a heap buffer. Copy the chunk before handing it to code that needs an array,
+     * the HTTP injector callbacks do so. The stream is closed automatically after the last chunk
+     * is read.
+     *
+     * @return A buffer contains the next chunk, or an empty buffer if there is no data.
+     * @throws IOException If an I/O error has occurred.
+     */
+    @NonNull
+    public ByteBuffer nextChunk() throws IOException {
+        if (!hasRemaining()) {
+            close();
+            return ByteBuffer.allocate(0);
+        }
+        int size = (int) Math.min(mChunkSize, mLength - mPosition);
+        ByteBuffer chunk;
+        if (isMapped()) {
+            ByteBuffer src = mappedBuffer();
+            src.limit((int) mPosition + size);
+            src.position((int) mPosition);
+            chunk = src.slice();
+        } else {
+            chunk = ByteBuffer.allocate(size);
+            read(chunk);
+            chunk.flip();
+        }
+        mPosition += size;
+        if (!hasRemaining()) {
+            close();
+        }
+        return chunk;
+    }
+
+    /**
+     * Reads all the remaining data into one buffer, this may cost a lot of memory for large
+     * files, consider using {@link #nextChunk()} instead.
+     *
+     * @return A heap buffer contains the remaining data.
+     */
+    @NonNull
+    @Override
+    public ByteBuffer toBuffer() {
+        long remaining = mLength - mPosition;
+        if (remaining > Integer.MAX_VALUE) {
+            NetBareLog.e("File is too large to load into memory: " + mFile);
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer byteBuffer = ByteBuffer.allocate((int) remaining);
+        try {
+            read(byteBuffer);
+            mPosition += byteBuffer.position();
+            byteBuffer.flip();
+        } catch (IOException e) {
+            byteBuffer = ByteBuffer.allocate(0);
+        } finally {
+            close();
+        }
+        return byteBuffer;
+    }
+
+    @Override
+    public void close() {
+        NetBareUtils.closeQuietly(mChannel);
+        NetBareUtils.closeQuietly(mInput);
+        mChannel = null;
+        mInput = null;
+        mMappedBuffer = null;
+    }
+
+    private boolean isMapped() {
+        return mLength <= MappedFileCache.MAX_MAPPED_LENGTH;
+    }
+
+    private ByteBuffer mappedBuffer() throws IOException {
+        if (mMappedBuffer == null) {
+            mMappedBuffer = MappedFileCache.map(mFile);
+        }
+        return mMappedBuffer;
+    }
+
+    private void read(ByteBuffer dst) throws IOException {
+        if (isMapped()) {
+            ByteBuffer src = mappedBuffer();
+            src.limit((int) mPosition + dst.remaining());
+            src.position((int) mPosition);
+            dst.put(src);
+        } else {
+            if (mChannel == null) {
+                mInput = new FileInputStream(mFile);
+                mChannel = mInput.getChannel();
+            }
+            long position = mPosition;
+            while (dst.hasRemaining()) {
+                int read = mChannel.read(dst, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file: " + mFile);
+                }
+                position += read;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.stream;
+
+import com.github.megatronking.netbare.NetBareUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process wide cache of read-only memory mapped files, repeated mocks of the same file share
+ * one mapping. A cached mapping is dropped once the file's length or modified time changes, and
+ * the least recently used mappings are released when the total mapped size exceeds
+ * {@link #MAX_CACHED_LENGTH}.
+ *
+ * @author Megatron King
+ * @since 2019-04-02 20:16
+ */
+/* package */ final class MappedFileCache {
+
+    /**
+     * The max length of a single file that can be mapped.
+     */
+    /* package */ static final long MAX_MAPPED_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * The max total length of all cached mappings.
+     */
+    private static final long MAX_CACHED_LENGTH = 256 * 1024 * 1024;
+
+    private static final Map<String, Entry> sEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static long sCachedLength;
+
+    private MappedFileCache() {
+    }
+
+    /**
+     * Returns a read-only mapping of the file, the returned buffer is a duplicate so callers can
+     * move its position freely.
+     *
+     * @param file A file no larger than {@link #MAX_MAPPED_LENGTH}.
+     * @return A read-only mapped buffer.
+     * @throws IOException If the file can not be mapped.
+     */
+    /* package */ static ByteBuffer map(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        synchronized (sEntries) {
+            Entry entry = sEntries.get(path);
+            if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+                return entry.buffer.duplicate();
+            }
+            if (entry != null) {
+                sEntries.remove(path);
+                sCachedLength -= entry.length;
+            }
+        }
+        MappedByteBuffer buffer = mapFile(file, length);
+        synchronized (sEntries) {
+            Entry old = sEntries.put(path, new Entry(buffer, length, lastModified));
+            if (old != null) {
+                sCachedLength -= old.length;
+            }
+            sCachedLength += length;
+            trimToSize();
+        }
+        return buffer.duplicate();
+    }
+
+    private static MappedByteBuffer mapFile(File file, long length) throws IOException {
+        RandomAccessFile raf = null;
+        FileChannel channel = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            NetBareUtils.closeQuietly(channel);
+            NetBareUtils.closeQuietly(raf);
+        }
+    }
+
+    private static void trimToSize() {
+        Iterator<Entry> iterator = sEntries.values().iterator();
+        while (sCachedLength > MAX_CACHED_LENGTH && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            // Keep at least the newest mapping.
+            if (sEntries.size() == 1) {
+                break;
+            }
+            iterator.remove();
+            sCachedLength -= eldest.length;
+        }
+    }
+
+    private static final class Entry {
+
+        private final MappedByteBuffer buffer;
+        private final long length;
+        private final long lastModified;
+
+        private Entry(MappedByteBuffer buffer, long length, long lastModified) {
+            this.buffer = buffer;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+    }
+
+}
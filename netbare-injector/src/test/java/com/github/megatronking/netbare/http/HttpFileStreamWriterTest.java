@@ -0,0 +1,99 @@
+/*  NetBare - An android network capture and injection library.
+ *  Copyright (C) 2018-2019 Megatron King
+ *  Copyright (C) 2018-2019 GuoShi
+ *
+ *  NetBare is free software: you can redistribute it and/or modify it under the terms
+ *  of the GNU General Public License as published by the Free Software Found-
+ *  ation, either version 3 of the License, or (at your option) any later version.
+ *
+ *  NetBare is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ *  PURPOSE. See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with NetBare.
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.megatronking.netbare.http;
+
+import com.github.megatronking.netbare.gateway.Interceptor;
+import com.github.megatronking.netbare.gateway.InterceptorChain;
+import com.github.megatronking.netbare.gateway.Request;
+import com.github.megatronking.netbare.stream.FileStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of {@link HttpFileStreamWriter}.
+ *
+ * @author Megatron King
+ * @since 2019-04-22 15:10
+ */
+public class HttpFileStreamWriterTest {
+
+    private static final String CONTENT = "The quick brown fox jumps over the lazy dog.";
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("netbare", ".txt");
+        FileOutputStream output = new FileOutputStream(mFile);
+        try {
+            output.write(CONTENT.getBytes());
+        } finally {
+            output.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void mappedChunkIsReadOnly() throws IOException {
+        FileStream stream = new FileStream(mFile, 8);
+        ByteBuffer chunk = stream.nextChunk();
+        assertTrue(chunk.isReadOnly());
+        assertFalse(chunk.hasArray());
+        stream.close();
+    }
+
+    @Test
+    public void mappedChunksReachInterceptorWithArray() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        List<Interceptor> interceptors = Collections.singletonList(null);
+        InterceptorChain<Request, Interceptor> chain =
+                new InterceptorChain<Request, Interceptor>(new Request(), interceptors) {
+                    @Override
+                    protected void processNext(ByteBuffer buffer, Request flow,
+                                               List<Interceptor> interceptors, int index,
+                                               Object tag) {
+                        // Interceptors read the array and modify the buffer in place.
+                        assertTrue(buffer.hasArray());
+                        output.write(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                                buffer.remaining());
+                        buffer.put(buffer.position(), (byte) '*');
+                    }
+                };
+        FileStream stream = new FileStream(mFile, 8);
+        new HttpFileStreamWriter(chain, new Request(), stream).start();
+        assertFalse(stream.hasRemaining());
+        assertEquals(CONTENT, output.toString());
+    }
+
+}